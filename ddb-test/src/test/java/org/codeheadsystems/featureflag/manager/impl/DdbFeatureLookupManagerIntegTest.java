@@ -1,9 +1,12 @@
 package org.codeheadsystems.featureflag.manager.impl;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 import com.codeheadsystems.test.datastore.DataStore;
 import com.codeheadsystems.test.datastore.DynamoDbExtension;
 import org.codeheadsystems.featureflag.manager.FeatureLookupManager;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 
@@ -20,6 +23,9 @@ class DdbFeatureLookupManagerIntegTest extends FeatureLookupManagerIntegTest {
     if (!ddbControlPlane.isTableSetupCorrectly()) {
       ddbControlPlane.setupTable();
     }
+    if (!ddbControlPlane.isIdListTableSetupCorrectly()) {
+      ddbControlPlane.setupIdListTable();
+    }
   }
 
   @Override
@@ -27,4 +33,27 @@ class DdbFeatureLookupManagerIntegTest extends FeatureLookupManagerIntegTest {
     return new DdbFeatureLookupManager(DB_CONFIGURATION, dbClient);
   }
 
+  /**
+   * A deployment set up before id lists has no id list table, and keeps working without one.
+   */
+  @Test
+  void withoutIdListTable() {
+    final DynamoDbConfiguration configuration = ImmutableDynamoDbConfiguration.builder().tableName("no_id_lists").build();
+    final DdbControlPlane ddbControlPlane = new DdbControlPlane(configuration, dbClient);
+    ddbControlPlane.setupTable();
+    assertThat(ddbControlPlane.doesTableExist()).isTrue();
+    assertThat(ddbControlPlane.isTableSetupCorrectly()).isTrue();
+    assertThat(ddbControlPlane.doesIdListTableExist()).isFalse();
+    assertThat(configuration.idListTableName()).isEqualTo("no_id_lists_id");
+
+    final DdbFeatureLookupManager manager = new DdbFeatureLookupManager(configuration, dbClient);
+    manager.setPercentage("featureId", 0.5);
+    assertThat(manager.lookupFeature("featureId"))
+        .hasValueSatisfying(record -> assertThat(record.hasIdList()).isFalse());
+    assertThat(manager.lookupIdList("featureId")).isEmpty();
+    manager.deleteIdList("featureId");
+    manager.deletePercentage("featureId");
+    assertThat(manager.lookupPercentage("featureId")).isEmpty();
+  }
+
 }
\ No newline at end of file
@@ -41,41 +41,64 @@ public class DdbControlPlane {
   /**
    * Describe table optional.
    *
+   * @param tableName the table name.
    * @return the value if its created.
    */
-  private Optional<DescribeTableResponse> describeTable() {
-    LOGGER.info("describeTable()");
+  private Optional<DescribeTableResponse> describeTable(final String tableName) {
+    LOGGER.info("describeTable({})", tableName);
     try {
-      final DescribeTableRequest request = getDescribeTableRequest();
+      final DescribeTableRequest request = getDescribeTableRequest(tableName);
       return Optional.of(dbClient.describeTable(request));
     } catch (ResourceNotFoundException e) {
-      LOGGER.info("describeTable() -> not found");
+      LOGGER.info("describeTable({}) -> not found", tableName);
       return Optional.empty();
     }
   }
 
-  private DescribeTableRequest getDescribeTableRequest() {
+  private DescribeTableRequest getDescribeTableRequest(final String tableName) {
     return DescribeTableRequest.builder()
-        .tableName(dbConfiguration.tableName())
+        .tableName(tableName)
         .build();
   }
 
   /**
-   * Does table exist boolean.
+   * Does table exist boolean, for the feature table.
    *
    * @return the boolean
    */
   public boolean doesTableExist() {
-    return describeTable().isPresent();
+    return describeTable(dbConfiguration.tableName()).isPresent();
   }
 
   /**
-   * Is table setup correctly boolean.
+   * Is table setup correctly boolean, for the feature table.
    *
    * @return the boolean
    */
   public boolean isTableSetupCorrectly() {
-    return describeTable().map(response -> {
+    return isTableSetupCorrectly(dbConfiguration.tableName());
+  }
+
+  /**
+   * Does the id list table exist. Only deployments that keep id lists need it.
+   *
+   * @return the boolean
+   */
+  public boolean doesIdListTableExist() {
+    return describeTable(dbConfiguration.idListTableName()).isPresent();
+  }
+
+  /**
+   * Is the id list table setup correctly.
+   *
+   * @return the boolean
+   */
+  public boolean isIdListTableSetupCorrectly() {
+    return isTableSetupCorrectly(dbConfiguration.idListTableName());
+  }
+
+  private boolean isTableSetupCorrectly(final String tableName) {
+    return describeTable(tableName).map(response -> {
       final List<KeySchemaElement> keySchema = response.table().keySchema();
       return keySchema.size() == 1
           && keySchema.get(0).attributeName().equals(dbConfiguration.featureHashColumn());
@@ -83,13 +106,25 @@ public class DdbControlPlane {
   }
 
   /**
-   * Sets table.
+   * Sets table. Creates the feature table if it does not exist.
    */
   public void setupTable() {
     LOGGER.info("setupTable()");
-    final Optional<DescribeTableResponse> response = describeTable();
+    setupTable(dbConfiguration.tableName());
+  }
+
+  /**
+   * Sets up the id list table, creating it if it does not exist. Call this before storing id lists.
+   */
+  public void setupIdListTable() {
+    LOGGER.info("setupIdListTable()");
+    setupTable(dbConfiguration.idListTableName());
+  }
+
+  private void setupTable(final String tableName) {
+    final Optional<DescribeTableResponse> response = describeTable(tableName);
     if (response.isEmpty()) {
-      LOGGER.info("Table does not exist, creating");
+      LOGGER.info("Table {} does not exist, creating", tableName);
       final AttributeDefinition hashKeyDefinition = AttributeDefinition.builder()
           .attributeName(dbConfiguration.featureHashColumn())
           .attributeType("S")
@@ -99,20 +134,20 @@ public class DdbControlPlane {
           .keyType(KeyType.HASH)
           .build();
       final CreateTableRequest request = CreateTableRequest.builder()
-          .tableName(dbConfiguration.tableName())
+          .tableName(tableName)
           .keySchema(List.of(hashKey))
           .attributeDefinitions(List.of(hashKeyDefinition))
           .billingMode(BillingMode.PAY_PER_REQUEST)
           .build();
       dbClient.createTable(request);
-      LOGGER.info("Waiting for table to finish creating");
+      LOGGER.info("Waiting for table {} to finish creating", tableName);
       dbClient.waiter().waitUntilTableExists(
-          getDescribeTableRequest(),
+          getDescribeTableRequest(tableName),
           WaiterOverrideConfiguration.builder()
               .waitTimeout(Duration.ofSeconds(5))
               .build());
     } else {
-      LOGGER.info("Table already exists");
+      LOGGER.info("Table {} already exists", tableName);
     }
   }
 
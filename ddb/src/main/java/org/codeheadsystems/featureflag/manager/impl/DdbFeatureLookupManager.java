@@ -1,78 +1,490 @@
 package org.codeheadsystems.featureflag.manager.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
 import org.codeheadsystems.featureflag.manager.FeatureLookupManager;
+import org.codeheadsystems.featureflag.manager.IdListLookupManager;
+import org.codeheadsystems.featureflag.manager.VariantLookupManager;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
+import org.codeheadsystems.featureflag.model.Variant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 
 /**
- * The type Ddb feature lookup manager.
+ * The type Ddb feature lookup manager. Id lists are kept in their own table as items keyed by the
+ * feature id, {@value #ID_LIST_KEY} and the chunk number, each holding a chunk of packed hashes,
+ * and the feature's item is marked while it has one. The id list table is only read for marked
+ * features, so deployments without id lists do not need it. Variants are kept on the feature's own
+ * item, so lookupFeature() gets them in the same get as the percentage, and lookupFeatures() in
+ * the same batch gets.
  */
-public class DdbFeatureLookupManager implements FeatureLookupManager {
+public class DdbFeatureLookupManager implements FeatureLookupManager, IdListLookupManager, VariantLookupManager {
+
+  /**
+   * The most keys DynamoDB accepts in one BatchGetItem call.
+   */
+  public static final int BATCH_GET_LIMIT = 100;
+
+  /**
+   * The most times a batch's unprocessed keys are retried before lookupPercentages gives up.
+   */
+  public static final int BATCH_GET_MAX_RETRIES = 8;
+
+  /**
+   * The most ids in one id list item: 360KiB, under DynamoDB's 400KiB item limit.
+   */
+  public static final int IDS_PER_CHUNK = 46_080;
+
+  /**
+   * Separates the feature id from the chunk number in an id list item's key.
+   */
+  public static final String ID_LIST_KEY = "#ids#";
 
   private static final Logger LOGGER = LoggerFactory.getLogger(DdbFeatureLookupManager.class);
+  private static final String PROJECTION = "#id, #percentage";
+  private static final String FEATURE_PROJECTION = PROJECTION + ", #marker, #variants";
+  private static final long BACKOFF_BASE_MILLIS = 25;
+  private static final long BACKOFF_MAX_MILLIS = 2_000;
 
   private final DynamoDbConfiguration dbConfiguration;
   private final DynamoDbClient dbClient;
+  private final DynamoDbAsyncClient dbAsyncClient;
 
   /**
-   * Instantiates a new Ddb feature lookup manager.
+   * Instantiates a new Ddb feature lookup manager. Async lookups run the sync client on the
+   * executor they are given.
    *
    * @param dbConfiguration the db configuration
    * @param dbClient        the db client
    */
   public DdbFeatureLookupManager(final DynamoDbConfiguration dbConfiguration,
                                  final DynamoDbClient dbClient) {
-    LOGGER.info("DdbFeatureLookupManager({}, {})", dbConfiguration, dbClient);
+    this(dbConfiguration, dbClient, null);
+  }
+
+  /**
+   * Instantiates a new Ddb feature lookup manager that uses the async client for async lookups.
+   *
+   * @param dbConfiguration the db configuration
+   * @param dbClient        the db client
+   * @param dbAsyncClient   the async db client, or null to use the db client for async lookups.
+   */
+  public DdbFeatureLookupManager(final DynamoDbConfiguration dbConfiguration,
+                                 final DynamoDbClient dbClient,
+                                 final DynamoDbAsyncClient dbAsyncClient) {
+    LOGGER.info("DdbFeatureLookupManager({}, {}, {})", dbConfiguration, dbClient, dbAsyncClient);
     this.dbConfiguration = dbConfiguration;
     this.dbClient = dbClient;
+    this.dbAsyncClient = dbAsyncClient;
   }
 
   @Override
   public Optional<Double> lookupPercentage(final String featureId) {
     LOGGER.trace("lookupPercentage({})", featureId);
-    final GetItemRequest request = GetItemRequest.builder()
-        .key(getHashLookup(featureId))
-        .attributesToGet(dbConfiguration.percentageColumn())
+    return toPercentage(dbClient.getItem(getItemRequest(featureId)).item());
+  }
+
+  @Override
+  public CompletableFuture<Optional<Double>> lookupPercentageAsync(final String featureId, final Executor executor) {
+    if (dbAsyncClient == null) {
+      return FeatureLookupManager.super.lookupPercentageAsync(featureId, executor);
+    }
+    LOGGER.trace("lookupPercentageAsync({})", featureId);
+    return dbAsyncClient.getItem(getItemRequest(featureId))
+        .thenApply(response -> toPercentage(response.item()));
+  }
+
+  /**
+   * Lookup the feature's item, with its id list marker and variants, in one get.
+   *
+   * @param featureId the feature id
+   * @return the record, or empty if the feature was not found.
+   */
+  @Override
+  public Optional<FeatureRecord> lookupFeature(final String featureId) {
+    LOGGER.trace("lookupFeature({})", featureId);
+    return toRecord(dbClient.getItem(getFeatureItemRequest(featureId)).item());
+  }
+
+  @Override
+  public CompletableFuture<Optional<FeatureRecord>> lookupFeatureAsync(final String featureId, final Executor executor) {
+    if (dbAsyncClient == null) {
+      return CompletableFuture.supplyAsync(() -> lookupFeature(featureId), executor);
+    }
+    LOGGER.trace("lookupFeatureAsync({})", featureId);
+    return dbAsyncClient.getItem(getFeatureItemRequest(featureId))
+        .thenApply(response -> toRecord(response.item()));
+  }
+
+  @Override
+  public Map<String, Double> lookupPercentages(final Collection<String> featureIds) {
+    LOGGER.trace("lookupPercentages({})", featureIds.size());
+    final Map<String, Double> result = new HashMap<>();
+    batchGet(featureIds, PROJECTION, projectionNames(), item -> addPercentage(result, item));
+    return result;
+  }
+
+  /**
+   * Lookup the features' items, with their id list markers and variants, with one batch get per
+   * {@link #BATCH_GET_LIMIT} features.
+   *
+   * @param featureIds the feature ids
+   * @return the records found
+   */
+  @Override
+  public Map<String, FeatureRecord> lookupFeatures(final Collection<String> featureIds) {
+    LOGGER.trace("lookupFeatures({})", featureIds.size());
+    final Map<String, String> names = new HashMap<>(projectionNames());
+    names.put("#marker", dbConfiguration.idListMarkerColumn());
+    names.put("#variants", dbConfiguration.variantsColumn());
+    final Map<String, FeatureRecord> result = new HashMap<>();
+    batchGet(featureIds, FEATURE_PROJECTION, names, item -> toRecord(item).ifPresent(record ->
+        result.put(item.get(dbConfiguration.featureHashColumn()).s(), record)));
+    return result;
+  }
+
+  /**
+   * Get the features' items with one batch get per {@link #BATCH_GET_LIMIT} features, retrying
+   * unprocessed keys with backoff.
+   */
+  private void batchGet(final Collection<String> featureIds,
+                        final String projection,
+                        final Map<String, String> names,
+                        final Consumer<Map<String, AttributeValue>> consumer) {
+    final List<Map<String, AttributeValue>> keys = new ArrayList<>();
+    for (String featureId : new LinkedHashSet<>(featureIds)) { // duplicate keys fail the batch.
+      keys.add(getHashLookup(featureId));
+    }
+    for (int start = 0; start < keys.size(); start += BATCH_GET_LIMIT) {
+      Map<String, KeysAndAttributes> requestItems = Map.of(
+          dbConfiguration.tableName(),
+          KeysAndAttributes.builder()
+              .keys(keys.subList(start, Math.min(start + BATCH_GET_LIMIT, keys.size())))
+              .projectionExpression(projection)
+              .expressionAttributeNames(names)
+              .build());
+      for (int attempt = 0; !requestItems.isEmpty(); attempt++) {
+        if (attempt > 0) {
+          backoff(attempt);
+        }
+        final BatchGetItemResponse response = dbClient.batchGetItem(
+            BatchGetItemRequest.builder().requestItems(requestItems).build());
+        response.responses().getOrDefault(dbConfiguration.tableName(), List.of()).forEach(consumer);
+        requestItems = response.unprocessedKeys();
+      }
+    }
+  }
+
+  @Override
+  public Map<String, Double> lookupAll() {
+    LOGGER.trace("lookupAll()");
+    final ScanRequest request = ScanRequest.builder()
         .tableName(dbConfiguration.tableName())
+        .projectionExpression(PROJECTION)
+        .expressionAttributeNames(projectionNames())
         .build();
-    final Map<String, AttributeValue> returnedItem = dbClient.getItem(request).item();
-    if (returnedItem.containsKey(dbConfiguration.percentageColumn())) {
-      return Optional.of(Double.parseDouble(returnedItem.get(dbConfiguration.percentageColumn()).n()));
-    } else {
-      return Optional.empty();
-    }
+    final Map<String, Double> result = new HashMap<>();
+    dbClient.scanPaginator(request).items().forEach(item -> addPercentage(result, item));
+    return result;
   }
 
+  /**
+   * Sets percentage, with an update so the item keeps any variants it has.
+   *
+   * @param featureId  the feature id
+   * @param percentage the percentage
+   * @return true
+   */
   @Override
   public boolean setPercentage(final String featureId, final double percentage) {
     LOGGER.trace("setPercentage({}, {})", featureId, percentage);
-    final PutItemRequest request = PutItemRequest.builder()
-        .item(Map.of(
-            dbConfiguration.featureHashColumn(),
-            AttributeValue.builder().s(featureId).build(),
-            dbConfiguration.percentageColumn(),
-            AttributeValue.builder().n(Double.toString(percentage)).build()))
+    final UpdateItemRequest request = UpdateItemRequest.builder()
+        .key(getHashLookup(featureId))
+        .updateExpression("SET #percentage = :percentage")
+        .expressionAttributeNames(Map.of("#percentage", dbConfiguration.percentageColumn()))
+        .expressionAttributeValues(Map.of(":percentage", AttributeValue.builder().n(Double.toString(percentage)).build()))
         .tableName(dbConfiguration.tableName())
         .build();
-    dbClient.putItem(request);
+    dbClient.updateItem(request);
     return true;
   }
 
+  /**
+   * Delete percentage, with the feature's item. Its id list goes too if the item was marked as
+   * having one.
+   *
+   * @param featureId the feature id
+   */
   @Override
   public void deletePercentage(final String featureId) {
     LOGGER.trace("deletePercentage({})", featureId);
     final DeleteItemRequest request = DeleteItemRequest.builder()
         .key(getHashLookup(featureId))
+        .returnValues(ReturnValue.ALL_OLD)
+        .tableName(dbConfiguration.tableName())
+        .build();
+    final Map<String, AttributeValue> deleted = dbClient.deleteItem(request).attributes();
+    if (deleted != null && isMarked(deleted)) {
+      deleteIdListFrom(featureId, 0);
+    }
+  }
+
+  /**
+   * Lookup the feature's id list, one get per chunk until a chunk is missing. Empty if there is no
+   * id list table.
+   *
+   * @param featureId the feature id
+   * @return the ids, or empty if the feature has no id list.
+   */
+  @Override
+  public Optional<HashedIdSet> lookupIdList(final String featureId) {
+    LOGGER.trace("lookupIdList({})", featureId);
+    HashedIdSet.Builder builder = null;
+    for (int chunk = 0; ; chunk++) {
+      final Map<String, AttributeValue> item;
+      try {
+        item = dbClient.getItem(GetItemRequest.builder()
+            .key(getHashLookup(idListKey(featureId, chunk)))
+            .attributesToGet(dbConfiguration.idListColumn())
+            .tableName(dbConfiguration.idListTableName())
+            .build()).item();
+      } catch (ResourceNotFoundException e) {
+        LOGGER.warn("No id list table {}, so no id list for {}", dbConfiguration.idListTableName(), featureId);
+        return Optional.empty();
+      }
+      final AttributeValue ids = item == null ? null : item.get(dbConfiguration.idListColumn());
+      if (ids == null) {
+        return Optional.ofNullable(builder).map(HashedIdSet.Builder::build);
+      }
+      if (builder == null) {
+        builder = HashedIdSet.builder(IDS_PER_CHUNK);
+      }
+      builder.addChunk(ids.b().asByteArrayUnsafe());
+    }
+  }
+
+  /**
+   * Sets the feature's id list. The chunks are written one put at a time and then any chunks left
+   * from a longer list are deleted, so a lookup during the write can see old and new chunks mixed.
+   * The feature's item is marked once the chunks are written.
+   *
+   * @param featureId the feature id
+   * @param ids       the ids
+   */
+  @Override
+  public void setIdList(final String featureId, final Collection<String> ids) {
+    LOGGER.trace("setIdList({}, {})", featureId, ids.size());
+    final List<byte[]> chunks = HashedIdSet.of(ids).toChunks(IDS_PER_CHUNK);
+    for (int chunk = 0; chunk < chunks.size(); chunk++) {
+      dbClient.putItem(PutItemRequest.builder()
+          .item(Map.of(
+              dbConfiguration.featureHashColumn(),
+              AttributeValue.builder().s(idListKey(featureId, chunk)).build(),
+              dbConfiguration.idListColumn(),
+              AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(chunks.get(chunk))).build()))
+          .tableName(dbConfiguration.idListTableName())
+          .build());
+    }
+    deleteIdListFrom(featureId, chunks.size());
+    dbClient.updateItem(UpdateItemRequest.builder()
+        .key(getHashLookup(featureId))
+        .updateExpression("SET #marker = :marker")
+        .expressionAttributeNames(Map.of("#marker", dbConfiguration.idListMarkerColumn()))
+        .expressionAttributeValues(Map.of(":marker", AttributeValue.builder().bool(true).build()))
+        .tableName(dbConfiguration.tableName())
+        .build());
+  }
+
+  /**
+   * Delete the feature's id list, unmarking its item before the chunks are deleted. Nothing to
+   * delete if there is no id list table.
+   *
+   * @param featureId the feature id
+   */
+  @Override
+  public void deleteIdList(final String featureId) {
+    LOGGER.trace("deleteIdList({})", featureId);
+    try {
+      dbClient.updateItem(UpdateItemRequest.builder()
+          .key(getHashLookup(featureId))
+          .updateExpression("REMOVE #marker")
+          .conditionExpression("attribute_exists(#id)")
+          .expressionAttributeNames(Map.of(
+              "#id", dbConfiguration.featureHashColumn(),
+              "#marker", dbConfiguration.idListMarkerColumn()))
+          .tableName(dbConfiguration.tableName())
+          .build());
+    } catch (ConditionalCheckFailedException e) {
+      LOGGER.trace("deleteIdList({}): no such feature", featureId);
+    }
+    deleteIdListFrom(featureId, 0);
+  }
+
+  @Override
+  public Optional<List<Variant>> lookupVariants(final String featureId) {
+    LOGGER.trace("lookupVariants({})", featureId);
+    final Map<String, AttributeValue> item = dbClient.getItem(GetItemRequest.builder()
+        .key(getHashLookup(featureId))
+        .attributesToGet(dbConfiguration.variantsColumn())
+        .tableName(dbConfiguration.tableName())
+        .build()).item();
+    return Optional.ofNullable(item == null ? null : item.get(dbConfiguration.variantsColumn()))
+        .map(variants -> VariantLookupManager.decode(variants.s()));
+  }
+
+  @Override
+  public boolean setVariants(final String featureId, final List<Variant> variants) {
+    LOGGER.trace("setVariants({}, {})", featureId, variants);
+    dbClient.updateItem(UpdateItemRequest.builder()
+        .key(getHashLookup(featureId))
+        .updateExpression("SET #variants = :variants")
+        .expressionAttributeNames(Map.of("#variants", dbConfiguration.variantsColumn()))
+        .expressionAttributeValues(Map.of(":variants", AttributeValue.builder().s(VariantLookupManager.encode(variants)).build()))
+        .tableName(dbConfiguration.tableName())
+        .build());
+    return true;
+  }
+
+  @Override
+  public void deleteVariants(final String featureId) {
+    LOGGER.trace("deleteVariants({})", featureId);
+    try {
+      dbClient.updateItem(UpdateItemRequest.builder()
+          .key(getHashLookup(featureId))
+          .updateExpression("REMOVE #variants")
+          .conditionExpression("attribute_exists(#id)")
+          .expressionAttributeNames(Map.of(
+              "#id", dbConfiguration.featureHashColumn(),
+              "#variants", dbConfiguration.variantsColumn()))
+          .tableName(dbConfiguration.tableName())
+          .build());
+    } catch (ConditionalCheckFailedException e) {
+      LOGGER.trace("deleteVariants({}): no such feature", featureId);
+    }
+  }
+
+  private void deleteIdListFrom(final String featureId, final int firstChunk) {
+    for (int chunk = firstChunk; ; chunk++) {
+      final Map<String, AttributeValue> deleted;
+      try {
+        deleted = dbClient.deleteItem(DeleteItemRequest.builder()
+            .key(getHashLookup(idListKey(featureId, chunk)))
+            .returnValues(ReturnValue.ALL_OLD)
+            .tableName(dbConfiguration.idListTableName())
+            .build()).attributes();
+      } catch (ResourceNotFoundException e) {
+        LOGGER.warn("No id list table {}, nothing to delete for {}", dbConfiguration.idListTableName(), featureId);
+        return;
+      }
+      if (deleted == null || deleted.isEmpty()) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Wait before retrying unprocessed keys, which DynamoDB returns when the table is throttled.
+   * Full jitter over an exponentially growing window, as the AWS SDK retries do, so throttled
+   * clients spread out instead of retrying together.
+   */
+  private void backoff(final int attempt) {
+    if (attempt > BATCH_GET_MAX_RETRIES) {
+      throw new IllegalStateException("BatchGetItem still has unprocessed keys after " + BATCH_GET_MAX_RETRIES + " retries");
+    }
+    final long window = Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << (attempt - 1));
+    final long sleepMillis = ThreadLocalRandom.current().nextLong(window + 1);
+    LOGGER.debug("backoff({}) -> {}ms", attempt, sleepMillis);
+    try {
+      Thread.sleep(sleepMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted retrying unprocessed keys", e);
+    }
+  }
+
+  private String idListKey(final String featureId, final int chunk) {
+    return featureId + ID_LIST_KEY + chunk;
+  }
+
+  private GetItemRequest getItemRequest(final String featureId) {
+    return GetItemRequest.builder()
+        .key(getHashLookup(featureId))
+        .attributesToGet(dbConfiguration.percentageColumn())
+        .tableName(dbConfiguration.tableName())
+        .build();
+  }
+
+  private GetItemRequest getFeatureItemRequest(final String featureId) {
+    return GetItemRequest.builder()
+        .key(getHashLookup(featureId))
+        .attributesToGet(dbConfiguration.percentageColumn(), dbConfiguration.idListMarkerColumn(),
+            dbConfiguration.variantsColumn())
         .tableName(dbConfiguration.tableName())
         .build();
-    dbClient.deleteItem(request);
+  }
+
+  private boolean isMarked(final Map<String, AttributeValue> item) {
+    final AttributeValue marker = item.get(dbConfiguration.idListMarkerColumn());
+    return marker != null && Boolean.TRUE.equals(marker.bool());
+  }
+
+  private Optional<FeatureRecord> toRecord(final Map<String, AttributeValue> returnedItem) {
+    final Optional<List<Variant>> variants = Optional.ofNullable(returnedItem.get(dbConfiguration.variantsColumn()))
+        .map(value -> VariantLookupManager.decode(value.s()));
+    return toPercentage(returnedItem).map(percentage -> ImmutableFeatureRecord.builder()
+        .percentage(percentage)
+        .complete(true)
+        .hasIdList(isMarked(returnedItem))
+        .variants(variants)
+        .build());
+  }
+
+  private Optional<Double> toPercentage(final Map<String, AttributeValue> returnedItem) {
+    if (returnedItem.containsKey(dbConfiguration.percentageColumn())) {
+      return Optional.of(Double.parseDouble(returnedItem.get(dbConfiguration.percentageColumn()).n()));
+    } else {
+      return Optional.empty();
+    }
+  }
+
+  private Map<String, String> projectionNames() {
+    return Map.of(
+        "#id", dbConfiguration.featureHashColumn(),
+        "#percentage", dbConfiguration.percentageColumn());
+  }
+
+  private void addPercentage(final Map<String, Double> result, final Map<String, AttributeValue> item) {
+    final AttributeValue featureId = item.get(dbConfiguration.featureHashColumn());
+    final AttributeValue percentage = item.get(dbConfiguration.percentageColumn());
+    if (featureId != null && percentage != null) {
+      result.put(featureId.s(), Double.parseDouble(percentage.n()));
+    }
   }
 
   private Map<String, AttributeValue> getHashLookup(final String featureId) {
@@ -38,4 +38,46 @@ public interface DynamoDbConfiguration {
     return "percentage";
   }
 
+  /**
+   * Id list table name string. Id lists are kept apart from the features so a scan of the feature
+   * table never reads them. Defaults to the table name with "_id" added. Deployments that keep no
+   * id lists do not need this table.
+   *
+   * @return the string
+   */
+  @Value.Default
+  default String idListTableName() {
+    return tableName() + "_id";
+  }
+
+  /**
+   * Id list marker column string, set on a feature's item while it has an id list.
+   *
+   * @return the string
+   */
+  @Value.Default
+  default String idListMarkerColumn() {
+    return "has_ids";
+  }
+
+  /**
+   * Id list column string, the binary column in the id list table holding a chunk of a feature's id list.
+   *
+   * @return the string
+   */
+  @Value.Default
+  default String idListColumn() {
+    return "ids";
+  }
+
+  /**
+   * Variants column string, holding a multivariate feature's encoded variants on its item.
+   *
+   * @return the string
+   */
+  @Value.Default
+  default String variantsColumn() {
+    return "variants";
+  }
+
 }
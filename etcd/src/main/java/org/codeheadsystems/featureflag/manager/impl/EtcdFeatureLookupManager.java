@@ -4,30 +4,72 @@ import io.etcd.jetcd.ByteSequence;
 import io.etcd.jetcd.Client;
 import io.etcd.jetcd.KeyValue;
 import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.kv.TxnResponse;
+import io.etcd.jetcd.op.Op;
+import io.etcd.jetcd.options.GetOption;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
 import org.codeheadsystems.featureflag.manager.FeatureLookupManager;
+import org.codeheadsystems.featureflag.manager.IdListLookupManager;
+import org.codeheadsystems.featureflag.manager.VariantLookupManager;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
+import org.codeheadsystems.featureflag.model.Variant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The type Etcd feature lookup manager.
+ * The type Etcd feature lookup manager. Id lists, as chunks of packed hashes, and variants, as
+ * their encoded string, are kept under their own prefixes next to the percentages, so the watcher
+ * and lookupAll() never see them and older clients can still parse every percentage. Changes to
+ * them are picked up when the feature next refreshes. lookupFeature() checks for the feature's
+ * first id list chunk and gets its variants in the same transaction as its percentage; the check
+ * stands in for a marker on the row. Chunk keys are the feature id, a slash and eight digits, so
+ * the chunks of a feature id containing a slash are told apart by their length. lookupFeatures()
+ * does the same for many features, a transaction at a time.
  */
-public class EtcdFeatureLookupManager implements FeatureLookupManager {
+public class EtcdFeatureLookupManager implements FeatureLookupManager, IdListLookupManager, VariantLookupManager {
 
   /**
    * The constant NAMESPACE.
    */
   public static final String NAMESPACE = "feature_flag";
 
+  /**
+   * The most operations etcd accepts in one transaction, by default.
+   */
+  public static final int TXN_OPS_LIMIT = 128;
+
+  /**
+   * The most ids in one value of an id list: 512KiB, under etcd's default 1.5MiB request limit.
+   */
+  public static final int IDS_PER_CHUNK = 65_536;
+
   private static final Logger LOGGER = LoggerFactory.getLogger(EtcdFeatureLookupManager.class);
+  private static final long LOOKUP_TIMEOUT_MS = 100;
+  private static final long BULK_TIMEOUT_MS = 1000;
+  private static final int CHUNK_DIGITS = 8; // as idListChunkKey() formats the chunk number.
+  private static final int FEATURE_OPS = 3; // as featureOps() gets the feature.
 
   private final Client client;
+  private final String namespacePrefix;
   private final String namespaceKeyFormat;
+  private final String idListPrefix;
+  private final String variantsPrefix;
 
   /**
    * Instantiates a new Etcd feature lookup manager.
@@ -38,7 +80,10 @@ public class EtcdFeatureLookupManager implements FeatureLookupManager {
   public EtcdFeatureLookupManager(final Client client,
                                   final String preamble) {
     this.client = client;
-    this.namespaceKeyFormat = preamble + "_" + NAMESPACE + "/%s";
+    this.namespacePrefix = preamble + "_" + NAMESPACE + "/";
+    this.namespaceKeyFormat = namespacePrefix + "%s";
+    this.idListPrefix = preamble + "_" + NAMESPACE + "_ids/";
+    this.variantsPrefix = preamble + "_" + NAMESPACE + "_variants/";
     LOGGER.info("EtcdFeatureLookupManager({},{})", namespaceKeyFormat, client);
   }
 
@@ -49,12 +94,8 @@ public class EtcdFeatureLookupManager implements FeatureLookupManager {
     final CompletableFuture<GetResponse> future =
         client.getKVClient().get(ByteSequence.from(namespaceKey.getBytes(StandardCharsets.UTF_8)));
     try {
-      final GetResponse getResponse = future.get(100, TimeUnit.MILLISECONDS);
-      return getResponse.getKvs().stream()
-          .map(KeyValue::getValue)
-          .findFirst()
-          .map(ByteSequence::toString)
-          .map(Double::parseDouble);
+      final GetResponse getResponse = future.get(LOOKUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      return toPercentage(getResponse);
     } catch (InterruptedException | ExecutionException e) {
       LOGGER.error("Unable to get from etcd {}", namespaceKey, e);
       throw new IllegalArgumentException(e);
@@ -64,6 +105,136 @@ public class EtcdFeatureLookupManager implements FeatureLookupManager {
     }
   }
 
+  /**
+   * Lookup feature with the async KV client, so no thread waits on etcd. Like lookupPercentage(),
+   * a lookup that takes too long is treated as not found.
+   *
+   * @param featureId the feature id
+   * @param executor  unused, the etcd client has its own.
+   * @return a future of the percentage.
+   */
+  @Override
+  public CompletableFuture<Optional<Double>> lookupPercentageAsync(final String featureId, final Executor executor) {
+    LOGGER.trace("lookupPercentageAsync({})", featureId);
+    final String namespaceKey = String.format(namespaceKeyFormat, featureId);
+    return client.getKVClient().get(ByteSequence.from(namespaceKey.getBytes(StandardCharsets.UTF_8)))
+        .orTimeout(LOOKUP_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+        .thenApply(this::toPercentage)
+        .exceptionally(throwable -> {
+          final Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+          if (cause instanceof TimeoutException) {
+            LOGGER.info("Not found in etcd {}", namespaceKey);
+            return Optional.empty();
+          }
+          LOGGER.error("Unable to get from etcd {}", namespaceKey, cause);
+          throw new IllegalArgumentException(cause);
+        });
+  }
+
+  @Override
+  public Optional<FeatureRecord> lookupFeature(final String featureId) {
+    try {
+      return lookupFeatureAsync(featureId, null).join();
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof RuntimeException cause ? cause : e;
+    }
+  }
+
+  /**
+   * Lookup the feature's percentage and variants and check for its first id list chunk in one
+   * transaction, with the async KV client. Like lookupPercentageAsync(), a lookup that takes too
+   * long is treated as not found.
+   *
+   * @param featureId the feature id
+   * @param executor  unused, the etcd client has its own.
+   * @return a future of the record.
+   */
+  @Override
+  public CompletableFuture<Optional<FeatureRecord>> lookupFeatureAsync(final String featureId, final Executor executor) {
+    LOGGER.trace("lookupFeatureAsync({})", featureId);
+    return client.getKVClient().txn()
+        .Then(featureOps(featureId))
+        .commit()
+        .orTimeout(LOOKUP_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+        .thenApply(response -> toRecord(response.getGetResponses(), 0))
+        .exceptionally(throwable -> {
+          final Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+          if (cause instanceof TimeoutException) {
+            LOGGER.info("Not found in etcd {}", featureId);
+            return Optional.empty();
+          }
+          LOGGER.error("Unable to get from etcd {}", featureId, cause);
+          throw new IllegalArgumentException(cause);
+        });
+  }
+
+  /**
+   * Lookup the features with one transaction per {@link #TXN_OPS_LIMIT} features.
+   *
+   * @param featureIds the feature ids
+   * @return the percentages found
+   */
+  @Override
+  public Map<String, Double> lookupPercentages(final Collection<String> featureIds) {
+    LOGGER.trace("lookupPercentages({})", featureIds.size());
+    final List<String> unique = new ArrayList<>(new LinkedHashSet<>(featureIds));
+    final Map<String, Double> result = new HashMap<>();
+    for (int start = 0; start < unique.size(); start += TXN_OPS_LIMIT) {
+      final List<String> chunk = unique.subList(start, Math.min(start + TXN_OPS_LIMIT, unique.size()));
+      final Op[] gets = chunk.stream()
+          .map(featureId -> Op.get(namespaceKey(featureId), GetOption.DEFAULT))
+          .toArray(Op[]::new);
+      final TxnResponse response = await(client.getKVClient().txn().Then(gets).commit(), namespacePrefix);
+      response.getGetResponses().forEach(getResponse -> addPercentages(result, getResponse));
+    }
+    return result;
+  }
+
+  /**
+   * Lookup the features' records as lookupFeatureAsync() does, with one transaction per
+   * {@link #TXN_OPS_LIMIT} ops.
+   *
+   * @param featureIds the feature ids
+   * @return the records found
+   */
+  @Override
+  public Map<String, FeatureRecord> lookupFeatures(final Collection<String> featureIds) {
+    LOGGER.trace("lookupFeatures({})", featureIds.size());
+    final List<String> unique = new ArrayList<>(new LinkedHashSet<>(featureIds));
+    final int perTxn = TXN_OPS_LIMIT / FEATURE_OPS;
+    final Map<String, FeatureRecord> result = new HashMap<>();
+    for (int start = 0; start < unique.size(); start += perTxn) {
+      final List<String> chunk = unique.subList(start, Math.min(start + perTxn, unique.size()));
+      final Op[] ops = chunk.stream()
+          .flatMap(featureId -> Arrays.stream(featureOps(featureId)))
+          .toArray(Op[]::new);
+      final TxnResponse response = await(client.getKVClient().txn().Then(ops).commit(), namespacePrefix);
+      final List<GetResponse> gets = response.getGetResponses();
+      for (int i = 0; i < chunk.size(); i++) {
+        final String featureId = chunk.get(i);
+        toRecord(gets, i * FEATURE_OPS).ifPresent(record -> result.put(featureId, record));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Lookup every feature under our namespace with one prefix get.
+   *
+   * @return the percentages
+   */
+  @Override
+  public Map<String, Double> lookupAll() {
+    LOGGER.trace("lookupAll()");
+    final GetOption prefix = GetOption.builder().isPrefix(true).build();
+    final GetResponse response = await(
+        client.getKVClient().get(ByteSequence.from(namespacePrefix.getBytes(StandardCharsets.UTF_8)), prefix),
+        namespacePrefix);
+    final Map<String, Double> result = new HashMap<>();
+    addPercentages(result, response);
+    return result;
+  }
+
   @Override
   public boolean setPercentage(final String featureId, final double percentage) {
     LOGGER.trace("setPercentage({}, {})", featureId, percentage);
@@ -80,6 +251,11 @@ public class EtcdFeatureLookupManager implements FeatureLookupManager {
     }
   }
 
+  /**
+   * Delete the feature's percentage, then its id list and variants.
+   *
+   * @param featureId the feature id
+   */
   @Override
   public void deletePercentage(final String featureId) {
     LOGGER.trace("deletePercentage({})", featureId);
@@ -92,6 +268,199 @@ public class EtcdFeatureLookupManager implements FeatureLookupManager {
       LOGGER.error("Unable to delete from etcd {}", namespaceKey, e);
       throw new IllegalArgumentException(e);
     }
+    deleteIdList(featureId);
+    deleteVariants(featureId);
+  }
+
+  /**
+   * Lookup the feature's id list, as lookupIdListAsync() does.
+   *
+   * @param featureId the feature id
+   * @return the ids, or empty if the feature has no id list.
+   */
+  @Override
+  public Optional<HashedIdSet> lookupIdList(final String featureId) {
+    LOGGER.trace("lookupIdList({})", featureId);
+    return await(lookupIdListAsync(featureId, null), idListPrefix);
+  }
+
+  /**
+   * Lookup the feature's id list with the async KV client. A keys only get finds its chunks, then
+   * each chunk is read with a get of its own, so no response nears gRPC's 4MiB message limit
+   * however long the list is.
+   *
+   * @param featureId the feature id
+   * @param executor  unused, the etcd client has its own.
+   * @return a future of the ids, or empty if the feature has no id list.
+   */
+  @Override
+  public CompletableFuture<Optional<HashedIdSet>> lookupIdListAsync(final String featureId, final Executor executor) {
+    LOGGER.trace("lookupIdListAsync({})", featureId);
+    return idListChunkKeys(featureId)
+        .thenCompose(keys -> {
+          final List<CompletableFuture<GetResponse>> chunks = keys.stream()
+              .map(key -> client.getKVClient().get(key))
+              .toList();
+          return CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new))
+              .thenApply(ignored -> toIdList(chunks.stream().map(CompletableFuture::join).toList()));
+        })
+        .orTimeout(BULK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  private Optional<HashedIdSet> toIdList(final List<GetResponse> chunks) {
+    final List<KeyValue> keyValues = chunks.stream()
+        .flatMap(response -> response.getKvs().stream())
+        .toList();
+    if (keyValues.isEmpty()) {
+      return Optional.empty();
+    }
+    final int expectedSize = keyValues.stream()
+        .mapToInt(keyValue -> keyValue.getValue().size() / HashedIdSet.BYTES_PER_ID)
+        .sum();
+    final HashedIdSet.Builder builder = HashedIdSet.builder(expectedSize);
+    keyValues.forEach(keyValue -> builder.addChunk(keyValue.getValue().getBytes()));
+    return Optional.of(builder.build());
+  }
+
+  /**
+   * The keys of the feature's id list chunks, in order. The prefix get also finds the chunks of
+   * feature ids that start with this one and a slash; their keys are longer, so they are dropped.
+   */
+  private CompletableFuture<List<ByteSequence>> idListChunkKeys(final String featureId) {
+    final ByteSequence prefix = idListKey(featureId);
+    final int chunkKeySize = prefix.size() + CHUNK_DIGITS;
+    final GetOption keysOnly = GetOption.builder().isPrefix(true).withKeysOnly(true).build();
+    return client.getKVClient().get(prefix, keysOnly)
+        .thenApply(response -> response.getKvs().stream()
+            .map(KeyValue::getKey)
+            .filter(key -> key.size() == chunkKeySize)
+            .toList());
+  }
+
+  /**
+   * Sets the feature's id list. The chunks are written one put at a time and then any chunks left
+   * from a longer list are deleted, so a lookup during the write can see old and new chunks mixed.
+   *
+   * @param featureId the feature id
+   * @param ids       the ids
+   */
+  @Override
+  public void setIdList(final String featureId, final Collection<String> ids) {
+    LOGGER.trace("setIdList({}, {})", featureId, ids.size());
+    final List<byte[]> chunks = HashedIdSet.of(ids).toChunks(IDS_PER_CHUNK);
+    final List<ByteSequence> written = new ArrayList<>();
+    for (int i = 0; i < chunks.size(); i++) {
+      final ByteSequence key = idListChunkKey(featureId, i);
+      await(client.getKVClient().put(key, ByteSequence.from(chunks.get(i))), idListPrefix);
+      written.add(key);
+    }
+    for (ByteSequence key : await(idListChunkKeys(featureId), idListPrefix)) {
+      if (!written.contains(key)) {
+        await(client.getKVClient().delete(key), idListPrefix);
+      }
+    }
+  }
+
+  /**
+   * Deletes the feature's id list one chunk at a time, leaving the lists of feature ids that start
+   * with this one and a slash.
+   *
+   * @param featureId the feature id
+   */
+  @Override
+  public void deleteIdList(final String featureId) {
+    LOGGER.trace("deleteIdList({})", featureId);
+    for (ByteSequence key : await(idListChunkKeys(featureId), idListPrefix)) {
+      await(client.getKVClient().delete(key), idListPrefix);
+    }
+  }
+
+  @Override
+  public Optional<List<Variant>> lookupVariants(final String featureId) {
+    LOGGER.trace("lookupVariants({})", featureId);
+    return toVariants(await(client.getKVClient().get(variantsKey(featureId)), variantsPrefix));
+  }
+
+  private Optional<List<Variant>> toVariants(final GetResponse response) {
+    return response.getKvs().stream()
+        .findFirst()
+        .map(keyValue -> VariantLookupManager.decode(keyValue.getValue().toString()));
+  }
+
+  @Override
+  public boolean setVariants(final String featureId, final List<Variant> variants) {
+    LOGGER.trace("setVariants({}, {})", featureId, variants);
+    final ByteSequence value = ByteSequence.from(VariantLookupManager.encode(variants).getBytes(StandardCharsets.UTF_8));
+    await(client.getKVClient().put(variantsKey(featureId), value), variantsPrefix);
+    return true;
+  }
+
+  @Override
+  public void deleteVariants(final String featureId) {
+    LOGGER.trace("deleteVariants({})", featureId);
+    await(client.getKVClient().delete(variantsKey(featureId)), variantsPrefix);
+  }
+
+  private ByteSequence variantsKey(final String featureId) {
+    return ByteSequence.from((variantsPrefix + featureId).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private ByteSequence idListKey(final String featureId) {
+    return ByteSequence.from((idListPrefix + featureId + "/").getBytes(StandardCharsets.UTF_8));
+  }
+
+  private ByteSequence idListChunkKey(final String featureId, final int chunk) {
+    return ByteSequence.from(String.format("%s%s/%08d", idListPrefix, featureId, chunk).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private ByteSequence namespaceKey(final String featureId) {
+    return ByteSequence.from(String.format(namespaceKeyFormat, featureId).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The gets for the feature's percentage, a count of its first id list chunk and its variants.
+   */
+  private Op[] featureOps(final String featureId) {
+    final GetOption countOnly = GetOption.builder().withCountOnly(true).build();
+    return new Op[]{
+        Op.get(namespaceKey(featureId), GetOption.DEFAULT),
+        Op.get(idListChunkKey(featureId, 0), countOnly),
+        Op.get(variantsKey(featureId), GetOption.DEFAULT)};
+  }
+
+  private Optional<FeatureRecord> toRecord(final List<GetResponse> gets, final int offset) {
+    final boolean hasIdList = gets.get(offset + 1).getCount() > 0;
+    final Optional<List<Variant>> variants = toVariants(gets.get(offset + 2));
+    return toPercentage(gets.get(offset)).<FeatureRecord>map(percentage -> ImmutableFeatureRecord.builder()
+        .percentage(percentage)
+        .complete(true)
+        .hasIdList(hasIdList)
+        .variants(variants)
+        .build());
+  }
+
+  private Optional<Double> toPercentage(final GetResponse getResponse) {
+    return getResponse.getKvs().stream()
+        .map(KeyValue::getValue)
+        .findFirst()
+        .map(ByteSequence::toString)
+        .map(Double::parseDouble);
+  }
+
+  private void addPercentages(final Map<String, Double> result, final GetResponse response) {
+    for (KeyValue keyValue : response.getKvs()) {
+      final String featureId = keyValue.getKey().toString().substring(namespacePrefix.length());
+      result.put(featureId, Double.parseDouble(keyValue.getValue().toString()));
+    }
+  }
+
+  private <T> T await(final CompletableFuture<T> future, final String description) {
+    try {
+      return future.get(BULK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException | ExecutionException | TimeoutException e) {
+      LOGGER.error("Unable to get from etcd {}", description, e);
+      throw new IllegalArgumentException(e);
+    }
   }
 
 }
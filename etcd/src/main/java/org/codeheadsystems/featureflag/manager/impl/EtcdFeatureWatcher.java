@@ -0,0 +1,154 @@
+package org.codeheadsystems.featureflag.manager.impl;
+
+import static org.codeheadsystems.featureflag.manager.impl.EtcdFeatureLookupManager.NAMESPACE;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.Client;
+import io.etcd.jetcd.Watch;
+import io.etcd.jetcd.common.exception.CompactedException;
+import io.etcd.jetcd.options.WatchOption;
+import io.etcd.jetcd.watch.WatchEvent;
+import io.etcd.jetcd.watch.WatchResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.codeheadsystems.featureflag.manager.FeatureManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the feature flag namespace in etcd and refreshes the feature manager's cached value as
+ * soon as a flag changes, instead of waiting for the cache's poll. Every event moves the last seen
+ * revision forward; if the watch fails it is re-established from the revision after that, so
+ * changes made while disconnected are still delivered. If etcd has compacted past that revision,
+ * the watch resumes from the compaction point and anything older is left to the cache's poll.
+ */
+public class EtcdFeatureWatcher implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EtcdFeatureWatcher.class);
+  private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+  private final Client client;
+  private final FeatureManager featureManager;
+  private final String namespacePrefix;
+  private final AtomicLong lastRevision = new AtomicLong();
+  private final ScheduledExecutorService retryScheduler;
+  private Watch.Watcher watcher;
+  private boolean closed;
+
+  /**
+   * Instantiates a new Etcd feature watcher. Call start() to begin watching.
+   *
+   * @param client         for etcd.
+   * @param preamble       the same preamble given to the EtcdFeatureLookupManager.
+   * @param featureManager to refresh when a flag changes.
+   */
+  public EtcdFeatureWatcher(final Client client,
+                            final String preamble,
+                            final FeatureManager featureManager) {
+    this.client = client;
+    this.featureManager = featureManager;
+    this.namespacePrefix = preamble + "_" + NAMESPACE + "/";
+    this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "feature-flag-etcd-watch-retry");
+      thread.setDaemon(true);
+      return thread;
+    });
+    LOGGER.info("EtcdFeatureWatcher({},{})", namespacePrefix, client);
+  }
+
+  /**
+   * Start watching from the current revision.
+   */
+  public synchronized void start() {
+    LOGGER.info("start()");
+    watch();
+  }
+
+  /**
+   * The last revision seen by this watcher.
+   *
+   * @return the revision, zero if nothing has been seen yet.
+   */
+  public long lastRevision() {
+    return lastRevision.get();
+  }
+
+  @Override
+  public synchronized void close() {
+    LOGGER.info("close()");
+    closed = true;
+    retryScheduler.shutdownNow();
+    if (watcher != null) {
+      watcher.close();
+      watcher = null;
+    }
+  }
+
+  private synchronized void watch() {
+    if (closed) {
+      return;
+    }
+    final WatchOption.Builder option = WatchOption.builder().isPrefix(true);
+    final long revision = lastRevision.get();
+    if (revision > 0) {
+      option.withRevision(revision + 1);
+    }
+    LOGGER.debug("watch({}, {})", namespacePrefix, revision);
+    watcher = client.getWatchClient().watch(
+        ByteSequence.from(namespacePrefix.getBytes(StandardCharsets.UTF_8)),
+        option.build(),
+        Watch.listener(this::onNext, this::onError, this::onCompleted));
+  }
+
+  /**
+   * Refresh every flag in the response.
+   *
+   * @param response from etcd.
+   */
+  void onNext(final WatchResponse response) {
+    for (WatchEvent event : response.getEvents()) {
+      final String featureId = event.getKeyValue().getKey().toString().substring(namespacePrefix.length());
+      LOGGER.debug("onNext({}, {})", featureId, event.getEventType());
+      featureManager.refresh(featureId);
+      lastRevision.accumulateAndGet(event.getKeyValue().getModRevision(), Math::max);
+    }
+    lastRevision.accumulateAndGet(response.getHeader().getRevision(), Math::max);
+  }
+
+  /**
+   * The watch is gone; re-establish it after a short delay.
+   *
+   * @param throwable why.
+   */
+  void onError(final Throwable throwable) {
+    if (throwable instanceof CompactedException compacted) {
+      LOGGER.warn("Watch on {} compacted past {}, resuming at {}",
+          namespacePrefix, lastRevision.get(), compacted.getCompactedRevision());
+      lastRevision.set(compacted.getCompactedRevision() - 1);
+    } else {
+      LOGGER.warn("Watch on {} failed, resuming after {}", namespacePrefix, lastRevision.get(), throwable);
+    }
+    rewatch();
+  }
+
+  private void onCompleted() {
+    LOGGER.info("Watch on {} completed", namespacePrefix);
+    rewatch();
+  }
+
+  private synchronized void rewatch() {
+    if (closed) {
+      return;
+    }
+    if (watcher != null) {
+      watcher.close();
+      watcher = null;
+    }
+    retryScheduler.schedule(this::watch, RETRY_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+}
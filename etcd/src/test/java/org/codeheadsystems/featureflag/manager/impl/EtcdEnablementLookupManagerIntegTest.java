@@ -1,10 +1,17 @@
 package org.codeheadsystems.featureflag.manager.impl;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 import io.etcd.jetcd.Client;
 import io.etcd.jetcd.test.EtcdClusterExtension;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
 import org.codeheadsystems.featureflag.manager.FeatureLookupManager;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 
 /**
@@ -15,6 +22,8 @@ public class EtcdEnablementLookupManagerIntegTest extends FeatureLookupManagerIn
   public static final EtcdClusterExtension cluster = EtcdClusterExtension.builder()
       .withNodes(1)
       .build();
+  private static final int IDS = 640_000; // 5MiB of hashes, ten chunks.
+
   private Client client;
 
   @BeforeEach
@@ -32,4 +41,24 @@ public class EtcdEnablementLookupManagerIntegTest extends FeatureLookupManagerIn
     return new EtcdFeatureLookupManager(client, "test");
   }
 
+  /**
+   * An id list bigger than gRPC's 4MiB message limit is read back whole.
+   */
+  @Test
+  void idList_severalMegabytes() {
+    final EtcdFeatureLookupManager manager = new EtcdFeatureLookupManager(client, "test");
+    final String featureId = UUID.randomUUID().toString();
+    final List<String> ids = IntStream.range(0, IDS).mapToObj(i -> "customer-" + i).toList();
+    manager.setIdList(featureId, ids);
+
+    final HashedIdSet idList = manager.lookupIdListAsync(featureId, null).join().orElseThrow();
+    assertThat((long) idList.size() * HashedIdSet.BYTES_PER_ID).isGreaterThan(4L << 20);
+    assertThat(idList.size()).isEqualTo(IDS);
+    assertThat(idList.contains("customer-0")).isTrue();
+    assertThat(idList.contains("customer-" + (IDS - 1))).isTrue();
+    assertThat(idList.contains("customer-" + IDS)).isFalse();
+    manager.deleteIdList(featureId);
+    assertThat(manager.lookupIdList(featureId)).isEmpty();
+  }
+
 }
@@ -3,6 +3,9 @@ package org.codeheadsystems.featureflag.manager.impl;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.codeheadsystems.featureflag.manager.impl.EtcdFeatureLookupManager.NAMESPACE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -10,9 +13,14 @@ import io.etcd.jetcd.ByteSequence;
 import io.etcd.jetcd.Client;
 import io.etcd.jetcd.KV;
 import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.Txn;
 import io.etcd.jetcd.kv.DeleteResponse;
 import io.etcd.jetcd.kv.GetResponse;
 import io.etcd.jetcd.kv.PutResponse;
+import io.etcd.jetcd.kv.TxnResponse;
+import io.etcd.jetcd.op.Op;
+import io.etcd.jetcd.options.GetOption;
+import java.time.Duration;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -21,6 +29,9 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
+import org.codeheadsystems.featureflag.model.ImmutableVariant;
+import org.codeheadsystems.featureflag.model.Variant;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -40,7 +51,15 @@ class EtcdEnablementLookupManagerTest {
   @Mock private Client client;
   @Mock private KV kv;
   @Mock private KeyValue keyValue;
+  @Mock private KeyValue otherKeyValue;
   @Mock private GetResponse getResponse;
+  @Mock private GetResponse countResponse;
+  @Mock private GetResponse variantsResponse;
+  @Mock private GetResponse chunkResponse;
+  @Mock private GetResponse otherChunkResponse;
+  @Mock private KeyValue nestedKeyValue;
+  @Mock private Txn txn;
+  @Mock private TxnResponse txnResponse;
   @Mock private CompletableFuture<PutResponse> putResponseCompletableFuture;
   @Mock private CompletableFuture<DeleteResponse> deleteResponseCompletableFuture;
   @Mock private CompletableFuture<GetResponse> getResponseCompletableFuture;
@@ -55,6 +74,24 @@ class EtcdEnablementLookupManagerTest {
     return ByteSequence.from(namespaceKey.getBytes());
   }
 
+  @NotNull
+  private static ByteSequence getVariantsKeyBytes() {
+    return ByteSequence.from((PREAMBLE + "_" + NAMESPACE + "_variants/" + FEATURE_ID).getBytes());
+  }
+
+  @NotNull
+  private static ByteSequence getIdListKeyBytes(final String chunk) {
+    return ByteSequence.from((PREAMBLE + "_" + NAMESPACE + "_ids/" + FEATURE_ID + "/" + chunk).getBytes());
+  }
+
+  /**
+   * A chunk of feature id FEATURE_ID + "/nested", which the prefix get for FEATURE_ID also finds.
+   */
+  @NotNull
+  private static ByteSequence getNestedIdListKeyBytes() {
+    return getIdListKeyBytes("nested/00000000");
+  }
+
 
   @BeforeEach
   void setUp() {
@@ -103,6 +140,55 @@ class EtcdEnablementLookupManagerTest {
         .isThrownBy(() -> etcdFeatureLookupManager.lookupPercentage(FEATURE_ID));
   }
 
+  @Test
+  void lookupPercentageAsync_found() {
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.get(getNamespaceKeyBytes())).thenReturn(CompletableFuture.completedFuture(getResponse));
+    when(getResponse.getKvs()).thenReturn(List.of(keyValue));
+    when(keyValue.getValue()).thenReturn(ByteSequence.from("0.5".getBytes()));
+    assertThat(etcdFeatureLookupManager.lookupPercentageAsync(FEATURE_ID, null).join())
+        .contains(0.5);
+  }
+
+  @Test
+  void lookupPercentageAsync_timeout() {
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.get(getNamespaceKeyBytes())).thenReturn(new CompletableFuture<>());
+    assertThat(etcdFeatureLookupManager.lookupPercentageAsync(FEATURE_ID, null).join())
+        .isEmpty();
+  }
+
+  @Test
+  void lookupPercentageAsync_failure() {
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.get(getNamespaceKeyBytes())).thenReturn(CompletableFuture.failedFuture(new IllegalStateException()));
+    assertThat(etcdFeatureLookupManager.lookupPercentageAsync(FEATURE_ID, null))
+        .failsWithin(Duration.ofSeconds(1))
+        .withThrowableOfType(ExecutionException.class)
+        .withCauseInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void lookupFeatureAsync_oneTransaction() {
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.txn()).thenReturn(txn);
+    when(txn.Then(any(Op[].class))).thenReturn(txn);
+    when(txn.commit()).thenReturn(CompletableFuture.completedFuture(txnResponse));
+    when(txnResponse.getGetResponses()).thenReturn(List.of(getResponse, countResponse, variantsResponse));
+    when(getResponse.getKvs()).thenReturn(List.of(keyValue));
+    when(keyValue.getValue()).thenReturn(ByteSequence.from("0.5".getBytes()));
+    when(countResponse.getCount()).thenReturn(2L);
+    when(variantsResponse.getKvs()).thenReturn(List.of(otherKeyValue));
+    when(otherKeyValue.getValue()).thenReturn(ByteSequence.from("a=0.5".getBytes()));
+    assertThat(etcdFeatureLookupManager.lookupFeatureAsync(FEATURE_ID, null).join())
+        .hasValueSatisfying(record -> {
+          assertThat(record.percentage()).isEqualTo(0.5);
+          assertThat(record.complete()).isTrue();
+          assertThat(record.hasIdList()).isTrue();
+          assertThat(record.variants()).hasValue(List.of(ImmutableVariant.builder().name("a").weight(0.5).build()));
+        });
+  }
+
   @Test
   void setPercentage() throws ExecutionException, InterruptedException {
     when(client.getKVClient()).thenReturn(kv);
@@ -134,12 +220,19 @@ class EtcdEnablementLookupManagerTest {
 
   @Test
   void deletePercentage() throws ExecutionException, InterruptedException {
+    final ByteSequence chunk0 = getIdListKeyBytes("00000000");
     when(client.getKVClient()).thenReturn(kv);
     when(kv.delete(byteSequenceArgumentCaptor.capture())).thenReturn(deleteResponseCompletableFuture);
+    when(kv.get(eq(getIdListKeyBytes("")), any(GetOption.class))).thenReturn(CompletableFuture.completedFuture(getResponse));
+    when(getResponse.getKvs()).thenReturn(List.of(keyValue));
+    when(keyValue.getKey()).thenReturn(chunk0);
     etcdFeatureLookupManager.deletePercentage(FEATURE_ID);
     verify(deleteResponseCompletableFuture).get();
     List<String> values = byteSequenceArgumentCaptor.getAllValues().stream().map(Objects::toString).collect(Collectors.toList());
-    assertThat(values).containsExactly(PREAMBLE + "_" + NAMESPACE + "/" + FEATURE_ID);
+    assertThat(values).containsExactly(
+        PREAMBLE + "_" + NAMESPACE + "/" + FEATURE_ID,
+        chunk0.toString(),
+        PREAMBLE + "_" + NAMESPACE + "_variants/" + FEATURE_ID);
   }
 
   @Test
@@ -160,4 +253,110 @@ class EtcdEnablementLookupManagerTest {
         .isThrownBy(() -> etcdFeatureLookupManager.deletePercentage(FEATURE_ID));
   }
 
-}
\ No newline at end of file
+  @Test
+  void lookupIdList_found() {
+    final List<byte[]> chunks = HashedIdSet.of(List.of("a", "b", "c")).toChunks(2);
+    final ByteSequence chunk0 = getIdListKeyBytes("00000000");
+    final ByteSequence chunk1 = getIdListKeyBytes("00000001");
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.get(eq(getIdListKeyBytes("")), any(GetOption.class))).thenReturn(CompletableFuture.completedFuture(getResponse));
+    when(getResponse.getKvs()).thenReturn(List.of(keyValue, otherKeyValue));
+    when(keyValue.getKey()).thenReturn(chunk0);
+    when(otherKeyValue.getKey()).thenReturn(chunk1);
+    when(kv.get(chunk0)).thenReturn(CompletableFuture.completedFuture(chunkResponse));
+    when(kv.get(chunk1)).thenReturn(CompletableFuture.completedFuture(otherChunkResponse));
+    when(chunkResponse.getKvs()).thenReturn(List.of(keyValue));
+    when(otherChunkResponse.getKvs()).thenReturn(List.of(otherKeyValue));
+    when(keyValue.getValue()).thenReturn(ByteSequence.from(chunks.get(0)));
+    when(otherKeyValue.getValue()).thenReturn(ByteSequence.from(chunks.get(1)));
+    assertThat(etcdFeatureLookupManager.lookupIdList(FEATURE_ID))
+        .hasValueSatisfying(ids -> {
+          assertThat(ids.size()).isEqualTo(3);
+          assertThat(ids.contains("a")).isTrue();
+          assertThat(ids.contains("c")).isTrue();
+          assertThat(ids.contains("d")).isFalse();
+        });
+  }
+
+  @Test
+  void lookupIdList_notFound() {
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.get(eq(getIdListKeyBytes("")), any(GetOption.class))).thenReturn(CompletableFuture.completedFuture(getResponse));
+    when(getResponse.getKvs()).thenReturn(List.of());
+    assertThat(etcdFeatureLookupManager.lookupIdList(FEATURE_ID)).isEmpty();
+  }
+
+  @Test
+  void lookupIdList_skipsNestedFeature() {
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.get(eq(getIdListKeyBytes("")), any(GetOption.class))).thenReturn(CompletableFuture.completedFuture(getResponse));
+    when(getResponse.getKvs()).thenReturn(List.of(nestedKeyValue));
+    when(nestedKeyValue.getKey()).thenReturn(getNestedIdListKeyBytes());
+    assertThat(etcdFeatureLookupManager.lookupIdList(FEATURE_ID)).isEmpty();
+    verify(kv, never()).get(getNestedIdListKeyBytes());
+  }
+
+  @Test
+  void setIdList_deletesLeftoverChunks() {
+    final ByteSequence chunk0 = getIdListKeyBytes("00000000");
+    final ByteSequence chunk1 = getIdListKeyBytes("00000001");
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.put(eq(chunk0), any(ByteSequence.class))).thenReturn(CompletableFuture.completedFuture(null));
+    when(kv.get(eq(getIdListKeyBytes("")), any(GetOption.class))).thenReturn(CompletableFuture.completedFuture(getResponse));
+    when(getResponse.getKvs()).thenReturn(List.of(keyValue, otherKeyValue, nestedKeyValue));
+    when(keyValue.getKey()).thenReturn(chunk0);
+    when(otherKeyValue.getKey()).thenReturn(chunk1);
+    when(nestedKeyValue.getKey()).thenReturn(getNestedIdListKeyBytes());
+    when(kv.delete(chunk1)).thenReturn(CompletableFuture.completedFuture(null));
+    etcdFeatureLookupManager.setIdList(FEATURE_ID, List.of("a", "b"));
+    verify(kv).delete(chunk1);
+    verify(kv, never()).delete(getNestedIdListKeyBytes());
+  }
+
+  @Test
+  void deleteIdList() {
+    final ByteSequence chunk0 = getIdListKeyBytes("00000000");
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.get(eq(getIdListKeyBytes("")), any(GetOption.class))).thenReturn(CompletableFuture.completedFuture(getResponse));
+    when(getResponse.getKvs()).thenReturn(List.of(keyValue, nestedKeyValue));
+    when(keyValue.getKey()).thenReturn(chunk0);
+    when(nestedKeyValue.getKey()).thenReturn(getNestedIdListKeyBytes());
+    when(kv.delete(chunk0)).thenReturn(CompletableFuture.completedFuture(null));
+    etcdFeatureLookupManager.deleteIdList(FEATURE_ID);
+    verify(kv).delete(chunk0);
+    verify(kv, never()).delete(getNestedIdListKeyBytes());
+  }
+
+  @Test
+  void lookupVariants_found() {
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.get(getVariantsKeyBytes())).thenReturn(CompletableFuture.completedFuture(getResponse));
+    when(getResponse.getKvs()).thenReturn(List.of(keyValue));
+    when(keyValue.getValue()).thenReturn(ByteSequence.from("a=0.25,b=0.75".getBytes()));
+    assertThat(etcdFeatureLookupManager.lookupVariants(FEATURE_ID))
+        .hasValueSatisfying(variants -> assertThat(variants)
+            .extracting(Variant::name)
+            .containsExactly("a", "b"));
+  }
+
+  @Test
+  void lookupVariants_notFound() {
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.get(getVariantsKeyBytes())).thenReturn(CompletableFuture.completedFuture(getResponse));
+    when(getResponse.getKvs()).thenReturn(List.of());
+    assertThat(etcdFeatureLookupManager.lookupVariants(FEATURE_ID)).isEmpty();
+  }
+
+  @Test
+  void setVariants() {
+    when(client.getKVClient()).thenReturn(kv);
+    when(kv.put(byteSequenceArgumentCaptor.capture(), byteSequenceArgumentCaptor.capture()))
+        .thenReturn(CompletableFuture.completedFuture(null));
+    assertThat(etcdFeatureLookupManager.setVariants(FEATURE_ID, List.of(
+        ImmutableVariant.builder().name("a").weight(0.25).build(),
+        ImmutableVariant.builder().name("b").weight(0.75).build()))).isTrue();
+    List<String> values = byteSequenceArgumentCaptor.getAllValues().stream().map(Objects::toString).collect(Collectors.toList());
+    assertThat(values).containsExactly(PREAMBLE + "_" + NAMESPACE + "_variants/" + FEATURE_ID, "a=0.25,b=0.75");
+  }
+
+}
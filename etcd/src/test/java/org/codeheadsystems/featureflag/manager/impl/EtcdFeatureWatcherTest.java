@@ -0,0 +1,108 @@
+package org.codeheadsystems.featureflag.manager.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.codeheadsystems.featureflag.manager.impl.EtcdFeatureLookupManager.NAMESPACE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.Client;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.Response;
+import io.etcd.jetcd.Watch;
+import io.etcd.jetcd.options.WatchOption;
+import io.etcd.jetcd.watch.WatchEvent;
+import io.etcd.jetcd.watch.WatchResponse;
+import java.util.List;
+import org.codeheadsystems.featureflag.manager.FeatureManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class EtcdFeatureWatcherTest {
+
+  private static final String FEATURE_ID = "featureId";
+  private static final String PREAMBLE = "p";
+  private static final String PREFIX = PREAMBLE + "_" + NAMESPACE + "/";
+
+  @Mock private Client client;
+  @Mock private Watch watch;
+  @Mock private Watch.Watcher watcher;
+  @Mock private FeatureManager featureManager;
+  @Mock private WatchResponse watchResponse;
+  @Mock private WatchEvent watchEvent;
+  @Mock private KeyValue keyValue;
+  @Mock private Response.Header header;
+
+  @Captor private ArgumentCaptor<WatchOption> watchOptionArgumentCaptor;
+  @Captor private ArgumentCaptor<Watch.Listener> listenerArgumentCaptor;
+
+  private EtcdFeatureWatcher etcdFeatureWatcher;
+
+  @BeforeEach
+  void setUp() {
+    when(client.getWatchClient()).thenReturn(watch);
+    when(watch.watch(eq(ByteSequence.from(PREFIX.getBytes())), watchOptionArgumentCaptor.capture(), listenerArgumentCaptor.capture()))
+        .thenReturn(watcher);
+    etcdFeatureWatcher = new EtcdFeatureWatcher(client, PREAMBLE, featureManager);
+    etcdFeatureWatcher.start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    etcdFeatureWatcher.close();
+  }
+
+  @Test
+  void start() {
+    assertThat(watchOptionArgumentCaptor.getValue().isPrefix()).isTrue();
+    assertThat(watchOptionArgumentCaptor.getValue().getRevision()).isZero();
+  }
+
+  @Test
+  void onNext() {
+    givenEvent(7L, 9L);
+    listenerArgumentCaptor.getValue().onNext(watchResponse);
+    verify(featureManager).refresh(FEATURE_ID);
+    assertThat(etcdFeatureWatcher.lastRevision()).isEqualTo(9L);
+  }
+
+  @Test
+  void onError_resumesAfterLastRevision() {
+    givenEvent(7L, 7L);
+    listenerArgumentCaptor.getValue().onNext(watchResponse);
+    listenerArgumentCaptor.getValue().onError(new IllegalStateException("boom"));
+    verify(watcher).close();
+    verify(watch, timeout(5000).times(2)).watch(any(ByteSequence.class), any(WatchOption.class), any(Watch.Listener.class));
+    assertThat(watchOptionArgumentCaptor.getValue().getRevision()).isEqualTo(8L);
+  }
+
+  @Test
+  void close() {
+    etcdFeatureWatcher.close();
+    listenerArgumentCaptor.getValue().onError(new IllegalStateException("boom"));
+    verify(watcher, times(1)).close();
+    verify(featureManager, never()).refresh(any());
+  }
+
+  private void givenEvent(final long modRevision, final long headerRevision) {
+    when(watchResponse.getEvents()).thenReturn(List.of(watchEvent));
+    when(watchResponse.getHeader()).thenReturn(header);
+    when(header.getRevision()).thenReturn(headerRevision);
+    when(watchEvent.getKeyValue()).thenReturn(keyValue);
+    when(keyValue.getKey()).thenReturn(ByteSequence.from((PREFIX + FEATURE_ID).getBytes()));
+    when(keyValue.getModRevision()).thenReturn(modRevision);
+  }
+
+}
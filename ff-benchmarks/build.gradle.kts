@@ -0,0 +1,45 @@
+/*
+ * JMH harnesses for the isEnabled hot path. Not published.
+ *
+ * Run with: ./gradlew :ff-benchmarks:jmh
+ * Narrow the run with -PjmhIncludes=FeatureManagerBenchmark and scale threads with -PjmhThreads=8.
+ */
+
+plugins {
+    java
+    checkstyle
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+    // Use Maven Central for resolving dependencies.
+    mavenCentral()
+}
+
+dependencies {
+    jmhImplementation(project(":ff"))
+    jmhImplementation(project(":ff-metrics"))
+    jmhImplementation(libs.codehead.metrics)
+    jmhImplementation(libs.guava)
+    jmhImplementation(libs.mockito.core)
+    jmhImplementation(libs.slf4j.api)
+}
+
+// Apply a specific Java toolchain to ease working on different environments.
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(21)
+    }
+}
+
+jmh {
+    jmhVersion = libs.versions.jmh.get()
+    // gc gives us gc.alloc.rate.norm, the bytes allocated per operation.
+    profilers = listOf("gc")
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    resultFormat = "JSON"
+    project.findProperty("jmhIncludes")?.let { includes = listOf(it.toString()) }
+    project.findProperty("jmhThreads")?.let { threads = it.toString().toInt() }
+}
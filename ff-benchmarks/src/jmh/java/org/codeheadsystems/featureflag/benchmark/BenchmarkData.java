@@ -0,0 +1,109 @@
+package org.codeheadsystems.featureflag.benchmark;
+
+import com.google.common.cache.CacheBuilder;
+import java.util.Random;
+import java.util.UUID;
+import org.codeheadsystems.featureflag.factory.Enablement;
+import org.codeheadsystems.featureflag.manager.FeatureLookupManager;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Shared fixture data. Feature and discriminator arrays are sized to powers of two so the
+ * per-thread cursor can mask instead of mod.
+ */
+public final class BenchmarkData {
+
+  /**
+   * Number of features. Kept under the default cache size of 100 so the default cache stays warm.
+   */
+  public static final int FEATURE_COUNT = 64;
+
+  /**
+   * Number of distinct discriminators cycled through.
+   */
+  public static final int DISCRIMINATOR_COUNT = 4096;
+
+  /**
+   * The percentage every benchmark feature is dialed up to.
+   */
+  public static final double PERCENTAGE = 0.5;
+
+  private static final String[] FEATURES = new String[FEATURE_COUNT];
+  private static final String[] DISCRIMINATORS = new String[DISCRIMINATOR_COUNT];
+
+  static {
+    final Random random = new Random(42);
+    for (int i = 0; i < FEATURE_COUNT; i++) {
+      FEATURES[i] = "feature-" + i;
+    }
+    for (int i = 0; i < DISCRIMINATOR_COUNT; i++) {
+      DISCRIMINATORS[i] = new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+  }
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Feature id for the index.
+   *
+   * @param index any int, masked to the feature range.
+   * @return the feature id.
+   */
+  public static String feature(final int index) {
+    return FEATURES[index & (FEATURE_COUNT - 1)];
+  }
+
+  /**
+   * Discriminator for the index.
+   *
+   * @param index any int, masked to the discriminator range.
+   * @return the discriminator.
+   */
+  public static String discriminator(final int index) {
+    return DISCRIMINATORS[index & (DISCRIMINATOR_COUNT - 1)];
+  }
+
+  /**
+   * A lookup manager with every benchmark feature set to {@link #PERCENTAGE}.
+   *
+   * @return the lookup manager.
+   */
+  public static FeatureLookupManager populatedLookupManager() {
+    final FeatureLookupManager manager = new InMemoryFeatureLookupManager();
+    for (String feature : FEATURES) {
+      manager.setPercentage(feature, PERCENTAGE);
+    }
+    return manager;
+  }
+
+  /**
+   * An empty cache builder typed for the feature manager.
+   *
+   * @return the cache builder.
+   */
+  @SuppressWarnings("unchecked")
+  public static CacheBuilder<String, Enablement> cacheBuilder() {
+    return (CacheBuilder<String, Enablement>) (CacheBuilder<?, ?>) CacheBuilder.newBuilder();
+  }
+
+  /**
+   * Per thread position so threads do not contend on a shared counter.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+
+    private int position;
+
+    /**
+     * Advance to the next position.
+     *
+     * @return the position.
+     */
+    public int next() {
+      return position++;
+    }
+  }
+
+}
@@ -0,0 +1,109 @@
+package org.codeheadsystems.featureflag.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.codeheadsystems.featureflag.factory.Enablement;
+import org.codeheadsystems.featureflag.factory.EnablementFactory;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
+import org.codeheadsystems.featureflag.model.ImmutableVariant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The enablements themselves, without any cache in front of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnablementFactoryBenchmark {
+
+  /**
+   * Ids in the large allow list.
+   */
+  private static final int ID_LIST_SIZE = 1_000_000;
+
+  private Enablement percentage;
+  private Enablement enabled;
+  private Enablement idList;
+  private Enablement variants;
+  private EnablementFactory enablementFactory;
+
+  /**
+   * Build the enablements.
+   */
+  @Setup
+  public void setup() {
+    enablementFactory = new EnablementFactory();
+    percentage = enablementFactory.percentageFeature(BenchmarkData.PERCENTAGE);
+    enabled = enablementFactory.enabledFeature();
+    final List<String> ids = new ArrayList<>(ID_LIST_SIZE);
+    for (int i = 0; i < ID_LIST_SIZE; i++) {
+      ids.add("listed-" + i);
+    }
+    idList = enablementFactory.idList(HashedIdSet.of(ids), enabled);
+    variants = enablementFactory.variants("variants", enabled, List.of(
+        ImmutableVariant.builder().name("a").weight(0.25).build(),
+        ImmutableVariant.builder().name("b").weight(0.25).build(),
+        ImmutableVariant.builder().name("c").weight(0.25).build(),
+        ImmutableVariant.builder().name("d").weight(0.25).build()));
+  }
+
+  /**
+   * The hash and compare on every percentage check.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public boolean percentageFeature(final BenchmarkData.Cursor cursor) {
+    return percentage.enabled(BenchmarkData.discriminator(cursor.next()));
+  }
+
+  /**
+   * A large allow list checked for discriminators not on it, the common case. The bloom filter
+   * turns these away before the search.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public boolean idList_notListed(final BenchmarkData.Cursor cursor) {
+    return idList.enabled(BenchmarkData.discriminator(cursor.next()));
+  }
+
+  /**
+   * Picking one of four variants: the hash, a salt mix and the bucket bound scan.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public String variant(final BenchmarkData.Cursor cursor) {
+    final String discriminator = BenchmarkData.discriminator(cursor.next());
+    return variants.variant(discriminator, enablementFactory.hash(discriminator), "control");
+  }
+
+  /**
+   * Baseline: constant enablement.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public boolean enabledFeature(final BenchmarkData.Cursor cursor) {
+    return enabled.enabled(BenchmarkData.discriminator(cursor.next()));
+  }
+
+}
@@ -0,0 +1,218 @@
+package org.codeheadsystems.featureflag.benchmark;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.codeheadsystems.featureflag.factory.Discriminator;
+import org.codeheadsystems.featureflag.manager.FeatureManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FeatureManagerImpl.isEnabled() through the cache. Covers the three cache states a call can hit:
+ * a warm entry, an entry due for refresh on every read, and a miss that loads synchronously. The
+ * snapshot cache is measured warm alongside the guava cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeatureManagerBenchmark {
+
+  /**
+   * Features a request handler checks for one discriminator.
+   */
+  private static final int REQUEST_FEATURE_COUNT = 32;
+
+  private FeatureManager hitManager;
+  private FeatureManager refreshManager;
+  private FeatureManager missManager;
+  private FeatureManager snapshotManager;
+  private List<String> requestFeatures;
+
+  /**
+   * Build the managers and warm the caches that are supposed to be warm.
+   */
+  @Setup
+  public void setup() {
+    hitManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(BenchmarkData.populatedLookupManager())
+        .build();
+    refreshManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(BenchmarkData.populatedLookupManager())
+        .withCacheBuilder(BenchmarkData.cacheBuilder()
+            .maximumSize(BenchmarkData.FEATURE_COUNT)
+            .refreshAfterWrite(Duration.ofNanos(1)))
+        .build();
+    missManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(BenchmarkData.populatedLookupManager())
+        .withCacheBuilder(BenchmarkData.cacheBuilder().maximumSize(0))
+        .build();
+    snapshotManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(BenchmarkData.populatedLookupManager())
+        .withSnapshotCache(Duration.ofSeconds(60))
+        .build();
+    requestFeatures = new ArrayList<>();
+    for (int i = 0; i < REQUEST_FEATURE_COUNT; i++) {
+      requestFeatures.add(BenchmarkData.feature(i));
+    }
+    for (int i = 0; i < BenchmarkData.FEATURE_COUNT; i++) {
+      hitManager.isEnabled(BenchmarkData.feature(i), BenchmarkData.discriminator(i));
+      snapshotManager.isEnabled(BenchmarkData.feature(i), BenchmarkData.discriminator(i));
+      refreshManager.isEnabled(BenchmarkData.feature(i), BenchmarkData.discriminator(i));
+    }
+  }
+
+  /**
+   * Warm cache, single thread.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  @Threads(1)
+  public boolean isEnabled_hit(final BenchmarkData.Cursor cursor) {
+    return hit(cursor);
+  }
+
+  /**
+   * Warm cache, four threads.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  @Threads(4)
+  public boolean isEnabled_hit_4Threads(final BenchmarkData.Cursor cursor) {
+    return hit(cursor);
+  }
+
+  /**
+   * Warm cache, one thread per available processor.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean isEnabled_hit_maxThreads(final BenchmarkData.Cursor cursor) {
+    return hit(cursor);
+  }
+
+  /**
+   * Warm snapshot cache, single thread.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  @Threads(1)
+  public boolean isEnabled_snapshotHit(final BenchmarkData.Cursor cursor) {
+    final int position = cursor.next();
+    return snapshotManager.isEnabled(BenchmarkData.feature(position), BenchmarkData.discriminator(position));
+  }
+
+  /**
+   * Warm snapshot cache, one thread per available processor.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean isEnabled_snapshotHit_maxThreads(final BenchmarkData.Cursor cursor) {
+    final int position = cursor.next();
+    return snapshotManager.isEnabled(BenchmarkData.feature(position), BenchmarkData.discriminator(position));
+  }
+
+  /**
+   * Every read finds the entry due for refresh and schedules a reload.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public boolean isEnabled_refresh(final BenchmarkData.Cursor cursor) {
+    final int position = cursor.next();
+    return refreshManager.isEnabled(BenchmarkData.feature(position), BenchmarkData.discriminator(position));
+  }
+
+  /**
+   * Every read misses and loads through the lookup manager.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public boolean isEnabled_miss(final BenchmarkData.Cursor cursor) {
+    final int position = cursor.next();
+    return missManager.isEnabled(BenchmarkData.feature(position), BenchmarkData.discriminator(position));
+  }
+
+  /**
+   * One request's worth of features for one discriminator, checked one isEnabled at a time.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public int isEnabled_request(final BenchmarkData.Cursor cursor) {
+    final String discriminator = BenchmarkData.discriminator(cursor.next());
+    int enabled = 0;
+    for (String featureId : requestFeatures) {
+      if (snapshotManager.isEnabled(featureId, discriminator)) {
+        enabled++;
+      }
+    }
+    return enabled;
+  }
+
+  /**
+   * One request's worth of features for one discriminator, checked with evaluateAll.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public BitSet evaluateAll_request(final BenchmarkData.Cursor cursor) {
+    return snapshotManager.evaluateAll(BenchmarkData.discriminator(cursor.next()), requestFeatures);
+  }
+
+  /**
+   * One request's worth of features, checked one isEnabled at a time with a discriminator hashed
+   * once for the request.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public int isEnabled_requestDiscriminator(final BenchmarkData.Cursor cursor) {
+    final Discriminator discriminator = Discriminator.of(BenchmarkData.discriminator(cursor.next()));
+    int enabled = 0;
+    for (String featureId : requestFeatures) {
+      if (snapshotManager.isEnabled(featureId, discriminator)) {
+        enabled++;
+      }
+    }
+    return enabled;
+  }
+
+  private boolean hit(final BenchmarkData.Cursor cursor) {
+    final int position = cursor.next();
+    return hitManager.isEnabled(BenchmarkData.feature(position), BenchmarkData.discriminator(position));
+  }
+
+}
@@ -0,0 +1,31 @@
+package org.codeheadsystems.featureflag.benchmark;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.codeheadsystems.featureflag.manager.FeatureLookupManager;
+
+/**
+ * A feature lookup manager backed by a map, so the benchmarks measure our code and not a backend.
+ */
+public class InMemoryFeatureLookupManager implements FeatureLookupManager {
+
+  private final Map<String, Double> percentages = new ConcurrentHashMap<>();
+
+  @Override
+  public Optional<Double> lookupPercentage(final String featureId) {
+    return Optional.ofNullable(percentages.get(featureId));
+  }
+
+  @Override
+  public boolean setPercentage(final String featureId, final double percentage) {
+    percentages.put(featureId, percentage);
+    return true;
+  }
+
+  @Override
+  public void deletePercentage(final String featureId) {
+    percentages.remove(featureId);
+  }
+
+}
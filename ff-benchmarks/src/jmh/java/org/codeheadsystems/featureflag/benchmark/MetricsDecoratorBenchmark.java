@@ -0,0 +1,121 @@
+package org.codeheadsystems.featureflag.benchmark;
+
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import com.codeheadsystems.metrics.Metrics;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.TimeUnit;
+import org.codeheadsystems.featureflag.manager.FeatureManager;
+import org.codeheadsystems.featureflag.manager.MetricsDecorator;
+import org.mockito.invocation.InvocationOnMock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of the MetricsDecorator wrappers. The Metrics instance is a stub-only mock that runs
+ * timed work inline, so the numbers show what the decorators themselves add (tags, lambdas) plus a
+ * constant stub overhead; compare the decorated results against each other, not against the
+ * undecorated FeatureManagerBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsDecoratorBenchmark {
+
+  private FeatureManager decoratedHit;
+  private FeatureManager decoratedHitLowCardinality;
+  private FeatureManager decoratedMiss;
+
+  private static Object answer(final InvocationOnMock invocation) throws Throwable {
+    if (!invocation.getMethod().getName().equals("time")) {
+      return RETURNS_DEFAULTS.answer(invocation);
+    }
+    // The timed work is always the last argument; run it so the decorated lookup returns a value.
+    final Object work = invocation.getArgument(invocation.getArguments().length - 1);
+    for (Method method : work.getClass().getInterfaces()[0].getMethods()) {
+      if (Modifier.isAbstract(method.getModifiers())) {
+        return method.invoke(work);
+      }
+    }
+    throw new IllegalStateException("No functional method on " + work.getClass());
+  }
+
+  /**
+   * Build the decorated managers.
+   */
+  @Setup
+  public void setup() {
+    final Metrics metrics = mock(Metrics.class, withSettings().stubOnly().defaultAnswer(MetricsDecoratorBenchmark::answer));
+    final MetricsDecorator metricsDecorator = new MetricsDecorator(metrics);
+    decoratedHit = new FeatureManager.Builder()
+        .withFeatureManagerDecorator(metricsDecorator.featureManagerDecorator())
+        .withFeatureLookupManagerDecorator(metricsDecorator.featureLookupManagerDecorator())
+        .withFeatureLookupManager(BenchmarkData.populatedLookupManager())
+        .build();
+    decoratedHitLowCardinality = new FeatureManager.Builder()
+        .withFeatureManagerDecorator(metricsDecorator.lowCardinalityFeatureManagerDecorator(0.0))
+        .withFeatureLookupManager(BenchmarkData.populatedLookupManager())
+        .build();
+    decoratedMiss = new FeatureManager.Builder()
+        .withFeatureManagerDecorator(metricsDecorator.featureManagerDecorator())
+        .withFeatureLookupManagerDecorator(metricsDecorator.featureLookupManagerDecorator())
+        .withFeatureLookupManager(BenchmarkData.populatedLookupManager())
+        .withCacheBuilder(BenchmarkData.cacheBuilder().maximumSize(0))
+        .build();
+    for (int i = 0; i < BenchmarkData.FEATURE_COUNT; i++) {
+      decoratedHit.isEnabled(BenchmarkData.feature(i), BenchmarkData.discriminator(i));
+      decoratedHitLowCardinality.isEnabled(BenchmarkData.feature(i), BenchmarkData.discriminator(i));
+    }
+  }
+
+  /**
+   * Decorated isEnabled with a warm cache: the per call tagging cost.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public boolean isEnabled_hit(final BenchmarkData.Cursor cursor) {
+    final int position = cursor.next();
+    return decoratedHit.isEnabled(BenchmarkData.feature(position), BenchmarkData.discriminator(position));
+  }
+
+  /**
+   * Low cardinality decorated isEnabled with a warm cache: tags are cached per feature.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public boolean isEnabled_hit_lowCardinality(final BenchmarkData.Cursor cursor) {
+    final int position = cursor.next();
+    return decoratedHitLowCardinality.isEnabled(BenchmarkData.feature(position), BenchmarkData.discriminator(position));
+  }
+
+  /**
+   * Decorated isEnabled with every call going through the decorated lookup manager.
+   *
+   * @param cursor the cursor
+   * @return the result
+   */
+  @Benchmark
+  public boolean isEnabled_miss(final BenchmarkData.Cursor cursor) {
+    final int position = cursor.next();
+    return decoratedMiss.isEnabled(BenchmarkData.feature(position), BenchmarkData.discriminator(position));
+  }
+
+}
@@ -0,0 +1,246 @@
+package org.codeheadsystems.featureflag.manager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.codeheadsystems.featureflag.manager.FeatureManager.Decorator;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records latency histograms, error counts and timeout counts for each backend operation. Every
+ * call is counted; a sampled fraction of calls records its latency. A call counts as a timeout if
+ * it fails with a timeout anywhere in its cause chain, or if it takes at least the timeout
+ * threshold. The threshold catches backends that turn a timeout into an empty result, like the
+ * etcd lookup does after 100ms.
+ */
+public class LatencyDecorator {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LatencyDecorator.class);
+
+  private final double sampleRate;
+  private final long timeoutThresholdNanos;
+  private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+
+  /**
+   * Instantiates a new Latency decorator.
+   *
+   * @param sampleRate       fraction of calls whose latency is recorded, between 0 and 1.
+   * @param timeoutThreshold calls at least this slow count as timeouts. Duration.ZERO to disable.
+   */
+  public LatencyDecorator(final double sampleRate, final Duration timeoutThreshold) {
+    if (!(sampleRate >= 0.0 && sampleRate <= 1.0)) {
+      throw new IllegalArgumentException("sampleRate must be between 0 and 1: " + sampleRate);
+    }
+    this.sampleRate = sampleRate;
+    this.timeoutThresholdNanos = timeoutThreshold.isZero() ? Long.MAX_VALUE : timeoutThreshold.toNanos();
+    for (Operation operation : Operation.values()) {
+      recorders.put(operation, new Recorder());
+    }
+    LOGGER.info("LatencyDecorator({}, {})", sampleRate, timeoutThreshold);
+  }
+
+  /**
+   * The stats for one operation, since this decorator was created.
+   *
+   * @param operation the operation.
+   * @return the stats.
+   */
+  public OperationStats stats(final Operation operation) {
+    return recorders.get(operation).stats(false);
+  }
+
+  /**
+   * The stats for one operation since the last reset, then start a new interval. Call counts are
+   * cumulative either way.
+   *
+   * @param operation the operation.
+   * @return the stats.
+   */
+  public OperationStats statsAndReset(final Operation operation) {
+    return recorders.get(operation).stats(true);
+  }
+
+  /**
+   * Feature lookup manager decorator.
+   *
+   * @return the decorator
+   */
+  public Decorator<FeatureLookupManager> featureLookupManagerDecorator() {
+    return (delegate) -> {
+      LOGGER.info("decorateFeatureLookupManager({})", delegate);
+      return new FeatureLookupManager() {
+        @Override
+        public Optional<Double> lookupPercentage(String featureId) {
+          return record(Operation.LOOKUP, () -> delegate.lookupPercentage(featureId));
+        }
+
+        @Override
+        public CompletableFuture<Optional<Double>> lookupPercentageAsync(String featureId, Executor executor) {
+          final long start = System.nanoTime();
+          return delegate.lookupPercentageAsync(featureId, executor)
+              .whenComplete((percentage, throwable) ->
+                  recorders.get(Operation.LOOKUP).record(System.nanoTime() - start, throwable));
+        }
+
+        @Override
+        public Optional<FeatureRecord> lookupFeature(String featureId) {
+          return record(Operation.LOOKUP, () -> delegate.lookupFeature(featureId));
+        }
+
+        @Override
+        public CompletableFuture<Optional<FeatureRecord>> lookupFeatureAsync(String featureId, Executor executor) {
+          final long start = System.nanoTime();
+          return delegate.lookupFeatureAsync(featureId, executor)
+              .whenComplete((record, throwable) ->
+                  recorders.get(Operation.LOOKUP).record(System.nanoTime() - start, throwable));
+        }
+
+        @Override
+        public Map<String, Double> lookupPercentages(Collection<String> featureIds) {
+          return record(Operation.BULK, () -> delegate.lookupPercentages(featureIds));
+        }
+
+        @Override
+        public Map<String, FeatureRecord> lookupFeatures(Collection<String> featureIds) {
+          return record(Operation.BULK, () -> delegate.lookupFeatures(featureIds));
+        }
+
+        @Override
+        public Map<String, Double> lookupAll() {
+          return record(Operation.ALL, delegate::lookupAll);
+        }
+
+        @Override
+        public boolean setPercentage(String featureId, double percentage) {
+          return record(Operation.SET, () -> delegate.setPercentage(featureId, percentage));
+        }
+
+        @Override
+        public Optional<IdListLookupManager> idListLookupManager() {
+          return delegate.idListLookupManager();
+        }
+
+        @Override
+        public Optional<VariantLookupManager> variantLookupManager() {
+          return delegate.variantLookupManager();
+        }
+
+        @Override
+        public void invalidate(String featureId) {
+          delegate.invalidate(featureId);
+        }
+
+        @Override
+        public void deletePercentage(String featureId) {
+          record(Operation.DELETE, () -> {
+            delegate.deletePercentage(featureId);
+            return null;
+          });
+        }
+      };
+    };
+  }
+
+  private <T> T record(final Operation operation, final Supplier<T> supplier) {
+    final long start = System.nanoTime();
+    try {
+      final T result = supplier.get();
+      recorders.get(operation).record(System.nanoTime() - start, null);
+      return result;
+    } catch (RuntimeException e) {
+      recorders.get(operation).record(System.nanoTime() - start, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Is a timeout anywhere in the cause chain. Matches by name so SDK specific timeouts count too.
+   */
+  private static boolean isTimeout(final Throwable throwable) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause.getClass().getSimpleName().endsWith("TimeoutException")) {
+        return true;
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The backend operations recorded.
+   */
+  public enum Operation {
+    /**
+     * lookupPercentage, sync or async.
+     */
+    LOOKUP,
+    /**
+     * lookupPercentages.
+     */
+    BULK,
+    /**
+     * lookupAll.
+     */
+    ALL,
+    /**
+     * setPercentage.
+     */
+    SET,
+    /**
+     * deletePercentage.
+     */
+    DELETE
+  }
+
+  /**
+   * The stats for an operation.
+   *
+   * @param calls    calls made.
+   * @param errors   calls that failed, including failed timeouts.
+   * @param timeouts calls that timed out, whether they failed or not.
+   * @param latency  the sampled latencies.
+   */
+  public record OperationStats(long calls, long errors, long timeouts, LatencyHistogram.Snapshot latency) {
+  }
+
+  private class Recorder {
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private void record(final long nanos, final Throwable throwable) {
+      calls.increment();
+      if (throwable != null) {
+        errors.increment();
+      }
+      if (nanos >= timeoutThresholdNanos || (throwable != null && isTimeout(throwable))) {
+        timeouts.increment();
+      }
+      if (sampleRate >= 1.0 || (sampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+        histogram.record(nanos);
+      }
+    }
+
+    private OperationStats stats(final boolean reset) {
+      return new OperationStats(
+          calls.sum(),
+          errors.sum(),
+          timeouts.sum(),
+          reset ? histogram.snapshotAndReset() : histogram.snapshot());
+    }
+  }
+
+}
@@ -0,0 +1,176 @@
+package org.codeheadsystems.featureflag.manager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free log-linear histogram of nanosecond latencies, in the style of HdrHistogram. Each
+ * power of two is split into 32 buckets, so a reported value is within about 3% of the recorded
+ * one. Recording is one atomic increment; values above about 18 minutes land in the top bucket.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_BITS = 40;
+  private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+  private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  /**
+   * The bucket for a value.
+   *
+   * @param value non-negative.
+   * @return the index.
+   */
+  static int index(final long value) {
+    final long clamped = Math.min(Math.max(value, 0L), MAX_VALUE);
+    final int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(clamped) - SUB_BUCKET_BITS);
+    return (shift << SUB_BUCKET_BITS) + (int) (clamped >>> shift);
+  }
+
+  /**
+   * The highest value that lands in a bucket.
+   *
+   * @param index the bucket.
+   * @return the value.
+   */
+  static long highestValue(final int index) {
+    if (index < SUB_BUCKETS * 2) {
+      return index;
+    }
+    final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+    final long mantissa = index - ((long) shift << SUB_BUCKET_BITS);
+    return ((mantissa + 1) << shift) - 1;
+  }
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos the latency.
+   */
+  public void record(final long nanos) {
+    counts.incrementAndGet(index(nanos));
+  }
+
+  /**
+   * Everything recorded so far.
+   *
+   * @return the snapshot.
+   */
+  public Snapshot snapshot() {
+    final long[] copy = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+    }
+    return new Snapshot(copy);
+  }
+
+  /**
+   * Everything recorded since the last reset, then start over. Values recorded while this runs go
+   * into one interval or the next, never both.
+   *
+   * @return the snapshot.
+   */
+  public Snapshot snapshotAndReset() {
+    final long[] copy = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.getAndSet(i, 0L);
+    }
+    return new Snapshot(copy);
+  }
+
+  /**
+   * An immutable copy of the counts.
+   */
+  public static class Snapshot {
+
+    private final long[] counts;
+    private final long count;
+
+    private Snapshot(final long[] counts) {
+      this.counts = counts;
+      long total = 0;
+      for (long bucket : counts) {
+        total += bucket;
+      }
+      this.count = total;
+    }
+
+    /**
+     * How many values were recorded.
+     *
+     * @return the count.
+     */
+    public long count() {
+      return count;
+    }
+
+    /**
+     * The value at a quantile.
+     *
+     * @param quantile between 0 and 1.
+     * @return the latency in nanoseconds, zero if nothing was recorded.
+     */
+    public long valueAt(final double quantile) {
+      if (count == 0) {
+        return 0L;
+      }
+      final long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return highestValue(i);
+        }
+      }
+      return highestValue(counts.length - 1);
+    }
+
+    /**
+     * The median.
+     *
+     * @return the latency in nanoseconds.
+     */
+    public long p50() {
+      return valueAt(0.5);
+    }
+
+    /**
+     * The 99th percentile.
+     *
+     * @return the latency in nanoseconds.
+     */
+    public long p99() {
+      return valueAt(0.99);
+    }
+
+    /**
+     * The 99.9th percentile.
+     *
+     * @return the latency in nanoseconds.
+     */
+    public long p999() {
+      return valueAt(0.999);
+    }
+
+    /**
+     * The largest value recorded.
+     *
+     * @return the latency in nanoseconds.
+     */
+    public long max() {
+      return valueAt(1.0);
+    }
+
+    @Override
+    public String toString() {
+      return "Snapshot{count=" + count
+          + ", p50=" + TimeUnit.NANOSECONDS.toMicros(p50()) + "us"
+          + ", p99=" + TimeUnit.NANOSECONDS.toMicros(p99()) + "us"
+          + ", p999=" + TimeUnit.NANOSECONDS.toMicros(p999()) + "us}";
+    }
+  }
+
+}
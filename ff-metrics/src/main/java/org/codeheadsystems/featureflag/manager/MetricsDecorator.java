@@ -2,8 +2,20 @@ package org.codeheadsystems.featureflag.manager;
 
 import com.codeheadsystems.metrics.Metrics;
 import com.codeheadsystems.metrics.Tags;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import org.codeheadsystems.featureflag.factory.Discriminator;
 import org.codeheadsystems.featureflag.manager.FeatureManager.Decorator;
+import org.codeheadsystems.featureflag.model.FeatureManagerStats;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,6 +27,7 @@ public class MetricsDecorator {
   private static final Logger LOGGER = LoggerFactory.getLogger(MetricsDecorator.class);
 
   private final Metrics metrics;
+  private final ConcurrentMap<String, FeatureTags> featureTags = new ConcurrentHashMap<>();
 
   /**
    * Instantiates a new Metrics decorator.
@@ -37,7 +50,35 @@ public class MetricsDecorator {
       return new FeatureManager() {
         @Override
         public boolean isEnabled(String featureId, String discriminator) {
-          final boolean isEnabled = delegate.isEnabled(featureId, discriminator);
+          return record(featureId, discriminator, delegate.isEnabled(featureId, discriminator));
+        }
+
+        @Override
+        public boolean isEnabled(String featureId, Discriminator discriminator) {
+          return record(featureId, discriminator.value(), delegate.isEnabled(featureId, discriminator));
+        }
+
+        @Override
+        public BitSet evaluateAll(String discriminator, List<String> featureIds) {
+          return record(discriminator, featureIds, delegate.evaluateAll(discriminator, featureIds));
+        }
+
+        @Override
+        public BitSet evaluateAll(Discriminator discriminator, List<String> featureIds) {
+          return record(discriminator.value(), featureIds, delegate.evaluateAll(discriminator, featureIds));
+        }
+
+        @Override
+        public String variant(String featureId, String discriminator, String defaultVariant) {
+          return delegate.variant(featureId, discriminator, defaultVariant);
+        }
+
+        @Override
+        public String variant(String featureId, Discriminator discriminator, String defaultVariant) {
+          return delegate.variant(featureId, discriminator, defaultVariant);
+        }
+
+        private boolean record(String featureId, String discriminator, boolean isEnabled) {
           final Tags tags = Tags.of(
               "feature", featureId,
               "discriminator", discriminator,
@@ -46,6 +87,13 @@ public class MetricsDecorator {
           return isEnabled;
         }
 
+        private BitSet record(String discriminator, List<String> featureIds, BitSet enabled) {
+          for (int i = 0; i < featureIds.size(); i++) {
+            record(featureIds.get(i), discriminator, enabled.get(i));
+          }
+          return enabled;
+        }
+
         @Override
         public void invalidate(final String featureId) {
           metrics.time("feature_flag_invalidate",
@@ -55,10 +103,144 @@ public class MetricsDecorator {
                 return null;
               });
         }
+
+        @Override
+        public void refresh(final String featureId) {
+          metrics.time("feature_flag_refresh",
+              Tags.of("feature", featureId),
+              () -> {
+                delegate.refresh(featureId);
+                return null;
+              });
+        }
+
+        @Override
+        public FeatureManagerStats stats() {
+          return delegate.stats();
+        }
+
+        @Override
+        public void close() {
+          delegate.close();
+        }
       };
     };
   }
 
+  /**
+   * Feature manager decorator that tags isEnabled counts by feature and result only. The tags for
+   * each feature are built once and reused, so recording allocates nothing. Set a sample rate to
+   * also count a fraction of calls tagged with the discriminator, as feature_flag_isEnabled_sampled.
+   *
+   * @param discriminatorSampleRate fraction of calls to count by discriminator, 0 for none.
+   * @return the decorator
+   */
+  public Decorator<FeatureManager> lowCardinalityFeatureManagerDecorator(final double discriminatorSampleRate) {
+    if (!(discriminatorSampleRate >= 0.0 && discriminatorSampleRate <= 1.0)) {
+      throw new IllegalArgumentException("discriminatorSampleRate must be between 0 and 1: " + discriminatorSampleRate);
+    }
+    return (delegate) -> {
+      LOGGER.info("decorateFeatureManager({}, {})", delegate, discriminatorSampleRate);
+      return new FeatureManager() {
+        @Override
+        public boolean isEnabled(String featureId, String discriminator) {
+          return record(featureId, discriminator, delegate.isEnabled(featureId, discriminator));
+        }
+
+        @Override
+        public boolean isEnabled(String featureId, Discriminator discriminator) {
+          return record(featureId, discriminator.value(), delegate.isEnabled(featureId, discriminator));
+        }
+
+        @Override
+        public BitSet evaluateAll(String discriminator, List<String> featureIds) {
+          return record(discriminator, featureIds, delegate.evaluateAll(discriminator, featureIds));
+        }
+
+        @Override
+        public BitSet evaluateAll(Discriminator discriminator, List<String> featureIds) {
+          return record(discriminator.value(), featureIds, delegate.evaluateAll(discriminator, featureIds));
+        }
+
+        @Override
+        public String variant(String featureId, String discriminator, String defaultVariant) {
+          return delegate.variant(featureId, discriminator, defaultVariant);
+        }
+
+        @Override
+        public String variant(String featureId, Discriminator discriminator, String defaultVariant) {
+          return delegate.variant(featureId, discriminator, defaultVariant);
+        }
+
+        private boolean record(String featureId, String discriminator, boolean isEnabled) {
+          metrics.increment("feature_flag_isEnabled", featureTags(featureId).get(isEnabled));
+          if (sampled()) {
+            recordSampled(featureId, discriminator, isEnabled);
+          }
+          return isEnabled;
+        }
+
+        private BitSet record(String discriminator, List<String> featureIds, BitSet enabled) {
+          for (int i = 0; i < featureIds.size(); i++) {
+            metrics.increment("feature_flag_isEnabled", featureTags(featureIds.get(i)).get(enabled.get(i)));
+          }
+          if (sampled()) {
+            for (int i = 0; i < featureIds.size(); i++) {
+              recordSampled(featureIds.get(i), discriminator, enabled.get(i));
+            }
+          }
+          return enabled;
+        }
+
+        private boolean sampled() {
+          return discriminatorSampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < discriminatorSampleRate;
+        }
+
+        private void recordSampled(String featureId, String discriminator, boolean isEnabled) {
+          metrics.increment("feature_flag_isEnabled_sampled", Tags.of(
+              "feature", featureId,
+              "discriminator", discriminator,
+              "enabled", Boolean.toString(isEnabled)));
+        }
+
+        @Override
+        public void invalidate(final String featureId) {
+          metrics.time("feature_flag_invalidate",
+              featureTags(featureId).feature(),
+              () -> {
+                delegate.invalidate(featureId);
+                return null;
+              });
+        }
+
+        @Override
+        public void refresh(final String featureId) {
+          metrics.time("feature_flag_refresh",
+              featureTags(featureId).feature(),
+              () -> {
+                delegate.refresh(featureId);
+                return null;
+              });
+        }
+
+        @Override
+        public FeatureManagerStats stats() {
+          return delegate.stats();
+        }
+
+        @Override
+        public void close() {
+          delegate.close();
+        }
+      };
+    };
+  }
+
+  private FeatureTags featureTags(final String featureId) {
+    final FeatureTags tags = featureTags.get(featureId);
+    return tags != null ? tags : featureTags.computeIfAbsent(featureId, FeatureTags::new);
+  }
+
   /**
    * Feature lookup manager decorator decorator.
    *
@@ -75,6 +257,46 @@ public class MetricsDecorator {
               () -> delegate.lookupPercentage(featureId));
         }
 
+        @Override
+        public CompletableFuture<Optional<Double>> lookupPercentageAsync(String featureId, Executor executor) {
+          metrics.increment("feature_flag_lookupAsync", Tags.of("feature", featureId));
+          return delegate.lookupPercentageAsync(featureId, executor);
+        }
+
+        @Override
+        public Optional<FeatureRecord> lookupFeature(String featureId) {
+          return metrics.time("feature_flag_lookup",
+              Tags.of("feature", featureId),
+              () -> delegate.lookupFeature(featureId));
+        }
+
+        @Override
+        public CompletableFuture<Optional<FeatureRecord>> lookupFeatureAsync(String featureId, Executor executor) {
+          metrics.increment("feature_flag_lookupAsync", Tags.of("feature", featureId));
+          return delegate.lookupFeatureAsync(featureId, executor);
+        }
+
+        @Override
+        public Map<String, Double> lookupPercentages(Collection<String> featureIds) {
+          return metrics.time("feature_flag_lookupPercentages",
+              Tags.of("feature", "batch"),
+              () -> delegate.lookupPercentages(featureIds));
+        }
+
+        @Override
+        public Map<String, FeatureRecord> lookupFeatures(Collection<String> featureIds) {
+          return metrics.time("feature_flag_lookupFeatures",
+              Tags.of("feature", "batch"),
+              () -> delegate.lookupFeatures(featureIds));
+        }
+
+        @Override
+        public Map<String, Double> lookupAll() {
+          return metrics.time("feature_flag_lookupAll",
+              Tags.of("feature", "all"),
+              () -> delegate.lookupAll());
+        }
+
         @Override
         public boolean setPercentage(String featureId, double percentage) {
           return metrics.time("feature_flag_setPercentage",
@@ -82,6 +304,21 @@ public class MetricsDecorator {
               () -> delegate.setPercentage(featureId, percentage));
         }
 
+        @Override
+        public Optional<IdListLookupManager> idListLookupManager() {
+          return delegate.idListLookupManager();
+        }
+
+        @Override
+        public Optional<VariantLookupManager> variantLookupManager() {
+          return delegate.variantLookupManager();
+        }
+
+        @Override
+        public void invalidate(String featureId) {
+          delegate.invalidate(featureId);
+        }
+
         @Override
         public void deletePercentage(String featureId) {
           metrics.time("feature_flag_deletePercentage",
@@ -95,4 +332,25 @@ public class MetricsDecorator {
     };
   }
 
+  /**
+   * The tags for one feature, built once.
+   *
+   * @param feature  tagged by feature.
+   * @param enabled  tagged by feature and enabled=true.
+   * @param disabled tagged by feature and enabled=false.
+   */
+  private record FeatureTags(Tags feature, Tags enabled, Tags disabled) {
+
+    private FeatureTags(final String featureId) {
+      this(Tags.of("feature", featureId),
+          Tags.of("feature", featureId, "enabled", "true"),
+          Tags.of("feature", featureId, "enabled", "false"));
+    }
+
+    private Tags get(final boolean isEnabled) {
+      return isEnabled ? enabled : disabled;
+    }
+
+  }
+
 }
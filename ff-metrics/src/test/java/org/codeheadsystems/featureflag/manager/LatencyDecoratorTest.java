@@ -0,0 +1,102 @@
+package org.codeheadsystems.featureflag.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import org.codeheadsystems.featureflag.manager.LatencyDecorator.Operation;
+import org.codeheadsystems.featureflag.manager.LatencyDecorator.OperationStats;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class LatencyDecoratorTest {
+
+  private static final String FEATURE_ID = "featureId";
+
+  @Mock private FeatureLookupManager featureLookupManager;
+
+  @Test
+  void lookupPercentage() {
+    final LatencyDecorator latencyDecorator = new LatencyDecorator(1.0, Duration.ZERO);
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    final FeatureLookupManager decorated = latencyDecorator.featureLookupManagerDecorator().decorate(featureLookupManager);
+
+    assertThat(decorated.lookupPercentage(FEATURE_ID)).contains(0.5);
+
+    final OperationStats stats = latencyDecorator.stats(Operation.LOOKUP);
+    assertThat(stats.calls()).isEqualTo(1L);
+    assertThat(stats.errors()).isZero();
+    assertThat(stats.timeouts()).isZero();
+    assertThat(stats.latency().count()).isEqualTo(1L);
+  }
+
+  @Test
+  void lookupPercentage_timeoutInCause() {
+    final LatencyDecorator latencyDecorator = new LatencyDecorator(1.0, Duration.ZERO);
+    when(featureLookupManager.lookupPercentage(FEATURE_ID))
+        .thenThrow(new IllegalArgumentException(new TimeoutException()));
+    final FeatureLookupManager decorated = latencyDecorator.featureLookupManagerDecorator().decorate(featureLookupManager);
+
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> decorated.lookupPercentage(FEATURE_ID));
+
+    final OperationStats stats = latencyDecorator.stats(Operation.LOOKUP);
+    assertThat(stats.errors()).isEqualTo(1L);
+    assertThat(stats.timeouts()).isEqualTo(1L);
+  }
+
+  @Test
+  void lookupPercentage_slowCountsAsTimeout() {
+    final LatencyDecorator latencyDecorator = new LatencyDecorator(0.0, Duration.ofNanos(1));
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.empty());
+    final FeatureLookupManager decorated = latencyDecorator.featureLookupManagerDecorator().decorate(featureLookupManager);
+
+    decorated.lookupPercentage(FEATURE_ID);
+
+    final OperationStats stats = latencyDecorator.stats(Operation.LOOKUP);
+    assertThat(stats.errors()).isZero();
+    assertThat(stats.timeouts()).isEqualTo(1L);
+    assertThat(stats.latency().count()).isZero();
+  }
+
+  @Test
+  void lookupPercentageAsync_failure() {
+    final LatencyDecorator latencyDecorator = new LatencyDecorator(1.0, Duration.ZERO);
+    when(featureLookupManager.lookupPercentageAsync(FEATURE_ID, null))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException()));
+    final FeatureLookupManager decorated = latencyDecorator.featureLookupManagerDecorator().decorate(featureLookupManager);
+
+    assertThat(decorated.lookupPercentageAsync(FEATURE_ID, null)).isCompletedExceptionally();
+
+    final OperationStats stats = latencyDecorator.stats(Operation.LOOKUP);
+    assertThat(stats.calls()).isEqualTo(1L);
+    assertThat(stats.errors()).isEqualTo(1L);
+    assertThat(stats.timeouts()).isZero();
+  }
+
+  @Test
+  void deletePercentage() {
+    final LatencyDecorator latencyDecorator = new LatencyDecorator(1.0, Duration.ZERO);
+    final FeatureLookupManager decorated = latencyDecorator.featureLookupManagerDecorator().decorate(featureLookupManager);
+
+    decorated.deletePercentage(FEATURE_ID);
+
+    assertThat(latencyDecorator.stats(Operation.DELETE).calls()).isEqualTo(1L);
+    assertThat(latencyDecorator.statsAndReset(Operation.DELETE).latency().count()).isEqualTo(1L);
+    assertThat(latencyDecorator.stats(Operation.DELETE).latency().count()).isZero();
+  }
+
+  @Test
+  void constructor_invalidSampleRate() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> new LatencyDecorator(2.0, Duration.ZERO));
+  }
+
+}
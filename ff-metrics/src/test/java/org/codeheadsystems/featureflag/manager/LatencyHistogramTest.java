@@ -0,0 +1,44 @@
+package org.codeheadsystems.featureflag.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LatencyHistogramTest {
+
+  @ParameterizedTest
+  @ValueSource(longs = {0L, 1L, 63L, 64L, 65L, 1_000L, 100_000_000L, 1L << 39})
+  void index_bucketHoldsValue(final long value) {
+    final int index = LatencyHistogram.index(value);
+    assertThat(LatencyHistogram.highestValue(index)).isGreaterThanOrEqualTo(value);
+    if (index > 0) {
+      assertThat(LatencyHistogram.highestValue(index - 1)).isLessThan(value);
+    }
+  }
+
+  @Test
+  void percentiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertThat(snapshot.count()).isEqualTo(1000L);
+    assertThat(snapshot.p50()).isCloseTo(500_000L, within(16_000L));
+    assertThat(snapshot.p99()).isCloseTo(990_000L, within(32_000L));
+    assertThat(snapshot.p999()).isCloseTo(999_000L, within(32_000L));
+  }
+
+  @Test
+  void snapshotAndReset() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1000L);
+    assertThat(histogram.snapshotAndReset().count()).isEqualTo(1L);
+    assertThat(histogram.snapshot().count()).isZero();
+    assertThat(histogram.snapshot().p99()).isZero();
+  }
+
+}
@@ -1,10 +1,20 @@
 package org.codeheadsystems.featureflag.manager;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.codeheadsystems.metrics.Metrics;
+import com.codeheadsystems.metrics.Tags;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -12,7 +22,12 @@ import org.mockito.junit.jupiter.MockitoExtension;
 @ExtendWith(MockitoExtension.class)
 class MetricsDecoratorTest {
 
+  private static final String FEATURE_ID = "featureId";
+
   @Mock private Metrics metrics;
+  @Mock private FeatureManager featureManager;
+
+  @Captor private ArgumentCaptor<Tags> tagsArgumentCaptor;
 
   @InjectMocks private MetricsDecorator metricsDecorator;
 
@@ -23,5 +38,48 @@ class MetricsDecoratorTest {
     builder.withFeatureLookupManagerDecorator(metricsDecorator.featureLookupManagerDecorator());
   }
 
+  @Test
+  public void lowCardinality_reusesTags() {
+    when(featureManager.isEnabled(eq(FEATURE_ID), any())).thenReturn(true);
+    final FeatureManager decorated = metricsDecorator.lowCardinalityFeatureManagerDecorator(0.0).decorate(featureManager);
+
+    assertThat(decorated.isEnabled(FEATURE_ID, "one")).isTrue();
+    assertThat(decorated.isEnabled(FEATURE_ID, "two")).isTrue();
+
+    verify(metrics, times(2)).increment(eq("feature_flag_isEnabled"), tagsArgumentCaptor.capture());
+    assertThat(tagsArgumentCaptor.getAllValues().get(0)).isSameAs(tagsArgumentCaptor.getAllValues().get(1));
+    verify(metrics, never()).increment(eq("feature_flag_isEnabled_sampled"), any());
+  }
+
+  @Test
+  public void lowCardinality_separateTagsByResult() {
+    when(featureManager.isEnabled(FEATURE_ID, "one")).thenReturn(true);
+    when(featureManager.isEnabled(FEATURE_ID, "two")).thenReturn(false);
+    final FeatureManager decorated = metricsDecorator.lowCardinalityFeatureManagerDecorator(0.0).decorate(featureManager);
+
+    decorated.isEnabled(FEATURE_ID, "one");
+    decorated.isEnabled(FEATURE_ID, "two");
+
+    verify(metrics, times(2)).increment(eq("feature_flag_isEnabled"), tagsArgumentCaptor.capture());
+    assertThat(tagsArgumentCaptor.getAllValues().get(0)).isNotSameAs(tagsArgumentCaptor.getAllValues().get(1));
+  }
+
+  @Test
+  public void lowCardinality_sampled() {
+    when(featureManager.isEnabled(FEATURE_ID, "one")).thenReturn(true);
+    final FeatureManager decorated = metricsDecorator.lowCardinalityFeatureManagerDecorator(1.0).decorate(featureManager);
+
+    decorated.isEnabled(FEATURE_ID, "one");
+
+    verify(metrics).increment(eq("feature_flag_isEnabled_sampled"), any());
+  }
+
+  @Test
+  public void lowCardinality_invalidSampleRate() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> metricsDecorator.lowCardinalityFeatureManagerDecorator(1.5));
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> metricsDecorator.lowCardinalityFeatureManagerDecorator(Double.NaN));
+  }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,100 @@
+/*
+ * This file was generated by the Gradle 'init' task.
+ *
+ * This generated file contains a sample Java library project to get you started.
+ * For more details on building Java & JVM projects, please refer to https://docs.gradle.org/8.7/userguide/building_java_projects.html in the Gradle documentation.
+ */
+
+plugins {
+    // Apply the java-library plugin for API and implementation separation.
+    `java-library`
+    checkstyle
+    `maven-publish`
+    signing
+}
+
+repositories {
+    // Use Maven Central for resolving dependencies.
+    mavenCentral()
+}
+
+
+dependencies {
+
+    // This dependency is exported to consumers, that is to say found on their compile classpath.
+    api(project(":ff"))
+    api(libs.micrometer.core)
+
+    // This dependency is used internally, and not exposed to consumers on their own compile classpath.
+    implementation(libs.slf4j.api)
+
+    testImplementation(libs.bundles.logback)
+    testImplementation(libs.bundles.testing)
+
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+// Apply a specific Java toolchain to ease working on different environments.
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(21)
+    }
+    withJavadocJar()
+    withSourcesJar()
+}
+
+tasks.named<Test>("test") {
+    useJUnitPlatform()
+}
+
+publishing {
+    publications {
+        create<MavenPublication>("mavenJava") {
+            artifactId = "feature-flag-micrometer"
+            from(components["java"])
+            pom {
+                name = "Feature Flag Micrometer Support"
+                description = "Micrometer meters for the feature manager and lookup managers"
+                url = "https://github.com/wolpert/feature-flag"
+                licenses {
+                    license {
+                        name = "The Apache License, Version 2.0"
+                        url = "http://www.apache.org/licenses/LICENSE-2.0.txt"
+                    }
+                }
+                developers {
+                    developer {
+                        id = "wolpert"
+                        name = "Ned Wolpert"
+                        email = "ned.wolpert@gmail.com"
+                    }
+                }
+                scm {
+                    connection = "scm:git:git://github.com/wolpert/feature-flag.git"
+                    developerConnection = "scm:git:ssh://github.com/wolpert/feature-flag.git"
+                    url = "https://github.com/wolpert/feature-flag/"
+                }
+            }
+
+        }
+    }
+    repositories {
+        maven {
+            val releasesRepoUrl = "https://oss.sonatype.org/service/local/staging/deploy/maven2"
+            val snapshotsRepoUrl = "https://oss.sonatype.org/content/repositories/snapshots"
+            url = uri(if (version.toString().endsWith("SNAPSHOT")) snapshotsRepoUrl else releasesRepoUrl)
+            name = "ossrh"
+            credentials(PasswordCredentials::class)
+        }
+    }
+}
+signing {
+    useGpgCmd()
+    sign(publishing.publications["mavenJava"])
+}
+tasks.javadoc {
+    if (JavaVersion.current().isJava9Compatible) {
+        (options as StandardJavadocDocletOptions).addBooleanOption("html5", true)
+    }
+}
+
@@ -0,0 +1,351 @@
+package org.codeheadsystems.featureflag.manager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.codeheadsystems.featureflag.factory.Discriminator;
+import org.codeheadsystems.featureflag.manager.FeatureManager.Decorator;
+import org.codeheadsystems.featureflag.manager.impl.BoundedExecutor;
+import org.codeheadsystems.featureflag.model.FeatureManagerStats;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Micrometer meters for the feature manager and its lookup manager. Timers, cache gauges and error
+ * counters are registered when decorating; evaluation counters are registered the first time each
+ * feature is seen and reused after that. Recording never builds tags or looks up the registry.
+ */
+public class MicrometerDecorator {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MicrometerDecorator.class);
+
+  private final MeterRegistry registry;
+  private final Tags tags;
+
+  /**
+   * Instantiates a new Micrometer decorator.
+   *
+   * @param registry the registry
+   */
+  public MicrometerDecorator(final MeterRegistry registry) {
+    this(registry, Tags.empty());
+  }
+
+  /**
+   * Instantiates a new Micrometer decorator. Give each feature manager sharing a registry its own
+   * tags, or their cache meters collide.
+   *
+   * @param registry the registry
+   * @param tags     added to every meter.
+   */
+  public MicrometerDecorator(final MeterRegistry registry, final Iterable<Tag> tags) {
+    this.registry = registry;
+    this.tags = Tags.of(tags);
+    LOGGER.info("MicrometerDecorator({}, {})", registry, this.tags);
+  }
+
+  /**
+   * Feature manager decorator. Registers the cache meters from the delegate's stats(), a counter
+   * per feature and result, and timers for invalidate and refresh.
+   *
+   * @return the decorator
+   */
+  public Decorator<FeatureManager> featureManagerDecorator() {
+    return (delegate) -> {
+      LOGGER.info("decorateFeatureManager({})", delegate);
+      registerCacheMeters(delegate);
+      final Timer invalidateTimer = Timer.builder("feature_flag.invalidate").tags(tags).register(registry);
+      final Timer refreshTimer = Timer.builder("feature_flag.refresh").tags(tags).register(registry);
+      final ConcurrentMap<String, Counter[]> evaluations = new ConcurrentHashMap<>();
+      return new FeatureManager() {
+        @Override
+        public boolean isEnabled(String featureId, String discriminator) {
+          return record(featureId, delegate.isEnabled(featureId, discriminator));
+        }
+
+        @Override
+        public boolean isEnabled(String featureId, Discriminator discriminator) {
+          return record(featureId, delegate.isEnabled(featureId, discriminator));
+        }
+
+        @Override
+        public BitSet evaluateAll(String discriminator, List<String> featureIds) {
+          return record(featureIds, delegate.evaluateAll(discriminator, featureIds));
+        }
+
+        @Override
+        public BitSet evaluateAll(Discriminator discriminator, List<String> featureIds) {
+          return record(featureIds, delegate.evaluateAll(discriminator, featureIds));
+        }
+
+        @Override
+        public String variant(String featureId, String discriminator, String defaultVariant) {
+          return delegate.variant(featureId, discriminator, defaultVariant);
+        }
+
+        @Override
+        public String variant(String featureId, Discriminator discriminator, String defaultVariant) {
+          return delegate.variant(featureId, discriminator, defaultVariant);
+        }
+
+        private boolean record(final String featureId, final boolean isEnabled) {
+          Counter[] counters = evaluations.get(featureId);
+          if (counters == null) {
+            counters = evaluations.computeIfAbsent(featureId, this::evaluationCounters);
+          }
+          counters[isEnabled ? 1 : 0].increment();
+          return isEnabled;
+        }
+
+        private BitSet record(final List<String> featureIds, final BitSet enabled) {
+          for (int i = 0; i < featureIds.size(); i++) {
+            record(featureIds.get(i), enabled.get(i));
+          }
+          return enabled;
+        }
+
+        private Counter[] evaluationCounters(final String featureId) {
+          return new Counter[]{evaluationCounter(featureId, false), evaluationCounter(featureId, true)};
+        }
+
+        private Counter evaluationCounter(final String featureId, final boolean enabled) {
+          return Counter.builder("feature_flag.evaluations")
+              .tags(tags)
+              .tag("feature", featureId)
+              .tag("enabled", Boolean.toString(enabled))
+              .register(registry);
+        }
+
+        @Override
+        public void invalidate(final String featureId) {
+          invalidateTimer.record(() -> delegate.invalidate(featureId));
+        }
+
+        @Override
+        public void refresh(final String featureId) {
+          refreshTimer.record(() -> delegate.refresh(featureId));
+        }
+
+        @Override
+        public FeatureManagerStats stats() {
+          return delegate.stats();
+        }
+
+        @Override
+        public void close() {
+          delegate.close();
+        }
+      };
+    };
+  }
+
+  /**
+   * Feature lookup manager decorator. Registers a latency timer with a percentile histogram and an
+   * error counter for each backend operation.
+   *
+   * @return the decorator
+   */
+  public Decorator<FeatureLookupManager> featureLookupManagerDecorator() {
+    return (delegate) -> {
+      LOGGER.info("decorateFeatureLookupManager({})", delegate);
+      final Map<Operation, Timer> timers = new EnumMap<>(Operation.class);
+      final Map<Operation, Counter> errors = new EnumMap<>(Operation.class);
+      for (Operation operation : Operation.values()) {
+        timers.put(operation, Timer.builder("feature_flag.backend")
+            .tags(tags)
+            .tag("operation", operation.tag)
+            .publishPercentileHistogram()
+            .register(registry));
+        errors.put(operation, Counter.builder("feature_flag.backend.errors")
+            .tags(tags)
+            .tag("operation", operation.tag)
+            .register(registry));
+      }
+      return new FeatureLookupManager() {
+        @Override
+        public Optional<Double> lookupPercentage(String featureId) {
+          return record(Operation.LOOKUP, () -> delegate.lookupPercentage(featureId));
+        }
+
+        @Override
+        public CompletableFuture<Optional<Double>> lookupPercentageAsync(String featureId, Executor executor) {
+          final long start = System.nanoTime();
+          return delegate.lookupPercentageAsync(featureId, executor)
+              .whenComplete((percentage, throwable) -> {
+                timers.get(Operation.LOOKUP).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (throwable != null) {
+                  errors.get(Operation.LOOKUP).increment();
+                }
+              });
+        }
+
+        @Override
+        public Optional<FeatureRecord> lookupFeature(String featureId) {
+          return record(Operation.LOOKUP, () -> delegate.lookupFeature(featureId));
+        }
+
+        @Override
+        public CompletableFuture<Optional<FeatureRecord>> lookupFeatureAsync(String featureId, Executor executor) {
+          final long start = System.nanoTime();
+          return delegate.lookupFeatureAsync(featureId, executor)
+              .whenComplete((record, throwable) -> {
+                timers.get(Operation.LOOKUP).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (throwable != null) {
+                  errors.get(Operation.LOOKUP).increment();
+                }
+              });
+        }
+
+        @Override
+        public Map<String, Double> lookupPercentages(Collection<String> featureIds) {
+          return record(Operation.BULK, () -> delegate.lookupPercentages(featureIds));
+        }
+
+        @Override
+        public Map<String, FeatureRecord> lookupFeatures(Collection<String> featureIds) {
+          return record(Operation.BULK, () -> delegate.lookupFeatures(featureIds));
+        }
+
+        @Override
+        public Map<String, Double> lookupAll() {
+          return record(Operation.ALL, delegate::lookupAll);
+        }
+
+        @Override
+        public boolean setPercentage(String featureId, double percentage) {
+          return record(Operation.SET, () -> delegate.setPercentage(featureId, percentage));
+        }
+
+        @Override
+        public Optional<IdListLookupManager> idListLookupManager() {
+          return delegate.idListLookupManager();
+        }
+
+        @Override
+        public Optional<VariantLookupManager> variantLookupManager() {
+          return delegate.variantLookupManager();
+        }
+
+        @Override
+        public void invalidate(String featureId) {
+          delegate.invalidate(featureId);
+        }
+
+        @Override
+        public void deletePercentage(String featureId) {
+          record(Operation.DELETE, () -> {
+            delegate.deletePercentage(featureId);
+            return null;
+          });
+        }
+
+        private <T> T record(final Operation operation, final Supplier<T> supplier) {
+          final long start = System.nanoTime();
+          try {
+            return supplier.get();
+          } catch (RuntimeException e) {
+            errors.get(operation).increment();
+            throw e;
+          } finally {
+            timers.get(operation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+          }
+        }
+      };
+    };
+  }
+
+  /**
+   * Register queue depth and in flight gauges for a bounded cache loader executor. The feature
+   * manager decorator already registers these for the executor a feature manager reports in its
+   * stats(); use this for one that is not.
+   *
+   * @param executor the executor
+   */
+  public void bindLoaderExecutor(final BoundedExecutor executor) {
+    Gauge.builder("feature_flag.loader.queue", executor, BoundedExecutor::queueDepth).tags(tags).register(registry);
+    Gauge.builder("feature_flag.loader.in_flight", executor, BoundedExecutor::inFlight).tags(tags).register(registry);
+  }
+
+  private void registerCacheMeters(final FeatureManager featureManager) {
+    try {
+      featureManager.stats();
+    } catch (UnsupportedOperationException e) {
+      LOGGER.warn("No cache stats from {}, skipping the cache meters", featureManager);
+      return;
+    }
+    FunctionCounter.builder("feature_flag.cache.gets", featureManager, fm -> fm.stats().hitCount())
+        .tags(tags).tag("result", "hit").register(registry);
+    FunctionCounter.builder("feature_flag.cache.gets", featureManager, fm -> fm.stats().missCount())
+        .tags(tags).tag("result", "miss").register(registry);
+    FunctionCounter.builder("feature_flag.cache.loads", featureManager, fm -> fm.stats().loadSuccessCount())
+        .tags(tags).tag("result", "success").register(registry);
+    FunctionCounter.builder("feature_flag.cache.loads", featureManager, fm -> fm.stats().loadFailureCount())
+        .tags(tags).tag("result", "failure").register(registry);
+    FunctionCounter.builder("feature_flag.cache.evictions", featureManager, fm -> fm.stats().evictionCount())
+        .tags(tags).register(registry);
+    FunctionTimer.builder("feature_flag.cache.load.duration", featureManager,
+            fm -> {
+              final FeatureManagerStats stats = fm.stats();
+              return stats.loadSuccessCount() + stats.loadFailureCount();
+            },
+            fm -> fm.stats().totalLoadTimeNanos(),
+            TimeUnit.NANOSECONDS)
+        .tags(tags).register(registry);
+    Gauge.builder("feature_flag.cache.size", featureManager, fm -> fm.stats().size())
+        .tags(tags).register(registry);
+    Gauge.builder("feature_flag.cache.oldest_refresh_age", featureManager, MicrometerDecorator::oldestRefreshAgeSeconds)
+        .tags(tags).baseUnit("seconds").register(registry);
+    if (featureManager.stats().loaderQueueDepth().isPresent()) {
+      Gauge.builder("feature_flag.loader.queue", featureManager, fm -> fm.stats().loaderQueueDepth().orElse(0))
+          .tags(tags).register(registry);
+      Gauge.builder("feature_flag.loader.in_flight", featureManager, fm -> fm.stats().loaderInFlight().orElse(0))
+          .tags(tags).register(registry);
+    }
+  }
+
+  /**
+   * The age of the stalest cached feature, which alerts can watch without a series per feature.
+   */
+  private static double oldestRefreshAgeSeconds(final FeatureManager featureManager) {
+    final FeatureManagerStats stats = featureManager.stats();
+    return stats.lastRefreshed().values().stream()
+        .min(Instant::compareTo)
+        .map(oldest -> Duration.between(oldest, stats.asOf()).toMillis() / 1000.0)
+        .orElse(0.0);
+  }
+
+  private enum Operation {
+    LOOKUP("lookup"),
+    BULK("bulk"),
+    ALL("all"),
+    SET("set"),
+    DELETE("delete");
+
+    private final String tag;
+
+    Operation(final String tag) {
+      this.tag = tag;
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+package org.codeheadsystems.featureflag.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Optional;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureManagerStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class MicrometerDecoratorTest {
+
+  private static final String FEATURE_ID = "featureId";
+
+  @Mock private FeatureManager featureManager;
+  @Mock private FeatureLookupManager featureLookupManager;
+
+  private SimpleMeterRegistry registry;
+  private MicrometerDecorator micrometerDecorator;
+
+  @BeforeEach
+  void setUp() {
+    registry = new SimpleMeterRegistry();
+    micrometerDecorator = new MicrometerDecorator(registry);
+  }
+
+  @Test
+  void featureManagerDecorator_evaluations() {
+    when(featureManager.stats()).thenThrow(new UnsupportedOperationException());
+    when(featureManager.isEnabled(FEATURE_ID, "one")).thenReturn(true);
+    when(featureManager.isEnabled(FEATURE_ID, "two")).thenReturn(false);
+    final FeatureManager decorated = micrometerDecorator.featureManagerDecorator().decorate(featureManager);
+
+    assertThat(decorated.isEnabled(FEATURE_ID, "one")).isTrue();
+    assertThat(decorated.isEnabled(FEATURE_ID, "one")).isTrue();
+    assertThat(decorated.isEnabled(FEATURE_ID, "two")).isFalse();
+
+    assertThat(registry.get("feature_flag.evaluations").tag("feature", FEATURE_ID).tag("enabled", "true").counter().count())
+        .isEqualTo(2.0);
+    assertThat(registry.get("feature_flag.evaluations").tag("feature", FEATURE_ID).tag("enabled", "false").counter().count())
+        .isEqualTo(1.0);
+    assertThat(registry.find("feature_flag.cache.gets").functionCounter()).isNull();
+  }
+
+  @Test
+  void featureManagerDecorator_cacheMeters() {
+    when(featureManager.stats()).thenReturn(ImmutableFeatureManagerStats.builder()
+        .hitCount(3)
+        .missCount(1)
+        .loadSuccessCount(1)
+        .loadFailureCount(0)
+        .totalLoadTimeNanos(1000)
+        .evictionCount(0)
+        .size(1)
+        .build());
+    micrometerDecorator.featureManagerDecorator().decorate(featureManager);
+
+    assertThat(registry.get("feature_flag.cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(3.0);
+    assertThat(registry.get("feature_flag.cache.gets").tag("result", "miss").functionCounter().count()).isEqualTo(1.0);
+    assertThat(registry.get("feature_flag.cache.size").gauge().value()).isEqualTo(1.0);
+    assertThat(registry.find("feature_flag.loader.queue").gauge()).isNull();
+  }
+
+  @Test
+  void featureManagerDecorator_loaderMeters() {
+    when(featureManager.stats()).thenReturn(ImmutableFeatureManagerStats.builder()
+        .hitCount(0)
+        .missCount(0)
+        .loadSuccessCount(0)
+        .loadFailureCount(0)
+        .totalLoadTimeNanos(0)
+        .evictionCount(0)
+        .size(0)
+        .loaderQueueDepth(2)
+        .loaderInFlight(16)
+        .build());
+    micrometerDecorator.featureManagerDecorator().decorate(featureManager);
+
+    assertThat(registry.get("feature_flag.loader.queue").gauge().value()).isEqualTo(2.0);
+    assertThat(registry.get("feature_flag.loader.in_flight").gauge().value()).isEqualTo(16.0);
+  }
+
+  @Test
+  void featureLookupManagerDecorator() {
+    when(featureLookupManager.lookupPercentage(FEATURE_ID))
+        .thenReturn(Optional.of(0.5))
+        .thenThrow(new IllegalStateException());
+    final FeatureLookupManager decorated = micrometerDecorator.featureLookupManagerDecorator().decorate(featureLookupManager);
+
+    assertThat(decorated.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> decorated.lookupPercentage(FEATURE_ID));
+
+    assertThat(registry.get("feature_flag.backend").tag("operation", "lookup").timer().count()).isEqualTo(2L);
+    assertThat(registry.get("feature_flag.backend.errors").tag("operation", "lookup").counter().count()).isEqualTo(1.0);
+    assertThat(registry.get("feature_flag.backend").tag("operation", "set").timer().count()).isZero();
+  }
+
+}
@@ -0,0 +1,107 @@
+package org.codeheadsystems.featureflag.factory;
+
+/**
+ * A blocked bloom filter over the 64-bit hashes of a {@link HashedIdSet}. Each hash maps to one
+ * 64-byte block and sets {@value #PROBES} bits in it, so a check reads one block, usually a single
+ * cache line, and most ids not in the set are turned away there. With {@value #BITS_PER_ID} bits
+ * per id fewer than one miss in a hundred gets through to the exact check.
+ *
+ * <p>The filter is built from the hashes, not the ids, so a set read back from a backend builds
+ * its filter in one pass. It is never stored: rebuilding it costs one pass over hashes that are
+ * read anyway, and a stored copy could drift from the list it was built for.
+ */
+public final class BloomFilter {
+
+  /**
+   * Bits per id.
+   */
+  public static final int BITS_PER_ID = 12;
+
+  /**
+   * Bits set and checked per id.
+   */
+  public static final int PROBES = 6;
+
+  private static final int LONGS_PER_BLOCK = 8;
+  private static final int BITS_PER_BLOCK = LONGS_PER_BLOCK * Long.SIZE;
+  private static final int POSITION_BITS = 9; // log2(BITS_PER_BLOCK)
+  private static final long MIX = 0x9e3779b97f4a7c15L;
+
+  private final long[] bits;
+  private final long blocks;
+
+  private BloomFilter(final long[] bits) {
+    this.bits = bits;
+    this.blocks = bits.length / LONGS_PER_BLOCK;
+  }
+
+  /**
+   * A filter holding the hashes.
+   *
+   * @param hashes from {@link HashedIdSet#hash(String)}.
+   * @return the filter.
+   */
+  public static BloomFilter of(final long[] hashes) {
+    final long blocks = Math.max(1, ((long) hashes.length * BITS_PER_ID + BITS_PER_BLOCK - 1) / BITS_PER_BLOCK);
+    if (blocks * LONGS_PER_BLOCK > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Too many hashes for a filter: " + hashes.length);
+    }
+    final BloomFilter filter = new BloomFilter(new long[(int) (blocks * LONGS_PER_BLOCK)]);
+    for (long hash : hashes) {
+      filter.put(hash);
+    }
+    return filter;
+  }
+
+  /**
+   * Could the hash be in the filter. False means it is not; true means it probably is.
+   *
+   * @param hash from {@link HashedIdSet#hash(String)}.
+   * @return the boolean.
+   */
+  public boolean mightContain(final long hash) {
+    final int block = block(hash);
+    long positions = hash * MIX;
+    for (int i = 0; i < PROBES; i++) {
+      final int bit = (int) (positions >>> (Long.SIZE - POSITION_BITS));
+      if ((bits[block + (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+      positions <<= POSITION_BITS;
+    }
+    return true;
+  }
+
+  /**
+   * Heap bytes held by the filter, not counting object headers.
+   *
+   * @return the bytes.
+   */
+  public long sizeInBytes() {
+    return (long) bits.length * Long.BYTES;
+  }
+
+  private void put(final long hash) {
+    final int block = block(hash);
+    long positions = hash * MIX;
+    for (int i = 0; i < PROBES; i++) {
+      final int bit = (int) (positions >>> (Long.SIZE - POSITION_BITS));
+      bits[block + (bit >>> 6)] |= 1L << bit;
+      positions <<= POSITION_BITS;
+    }
+  }
+
+  /**
+   * The first long of the hash's block. The low half of the hash is scaled to the block count,
+   * which needs no division and no power of two.
+   */
+  private int block(final long hash) {
+    return (int) (((hash & 0xffffffffL) * blocks) >>> 32) * LONGS_PER_BLOCK;
+  }
+
+  @Override
+  public String toString() {
+    return "BloomFilter(" + blocks + " blocks)";
+  }
+
+}
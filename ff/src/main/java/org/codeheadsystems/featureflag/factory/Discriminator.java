@@ -0,0 +1,100 @@
+package org.codeheadsystems.featureflag.factory;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A discriminator with its hash worked out once. Build one per customer, or per request, and pass
+ * it to the feature manager instead of the string so each check skips hashing. The hash is the
+ * default murmur3 one; a factory built with another hash function hashes the value itself.
+ *
+ * <p>Attributes, such as a customer's plan or region, are matched by targeting rules.
+ */
+public final class Discriminator {
+
+  private final String value;
+  private final int hash;
+  private final Map<String, String> attributes;
+
+  private Discriminator(final String value, final Map<String, String> attributes) {
+    this.value = Objects.requireNonNull(value, "value");
+    this.hash = Murmur3.hashUtf8(value);
+    this.attributes = Map.copyOf(attributes);
+  }
+
+  /**
+   * Discriminator for the value.
+   *
+   * @param value the discriminator value.
+   * @return the discriminator.
+   */
+  public static Discriminator of(final String value) {
+    return new Discriminator(value, Map.of());
+  }
+
+  /**
+   * Discriminator for the value, with attributes for targeting rules.
+   *
+   * @param value      the discriminator value.
+   * @param attributes the attributes.
+   * @return the discriminator.
+   */
+  public static Discriminator of(final String value, final Map<String, String> attributes) {
+    return new Discriminator(value, attributes);
+  }
+
+  /**
+   * The discriminator value.
+   *
+   * @return the value.
+   */
+  public String value() {
+    return value;
+  }
+
+  /**
+   * The murmur3 hash of the value, as {@link Murmur3#hashUtf8(CharSequence)} computes it.
+   *
+   * @return the hash.
+   */
+  public int murmur3Hash() {
+    return hash;
+  }
+
+  /**
+   * The attributes.
+   *
+   * @return the attributes.
+   */
+  public Map<String, String> attributes() {
+    return attributes;
+  }
+
+  /**
+   * The attribute.
+   *
+   * @param name the attribute name.
+   * @return the value, or null if the discriminator does not have it.
+   */
+  public String attribute(final String name) {
+    return attributes.get(name);
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    return other instanceof Discriminator discriminator
+        && value.equals(discriminator.value)
+        && attributes.equals(discriminator.attributes);
+  }
+
+  @Override
+  public int hashCode() {
+    return value.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return value;
+  }
+
+}
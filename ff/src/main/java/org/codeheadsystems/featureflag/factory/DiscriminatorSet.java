@@ -0,0 +1,80 @@
+package org.codeheadsystems.featureflag.factory;
+
+import java.util.Collection;
+import java.util.function.ToIntFunction;
+
+/**
+ * An open addressed set of discriminators keyed by the hash the enablement factory already works
+ * out for each check, so a lookup is an array probe and, on a hash match, one equals(). Nothing is
+ * hashed again and nothing is allocated per lookup.
+ */
+final class DiscriminatorSet {
+
+  private final int[] hashes;
+  private final String[] values;
+  private final int mask;
+  private final int size;
+
+  /**
+   * Instantiates a new Discriminator set.
+   *
+   * @param discriminators the discriminators.
+   * @param hasher         the enablement factory's hash.
+   */
+  DiscriminatorSet(final Collection<String> discriminators, final ToIntFunction<String> hasher) {
+    final int capacity = Integer.highestOneBit(Math.max(2, discriminators.size() * 2 - 1)) << 1;
+    this.hashes = new int[capacity];
+    this.values = new String[capacity];
+    this.mask = capacity - 1;
+    int count = 0;
+    for (String discriminator : discriminators) {
+      final int hash = hasher.applyAsInt(discriminator);
+      int index = index(hash);
+      while (values[index] != null && !(hashes[index] == hash && values[index].equals(discriminator))) {
+        index = (index + 1) & mask;
+      }
+      if (values[index] == null) {
+        hashes[index] = hash;
+        values[index] = discriminator;
+        count++;
+      }
+    }
+    this.size = count;
+  }
+
+  /**
+   * Is the discriminator in the set.
+   *
+   * @param discriminator the discriminator.
+   * @param hash          its hash from the enablement factory.
+   * @return true if it is.
+   */
+  boolean contains(final String discriminator, final int hash) {
+    if (size == 0) {
+      return false;
+    }
+    int index = index(hash);
+    String value;
+    while ((value = values[index]) != null) {
+      if (hashes[index] == hash && value.equals(discriminator)) {
+        return true;
+      }
+      index = (index + 1) & mask;
+    }
+    return false;
+  }
+
+  /**
+   * The number of discriminators.
+   *
+   * @return the size.
+   */
+  int size() {
+    return size;
+  }
+
+  private int index(final int hash) {
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+}
@@ -14,4 +14,56 @@ public interface Enablement {
    */
   boolean enabled(String discriminator);
 
+  /**
+   * Is the feature enabled for the given discriminator, whose hash is already known. Lets a caller
+   * checking many features hash the discriminator once. Defaults to enabled(discriminator).
+   *
+   * @param discriminator we want to check.
+   * @param hash          of the discriminator, from {@link EnablementFactory#hash(String)}.
+   * @return boolean if enabled or not.
+   */
+  default boolean enabled(String discriminator, int hash) {
+    return enabled(discriminator);
+  }
+
+  /**
+   * Is the feature enabled for the given discriminator and its attributes, whose hash is already
+   * known. Defaults to enabled(discriminator.value(), hash); targeting rules use the attributes.
+   *
+   * @param discriminator we want to check.
+   * @param hash          of the discriminator, from {@link EnablementFactory#hash(Discriminator)}.
+   * @return boolean if enabled or not.
+   */
+  default boolean enabled(Discriminator discriminator, int hash) {
+    return enabled(discriminator.value(), hash);
+  }
+
+  /**
+   * The variant of a multivariate feature for the given discriminator, whose hash is already
+   * known. Defaults to the default variant, for features without variants. Discriminators the
+   * feature does not enable get the default variant.
+   *
+   * @param discriminator  we want to check.
+   * @param hash           of the discriminator, from {@link EnablementFactory#hash(String)}.
+   * @param defaultVariant for discriminators no variant is weighted to.
+   * @return the variant name.
+   */
+  default String variant(String discriminator, int hash, String defaultVariant) {
+    return defaultVariant;
+  }
+
+  /**
+   * The variant of a multivariate feature for the given discriminator and its attributes, whose
+   * hash is already known. Discriminators the feature does not enable, including by its targeting
+   * rules, get the default variant. Defaults to variant(discriminator.value(), hash, ...).
+   *
+   * @param discriminator  we want to check.
+   * @param hash           of the discriminator, from {@link EnablementFactory#hash(Discriminator)}.
+   * @param defaultVariant for discriminators no variant is weighted to.
+   * @return the variant name.
+   */
+  default String variant(Discriminator discriminator, int hash, String defaultVariant) {
+    return variant(discriminator.value(), hash, defaultVariant);
+  }
+
 }
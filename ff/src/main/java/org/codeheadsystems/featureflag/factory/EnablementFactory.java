@@ -1,9 +1,13 @@
 package org.codeheadsystems.featureflag.factory;
 
-import com.google.common.base.Charsets;
-import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+import org.codeheadsystems.featureflag.model.FeatureTargeting;
+import org.codeheadsystems.featureflag.model.Variant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,9 +16,19 @@ import org.slf4j.LoggerFactory;
  */
 public class EnablementFactory {
 
+  /**
+   * The size of the bucket space a discriminator hashes into: parts per million, so percentages
+   * down to 0.0001% can be expressed.
+   */
+  public static final int BUCKETS = 1_000_000;
+
   private static final Logger LOGGER = LoggerFactory.getLogger(EnablementFactory.class);
+  private static final int VARIANT_SEED = 0x76617269; // "vari"
+  private static final double WEIGHT_TOLERANCE = 1e-9;
 
   private final HashFunction hashFunction;
+  private final ToIntFunction<String> hasher;
+  private final boolean murmur3;
 
   /**
    * Instantiates a new Enablement factory.
@@ -30,6 +44,11 @@ public class EnablementFactory {
    */
   public EnablementFactory(HashFunction hashFunction) {
     this.hashFunction = hashFunction;
+    // The default hash has an allocation free implementation; anything else goes through guava.
+    this.murmur3 = Hashing.murmur3_32_fixed().equals(hashFunction);
+    this.hasher = murmur3
+        ? Murmur3::hashUtf8
+        : (discriminator) -> hashFunction.hashString(discriminator, StandardCharsets.UTF_8).asInt();
     LOGGER.info("EnablementFactory({})", hashFunction);
   }
 
@@ -53,6 +72,123 @@ public class EnablementFactory {
     }
   }
 
+  /**
+   * Generate feature for the feature id. Bucketing here ignores the feature id; see
+   * {@link SaltedEnablementFactory} for bucketing that differs per feature.
+   *
+   * @param featureId  the feature id
+   * @param percentage the percentage
+   * @return the feature
+   */
+  public Enablement generate(String featureId, double percentage) {
+    LOGGER.trace("generate({}, {})", featureId, percentage);
+    if (percentage <= 0.0) {
+      return disabledFeature();
+    } else if (percentage >= 1.0) {
+      return enabledFeature();
+    } else {
+      return percentageFeature(featureId, percentage);
+    }
+  }
+
+  /**
+   * Percentage feature for the feature id. The same as {@link #percentageFeature(double)} here.
+   *
+   * @param featureId  the feature id
+   * @param percentage the percentage
+   * @return the feature
+   */
+  public Enablement percentageFeature(String featureId, double percentage) {
+    return percentageFeature(percentage);
+  }
+
+  /**
+   * Compile the feature's targeting into an enablement. The lists and rules are turned into sets
+   * and enablements here, so checks interpret nothing.
+   *
+   * @param featureId  the feature id
+   * @param percentage the percentage when no list or rule decides
+   * @param targeting  the targeting
+   * @return the feature
+   */
+  public Enablement compile(String featureId, double percentage, FeatureTargeting targeting) {
+    LOGGER.info("compile({}, {}, {} allowed, {} denied, {} rules)",
+        featureId, percentage, targeting.allow().size(), targeting.deny().size(), targeting.rules().size());
+    final TargetedEnablement.Rule[] rules = targeting.rules().stream()
+        .map(rule -> new TargetedEnablement.Rule(
+            rule.attribute(), Set.copyOf(rule.values()), generate(featureId, rule.percentage())))
+        .toArray(TargetedEnablement.Rule[]::new);
+    return new TargetedEnablement(
+        new DiscriminatorSet(targeting.allow(), hasher),
+        new DiscriminatorSet(targeting.deny(), hasher),
+        rules,
+        generate(featureId, percentage),
+        hasher);
+  }
+
+  /**
+   * Enable every id in the set, and defer to the enablement for everyone else. For allow lists too
+   * large to keep as strings; see {@link HashedIdSet}.
+   *
+   * @param ids       the ids to enable
+   * @param otherwise the enablement for ids not in the set
+   * @return the feature
+   */
+  public Enablement idList(HashedIdSet ids, Enablement otherwise) {
+    LOGGER.info("idList({})", ids);
+    if (ids.size() == 0) {
+      return otherwise;
+    }
+    return new Enablement() {
+      @Override
+      public boolean enabled(final String discriminator) {
+        return ids.contains(discriminator) || otherwise.enabled(discriminator);
+      }
+
+      @Override
+      public boolean enabled(final String discriminator, final int hash) {
+        return ids.contains(discriminator) || otherwise.enabled(discriminator, hash);
+      }
+
+      @Override
+      public boolean enabled(final Discriminator discriminator, final int hash) {
+        return ids.contains(discriminator.value()) || otherwise.enabled(discriminator, hash);
+      }
+    };
+  }
+
+  /**
+   * Add the feature's variants to its enablement. The weights are turned into cumulative bucket
+   * bounds here, in order, so picking a variant interprets nothing. Variant buckets are salted with
+   * the feature id, apart from the percentage buckets, so a feature's percentage and its variants
+   * split discriminators independently.
+   *
+   * @param featureId  the feature id
+   * @param enablement the feature's enablement
+   * @param variants   the variants, in order
+   * @return the feature
+   * @throws IllegalArgumentException if a weight is negative or they add up to more than 1.0.
+   */
+  public Enablement variants(String featureId, Enablement enablement, List<Variant> variants) {
+    LOGGER.info("variants({}, {})", featureId, variants);
+    final int[] bounds = new int[variants.size()];
+    final String[] names = new String[variants.size() + 1];
+    double cumulative = 0.0;
+    for (int i = 0; i < variants.size(); i++) {
+      final Variant variant = variants.get(i);
+      if (!(variant.weight() >= 0.0)) { // includes NaN
+        throw new IllegalArgumentException("Variant weight must not be negative: " + variant);
+      }
+      cumulative += variant.weight();
+      bounds[i] = threshold(cumulative);
+      names[i] = variant.name();
+    }
+    if (cumulative > 1.0 + WEIGHT_TOLERANCE) {
+      throw new IllegalArgumentException("Variant weights add up to more than 1.0 for " + featureId + ": " + cumulative);
+    }
+    return new VariantEnablement(enablement, bounds, names, Murmur3.hashUtf8(featureId, VARIANT_SEED));
+  }
+
   /**
    * Enabled feature feature.
    *
@@ -74,20 +210,81 @@ public class EnablementFactory {
   }
 
   /**
-   * Percentage feature feature.
+   * Percentage feature feature. The percentage is turned into a bucket threshold here, so each
+   * check is a hash and an int compare.
    *
    * @param percentage the percentage
    * @return the feature
    */
   public Enablement percentageFeature(double percentage) {
     LOGGER.info("percentageFeature({})", percentage);
-    return (discriminator) -> {
-      final HashCode hashCode = hashFunction.hashString(discriminator, Charsets.UTF_8);
-      final int hash = hashCode.asInt();
-      final double calculated = ((double) (hash % 100)) / 100.0;
-      LOGGER.trace("percentageFeature({}:{}) -> {} {}", discriminator, percentage, calculated, calculated < percentage);
-      return calculated <= percentage;
+    final int threshold = threshold(percentage);
+    return new Enablement() {
+      @Override
+      public boolean enabled(final String discriminator) {
+        return enabled(discriminator, hasher.applyAsInt(discriminator));
+      }
+
+      @Override
+      public boolean enabled(final String discriminator, final int hash) {
+        final int bucket = bucket(hash);
+        if (LOGGER.isTraceEnabled()) {
+          LOGGER.trace("percentageFeature({}:{}) -> {} {}", discriminator, percentage, bucket, bucket < threshold);
+        }
+        return bucket < threshold;
+      }
     };
   }
 
+  /**
+   * The hash of the discriminator, as the enablements from this factory compute it. Pass it to
+   * {@link Enablement#enabled(String, int)} to check many features without hashing again.
+   *
+   * @param discriminator the discriminator.
+   * @return the hash.
+   */
+  public int hash(final String discriminator) {
+    return hasher.applyAsInt(discriminator);
+  }
+
+  /**
+   * The hash of the discriminator. Uses the hash the discriminator already carries when this
+   * factory uses the default hash function.
+   *
+   * @param discriminator the discriminator.
+   * @return the hash.
+   */
+  public int hash(final Discriminator discriminator) {
+    return murmur3 ? discriminator.murmur3Hash() : hasher.applyAsInt(discriminator.value());
+  }
+
+  /**
+   * The number of buckets, out of {@link #BUCKETS}, enabled for the percentage.
+   *
+   * @param percentage the percentage.
+   * @return the threshold, between 0 and BUCKETS inclusive.
+   */
+  public static int threshold(final double percentage) {
+    if (!(percentage > 0.0)) { // includes NaN
+      return 0;
+    } else if (percentage >= 1.0) {
+      return BUCKETS;
+    }
+    return (int) Math.round(percentage * BUCKETS);
+  }
+
+  /**
+   * The bucket for the hash, between 0 and BUCKETS exclusive. The hash is treated as unsigned so
+   * negative hashes are spread like any other. Buckets are ordered by the hash's last two decimal
+   * digits first, which is the old {@code hash % 100} percent, and then by the next four digits
+   * within that percent. A non-negative hash therefore stays in the percent it was in before.
+   *
+   * @param hash of the discriminator.
+   * @return the bucket.
+   */
+  public static int bucket(final int hash) {
+    final int partsPerMillion = Integer.remainderUnsigned(hash, BUCKETS);
+    return (partsPerMillion % 100) * (BUCKETS / 100) + partsPerMillion / 100;
+  }
+
 }
@@ -0,0 +1,249 @@
+package org.codeheadsystems.featureflag.factory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A compact set of ids for large allow lists. Only a 64-bit hash of each id is kept, in a sorted
+ * long array, so an entry costs a little over 8 bytes instead of the 50 or more a String in a
+ * HashSet does, and a lookup is a hash and a short binary search with no allocation. A directory
+ * on the top bits of the hash, about one int per eight ids, narrows each search to a handful of
+ * entries so a lookup in millions of ids touches a few cache lines rather than twenty. Two
+ * different ids share a hash with odds of about one in 2^64 per pair; at five million ids a stray
+ * match is still around one in a trillion lookups.
+ *
+ * <p>Sets of {@value #FILTER_MIN_IDS} ids or more also keep a {@link BloomFilter}, about 1.5 bytes
+ * per id, in front of the search. Most ids checked are not in the list, and those are turned away
+ * after one block of the filter, so a miss costs the same however large the list grows.
+ *
+ * <p>Backends store the set as chunks of packed hashes, see {@link #toChunks(int)}.
+ */
+public final class HashedIdSet {
+
+  /**
+   * Bytes per id.
+   */
+  public static final int BYTES_PER_ID = Long.BYTES;
+
+  /**
+   * The smallest set that keeps a bloom filter. Smaller sets stay in the CPU caches anyway.
+   */
+  public static final int FILTER_MIN_IDS = 4096;
+
+  private static final int HIGH_SEED = 0x9747b28c;
+  private static final int LOW_SEED = 0x5bd1e995;
+  private static final int IDS_PER_DIRECTORY_ENTRY_BITS = 3;
+  private static final int MAX_DIRECTORY_BITS = 20;
+  private static final HashedIdSet EMPTY = new HashedIdSet(new long[0]);
+
+  private final long[] hashes;
+  private final int directoryShift;
+  private final int[] directory;
+  private final BloomFilter filter;
+
+  private HashedIdSet(final long[] hashes) {
+    this.hashes = hashes;
+    this.filter = hashes.length >= FILTER_MIN_IDS ? BloomFilter.of(hashes) : null;
+    final int bits = Math.min(MAX_DIRECTORY_BITS,
+        Math.max(0, 31 - Integer.numberOfLeadingZeros(hashes.length) - IDS_PER_DIRECTORY_ENTRY_BITS));
+    this.directoryShift = Long.SIZE - bits;
+    // directory[b] is the first index whose hash is in bucket b or later.
+    this.directory = new int[(1 << bits) + 1];
+    int index = 0;
+    for (int bucket = 0; bucket < (1 << bits); bucket++) {
+      while (index < hashes.length && bucket(hashes[index]) < bucket) {
+        index++;
+      }
+      directory[bucket] = index;
+    }
+    directory[1 << bits] = hashes.length;
+  }
+
+  /**
+   * The empty set.
+   *
+   * @return the set.
+   */
+  public static HashedIdSet empty() {
+    return EMPTY;
+  }
+
+  /**
+   * The set of the ids.
+   *
+   * @param ids the ids.
+   * @return the set.
+   */
+  public static HashedIdSet of(final Collection<String> ids) {
+    final Builder builder = builder(ids.size());
+    ids.forEach(builder::add);
+    return builder.build();
+  }
+
+  /**
+   * A builder for ids streamed from a backend.
+   *
+   * @param expectedSize how many ids to make room for up front.
+   * @return the builder.
+   */
+  public static Builder builder(final int expectedSize) {
+    return new Builder(expectedSize);
+  }
+
+  /**
+   * The 64-bit hash kept for the id: two murmur3 hashes with different seeds.
+   *
+   * @param id the id.
+   * @return the hash.
+   */
+  public static long hash(final String id) {
+    return ((long) Murmur3.hashUtf8(id, HIGH_SEED) << 32) | (Murmur3.hashUtf8(id, LOW_SEED) & 0xffffffffL);
+  }
+
+  /**
+   * Is the id in the set.
+   *
+   * @param id the id.
+   * @return true if it is.
+   */
+  public boolean contains(final String id) {
+    if (hashes.length == 0) {
+      return false;
+    }
+    final long hash = hash(id);
+    if (filter != null && !filter.mightContain(hash)) {
+      return false;
+    }
+    final int bucket = bucket(hash);
+    return Arrays.binarySearch(hashes, directory[bucket], directory[bucket + 1], hash) >= 0;
+  }
+
+  /**
+   * The number of ids.
+   *
+   * @return the size.
+   */
+  public int size() {
+    return hashes.length;
+  }
+
+  /**
+   * The set as chunks of packed big-endian hashes, in order, for backends to store. Reading the
+   * chunks back in order with {@link Builder#addChunk(byte[])} gives the same set.
+   *
+   * @param maxIdsPerChunk the most ids in one chunk.
+   * @return the chunks, none for the empty set.
+   */
+  public List<byte[]> toChunks(final int maxIdsPerChunk) {
+    if (maxIdsPerChunk < 1) {
+      throw new IllegalArgumentException("maxIdsPerChunk must be at least 1: " + maxIdsPerChunk);
+    }
+    final List<byte[]> chunks = new ArrayList<>();
+    for (int start = 0; start < hashes.length; start += maxIdsPerChunk) {
+      final int count = Math.min(maxIdsPerChunk, hashes.length - start);
+      final ByteBuffer chunk = ByteBuffer.allocate(count * BYTES_PER_ID);
+      chunk.asLongBuffer().put(hashes, start, count);
+      chunks.add(chunk.array());
+    }
+    return chunks;
+  }
+
+  /**
+   * Heap bytes held by the set, not counting object headers.
+   *
+   * @return the bytes.
+   */
+  public long sizeInBytes() {
+    return (long) hashes.length * BYTES_PER_ID
+        + (long) directory.length * Integer.BYTES
+        + (filter == null ? 0 : filter.sizeInBytes());
+  }
+
+  /**
+   * The directory bucket: the top bits of the hash, with the sign flipped so buckets follow the
+   * signed sort order.
+   */
+  private int bucket(final long hash) {
+    return directoryShift == Long.SIZE ? 0 : (int) ((hash ^ Long.MIN_VALUE) >>> directoryShift);
+  }
+
+  @Override
+  public String toString() {
+    return "HashedIdSet(" + hashes.length + " ids)";
+  }
+
+  /**
+   * Builds a hashed id set without keeping the ids.
+   */
+  public static final class Builder {
+
+    private long[] hashes;
+    private int size;
+
+    private Builder(final int expectedSize) {
+      this.hashes = new long[Math.max(16, expectedSize)];
+    }
+
+    /**
+     * Add an id.
+     *
+     * @param id the id.
+     * @return the builder.
+     */
+    public Builder add(final String id) {
+      ensureCapacity(1);
+      hashes[size++] = hash(id);
+      return this;
+    }
+
+    /**
+     * Add a chunk from {@link HashedIdSet#toChunks(int)}.
+     *
+     * @param chunk the packed hashes.
+     * @return the builder.
+     */
+    public Builder addChunk(final byte[] chunk) {
+      if (chunk.length % BYTES_PER_ID != 0) {
+        throw new IllegalArgumentException("Chunk length not a multiple of " + BYTES_PER_ID + ": " + chunk.length);
+      }
+      final int count = chunk.length / BYTES_PER_ID;
+      ensureCapacity(count);
+      ByteBuffer.wrap(chunk).asLongBuffer().get(hashes, size, count);
+      size += count;
+      return this;
+    }
+
+    /**
+     * Build the set.
+     *
+     * @return the set.
+     */
+    public HashedIdSet build() {
+      if (size == 0) {
+        return EMPTY;
+      }
+      Arrays.sort(hashes, 0, size);
+      int unique = 1;
+      for (int i = 1; i < size; i++) {
+        if (hashes[i] != hashes[unique - 1]) {
+          hashes[unique++] = hashes[i];
+        }
+      }
+      final HashedIdSet set = new HashedIdSet(Arrays.copyOf(hashes, unique));
+      hashes = new long[0];
+      size = 0;
+      return set;
+    }
+
+    private void ensureCapacity(final int extra) {
+      if (size + extra > hashes.length) {
+        hashes = Arrays.copyOf(hashes, Math.max(size + extra, hashes.length + (hashes.length >> 1)));
+      }
+    }
+
+  }
+
+}
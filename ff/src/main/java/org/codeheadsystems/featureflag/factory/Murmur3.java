@@ -0,0 +1,146 @@
+package org.codeheadsystems.featureflag.factory;
+
+/**
+ * Murmur3 32 bit hash of a string's UTF-8 bytes, computed straight from the chars.
+ * Produces the same value as {@code Hashing.murmur3_32_fixed().hashString(value, UTF_8).asInt()}
+ * without encoding the string or allocating a HashCode, so it is safe for the isEnabled() path.
+ */
+public final class Murmur3 {
+
+  private static final int C1 = 0xcc9e2d51;
+  private static final int C2 = 0x1b873593;
+  private static final long REPLACEMENT_BYTE = '?';
+
+  private Murmur3() {
+  }
+
+  /**
+   * Hash the UTF-8 encoding of the value with a seed of zero.
+   *
+   * @param value to hash.
+   * @return the hash.
+   */
+  public static int hashUtf8(final CharSequence value) {
+    return hashUtf8(value, 0);
+  }
+
+  /**
+   * Hash the UTF-8 encoding of the value. Follows Guava's streaming implementation: pure ASCII runs
+   * are consumed four chars at a time, everything else is packed into a little-endian buffer that
+   * is mixed every 4 bytes. Unpaired surrogates hash as '?', which is what the JDK encodes them as.
+   *
+   * @param value to hash.
+   * @param seed  the seed.
+   * @return the hash.
+   */
+  public static int hashUtf8(final CharSequence value, final int seed) {
+    final int utf16Length = value.length();
+    int h1 = seed;
+    int i = 0;
+    int len = 0;
+
+    while (i + 4 <= utf16Length) {
+      final char c0 = value.charAt(i);
+      final char c1 = value.charAt(i + 1);
+      final char c2 = value.charAt(i + 2);
+      final char c3 = value.charAt(i + 3);
+      if (c0 < 0x80 && c1 < 0x80 && c2 < 0x80 && c3 < 0x80) {
+        h1 = mixH1(h1, mixK1(c0 | (c1 << 8) | (c2 << 16) | (c3 << 24)));
+        i += 4;
+        len += 4;
+      } else {
+        break;
+      }
+    }
+
+    long buffer = 0;
+    int shift = 0;
+    for (; i < utf16Length; i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer |= (long) c << shift;
+        shift += 8;
+        len++;
+      } else if (c < 0x800) {
+        buffer |= charToTwoUtf8Bytes(c) << shift;
+        shift += 16;
+        len += 2;
+      } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+        buffer |= charToThreeUtf8Bytes(c) << shift;
+        shift += 24;
+        len += 3;
+      } else {
+        final int codePoint = Character.codePointAt(value, i);
+        if (codePoint == c) {
+          buffer |= REPLACEMENT_BYTE << shift;
+          shift += 8;
+          len++;
+        } else {
+          i++;
+          buffer |= codePointToFourUtf8Bytes(codePoint) << shift;
+          shift += 32;
+          len += 4;
+        }
+      }
+
+      if (shift >= 32) {
+        h1 = mixH1(h1, mixK1((int) buffer));
+        buffer = buffer >>> 32;
+        shift -= 32;
+      }
+    }
+
+    h1 ^= mixK1((int) buffer);
+    return fmix(h1, len);
+  }
+
+  /**
+   * The murmur3 finalizer. Also a cheap way to scramble an existing hash.
+   *
+   * @param h1     the hash.
+   * @param length the number of bytes hashed.
+   * @return the finalized hash.
+   */
+  public static int fmix(int h1, final int length) {
+    h1 ^= length;
+    h1 ^= h1 >>> 16;
+    h1 *= 0x85ebca6b;
+    h1 ^= h1 >>> 13;
+    h1 *= 0xc2b2ae35;
+    h1 ^= h1 >>> 16;
+    return h1;
+  }
+
+  private static int mixK1(int k1) {
+    k1 *= C1;
+    k1 = Integer.rotateLeft(k1, 15);
+    k1 *= C2;
+    return k1;
+  }
+
+  private static int mixH1(int h1, final int k1) {
+    h1 ^= k1;
+    h1 = Integer.rotateLeft(h1, 13);
+    h1 = h1 * 5 + 0xe6546b64;
+    return h1;
+  }
+
+  private static long charToTwoUtf8Bytes(final char c) {
+    return ((0x3L << 6) | (c >>> 6))
+        | ((0x80 | (0x3F & c)) << 8);
+  }
+
+  private static long charToThreeUtf8Bytes(final char c) {
+    return ((0x7L << 5) | (c >>> 12))
+        | ((0x80 | (0x3F & (c >>> 6))) << 8)
+        | ((0x80 | (0x3F & c)) << 16);
+  }
+
+  private static long codePointToFourUtf8Bytes(final int codePoint) {
+    return ((0xFL << 4) | (codePoint >>> 18))
+        | ((0x80L | (0x3F & (codePoint >>> 12))) << 8)
+        | ((0x80L | (0x3F & (codePoint >>> 6))) << 16)
+        | ((0x80L | (0x3F & codePoint)) << 24);
+  }
+
+}
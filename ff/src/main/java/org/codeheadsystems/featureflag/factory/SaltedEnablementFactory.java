@@ -0,0 +1,109 @@
+package org.codeheadsystems.featureflag.factory;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enablement factory that buckets each feature differently. The plain factory puts a discriminator
+ * in the same bucket for every feature, so the same 10% of customers get every 10% rollout. Here
+ * the discriminator's hash is scrambled with a salt taken from the feature id before bucketing,
+ * which makes rollouts of different features independent of each other.
+ *
+ * <p>The salt is worked out once per feature when its enablement is built, and scrambling is a few
+ * integer operations, so a check still costs one hash of the discriminator and allocates nothing.
+ * The discriminator's hash is the same for every feature, so evaluateAll and {@link Discriminator}
+ * still hash once. Buckets depend only on the feature id and discriminator, so they are stable
+ * across restarts and hosts.
+ *
+ * <p>Switching moves customers between enabled and disabled for features already partly rolled
+ * out. List those as legacy features to keep their old buckets until they are fully rolled out.
+ */
+public class SaltedEnablementFactory extends EnablementFactory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SaltedEnablementFactory.class);
+
+  private final Set<String> legacyFeatureIds;
+
+  /**
+   * Instantiates a new Salted enablement factory with no legacy features.
+   */
+  public SaltedEnablementFactory() {
+    this(Hashing.murmur3_32_fixed(), Set.of());
+  }
+
+  /**
+   * Instantiates a new Salted enablement factory.
+   *
+   * @param legacyFeatureIds features that keep the unsalted buckets.
+   */
+  public SaltedEnablementFactory(final Set<String> legacyFeatureIds) {
+    this(Hashing.murmur3_32_fixed(), legacyFeatureIds);
+  }
+
+  /**
+   * Instantiates a new Salted enablement factory.
+   *
+   * @param hashFunction     the hash function
+   * @param legacyFeatureIds features that keep the unsalted buckets.
+   */
+  public SaltedEnablementFactory(final HashFunction hashFunction, final Set<String> legacyFeatureIds) {
+    super(hashFunction);
+    this.legacyFeatureIds = Set.copyOf(legacyFeatureIds);
+    LOGGER.info("SaltedEnablementFactory({}, {} legacy)", hashFunction, this.legacyFeatureIds.size());
+  }
+
+  /**
+   * The salt for the feature.
+   *
+   * @param featureId the feature id.
+   * @return the salt.
+   */
+  public static int salt(final String featureId) {
+    return Murmur3.hashUtf8(featureId);
+  }
+
+  /**
+   * The discriminator's hash scrambled with the feature's salt.
+   *
+   * @param hash of the discriminator.
+   * @param salt of the feature.
+   * @return the salted hash.
+   */
+  public static int saltedHash(final int hash, final int salt) {
+    return Murmur3.fmix(hash ^ salt, 0);
+  }
+
+  /**
+   * Percentage feature for the feature id, bucketed with the feature's salt unless it is a legacy
+   * feature.
+   *
+   * @param featureId  the feature id
+   * @param percentage the percentage
+   * @return the feature
+   */
+  @Override
+  public Enablement percentageFeature(final String featureId, final double percentage) {
+    if (legacyFeatureIds.contains(featureId)) {
+      LOGGER.info("percentageFeature({}, {}): legacy", featureId, percentage);
+      return percentageFeature(percentage);
+    }
+    LOGGER.info("percentageFeature({}, {})", featureId, percentage);
+    final int threshold = threshold(percentage);
+    final int salt = salt(featureId);
+    return new Enablement() {
+      @Override
+      public boolean enabled(final String discriminator) {
+        return enabled(discriminator, hash(discriminator));
+      }
+
+      @Override
+      public boolean enabled(final String discriminator, final int hash) {
+        return bucket(saltedHash(hash, salt)) < threshold;
+      }
+    };
+  }
+
+}
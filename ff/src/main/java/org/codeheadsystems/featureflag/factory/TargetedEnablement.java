@@ -0,0 +1,84 @@
+package org.codeheadsystems.featureflag.factory;
+
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * A feature's targeting compiled into an enablement: the allow and deny lists as discriminator
+ * sets, each rule with its percentage already turned into an enablement, and the feature's own
+ * percentage as the fallback. A check is set probes and int compares on the hash it is given.
+ */
+final class TargetedEnablement implements Enablement {
+
+  private final DiscriminatorSet allow;
+  private final DiscriminatorSet deny;
+  private final Rule[] rules;
+  private final Enablement fallback;
+  private final ToIntFunction<String> hasher;
+
+  /**
+   * Instantiates a new Targeted enablement.
+   *
+   * @param allow    always enabled.
+   * @param deny     always disabled.
+   * @param rules    checked in order when the discriminator has attributes.
+   * @param fallback used when nothing else matches.
+   * @param hasher   the enablement factory's hash.
+   */
+  TargetedEnablement(final DiscriminatorSet allow,
+                     final DiscriminatorSet deny,
+                     final Rule[] rules,
+                     final Enablement fallback,
+                     final ToIntFunction<String> hasher) {
+    this.allow = allow;
+    this.deny = deny;
+    this.rules = rules;
+    this.fallback = fallback;
+    this.hasher = hasher;
+  }
+
+  @Override
+  public boolean enabled(final String discriminator) {
+    return enabled(discriminator, hasher.applyAsInt(discriminator));
+  }
+
+  @Override
+  public boolean enabled(final String discriminator, final int hash) {
+    if (deny.contains(discriminator, hash)) {
+      return false;
+    }
+    if (allow.contains(discriminator, hash)) {
+      return true;
+    }
+    return fallback.enabled(discriminator, hash);
+  }
+
+  @Override
+  public boolean enabled(final Discriminator discriminator, final int hash) {
+    final String value = discriminator.value();
+    if (deny.contains(value, hash)) {
+      return false;
+    }
+    if (allow.contains(value, hash)) {
+      return true;
+    }
+    for (Rule rule : rules) {
+      final String attribute = discriminator.attribute(rule.attribute());
+      if (attribute != null && rule.values().contains(attribute)) {
+        return rule.enablement().enabled(value, hash);
+      }
+    }
+    return fallback.enabled(value, hash);
+  }
+
+  /**
+   * A compiled targeting rule.
+   *
+   * @param attribute  the attribute name.
+   * @param values     the values it matches.
+   * @param enablement for matching discriminators.
+   */
+  record Rule(String attribute, Set<String> values, Enablement enablement) {
+  }
+
+}
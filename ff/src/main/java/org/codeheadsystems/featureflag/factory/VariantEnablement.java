@@ -0,0 +1,67 @@
+package org.codeheadsystems.featureflag.factory;
+
+/**
+ * A feature with variants. Enabled checks go to the feature's enablement; discriminators it does
+ * not enable get the default variant. Otherwise the variant is picked by the bucket of the
+ * discriminator's hash, salted per feature so it does not follow the percentage buckets. The
+ * variant weights are turned into cumulative bucket bounds when the feature loads, so picking one
+ * is a hash mix and a scan of a few ints with no branches.
+ */
+final class VariantEnablement implements Enablement {
+
+  private final Enablement delegate;
+  private final int[] bounds;
+  private final String[] names;
+  private final int salt;
+
+  /**
+   * Instantiates a new Variant enablement.
+   *
+   * @param delegate answers enabled().
+   * @param bounds   the cumulative upper bucket bound of each variant, ascending.
+   * @param names    the variant for each bound, plus null for buckets past the last bound.
+   * @param salt     mixed into the hash for this feature.
+   */
+  VariantEnablement(final Enablement delegate, final int[] bounds, final String[] names, final int salt) {
+    this.delegate = delegate;
+    this.bounds = bounds;
+    this.names = names;
+    this.salt = salt;
+  }
+
+  @Override
+  public boolean enabled(final String discriminator) {
+    return delegate.enabled(discriminator);
+  }
+
+  @Override
+  public boolean enabled(final String discriminator, final int hash) {
+    return delegate.enabled(discriminator, hash);
+  }
+
+  @Override
+  public boolean enabled(final Discriminator discriminator, final int hash) {
+    return delegate.enabled(discriminator, hash);
+  }
+
+  @Override
+  public String variant(final String discriminator, final int hash, final String defaultVariant) {
+    return delegate.enabled(discriminator, hash) ? pick(hash, defaultVariant) : defaultVariant;
+  }
+
+  @Override
+  public String variant(final Discriminator discriminator, final int hash, final String defaultVariant) {
+    return delegate.enabled(discriminator, hash) ? pick(hash, defaultVariant) : defaultVariant;
+  }
+
+  private String pick(final int hash, final String defaultVariant) {
+    final int bucket = EnablementFactory.bucket(Murmur3.fmix(hash ^ salt, 0));
+    int index = 0;
+    for (int bound : bounds) {
+      index += (bound - bucket - 1) >>> 31; // one for every bound at or below the bucket.
+    }
+    final String name = names[index];
+    return name == null ? defaultVariant : name;
+  }
+
+}
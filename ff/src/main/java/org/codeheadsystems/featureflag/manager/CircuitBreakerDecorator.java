@@ -0,0 +1,495 @@
+package org.codeheadsystems.featureflag.manager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
+import org.codeheadsystems.featureflag.manager.FeatureManager.Decorator;
+import org.codeheadsystems.featureflag.model.CircuitBreakerConfiguration;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
+import org.codeheadsystems.featureflag.model.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Puts a circuit breaker and an adaptive timeout in front of the backend's lookups. Each lookup
+ * gets a timeout that tracks recent latency, the way TCP tracks round trip time: the smoothed
+ * latency plus four times its deviation, kept between the min and max timeout. As in TCP, a
+ * lookup that times out doubles the timeout, up to the max, until a success measures the latency
+ * again. A lookup that fails or times out returns the last value seen for that feature if there
+ * is one. After enough failures in a row the circuit opens and lookups answer from the last seen
+ * values without calling the backend; after the open duration one probe lookup is let through,
+ * and only its result closes or reopens the circuit. Writes are passed straight through.
+ *
+ * <p>The last value seen for a feature read by its row is the whole row, so one served while the
+ * circuit is open still marks its id list and carries its variants. Id list and variant reads
+ * through {@link CircuitBreakerLookupManager#idListLookupManager()} and
+ * {@link CircuitBreakerLookupManager#variantLookupManager()} pass the circuit too, under the max
+ * timeout, but have no last value: while the circuit is open they fail, and the feature manager
+ * keeps the feature's last loaded value.
+ *
+ * <p>Sync lookups run on the given executor so the caller can stop waiting at the timeout. The
+ * backend call itself keeps its executor thread until the backend answers, so use virtual threads
+ * or a backend with native async lookups.
+ */
+public class CircuitBreakerDecorator {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreakerDecorator.class);
+
+  private final CircuitBreakerConfiguration configuration;
+  private final Executor executor;
+
+  /**
+   * Instantiates a new Circuit breaker decorator.
+   *
+   * @param configuration the configuration.
+   * @param executor      runs sync lookups so they can be timed out.
+   */
+  public CircuitBreakerDecorator(final CircuitBreakerConfiguration configuration, final Executor executor) {
+    this.configuration = configuration;
+    this.executor = executor;
+    LOGGER.info("CircuitBreakerDecorator({})", configuration);
+  }
+
+  /**
+   * Feature lookup manager decorator.
+   *
+   * @return the decorator
+   */
+  public Decorator<FeatureLookupManager> featureLookupManagerDecorator() {
+    return (delegate) -> {
+      LOGGER.info("decorateFeatureLookupManager({})", delegate);
+      return new CircuitBreakerLookupManager(delegate, configuration, executor);
+    };
+  }
+
+  /**
+   * The circuit states.
+   */
+  public enum State {
+    /**
+     * Lookups go to the backend.
+     */
+    CLOSED,
+    /**
+     * Lookups answer from the last seen values.
+     */
+    OPEN,
+    /**
+     * One probe lookup is with the backend, the rest answer from the last seen values.
+     */
+    HALF_OPEN
+  }
+
+  /**
+   * What a lookup was let through as.
+   */
+  private enum Call {
+    REJECTED,
+    NORMAL,
+    PROBE
+  }
+
+  /**
+   * The decorated lookup manager.
+   */
+  public static class CircuitBreakerLookupManager implements FeatureLookupManager {
+
+    private final FeatureLookupManager delegate;
+    private final Executor executor;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final long minTimeoutNanos;
+    private final long maxTimeoutNanos;
+    private final Map<String, Optional<FeatureRecord>> lastKnown = new ConcurrentHashMap<>();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private final Object latencyLock = new Object();
+    private volatile State state = State.CLOSED;
+    private volatile long openedAtNanos;
+    private volatile long timeoutNanos;
+    private double smoothedNanos = -1;
+    private double deviationNanos;
+
+    /**
+     * Instantiates a new Circuit breaker lookup manager.
+     *
+     * @param delegate      the backend.
+     * @param configuration the configuration.
+     * @param executor      runs sync lookups.
+     */
+    CircuitBreakerLookupManager(final FeatureLookupManager delegate,
+                                final CircuitBreakerConfiguration configuration,
+                                final Executor executor) {
+      this.delegate = delegate;
+      this.executor = executor;
+      this.failureThreshold = configuration.failureThreshold();
+      this.openNanos = configuration.openDuration().toNanos();
+      this.minTimeoutNanos = configuration.minTimeout().toNanos();
+      this.maxTimeoutNanos = configuration.maxTimeout().toNanos();
+      this.timeoutNanos = maxTimeoutNanos;
+    }
+
+    /**
+     * The circuit state.
+     *
+     * @return the state.
+     */
+    public State state() {
+      return state;
+    }
+
+    /**
+     * The timeout the next lookup gets.
+     *
+     * @return the timeout.
+     */
+    public Duration timeout() {
+      return Duration.ofNanos(timeoutNanos);
+    }
+
+    @Override
+    public Optional<Double> lookupPercentage(final String featureId) {
+      return join(lookupPercentageAsync(featureId, executor));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Double>> lookupPercentageAsync(final String featureId, final Executor executor) {
+      return guard(featureId, () -> delegate.lookupPercentageAsync(featureId, executor),
+          CircuitBreakerLookupManager::percentageRecord, FeatureRecord::percentage);
+    }
+
+    @Override
+    public Optional<FeatureRecord> lookupFeature(final String featureId) {
+      return join(lookupFeatureAsync(featureId, executor));
+    }
+
+    /**
+     * Lookup the feature's row through the circuit. When the last known row is served instead, it
+     * is the whole row, with its id list marker and variants.
+     *
+     * @param featureId the feature id
+     * @param executor  to run the blocking lookup on, if the backend needs one.
+     * @return a future of the record.
+     */
+    @Override
+    public CompletableFuture<Optional<FeatureRecord>> lookupFeatureAsync(final String featureId, final Executor executor) {
+      return guard(featureId, () -> delegate.lookupFeatureAsync(featureId, executor),
+          Function.identity(), Function.identity());
+    }
+
+    @Override
+    public Map<String, Double> lookupPercentages(final Collection<String> featureIds) {
+      return bulk(() -> delegate.lookupPercentages(featureIds),
+          () -> fromLastKnown(featureIds, FeatureRecord::percentage),
+          CircuitBreakerLookupManager::percentageRecord);
+    }
+
+    @Override
+    public Map<String, FeatureRecord> lookupFeatures(final Collection<String> featureIds) {
+      return bulk(() -> delegate.lookupFeatures(featureIds),
+          () -> fromLastKnown(featureIds, Function.identity()),
+          Function.identity());
+    }
+
+    @Override
+    public Map<String, Double> lookupAll() {
+      return bulk(delegate::lookupAll, null, CircuitBreakerLookupManager::percentageRecord);
+    }
+
+    /**
+     * The delegate's id lists, read through the circuit under the max timeout.
+     *
+     * @return the id list lookup manager, or empty if the delegate keeps no id lists.
+     */
+    @Override
+    public Optional<IdListLookupManager> idListLookupManager() {
+      return delegate.idListLookupManager().map(idLists -> new IdListLookupManager() {
+        @Override
+        public Optional<HashedIdSet> lookupIdList(final String featureId) {
+          return join(lookupIdListAsync(featureId, executor));
+        }
+
+        @Override
+        public CompletableFuture<Optional<HashedIdSet>> lookupIdListAsync(final String featureId,
+                                                                          final Executor executor) {
+          return guardRead(() -> idLists.lookupIdListAsync(featureId, executor));
+        }
+
+        @Override
+        public void setIdList(final String featureId, final Collection<String> ids) {
+          idLists.setIdList(featureId, ids);
+        }
+
+        @Override
+        public void deleteIdList(final String featureId) {
+          idLists.deleteIdList(featureId);
+        }
+      });
+    }
+
+    /**
+     * The delegate's variants, read through the circuit under the max timeout.
+     *
+     * @return the variant lookup manager, or empty if the delegate keeps no variants.
+     */
+    @Override
+    public Optional<VariantLookupManager> variantLookupManager() {
+      return delegate.variantLookupManager().map(variants -> new VariantLookupManager() {
+        @Override
+        public Optional<List<Variant>> lookupVariants(final String featureId) {
+          return join(lookupVariantsAsync(featureId, executor));
+        }
+
+        @Override
+        public CompletableFuture<Optional<List<Variant>>> lookupVariantsAsync(final String featureId,
+                                                                              final Executor executor) {
+          return guardRead(() -> variants.lookupVariantsAsync(featureId, executor));
+        }
+
+        @Override
+        public boolean setVariants(final String featureId, final List<Variant> list) {
+          return variants.setVariants(featureId, list);
+        }
+
+        @Override
+        public void deleteVariants(final String featureId) {
+          variants.deleteVariants(featureId);
+        }
+      });
+    }
+
+    @Override
+    public void invalidate(final String featureId) {
+      delegate.invalidate(featureId);
+    }
+
+    @Override
+    public boolean setPercentage(final String featureId, final double percentage) {
+      return delegate.setPercentage(featureId, percentage);
+    }
+
+    @Override
+    public void deletePercentage(final String featureId) {
+      delegate.deletePercentage(featureId);
+    }
+
+    /**
+     * Run the lookup if the circuit lets it through, under the current timeout, and fall back to
+     * the last known value if it is rejected or fails.
+     */
+    private <T> CompletableFuture<Optional<T>> guard(final String featureId,
+                                                     final Supplier<CompletableFuture<Optional<T>>> lookup,
+                                                     final Function<T, FeatureRecord> toRecord,
+                                                     final Function<FeatureRecord, T> fromRecord) {
+      final Call call = allowRequest();
+      if (call == Call.REJECTED) {
+        try {
+          return CompletableFuture.completedFuture(lastKnown(featureId).map(fromRecord));
+        } catch (IllegalStateException e) {
+          return CompletableFuture.failedFuture(e);
+        }
+      }
+      final long start = System.nanoTime();
+      return lookup.get()
+          .orTimeout(timeoutNanos, TimeUnit.NANOSECONDS)
+          .handle((result, throwable) -> {
+            if (throwable == null) {
+              onSuccess(System.nanoTime() - start, call);
+              lastKnown.put(featureId, result.map(toRecord));
+              return result;
+            }
+            onFailure(throwable, call);
+            final Optional<FeatureRecord> previous = lastKnown.get(featureId);
+            if (previous == null) {
+              throw throwable instanceof CompletionException completion ? completion : new CompletionException(throwable);
+            }
+            return previous.map(fromRecord);
+          });
+    }
+
+    /**
+     * Run a read that has no last known value if the circuit lets it through, under the max
+     * timeout. It fails if the circuit rejects it, and does not move the timeout.
+     */
+    private <T> CompletableFuture<T> guardRead(final Supplier<CompletableFuture<T>> read) {
+      final Call call = allowRequest();
+      if (call == Call.REJECTED) {
+        return CompletableFuture.failedFuture(new IllegalStateException("Circuit open for " + delegate));
+      }
+      return read.get()
+          .orTimeout(maxTimeoutNanos, TimeUnit.NANOSECONDS)
+          .whenComplete((result, throwable) -> {
+            if (throwable == null) {
+              onSuccess(-1, call);
+            } else {
+              onFailure(throwable, call);
+            }
+          });
+    }
+
+    private <T> Map<String, T> bulk(final Supplier<Map<String, T>> lookup,
+                                    final Supplier<Map<String, T>> fallback,
+                                    final Function<T, FeatureRecord> toRecord) {
+      final Call call = allowRequest();
+      if (call == Call.REJECTED) {
+        if (fallback == null) {
+          throw new IllegalStateException("Circuit open for " + delegate);
+        }
+        return fallback.get();
+      }
+      try {
+        final long start = System.nanoTime();
+        final Map<String, T> result = join(CompletableFuture.supplyAsync(lookup, executor)
+            .orTimeout(maxTimeoutNanos, TimeUnit.NANOSECONDS));
+        onSuccess(-1, call);
+        result.forEach((featureId, value) -> lastKnown.put(featureId, Optional.of(toRecord.apply(value))));
+        LOGGER.trace("bulk() -> {} in {}ns", result.size(), System.nanoTime() - start);
+        return result;
+      } catch (RuntimeException e) {
+        onFailure(e, call);
+        if (fallback == null) {
+          throw e;
+        }
+        LOGGER.warn("Bulk lookup failed, serving the last known values", e);
+        return fallback.get();
+      }
+    }
+
+    private <T> Map<String, T> fromLastKnown(final Collection<String> featureIds,
+                                             final Function<FeatureRecord, T> fromRecord) {
+      final Map<String, T> result = new HashMap<>();
+      for (String featureId : featureIds) {
+        lastKnown(featureId).ifPresent(record -> result.put(featureId, fromRecord.apply(record)));
+      }
+      return result;
+    }
+
+    private Optional<FeatureRecord> lastKnown(final String featureId) {
+      final Optional<FeatureRecord> previous = lastKnown.get(featureId);
+      if (previous == null) {
+        throw new IllegalStateException("Circuit open and no last known value for " + featureId);
+      }
+      return previous;
+    }
+
+    private Call allowRequest() {
+      switch (state) {
+        case CLOSED:
+          return Call.NORMAL;
+        case OPEN:
+          if (System.nanoTime() - openedAtNanos >= openNanos && probing.compareAndSet(false, true)) {
+            state = State.HALF_OPEN;
+            LOGGER.info("Circuit half open for {}, probing", delegate);
+            return Call.PROBE;
+          }
+          return Call.REJECTED;
+        default:
+          return Call.REJECTED;
+      }
+    }
+
+    /**
+     * A lookup succeeded. Bulk lookups pass a negative latency so they do not skew the timeout.
+     * Only the probe closes the circuit: a slow lookup started before it opened says nothing about
+     * the backend now.
+     */
+    private void onSuccess(final long latencyNanos, final Call call) {
+      if (latencyNanos >= 0) {
+        updateTimeout(latencyNanos);
+      }
+      if (call == Call.PROBE) {
+        consecutiveFailures.set(0);
+        state = State.CLOSED;
+        probing.set(false);
+        LOGGER.info("Circuit closed for {}", delegate);
+      } else if (state == State.CLOSED) {
+        consecutiveFailures.set(0);
+      }
+    }
+
+    private void onFailure(final Throwable throwable, final Call call) {
+      if (isTimeout(throwable)) {
+        backOffTimeout();
+      }
+      if (call == Call.PROBE) {
+        open();
+      } else if (consecutiveFailures.incrementAndGet() >= failureThreshold && state == State.CLOSED) {
+        open();
+      }
+      LOGGER.debug("Lookup failed on {}", delegate, throwable);
+    }
+
+    private void open() {
+      openedAtNanos = System.nanoTime();
+      state = State.OPEN;
+      probing.set(false);
+      LOGGER.warn("Circuit open for {} after {} failures", delegate, consecutiveFailures.get());
+    }
+
+    /**
+     * Double the timeout, up to the max, as TCP does when its retransmission timer expires (RFC
+     * 6298 section 5.5). Otherwise a backend that slows down past the estimate times out on every
+     * lookup and the estimate, which only successes move, never catches up.
+     */
+    private void backOffTimeout() {
+      synchronized (latencyLock) {
+        timeoutNanos = Math.min(maxTimeoutNanos, timeoutNanos * 2);
+      }
+    }
+
+    private static boolean isTimeout(final Throwable throwable) {
+      for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+        if (cause instanceof TimeoutException) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void updateTimeout(final long latencyNanos) {
+      synchronized (latencyLock) {
+        if (smoothedNanos < 0) {
+          smoothedNanos = latencyNanos;
+          deviationNanos = latencyNanos / 2.0;
+        } else {
+          deviationNanos = 0.75 * deviationNanos + 0.25 * Math.abs(smoothedNanos - latencyNanos);
+          smoothedNanos = 0.875 * smoothedNanos + 0.125 * latencyNanos;
+        }
+        final long timeout = (long) (smoothedNanos + 4 * deviationNanos);
+        timeoutNanos = Math.min(maxTimeoutNanos, Math.max(minTimeoutNanos, timeout));
+      }
+    }
+
+    private static FeatureRecord percentageRecord(final double percentage) {
+      return ImmutableFeatureRecord.builder().percentage(percentage).build();
+    }
+
+    private static <T> T join(final CompletableFuture<T> future) {
+      try {
+        return future.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException runtimeException) {
+          throw runtimeException;
+        }
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+  }
+
+}
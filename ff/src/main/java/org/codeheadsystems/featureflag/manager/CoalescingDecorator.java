@@ -0,0 +1,335 @@
+package org.codeheadsystems.featureflag.manager;
+
+import com.google.common.base.Ticker;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import org.codeheadsystems.featureflag.manager.FeatureManager.Decorator;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lets concurrent lookups of the same feature share one backend call, for percentages and rows
+ * alike. Share one instance across every feature manager built on the same feature lookup manager:
+ * decorating the same lookup manager twice returns the same coalescing lookup manager, so a
+ * refresh of one feature in several feature managers at once reads the backend once.
+ *
+ * <p>With a result ttl, a finished lookup is also kept for that long, so feature managers that
+ * refresh a little apart still share the read. Keep it short; it adds to how stale a value can be.
+ * Writes and deletes go straight to the backend. They, and
+ * {@link FeatureLookupManager#invalidate(String)} from a feature manager told the feature changed,
+ * drop the kept result, and a lookup that started before the change is neither kept nor joined.
+ *
+ * <p>When a change is pushed, every feature manager sharing the lookup manager invalidates the
+ * feature. Invalidates that arrive within the result ttl of the one that started the change, or
+ * while a lookup started after it is still in flight, are taken as the same change, so they share
+ * one read. A second change that lands that soon is picked up by the next refresh.
+ */
+public class CoalescingDecorator {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CoalescingDecorator.class);
+
+  private final long resultTtlNanos;
+  private final Ticker ticker;
+  private final Map<FeatureLookupManager, CoalescingLookupManager> lookupManagers;
+
+  /**
+   * Instantiates a new Coalescing decorator that only shares in-flight lookups.
+   */
+  public CoalescingDecorator() {
+    this(Duration.ZERO);
+  }
+
+  /**
+   * Instantiates a new Coalescing decorator.
+   *
+   * @param resultTtl how long a finished lookup is shared. Zero shares in-flight lookups only.
+   */
+  public CoalescingDecorator(final Duration resultTtl) {
+    this(resultTtl, Ticker.systemTicker());
+  }
+
+  /**
+   * Instantiates a new Coalescing decorator.
+   *
+   * @param resultTtl how long a finished lookup is shared. Zero shares in-flight lookups only.
+   * @param ticker    the ticker.
+   */
+  public CoalescingDecorator(final Duration resultTtl, final Ticker ticker) {
+    if (resultTtl.isNegative()) {
+      throw new IllegalArgumentException("resultTtl must not be negative: " + resultTtl);
+    }
+    this.resultTtlNanos = resultTtl.toNanos();
+    this.ticker = ticker;
+    this.lookupManagers = new ConcurrentHashMap<>();
+    LOGGER.info("CoalescingDecorator({})", resultTtl);
+  }
+
+  /**
+   * Feature lookup manager decorator.
+   *
+   * @return the decorator.
+   */
+  public Decorator<FeatureLookupManager> featureLookupManagerDecorator() {
+    return delegate -> lookupManagers.computeIfAbsent(delegate, CoalescingLookupManager::new);
+  }
+
+  private record Result<T>(T value, long startedAtNanos, long expiresAtNanos) {
+  }
+
+  private record Lookup<T>(CompletableFuture<T> future, long startedAtNanos) {
+  }
+
+  /**
+   * The lookup manager that shares lookups.
+   */
+  public class CoalescingLookupManager implements FeatureLookupManager {
+
+    private final FeatureLookupManager delegate;
+    private final Shared<Optional<Double>> percentages;
+    private final Shared<Optional<FeatureRecord>> records;
+    private final ConcurrentHashMap<String, Long> changedAtNanos;
+
+    private CoalescingLookupManager(final FeatureLookupManager delegate) {
+      this.delegate = delegate;
+      this.percentages = new Shared<>();
+      this.records = new Shared<>();
+      this.changedAtNanos = new ConcurrentHashMap<>();
+      LOGGER.info("CoalescingLookupManager({})", delegate);
+    }
+
+    @Override
+    public Optional<Double> lookupPercentage(final String featureId) {
+      return percentages.lookup(featureId, () -> delegate.lookupPercentage(featureId));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Double>> lookupPercentageAsync(final String featureId,
+                                                                     final Executor executor) {
+      return percentages.lookupAsync(featureId, () -> delegate.lookupPercentageAsync(featureId, executor));
+    }
+
+    @Override
+    public Optional<FeatureRecord> lookupFeature(final String featureId) {
+      return records.lookup(featureId, () -> delegate.lookupFeature(featureId));
+    }
+
+    @Override
+    public CompletableFuture<Optional<FeatureRecord>> lookupFeatureAsync(final String featureId,
+                                                                         final Executor executor) {
+      return records.lookupAsync(featureId, () -> delegate.lookupFeatureAsync(featureId, executor));
+    }
+
+    @Override
+    public Map<String, Double> lookupPercentages(final Collection<String> featureIds) {
+      return delegate.lookupPercentages(featureIds);
+    }
+
+    @Override
+    public Map<String, FeatureRecord> lookupFeatures(final Collection<String> featureIds) {
+      return delegate.lookupFeatures(featureIds);
+    }
+
+    @Override
+    public Map<String, Double> lookupAll() {
+      return delegate.lookupAll();
+    }
+
+    @Override
+    public Optional<IdListLookupManager> idListLookupManager() {
+      return delegate.idListLookupManager();
+    }
+
+    @Override
+    public Optional<VariantLookupManager> variantLookupManager() {
+      return delegate.variantLookupManager();
+    }
+
+    @Override
+    public void invalidate(final String featureId) {
+      if (sameChange(featureId)) {
+        LOGGER.trace("invalidate({}): same change as the last", featureId);
+      } else {
+        changed(featureId);
+      }
+      delegate.invalidate(featureId);
+    }
+
+    @Override
+    public boolean setPercentage(final String featureId, final double percentage) {
+      changed(featureId);
+      return delegate.setPercentage(featureId, percentage);
+    }
+
+    @Override
+    public void deletePercentage(final String featureId) {
+      changed(featureId);
+      delegate.deletePercentage(featureId);
+    }
+
+    /**
+     * The number of lookups in flight.
+     *
+     * @return the count.
+     */
+    public int inFlight() {
+      return percentages.inFlight.size() + records.inFlight.size();
+    }
+
+    /**
+     * The feature changed: drop its kept result, and let later lookups start their own call
+     * rather than join one that may read the old value.
+     */
+    private void changed(final String featureId) {
+      changedAtNanos.put(featureId, ticker.read());
+      percentages.changed(featureId);
+      records.changed(featureId);
+    }
+
+    /**
+     * Whether an invalidate is news of the change already being read: it arrives within the
+     * result ttl of the invalidate that started the change, or while a lookup started after that
+     * is still in flight.
+     */
+    private boolean sameChange(final String featureId) {
+      final Long changed = changedAtNanos.get(featureId);
+      if (changed == null) {
+        return false;
+      }
+      if (ticker.read() - changed < resultTtlNanos) {
+        return true;
+      }
+      return percentages.startedAfter(featureId, changed) || records.startedAfter(featureId, changed);
+    }
+
+    private boolean startedBeforeChange(final String featureId, final long startedAtNanos) {
+      final Long changed = changedAtNanos.get(featureId);
+      return changed != null && startedAtNanos - changed <= 0;
+    }
+
+    /**
+     * The lookups in flight and results kept for one kind of lookup: percentages, or rows.
+     */
+    private class Shared<T> {
+
+      private final ConcurrentHashMap<String, Lookup<T>> inFlight = new ConcurrentHashMap<>();
+      private final ConcurrentHashMap<String, Result<T>> results = new ConcurrentHashMap<>();
+
+      private T lookup(final String featureId, final Supplier<T> call) {
+        final Result<T> kept = kept(featureId);
+        if (kept != null) {
+          return kept.value();
+        }
+        final Lookup<T> lookup = new Lookup<>(new CompletableFuture<>(), ticker.read());
+        final Lookup<T> existing = inFlight.putIfAbsent(featureId, lookup);
+        if (existing != null) {
+          LOGGER.trace("lookup({}): joining in-flight lookup", featureId);
+          return join(existing.future());
+        }
+        final CompletableFuture<T> future = lookup.future();
+        try {
+          final T value = call.get();
+          keep(featureId, value, lookup.startedAtNanos());
+          future.complete(value);
+          return value;
+        } catch (RuntimeException e) {
+          future.completeExceptionally(e);
+          throw e;
+        } finally {
+          inFlight.remove(featureId, lookup);
+        }
+      }
+
+      private CompletableFuture<T> lookupAsync(final String featureId, final Supplier<CompletableFuture<T>> call) {
+        final Result<T> kept = kept(featureId);
+        if (kept != null) {
+          return CompletableFuture.completedFuture(kept.value());
+        }
+        final Lookup<T> lookup = new Lookup<>(new CompletableFuture<>(), ticker.read());
+        final Lookup<T> existing = inFlight.putIfAbsent(featureId, lookup);
+        if (existing != null) {
+          LOGGER.trace("lookupAsync({}): joining in-flight lookup", featureId);
+          return existing.future().thenApply(value -> value);
+        }
+        final CompletableFuture<T> future = lookup.future();
+        final CompletableFuture<T> started;
+        try {
+          started = call.get();
+        } catch (RuntimeException e) {
+          inFlight.remove(featureId, lookup);
+          future.completeExceptionally(e);
+          throw e;
+        }
+        started.whenComplete((value, throwable) -> {
+          if (throwable == null) {
+            keep(featureId, value, lookup.startedAtNanos());
+          }
+          inFlight.remove(featureId, lookup);
+          if (throwable != null) {
+            future.completeExceptionally(throwable);
+          } else {
+            future.complete(value);
+          }
+        });
+        // callers get a dependent so cancelling one does not cancel the shared lookup.
+        return future.thenApply(value -> value);
+      }
+
+      private void changed(final String featureId) {
+        results.remove(featureId);
+        inFlight.remove(featureId);
+      }
+
+      private boolean startedAfter(final String featureId, final long changedAtNanos) {
+        final Lookup<T> lookup = inFlight.get(featureId);
+        return lookup != null && lookup.startedAtNanos() - changedAtNanos > 0;
+      }
+
+      private Result<T> kept(final String featureId) {
+        if (resultTtlNanos == 0) {
+          return null;
+        }
+        final Result<T> result = results.get(featureId);
+        if (result == null) {
+          return null;
+        }
+        if (ticker.read() - result.expiresAtNanos() >= 0 || startedBeforeChange(featureId, result.startedAtNanos())) {
+          results.remove(featureId, result);
+          return null;
+        }
+        return result;
+      }
+
+      /**
+       * Keep the result unless the feature changed after the lookup started. kept() checks again,
+       * for a change that lands between this check and the put.
+       */
+      private void keep(final String featureId, final T value, final long startedAtNanos) {
+        if (resultTtlNanos > 0 && !startedBeforeChange(featureId, startedAtNanos)) {
+          results.put(featureId, new Result<>(value, startedAtNanos, ticker.read() + resultTtlNanos));
+        }
+      }
+
+      private T join(final CompletableFuture<T> future) {
+        try {
+          return future.join();
+        } catch (CompletionException e) {
+          if (e.getCause() instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+          }
+          throw e;
+        }
+      }
+
+    }
+
+  }
+
+}
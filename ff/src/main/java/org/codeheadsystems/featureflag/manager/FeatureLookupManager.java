@@ -1,6 +1,13 @@
 package org.codeheadsystems.featureflag.manager;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
 
 /**
  * The interface Enablement lookup manager.
@@ -15,6 +22,119 @@ public interface FeatureLookupManager {
    */
   Optional<Double> lookupPercentage(String featureId);
 
+  /**
+   * Lookup feature without blocking the caller. The default runs lookupPercentage() on the
+   * executor, tying up one of its threads for the call; backends with a non-blocking client
+   * should override this and ignore the executor.
+   *
+   * @param featureId the feature id
+   * @param executor  to run the blocking lookup on, if the backend needs one.
+   * @return a future of the feature percentage dialed up.
+   */
+  default CompletableFuture<Optional<Double>> lookupPercentageAsync(String featureId, Executor executor) {
+    return CompletableFuture.supplyAsync(() -> lookupPercentage(featureId), executor);
+  }
+
+  /**
+   * Lookup the feature's row: its percentage and whether it has an id list. The feature manager
+   * uses this instead of lookupPercentage() when it has an id list lookup manager. The default
+   * knows only the percentage; backends that keep id lists should override this to read the row's
+   * marker in the same call, and decorators that pass lookups through should forward it.
+   *
+   * @param featureId the feature id
+   * @return the record, or empty if the feature was not found.
+   */
+  default Optional<FeatureRecord> lookupFeature(String featureId) {
+    return lookupPercentage(featureId).map(percentage -> ImmutableFeatureRecord.builder().percentage(percentage).build());
+  }
+
+  /**
+   * Lookup the feature's row without blocking the caller, as lookupFeature() does. The default
+   * knows only the percentage, from lookupPercentageAsync().
+   *
+   * @param featureId the feature id
+   * @param executor  to run the blocking lookup on, if the backend needs one.
+   * @return a future of the record, or empty if the feature was not found.
+   */
+  default CompletableFuture<Optional<FeatureRecord>> lookupFeatureAsync(String featureId, Executor executor) {
+    return lookupPercentageAsync(featureId, executor)
+        .thenApply(percentage -> percentage.map(value -> ImmutableFeatureRecord.builder().percentage(value).build()));
+  }
+
+  /**
+   * Lookup the features in as few calls to the backend as it allows. The default makes one
+   * lookupPercentage() call per feature, backends should override this.
+   *
+   * @param featureIds the feature ids
+   * @return the percentages found, keyed by feature id. Features not found are absent.
+   */
+  default Map<String, Double> lookupPercentages(Collection<String> featureIds) {
+    final Map<String, Double> result = new HashMap<>();
+    for (String featureId : featureIds) {
+      lookupPercentage(featureId).ifPresent(percentage -> result.put(featureId, percentage));
+    }
+    return result;
+  }
+
+  /**
+   * Lookup the rows of the features in as few calls to the backend as it allows, as lookupFeature()
+   * does for one. The feature manager uses this for bulk loads when it has an id list or variant
+   * lookup manager. The default knows only the percentages, from lookupPercentages(); backends that
+   * keep id lists or variants should override this, and decorators should forward it.
+   *
+   * @param featureIds the feature ids
+   * @return the records found, keyed by feature id. Features not found are absent.
+   */
+  default Map<String, FeatureRecord> lookupFeatures(Collection<String> featureIds) {
+    final Map<String, FeatureRecord> result = new HashMap<>();
+    lookupPercentages(featureIds).forEach((featureId, percentage) ->
+        result.put(featureId, ImmutableFeatureRecord.builder().percentage(percentage).build()));
+    return result;
+  }
+
+  /**
+   * The id lists kept by the backend, read through this manager. When the id list lookup manager
+   * is also the feature lookup manager, the feature manager reads lists through this, so they pass
+   * the same decorators as the rows. The default is this manager if it keeps id lists; decorators
+   * should return their delegate's, wrapped if they guard or measure reads.
+   *
+   * @return the id list lookup manager, or empty if the backend keeps no id lists.
+   */
+  default Optional<IdListLookupManager> idListLookupManager() {
+    return this instanceof IdListLookupManager idLists ? Optional.of(idLists) : Optional.empty();
+  }
+
+  /**
+   * The variants kept by the backend, read through this manager, as idListLookupManager() does
+   * for id lists.
+   *
+   * @return the variant lookup manager, or empty if the backend keeps no variants.
+   */
+  default Optional<VariantLookupManager> variantLookupManager() {
+    return this instanceof VariantLookupManager variants ? Optional.of(variants) : Optional.empty();
+  }
+
+  /**
+   * Lookup every feature the backend has.
+   *
+   * @return the percentages, keyed by feature id.
+   * @throws UnsupportedOperationException if the backend cannot list its features.
+   */
+  default Map<String, Double> lookupAll() {
+    throw new UnsupportedOperationException("lookupAll() not supported by " + getClass().getName());
+  }
+
+  /**
+   * The feature changed in the backend, so anything kept for it is stale. Called before the
+   * feature manager reloads a feature it was told changed. The default does nothing; decorators
+   * that keep values should drop the feature's, and all decorators should forward this.
+   *
+   * @param featureId the feature id
+   */
+  default void invalidate(String featureId) {
+    // nothing kept.
+  }
+
   /**
    * Sets percentage.
    *
@@ -3,13 +3,20 @@ package org.codeheadsystems.featureflag.manager;
 import com.google.common.cache.CacheBuilder;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.function.Supplier;
+import org.codeheadsystems.featureflag.factory.Discriminator;
 import org.codeheadsystems.featureflag.factory.Enablement;
 import org.codeheadsystems.featureflag.factory.EnablementFactory;
 import org.codeheadsystems.featureflag.manager.impl.FeatureManagerImpl;
 import org.codeheadsystems.featureflag.model.FeatureManagerConfiguration;
+import org.codeheadsystems.featureflag.model.FeatureManagerStats;
 import org.codeheadsystems.featureflag.model.ImmutableFeatureManagerConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +35,17 @@ public interface FeatureManager {
    */
   boolean isEnabled(String featureId, String discriminator);
 
+  /**
+   * Is enabled boolean, for a discriminator whose hash is already known.
+   *
+   * @param featureId     the feature id
+   * @param discriminator the discriminator
+   * @return the boolean
+   */
+  default boolean isEnabled(String featureId, Discriminator discriminator) {
+    return isEnabled(featureId, discriminator.value());
+  }
+
 
   /**
    * If enabled else t.
@@ -43,6 +61,62 @@ public interface FeatureManager {
     return isEnabled(featureId, discriminator) ? ifEnabled.get() : ifDisabled.get();
   }
 
+  /**
+   * The variant of a multivariate feature for the discriminator. Features without variants, or
+   * not found, give the default variant, as do discriminators the feature does not enable and
+   * discriminators past the last variant's weight.
+   * The default returns the default variant; feature managers that keep variants override this.
+   *
+   * @param featureId      the feature id
+   * @param discriminator  the discriminator
+   * @param defaultVariant the default variant, usually the control
+   * @return the variant name
+   */
+  default String variant(String featureId, String discriminator, String defaultVariant) {
+    return defaultVariant;
+  }
+
+  /**
+   * The variant of a multivariate feature for a discriminator whose hash is already known.
+   *
+   * @param featureId      the feature id
+   * @param discriminator  the discriminator
+   * @param defaultVariant the default variant, usually the control
+   * @return the variant name
+   */
+  default String variant(String featureId, Discriminator discriminator, String defaultVariant) {
+    return variant(featureId, discriminator.value(), defaultVariant);
+  }
+
+  /**
+   * Check many features for one discriminator. Bit i of the result is set if featureIds.get(i) is
+   * enabled. Implementations may hash the discriminator once for all of them.
+   *
+   * @param discriminator the discriminator
+   * @param featureIds    the feature ids
+   * @return the enabled features, by position
+   */
+  default BitSet evaluateAll(String discriminator, List<String> featureIds) {
+    final BitSet result = new BitSet(featureIds.size());
+    for (int i = 0; i < featureIds.size(); i++) {
+      if (isEnabled(featureIds.get(i), discriminator)) {
+        result.set(i);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Check many features for one discriminator whose hash is already known.
+   *
+   * @param discriminator the discriminator
+   * @param featureIds    the feature ids
+   * @return the enabled features, by position
+   */
+  default BitSet evaluateAll(Discriminator discriminator, List<String> featureIds) {
+    return evaluateAll(discriminator.value(), featureIds);
+  }
+
   /**
    * Invalidate the feature id in the cache.
    *
@@ -50,6 +124,35 @@ public interface FeatureManager {
    */
   void invalidate(String featureId);
 
+  /**
+   * Reload the feature id in the background if it is cached, serving the current value until the
+   * reload finishes. Used by backends that push change notifications. Defaults to invalidate.
+   *
+   * @param featureId the feature id
+   */
+  default void refresh(String featureId) {
+    invalidate(featureId);
+  }
+
+  /**
+   * The cache statistics so far. Decorators should forward this to their delegate.
+   *
+   * @return the stats
+   * @throws UnsupportedOperationException if this feature manager does not keep stats.
+   */
+  default FeatureManagerStats stats() {
+    throw new UnsupportedOperationException("stats() not supported by " + getClass().getName());
+  }
+
+  /**
+   * Stop any background threads the feature manager started, such as the snapshot cache refresh.
+   * Features can still be checked afterwards, but are no longer refreshed in the background.
+   * Decorators should forward this to their delegate.
+   */
+  default void close() {
+    // nothing to stop by default.
+  }
+
   /**
    * The interface Decorator.
    *
@@ -74,16 +177,34 @@ public interface FeatureManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FeatureManager.class);
 
+    /**
+     * The most features the default cache holds.
+     */
+    public static final long DEFAULT_MAXIMUM_SIZE = 100;
+
+    /**
+     * The most features the default cache holds when every feature is prewarmed, since how many
+     * there are is not known until the prewarm runs.
+     */
+    public static final long PREWARM_ALL_MAXIMUM_SIZE = 10_000;
+
     private EnablementFactory enablementFactory;
     private FeatureLookupManager featureLookupManager;
     private FeatureManagerConfiguration configuration;
     private CacheBuilder<String, Enablement> cacheBuilder;
+    private Duration snapshotRefreshInterval;
+    private boolean prewarmAll;
+    private final Set<String> prewarmFeatureIds = new LinkedHashSet<>();
+    private Duration prewarmTimeout = Duration.ZERO;
+    private TargetingSource targetingSource = TargetingSource.none();
+    private IdListLookupManager idListLookupManager;
+    private VariantLookupManager variantLookupManager;
     private List<Decorator<FeatureManager>> featureManagerDecorator = new ArrayList<>();
     private List<Decorator<FeatureLookupManager>> featureLookupManagerDecorator = new ArrayList<>();
 
-    private static CacheBuilder<String, Enablement> getDefaultCacheBuilder() {
+    private static CacheBuilder<String, Enablement> getDefaultCacheBuilder(final long maximumSize) {
       return CacheBuilder.newBuilder()
-          .maximumSize(100) // oh god, like we will have 100 features?
+          .maximumSize(maximumSize) // sized by build() for the prewarm, if any.
           .refreshAfterWrite(Duration.ofSeconds(60)) // refresh from source every 60seconds
           .expireAfterAccess(Duration.ofSeconds(600)) // expire after 600 seconds of inactivity
           .removalListener(notification -> LOGGER.trace("removalListener({})", notification.getKey()));
@@ -155,6 +276,90 @@ public interface FeatureManager {
       return this;
     }
 
+    /**
+     * Use the snapshot cache instead of the guava cache. Optional to be called. Every loaded feature
+     * is kept in an immutable map read without locks, and reloaded together on the interval. Suits a
+     * fixed set of features checked on every request. The cache builder is ignored when set.
+     *
+     * @param refreshInterval how often every loaded feature is reloaded.
+     * @return the builder
+     */
+    public FeatureManagerImpl.Builder withSnapshotCache(final Duration refreshInterval) {
+      this.snapshotRefreshInterval = refreshInterval;
+      return this;
+    }
+
+    /**
+     * Load every feature from the lookup manager into the cache during build(). Optional to be
+     * called. Needs a lookup manager that supports lookupAll(). The default cache then holds up
+     * to {@link #PREWARM_ALL_MAXIMUM_SIZE} features; a cache builder given here must be sized for
+     * every feature, or the prewarmed features are evicted as they load.
+     *
+     * @param timeout the longest build() waits. A slower load finishes in the background.
+     * @return the builder
+     */
+    public FeatureManagerImpl.Builder withPrewarmAll(final Duration timeout) {
+      this.prewarmAll = true;
+      this.prewarmTimeout = timeout;
+      return this;
+    }
+
+    /**
+     * Load these features into the cache during build(). Optional to be called. Features the
+     * lookup manager does not have are cached as disabled. The default cache is sized to hold
+     * them all.
+     *
+     * @param featureIds the feature ids.
+     * @param timeout    the longest build() waits. A slower load finishes in the background.
+     * @return the builder
+     */
+    public FeatureManagerImpl.Builder withPrewarm(final Collection<String> featureIds, final Duration timeout) {
+      this.prewarmFeatureIds.addAll(featureIds);
+      this.prewarmTimeout = timeout;
+      return this;
+    }
+
+    /**
+     * With targeting source builder. Optional to be called. Each feature's targeting is read when
+     * the feature loads and compiled with its percentage. Features the lookup manager does not
+     * have stay disabled.
+     *
+     * @param targetingSource the targeting source
+     * @return the builder
+     */
+    public FeatureManagerImpl.Builder withTargetingSource(final TargetingSource targetingSource) {
+      this.targetingSource = Objects.requireNonNull(targetingSource, "targetingSource");
+      return this;
+    }
+
+    /**
+     * With id list lookup manager builder. Optional to be called. Each feature's id list is read
+     * when the feature loads, and the ids in it are enabled whatever the percentage or targeting
+     * says. Features the lookup manager does not have stay disabled. When this is also the feature
+     * lookup manager, only features whose row marks an id list have one read.
+     *
+     * @param idListLookupManager the id list lookup manager
+     * @return the builder
+     */
+    public FeatureManagerImpl.Builder withIdListLookupManager(final IdListLookupManager idListLookupManager) {
+      this.idListLookupManager = Objects.requireNonNull(idListLookupManager, "idListLookupManager");
+      return this;
+    }
+
+    /**
+     * With variant lookup manager builder. Optional to be called. Each feature's variants are read
+     * when the feature loads, and picked from with variant(). Features the lookup manager does not
+     * have give the default variant. When this is also the feature lookup manager, the variants
+     * come with the feature's row instead of being read on their own.
+     *
+     * @param variantLookupManager the variant lookup manager
+     * @return the builder
+     */
+    public FeatureManagerImpl.Builder withVariantLookupManager(final VariantLookupManager variantLookupManager) {
+      this.variantLookupManager = Objects.requireNonNull(variantLookupManager, "variantLookupManager");
+      return this;
+    }
+
     /**
      * Build feature manager.
      *
@@ -164,14 +369,19 @@ public interface FeatureManager {
       FeatureLookupManager internalLookupManager = Objects.requireNonNull(featureLookupManager, "Missing required fields: featureLookupManager");
       enablementFactory = Objects.requireNonNullElse(enablementFactory, new EnablementFactory());
       configuration = Objects.requireNonNullElse(configuration, ImmutableFeatureManagerConfiguration.builder().build());
-      cacheBuilder = Objects.requireNonNullElse(cacheBuilder, getDefaultCacheBuilder());
+      if (cacheBuilder == null) {
+        // big enough for the prewarm, or it is evicted as it loads.
+        cacheBuilder = getDefaultCacheBuilder(prewarmAll
+            ? PREWARM_ALL_MAXIMUM_SIZE
+            : Math.max(DEFAULT_MAXIMUM_SIZE, prewarmFeatureIds.size()));
+      }
 
       for (Decorator<FeatureLookupManager> decorator : featureLookupManagerDecorator) {
         LOGGER.info("Decorating featureLookupManager with {}", decorator);
         internalLookupManager = decorator.decorate(internalLookupManager);
       }
 
-      FeatureManager featureManager = new FeatureManagerImpl(this);
+      FeatureManager featureManager = new FeatureManagerImpl(this, internalLookupManager);
       for (Decorator<FeatureManager> decorator : featureManagerDecorator) {
         LOGGER.info("Decorating featureManager with {}", decorator);
         featureManager = decorator.decorate(featureManager);
@@ -214,6 +424,69 @@ public interface FeatureManager {
     public CacheBuilder<String, Enablement> getCacheBuilder() {
       return cacheBuilder;
     }
+
+    /**
+     * Gets the snapshot cache refresh interval, if the snapshot cache is in use.
+     *
+     * @return the refresh interval
+     */
+    public Optional<Duration> getSnapshotRefreshInterval() {
+      return Optional.ofNullable(snapshotRefreshInterval);
+    }
+
+    /**
+     * Is every feature loaded during build.
+     *
+     * @return the boolean
+     */
+    public boolean isPrewarmAll() {
+      return prewarmAll;
+    }
+
+    /**
+     * Gets the features to load during build.
+     *
+     * @return the feature ids
+     */
+    public Set<String> getPrewarmFeatureIds() {
+      return prewarmFeatureIds;
+    }
+
+    /**
+     * Gets how long build waits for the prewarm.
+     *
+     * @return the timeout
+     */
+    public Duration getPrewarmTimeout() {
+      return prewarmTimeout;
+    }
+
+    /**
+     * Gets the targeting source.
+     *
+     * @return the targeting source
+     */
+    public TargetingSource getTargetingSource() {
+      return targetingSource;
+    }
+
+    /**
+     * Gets the id list lookup manager.
+     *
+     * @return the id list lookup manager, if one was set.
+     */
+    public Optional<IdListLookupManager> getIdListLookupManager() {
+      return Optional.ofNullable(idListLookupManager);
+    }
+
+    /**
+     * Gets the variant lookup manager.
+     *
+     * @return the variant lookup manager, if one was set.
+     */
+    public Optional<VariantLookupManager> getVariantLookupManager() {
+      return Optional.ofNullable(variantLookupManager);
+    }
   }
 
 }
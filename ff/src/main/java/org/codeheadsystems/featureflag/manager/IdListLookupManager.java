@@ -0,0 +1,85 @@
+package org.codeheadsystems.featureflag.manager;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
+
+/**
+ * Stores a feature's allow list of ids where it is too large to keep in configuration, such as a
+ * list of a few million user ids. Lists are kept as {@link HashedIdSet}s, 8 bytes per id. The ids
+ * themselves are not kept.
+ *
+ * <p>A list is read when its feature loads, after the percentage. If this is also the feature
+ * lookup manager, setting a list should mark the feature's row so
+ * {@link FeatureLookupManager#lookupFeature(String)} reports it, and features without a list are
+ * loaded without reading one.
+ */
+public interface IdListLookupManager {
+
+  /**
+   * Lookup the feature's id list.
+   *
+   * @param featureId the feature id
+   * @return the ids, or empty if the feature has no id list.
+   */
+  Optional<HashedIdSet> lookupIdList(String featureId);
+
+  /**
+   * Lookup the feature's id list without blocking the caller. The default runs lookupIdList() on
+   * the executor; backends with a non-blocking client should override this.
+   *
+   * @param featureId the feature id
+   * @param executor  to run the blocking lookup on, if the backend needs one.
+   * @return a future of the ids, or empty if the feature has no id list.
+   */
+  default CompletableFuture<Optional<HashedIdSet>> lookupIdListAsync(String featureId, Executor executor) {
+    return CompletableFuture.supplyAsync(() -> lookupIdList(featureId), executor);
+  }
+
+  /**
+   * Sets the feature's id list, replacing any list it had.
+   *
+   * @param featureId the feature id
+   * @param ids       the ids
+   */
+  void setIdList(String featureId, Collection<String> ids);
+
+  /**
+   * Delete the feature's id list.
+   *
+   * @param featureId the feature id
+   */
+  void deleteIdList(String featureId);
+
+  /**
+   * No id lists for any feature.
+   *
+   * @return the id list lookup manager.
+   */
+  static IdListLookupManager none() {
+    return new IdListLookupManager() {
+      @Override
+      public Optional<HashedIdSet> lookupIdList(final String featureId) {
+        return Optional.empty();
+      }
+
+      @Override
+      public CompletableFuture<Optional<HashedIdSet>> lookupIdListAsync(final String featureId, final Executor executor) {
+        return CompletableFuture.completedFuture(Optional.empty());
+      }
+
+      @Override
+      public void setIdList(final String featureId, final Collection<String> ids) {
+        throw new UnsupportedOperationException("No id list lookup manager configured");
+      }
+
+      @Override
+      public void deleteIdList(final String featureId) {
+        // nothing stored.
+      }
+    };
+  }
+
+}
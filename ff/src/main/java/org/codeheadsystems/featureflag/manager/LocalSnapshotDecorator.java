@@ -0,0 +1,394 @@
+package org.codeheadsystems.featureflag.manager;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.codeheadsystems.featureflag.manager.FeatureManager.Decorator;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the last known percentages in a local file so flags work before the backend answers.
+ * When decorating, the file is read and its features are served straight from it while one bulk
+ * lookup against the backend runs in the background, retried with backoff until it succeeds. Once
+ * it does every call goes to the backend, and the file is rewritten whenever a value changes. If
+ * the backend fails later, features in the file are served from it instead of failing.
+ *
+ * <p>Values served from the file stay in the feature manager's cache until its next refresh. The
+ * file keeps percentages alone, so a row served from it has no id list marker or variants, and
+ * the feature manager reads those from the backend.
+ */
+public class LocalSnapshotDecorator {
+
+  /**
+   * The longest wait between retries of the startup lookup.
+   */
+  public static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(1);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LocalSnapshotDecorator.class);
+
+  private final Path file;
+  private final Executor executor;
+  private final Duration retryDelay;
+
+  /**
+   * Instantiates a new Local snapshot decorator. The startup lookup runs on the common pool.
+   *
+   * @param file the snapshot file. Its directory is created if needed.
+   */
+  public LocalSnapshotDecorator(final Path file) {
+    this(file, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Instantiates a new Local snapshot decorator.
+   *
+   * @param file     the snapshot file. Its directory is created if needed.
+   * @param executor runs the startup lookup.
+   */
+  public LocalSnapshotDecorator(final Path file, final Executor executor) {
+    this(file, executor, Duration.ofSeconds(1));
+  }
+
+  /**
+   * Instantiates a new Local snapshot decorator.
+   *
+   * @param file       the snapshot file. Its directory is created if needed.
+   * @param executor   runs the startup lookup.
+   * @param retryDelay the wait before retrying a failed startup lookup, doubled after each failure
+   *                   up to {@link #MAX_RETRY_DELAY}.
+   */
+  public LocalSnapshotDecorator(final Path file, final Executor executor, final Duration retryDelay) {
+    this.file = file;
+    this.executor = executor;
+    this.retryDelay = retryDelay;
+    LOGGER.info("LocalSnapshotDecorator({}, {})", file, retryDelay);
+  }
+
+  /**
+   * Feature lookup manager decorator.
+   *
+   * @return the decorator
+   */
+  public Decorator<FeatureLookupManager> featureLookupManagerDecorator() {
+    return (delegate) -> {
+      LOGGER.info("decorateFeatureLookupManager({})", delegate);
+      final SnapshotLookupManager manager = new SnapshotLookupManager(delegate, file, readSnapshot());
+      manager.start(executor, retryDelay.toMillis());
+      return manager;
+    };
+  }
+
+  private Map<String, Double> readSnapshot() {
+    try {
+      final Map<String, Double> snapshot = LocalSnapshotFile.read(file);
+      LOGGER.info("readSnapshot({}) -> {} features", file, snapshot.size());
+      return snapshot;
+    } catch (NoSuchFileException e) {
+      LOGGER.info("readSnapshot({}) -> no snapshot yet", file);
+    } catch (IOException e) {
+      LOGGER.warn("Ignoring unreadable snapshot {}", file, e);
+    }
+    return Map.of();
+  }
+
+  /**
+   * The decorated lookup manager.
+   */
+  static class SnapshotLookupManager implements FeatureLookupManager {
+
+    private final FeatureLookupManager delegate;
+    private final Path file;
+    private final Map<String, Double> snapshot;
+    private volatile boolean live;
+
+    /**
+     * Instantiates a new Snapshot lookup manager.
+     *
+     * @param delegate the backend.
+     * @param file     the snapshot file.
+     * @param snapshot the percentages read from the file.
+     */
+    SnapshotLookupManager(final FeatureLookupManager delegate,
+                          final Path file,
+                          final Map<String, Double> snapshot) {
+      this.delegate = delegate;
+      this.file = file;
+      this.snapshot = new ConcurrentHashMap<>(snapshot);
+      this.live = snapshot.isEmpty();
+    }
+
+    /**
+     * Load the snapshot's features from the backend in the background. Until that succeeds they
+     * are served from the snapshot, and the load is retried after the delay, doubling each time.
+     *
+     * @param executor    to load on.
+     * @param delayMillis the wait before the next retry.
+     */
+    void start(final Executor executor, final long delayMillis) {
+      if (live) {
+        return;
+      }
+      CompletableFuture.runAsync(() -> {
+        final Collection<String> featureIds = Set.copyOf(snapshot.keySet());
+        update(featureIds, delegate.lookupPercentages(featureIds));
+        live = true;
+        LOGGER.info("start() -> {} features live from {}", featureIds.size(), delegate);
+      }, executor).exceptionally(throwable -> {
+        LOGGER.warn("Backend not available, serving the snapshot and retrying in {}ms", delayMillis, throwable);
+        final long nextDelayMillis = Math.min(delayMillis * 2, MAX_RETRY_DELAY.toMillis());
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, executor)
+            .execute(() -> start(executor, nextDelayMillis));
+        return null;
+      });
+    }
+
+    /**
+     * Is the backend answering yet.
+     *
+     * @return true once a startup or later lookup has succeeded.
+     */
+    boolean isLive() {
+      return live;
+    }
+
+    @Override
+    public Optional<Double> lookupPercentage(final String featureId) {
+      final Double cached = snapshot.get(featureId);
+      if (!live && cached != null) {
+        return Optional.of(cached);
+      }
+      try {
+        return update(featureId, delegate.lookupPercentage(featureId));
+      } catch (RuntimeException e) {
+        if (cached == null) {
+          throw e;
+        }
+        LOGGER.warn("lookupPercentage({}) failed, serving the snapshot", featureId, e);
+        return Optional.of(cached);
+      }
+    }
+
+    @Override
+    public CompletableFuture<Optional<Double>> lookupPercentageAsync(final String featureId, final Executor executor) {
+      final Double cached = snapshot.get(featureId);
+      if (!live && cached != null) {
+        return CompletableFuture.completedFuture(Optional.of(cached));
+      }
+      return delegate.lookupPercentageAsync(featureId, executor)
+          .handle((percentage, throwable) -> {
+            if (throwable == null) {
+              return update(featureId, percentage);
+            }
+            final Double current = snapshot.get(featureId);
+            if (current == null) {
+              throw throwable instanceof RuntimeException re ? re : new IllegalStateException(throwable);
+            }
+            LOGGER.warn("lookupPercentageAsync({}) failed, serving the snapshot", featureId, throwable);
+            return Optional.of(current);
+          });
+    }
+
+    @Override
+    public Optional<FeatureRecord> lookupFeature(final String featureId) {
+      final Double cached = snapshot.get(featureId);
+      if (!live && cached != null) {
+        return Optional.of(percentageRecord(cached));
+      }
+      try {
+        return updateRecord(featureId, delegate.lookupFeature(featureId));
+      } catch (RuntimeException e) {
+        if (cached == null) {
+          throw e;
+        }
+        LOGGER.warn("lookupFeature({}) failed, serving the snapshot", featureId, e);
+        return Optional.of(percentageRecord(cached));
+      }
+    }
+
+    @Override
+    public CompletableFuture<Optional<FeatureRecord>> lookupFeatureAsync(final String featureId,
+                                                                         final Executor executor) {
+      final Double cached = snapshot.get(featureId);
+      if (!live && cached != null) {
+        return CompletableFuture.completedFuture(Optional.of(percentageRecord(cached)));
+      }
+      return delegate.lookupFeatureAsync(featureId, executor)
+          .handle((record, throwable) -> {
+            if (throwable == null) {
+              return updateRecord(featureId, record);
+            }
+            final Double current = snapshot.get(featureId);
+            if (current == null) {
+              throw throwable instanceof RuntimeException re ? re : new IllegalStateException(throwable);
+            }
+            LOGGER.warn("lookupFeatureAsync({}) failed, serving the snapshot", featureId, throwable);
+            return Optional.of(percentageRecord(current));
+          });
+    }
+
+    @Override
+    public Map<String, Double> lookupPercentages(final Collection<String> featureIds) {
+      if (!live && snapshot.keySet().containsAll(featureIds)) {
+        return fromSnapshot(featureIds);
+      }
+      try {
+        return update(featureIds, delegate.lookupPercentages(featureIds));
+      } catch (RuntimeException e) {
+        if (!snapshot.keySet().containsAll(featureIds)) {
+          throw e;
+        }
+        LOGGER.warn("lookupPercentages({}) failed, serving the snapshot", featureIds.size(), e);
+        return fromSnapshot(featureIds);
+      }
+    }
+
+    @Override
+    public Map<String, FeatureRecord> lookupFeatures(final Collection<String> featureIds) {
+      if (!live && snapshot.keySet().containsAll(featureIds)) {
+        return recordsFromSnapshot(featureIds);
+      }
+      try {
+        final Map<String, FeatureRecord> records = delegate.lookupFeatures(featureIds);
+        final Map<String, Double> percentages = new HashMap<>();
+        records.forEach((featureId, record) -> percentages.put(featureId, record.percentage()));
+        update(featureIds, percentages);
+        return records;
+      } catch (RuntimeException e) {
+        if (!snapshot.keySet().containsAll(featureIds)) {
+          throw e;
+        }
+        LOGGER.warn("lookupFeatures({}) failed, serving the snapshot", featureIds.size(), e);
+        return recordsFromSnapshot(featureIds);
+      }
+    }
+
+    @Override
+    public Map<String, Double> lookupAll() {
+      if (!live) {
+        return Map.copyOf(snapshot);
+      }
+      final Map<String, Double> all;
+      try {
+        all = delegate.lookupAll();
+      } catch (UnsupportedOperationException e) {
+        throw e;
+      } catch (RuntimeException e) {
+        if (snapshot.isEmpty()) {
+          throw e;
+        }
+        LOGGER.warn("lookupAll() failed, serving the snapshot", e);
+        return Map.copyOf(snapshot);
+      }
+      final Collection<String> featureIds = new HashSet<>(snapshot.keySet());
+      featureIds.addAll(all.keySet());
+      return update(featureIds, all);
+    }
+
+    @Override
+    public Optional<IdListLookupManager> idListLookupManager() {
+      return delegate.idListLookupManager();
+    }
+
+    @Override
+    public Optional<VariantLookupManager> variantLookupManager() {
+      return delegate.variantLookupManager();
+    }
+
+    @Override
+    public void invalidate(final String featureId) {
+      delegate.invalidate(featureId);
+    }
+
+    @Override
+    public boolean setPercentage(final String featureId, final double percentage) {
+      final boolean result = delegate.setPercentage(featureId, percentage);
+      update(featureId, Optional.of(percentage));
+      return result;
+    }
+
+    @Override
+    public void deletePercentage(final String featureId) {
+      delegate.deletePercentage(featureId);
+      update(featureId, Optional.empty());
+    }
+
+    private Optional<Double> update(final String featureId, final Optional<Double> percentage) {
+      live = true;
+      final Double previous = percentage.isPresent()
+          ? snapshot.put(featureId, percentage.get())
+          : snapshot.remove(featureId);
+      if (!Objects.equals(previous, percentage.orElse(null))) {
+        write();
+      }
+      return percentage;
+    }
+
+    private Optional<FeatureRecord> updateRecord(final String featureId, final Optional<FeatureRecord> record) {
+      update(featureId, record.map(FeatureRecord::percentage));
+      return record;
+    }
+
+    private Map<String, Double> update(final Collection<String> featureIds, final Map<String, Double> percentages) {
+      live = true;
+      boolean changed = false;
+      for (String featureId : featureIds) {
+        final Double percentage = percentages.get(featureId);
+        final Double previous = percentage == null
+            ? snapshot.remove(featureId)
+            : snapshot.put(featureId, percentage);
+        changed |= !Objects.equals(previous, percentage);
+      }
+      if (changed) {
+        write();
+      }
+      return percentages;
+    }
+
+    private Map<String, Double> fromSnapshot(final Collection<String> featureIds) {
+      final Map<String, Double> result = new HashMap<>();
+      for (String featureId : featureIds) {
+        final Double percentage = snapshot.get(featureId);
+        if (percentage != null) {
+          result.put(featureId, percentage);
+        }
+      }
+      return result;
+    }
+
+    private Map<String, FeatureRecord> recordsFromSnapshot(final Collection<String> featureIds) {
+      final Map<String, FeatureRecord> result = new HashMap<>();
+      fromSnapshot(featureIds).forEach((featureId, percentage) -> result.put(featureId, percentageRecord(percentage)));
+      return result;
+    }
+
+    private static FeatureRecord percentageRecord(final double percentage) {
+      return ImmutableFeatureRecord.builder().percentage(percentage).build();
+    }
+
+    private synchronized void write() {
+      try {
+        LocalSnapshotFile.write(file, new HashMap<>(snapshot));
+      } catch (IOException e) {
+        LOGGER.warn("Unable to write snapshot {}", file, e);
+      }
+    }
+
+  }
+
+}
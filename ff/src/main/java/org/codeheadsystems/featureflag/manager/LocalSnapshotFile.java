@@ -0,0 +1,93 @@
+package org.codeheadsystems.featureflag.manager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the local snapshot file. The layout is a magic number, the entry count, each
+ * entry as a modified UTF-8 feature id and a double, then a CRC32 of everything before it. Writes
+ * go to a temp file in the same directory which is then moved over the old one, so readers see
+ * either the old file or the new one, never a partial write.
+ */
+final class LocalSnapshotFile {
+
+  /**
+   * "FFS1".
+   */
+  static final int MAGIC = 0x46465331;
+
+  private LocalSnapshotFile() {
+  }
+
+  /**
+   * Read the snapshot.
+   *
+   * @param file to read.
+   * @return the percentages, keyed by feature id.
+   * @throws IOException if the file cannot be read or is not a valid snapshot.
+   */
+  static Map<String, Double> read(final Path file) throws IOException {
+    final byte[] bytes = Files.readAllBytes(file);
+    if (bytes.length < Integer.BYTES * 2 + Long.BYTES) {
+      throw new IOException("Snapshot too short: " + bytes.length);
+    }
+    final int bodyLength = bytes.length - Long.BYTES;
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bodyLength);
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a snapshot file: " + file);
+    }
+    final int count = in.readInt();
+    final Map<String, Double> result = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      result.put(in.readUTF(), in.readDouble());
+    }
+    if (bytes.length - in.available() != bodyLength || in.readLong() != crc.getValue()) {
+      throw new IOException("Snapshot checksum mismatch: " + file);
+    }
+    return result;
+  }
+
+  /**
+   * Write the snapshot, replacing any existing file.
+   *
+   * @param file         to write.
+   * @param percentages  keyed by feature id.
+   * @throws IOException if the file cannot be written.
+   */
+  static void write(final Path file, final Map<String, Double> percentages) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(percentages.size());
+    for (Map.Entry<String, Double> entry : percentages.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeDouble(entry.getValue());
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray());
+    out.writeLong(crc.getValue());
+    out.flush();
+
+    final Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    final Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      Files.write(temp, bytes.toByteArray());
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+}
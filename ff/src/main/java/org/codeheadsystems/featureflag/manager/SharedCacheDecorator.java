@@ -0,0 +1,253 @@
+package org.codeheadsystems.featureflag.manager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import org.codeheadsystems.featureflag.manager.FeatureManager.Decorator;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A second cache tier shared by every JVM on the host. Percentages read from the backend are
+ * written to a memory-mapped file, and a lookup that finds a fresh enough value there skips the
+ * backend. With many JVMs on a host polling the same flags, the backend sees roughly one read per
+ * flag per ttl from the host instead of one per JVM. Reads from the file take no locks.
+ *
+ * <p>The feature manager's own cache stays in front, so the ttl here adds to its refresh time in
+ * the worst case. Writes and deletes go to the backend and then update the file. A feature this JVM
+ * is told changed, through {@link FeatureLookupManager#invalidate(String)}, is read from the backend
+ * until the file holds a value read after the change. If the file cannot be opened the backend is
+ * used directly. The file keeps percentages alone, so rows, with their id list markers and
+ * variants, are always read from the backend; their percentages are still written to the file.
+ *
+ * <p>Every decorated lookup manager in the JVM that uses the same path shares one open file, so
+ * their writers queue on one lock instead of colliding on file locks held by this process.
+ */
+public class SharedCacheDecorator {
+
+  /**
+   * The default number of slots in a new file. Each slot is 256 bytes.
+   */
+  public static final int DEFAULT_SLOTS = 4096;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SharedCacheDecorator.class);
+  private static final Map<Path, SharedFeatureFile> FILES = new ConcurrentHashMap<>();
+
+  private final Path file;
+  private final long ttlMillis;
+  private final int slots;
+  private final Clock clock;
+
+  /**
+   * Instantiates a new Shared cache decorator.
+   *
+   * @param file the shared file. Every JVM on the host should use the same path.
+   * @param ttl  how long a value in the file is used before the backend is read again.
+   */
+  public SharedCacheDecorator(final Path file, final Duration ttl) {
+    this(file, ttl, DEFAULT_SLOTS, Clock.systemUTC());
+  }
+
+  /**
+   * Instantiates a new Shared cache decorator.
+   *
+   * @param file  the shared file. Every JVM on the host should use the same path.
+   * @param ttl   how long a value in the file is used before the backend is read again.
+   * @param slots the number of slots if the file is created. Keep it well above the feature count.
+   * @param clock the clock. Compared across JVMs, so it should be the system clock outside tests.
+   */
+  public SharedCacheDecorator(final Path file, final Duration ttl, final int slots, final Clock clock) {
+    if (ttl.isNegative() || ttl.isZero()) {
+      throw new IllegalArgumentException("ttl must be positive: " + ttl);
+    }
+    this.file = file;
+    this.ttlMillis = ttl.toMillis();
+    this.slots = slots;
+    this.clock = clock;
+    LOGGER.info("SharedCacheDecorator({}, {})", file, ttl);
+  }
+
+  /**
+   * Feature lookup manager decorator.
+   *
+   * @return the decorator.
+   */
+  public Decorator<FeatureLookupManager> featureLookupManagerDecorator() {
+    return delegate -> {
+      try {
+        return new SharedCacheLookupManager(delegate, sharedFile());
+      } catch (UncheckedIOException | OverlappingFileLockException e) {
+        LOGGER.warn("Unable to open shared cache {}, using the backend directly", file, e);
+        return delegate;
+      }
+    };
+  }
+
+  /**
+   * The open file for the path, opened on first use and shared by every decorator in the JVM.
+   * A file that fails to open is not kept, so a later decorator tries again.
+   */
+  private SharedFeatureFile sharedFile() {
+    return FILES.computeIfAbsent(file.toAbsolutePath().normalize(), path -> {
+      try {
+        return SharedFeatureFile.open(path, slots);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * The lookup manager that reads through the shared file.
+   */
+  class SharedCacheLookupManager implements FeatureLookupManager {
+
+    private final FeatureLookupManager delegate;
+    private final SharedFeatureFile sharedFile;
+    private final Map<String, Long> invalidatedAtMillis = new ConcurrentHashMap<>();
+
+    private SharedCacheLookupManager(final FeatureLookupManager delegate, final SharedFeatureFile sharedFile) {
+      this.delegate = delegate;
+      this.sharedFile = sharedFile;
+      LOGGER.info("SharedCacheLookupManager({}, {} slots)", delegate, sharedFile.slots());
+    }
+
+    @Override
+    public Optional<Double> lookupPercentage(final String featureId) {
+      final SharedFeatureFile.Entry entry = fresh(featureId);
+      if (entry != null) {
+        return entry.percentage();
+      }
+      final long startedAtMillis = clock.millis();
+      final Optional<Double> percentage = delegate.lookupPercentage(featureId);
+      write(featureId, percentage, startedAtMillis);
+      return percentage;
+    }
+
+    @Override
+    public CompletableFuture<Optional<Double>> lookupPercentageAsync(final String featureId,
+                                                                     final Executor executor) {
+      final SharedFeatureFile.Entry entry = fresh(featureId);
+      if (entry != null) {
+        return CompletableFuture.completedFuture(entry.percentage());
+      }
+      final long startedAtMillis = clock.millis();
+      return delegate.lookupPercentageAsync(featureId, executor)
+          .thenApply(percentage -> {
+            write(featureId, percentage, startedAtMillis);
+            return percentage;
+          });
+    }
+
+    @Override
+    public Optional<FeatureRecord> lookupFeature(final String featureId) {
+      final long startedAtMillis = clock.millis();
+      final Optional<FeatureRecord> record = delegate.lookupFeature(featureId);
+      write(featureId, record.map(FeatureRecord::percentage), startedAtMillis);
+      return record;
+    }
+
+    @Override
+    public CompletableFuture<Optional<FeatureRecord>> lookupFeatureAsync(final String featureId,
+                                                                         final Executor executor) {
+      final long startedAtMillis = clock.millis();
+      return delegate.lookupFeatureAsync(featureId, executor)
+          .thenApply(record -> {
+            write(featureId, record.map(FeatureRecord::percentage), startedAtMillis);
+            return record;
+          });
+    }
+
+    @Override
+    public Map<String, Double> lookupPercentages(final Collection<String> featureIds) {
+      final long startedAtMillis = clock.millis();
+      final Map<String, Double> result = delegate.lookupPercentages(featureIds);
+      result.forEach((featureId, percentage) -> write(featureId, Optional.of(percentage), startedAtMillis));
+      return result;
+    }
+
+    @Override
+    public Map<String, FeatureRecord> lookupFeatures(final Collection<String> featureIds) {
+      final long startedAtMillis = clock.millis();
+      final Map<String, FeatureRecord> result = delegate.lookupFeatures(featureIds);
+      result.forEach((featureId, record) -> write(featureId, Optional.of(record.percentage()), startedAtMillis));
+      return result;
+    }
+
+    @Override
+    public Map<String, Double> lookupAll() {
+      final long startedAtMillis = clock.millis();
+      final Map<String, Double> result = delegate.lookupAll();
+      result.forEach((featureId, percentage) -> write(featureId, Optional.of(percentage), startedAtMillis));
+      return result;
+    }
+
+    @Override
+    public Optional<IdListLookupManager> idListLookupManager() {
+      return delegate.idListLookupManager();
+    }
+
+    @Override
+    public Optional<VariantLookupManager> variantLookupManager() {
+      return delegate.variantLookupManager();
+    }
+
+    @Override
+    public void invalidate(final String featureId) {
+      invalidatedAtMillis.put(featureId, clock.millis());
+      delegate.invalidate(featureId);
+    }
+
+    @Override
+    public boolean setPercentage(final String featureId, final double percentage) {
+      final boolean result = delegate.setPercentage(featureId, percentage);
+      if (result) {
+        write(featureId, Optional.of(percentage), clock.millis());
+      }
+      return result;
+    }
+
+    @Override
+    public void deletePercentage(final String featureId) {
+      delegate.deletePercentage(featureId);
+      write(featureId, Optional.empty(), clock.millis());
+    }
+
+    private SharedFeatureFile.Entry fresh(final String featureId) {
+      final SharedFeatureFile.Entry entry = sharedFile.read(featureId);
+      if (entry == null || clock.millis() - entry.writtenAtMillis() >= ttlMillis) {
+        return null;
+      }
+      final Long invalidatedAt = invalidatedAtMillis.get(featureId);
+      if (invalidatedAt != null && entry.writtenAtMillis() <= invalidatedAt) {
+        return null;
+      }
+      LOGGER.trace("fresh({}): {}", featureId, entry);
+      return entry;
+    }
+
+    /**
+     * Write the value to the file, stamped with when its lookup started so a change made during
+     * the lookup is not hidden behind it. The file keeps an entry newer than that instead.
+     */
+    private void write(final String featureId, final Optional<Double> percentage, final long readAtMillis) {
+      try {
+        sharedFile.write(featureId, percentage, readAtMillis);
+      } catch (IOException | OverlappingFileLockException e) {
+        LOGGER.warn("Unable to write {} to the shared cache", featureId, e);
+      }
+    }
+
+  }
+
+}
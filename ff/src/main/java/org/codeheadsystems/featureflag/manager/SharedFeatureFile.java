@@ -0,0 +1,248 @@
+package org.codeheadsystems.featureflag.manager;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+import org.codeheadsystems.featureflag.factory.Murmur3;
+
+/**
+ * A fixed size hash table of percentages in a memory-mapped file, shared by every JVM on the host
+ * that maps it. The layout is a header of magic number, slot count and slot size, then the slots.
+ * A slot holds a sequence number, the time it was written, the state, the percentage and the UTF-8
+ * feature id. Features are placed by hash with a short linear probe; when every probed slot holds
+ * another feature, the first one is overwritten.
+ *
+ * <p>Reads take no locks. Each slot is a seqlock: a writer makes the sequence odd, writes, then
+ * makes it even again, and a reader that sees an odd or changed sequence reads again. Writers
+ * take a lock on the file so writers in other JVMs wait their turn, and synchronize on this object
+ * for writers in this one. Open one instance per file per JVM: a second one would take a file
+ * lock this process already holds and fail with an {@link java.nio.channels.OverlappingFileLockException}.
+ */
+final class SharedFeatureFile {
+
+  /**
+   * "FFM1".
+   */
+  static final int MAGIC = 0x46464d31;
+
+  /**
+   * The longest feature id, in UTF-8 bytes, that fits in a slot.
+   */
+  static final int MAX_KEY_BYTES = 224;
+
+  private static final int HEADER_SIZE = 64;
+  private static final int SLOT_SIZE = 256;
+  private static final int PROBES = 8;
+  private static final int SEQUENCE = 0;
+  private static final int WRITTEN_AT = 8;
+  private static final int PERCENTAGE = 16;
+  private static final int STATE = 24;
+  private static final int KEY_LENGTH = 28;
+  private static final int KEY = 32;
+  private static final int EMPTY = 0;
+  private static final int PRESENT = 1;
+  private static final int ABSENT = 2;
+  private static final int MAX_READ_ATTEMPTS = 16;
+  private static final int MAX_SLOTS = (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE;
+
+  private static final VarHandle LONGS =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int slots;
+
+  private SharedFeatureFile(final FileChannel channel, final MappedByteBuffer buffer, final int slots) {
+    this.channel = channel;
+    this.buffer = buffer;
+    this.slots = slots;
+  }
+
+  /**
+   * Open the file, creating it with the given number of slots if it does not exist yet. An
+   * existing file keeps its own slot count.
+   *
+   * @param file  to open.
+   * @param slots for a new file.
+   * @return the shared feature file.
+   * @throws IOException if the file cannot be opened or is not a shared feature file.
+   */
+  static SharedFeatureFile open(final Path file, final int slots) throws IOException {
+    if (slots < PROBES || slots > MAX_SLOTS) {
+      throw new IllegalArgumentException("slots must be between " + PROBES + " and " + MAX_SLOTS + ": " + slots);
+    }
+    final Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    final FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try (FileLock lock = channel.lock()) {
+      final int slotCount;
+      if (channel.size() == 0) {
+        slotCount = slots;
+        final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(slotCount));
+        header.putInt(0, MAGIC);
+        header.putInt(4, slotCount);
+        header.putInt(8, SLOT_SIZE);
+        header.force();
+      } else {
+        final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC || header.getInt(8) != SLOT_SIZE) {
+          throw new IOException("Not a shared feature file: " + file);
+        }
+        slotCount = header.getInt(4);
+        if (slotCount < PROBES || slotCount > MAX_SLOTS || channel.size() < size(slotCount)) {
+          throw new IOException("Shared feature file truncated: " + file);
+        }
+      }
+      return new SharedFeatureFile(channel,
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, size(slotCount)), slotCount);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static long size(final int slots) {
+    return HEADER_SIZE + (long) slots * SLOT_SIZE;
+  }
+
+  /**
+   * The number of slots.
+   *
+   * @return the count.
+   */
+  int slots() {
+    return slots;
+  }
+
+  /**
+   * Read the entry for the feature.
+   *
+   * @param featureId to read.
+   * @return the entry, or null if the feature is not in the file or its slot kept changing.
+   */
+  Entry read(final String featureId) {
+    final byte[] key = key(featureId);
+    if (key == null) {
+      return null;
+    }
+    final int start = start(featureId);
+    for (int probe = 0; probe < PROBES; probe++) {
+      final int offset = offset((start + probe) % slots);
+      for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+        final long sequence = (long) LONGS.getAcquire(buffer, offset + SEQUENCE);
+        if ((sequence & 1) != 0) {
+          Thread.onSpinWait();
+          continue;
+        }
+        final int state = buffer.getInt(offset + STATE);
+        final int keyLength = buffer.getInt(offset + KEY_LENGTH);
+        final long writtenAt = buffer.getLong(offset + WRITTEN_AT);
+        final double percentage = buffer.getDouble(offset + PERCENTAGE);
+        final boolean matches = keyLength == key.length && matches(offset, key);
+        VarHandle.acquireFence();
+        if ((long) LONGS.getAcquire(buffer, offset + SEQUENCE) != sequence) {
+          continue;
+        }
+        if (state == EMPTY) {
+          return null;
+        }
+        if (!matches) {
+          break;
+        }
+        return new Entry(state == PRESENT ? Optional.of(percentage) : Optional.empty(), writtenAt);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Write the entry for the feature. Feature ids longer than {@link #MAX_KEY_BYTES} are skipped,
+   * as is a write older than the feature's entry already in the file: a slow lookup must not
+   * replace a value read or written after it started, such as another JVM's write.
+   *
+   * @param featureId       to write.
+   * @param percentage      the percentage, or empty if the feature does not exist.
+   * @param writtenAtMillis when the percentage was read from the backend.
+   * @throws IOException if the file cannot be locked.
+   */
+  synchronized void write(final String featureId,
+                          final Optional<Double> percentage,
+                          final long writtenAtMillis) throws IOException {
+    final byte[] key = key(featureId);
+    if (key == null) {
+      return;
+    }
+    try (FileLock lock = channel.lock()) {
+      final int offset = slotFor(featureId, key);
+      if (buffer.getInt(offset + STATE) != EMPTY
+          && buffer.getInt(offset + KEY_LENGTH) == key.length
+          && matches(offset, key)
+          && buffer.getLong(offset + WRITTEN_AT) > writtenAtMillis) {
+        return;
+      }
+      final long sequence = (long) LONGS.getVolatile(buffer, offset + SEQUENCE);
+      LONGS.setVolatile(buffer, offset + SEQUENCE, sequence + 1);
+      VarHandle.storeStoreFence();
+      buffer.putLong(offset + WRITTEN_AT, writtenAtMillis);
+      buffer.putDouble(offset + PERCENTAGE, percentage.orElse(0.0));
+      buffer.putInt(offset + STATE, percentage.isPresent() ? PRESENT : ABSENT);
+      buffer.putInt(offset + KEY_LENGTH, key.length);
+      buffer.put(offset + KEY, key);
+      LONGS.setRelease(buffer, offset + SEQUENCE, sequence + 2);
+    }
+  }
+
+  private int slotFor(final String featureId, final byte[] key) {
+    final int start = start(featureId);
+    for (int probe = 0; probe < PROBES; probe++) {
+      final int offset = offset((start + probe) % slots);
+      if (buffer.getInt(offset + STATE) == EMPTY
+          || (buffer.getInt(offset + KEY_LENGTH) == key.length && matches(offset, key))) {
+        return offset;
+      }
+    }
+    return offset(start);
+  }
+
+  private byte[] key(final String featureId) {
+    final byte[] key = featureId.getBytes(StandardCharsets.UTF_8);
+    return key.length > MAX_KEY_BYTES ? null : key;
+  }
+
+  private int start(final String featureId) {
+    return Math.floorMod(Murmur3.hashUtf8(featureId), slots);
+  }
+
+  private int offset(final int slot) {
+    return HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  private boolean matches(final int offset, final byte[] key) {
+    final byte[] stored = new byte[key.length];
+    buffer.get(offset + KEY, stored);
+    return Arrays.equals(stored, key);
+  }
+
+  /**
+   * An entry read from the file.
+   *
+   * @param percentage      the percentage, or empty if the feature does not exist.
+   * @param writtenAtMillis when the percentage was read from the backend.
+   */
+  record Entry(Optional<Double> percentage, long writtenAtMillis) {
+  }
+
+}
@@ -0,0 +1,42 @@
+package org.codeheadsystems.featureflag.manager;
+
+import java.util.Map;
+import java.util.Optional;
+import org.codeheadsystems.featureflag.model.FeatureTargeting;
+
+/**
+ * Where a feature's targeting comes from. Asked when the feature loads, alongside its percentage
+ * from the feature lookup manager, and compiled into the cached enablement.
+ */
+@FunctionalInterface
+public interface TargetingSource {
+
+  /**
+   * The targeting for the feature.
+   *
+   * @param featureId the feature id
+   * @return the targeting, or empty if the feature only has a percentage.
+   */
+  Optional<FeatureTargeting> targeting(String featureId);
+
+  /**
+   * No targeting for any feature.
+   *
+   * @return the targeting source.
+   */
+  static TargetingSource none() {
+    return featureId -> Optional.empty();
+  }
+
+  /**
+   * Targeting from a fixed map, such as one read from configuration.
+   *
+   * @param targeting keyed by feature id.
+   * @return the targeting source.
+   */
+  static TargetingSource of(final Map<String, FeatureTargeting> targeting) {
+    final Map<String, FeatureTargeting> copy = Map.copyOf(targeting);
+    return featureId -> Optional.ofNullable(copy.get(featureId));
+  }
+
+}
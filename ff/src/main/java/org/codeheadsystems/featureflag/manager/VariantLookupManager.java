@@ -0,0 +1,140 @@
+package org.codeheadsystems.featureflag.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import org.codeheadsystems.featureflag.model.ImmutableVariant;
+import org.codeheadsystems.featureflag.model.Variant;
+
+/**
+ * Stores the variants of multivariate features. Read when the feature loads alongside its
+ * percentage, and compiled with it. When this is also the feature lookup manager, the variants
+ * come with the feature's row from lookupFeature(), so it should fill in
+ * {@link org.codeheadsystems.featureflag.model.FeatureRecord#variants()}. Backends keep a
+ * feature's variants as one string in the {@link #encode(List)} format, next to its percentage.
+ */
+public interface VariantLookupManager {
+
+  /**
+   * Lookup the feature's variants.
+   *
+   * @param featureId the feature id
+   * @return the variants in order, or empty if the feature has none.
+   */
+  Optional<List<Variant>> lookupVariants(String featureId);
+
+  /**
+   * Lookup the feature's variants without blocking the caller. The default runs lookupVariants()
+   * on the executor.
+   *
+   * @param featureId the feature id
+   * @param executor  to run the blocking lookup on, if the backend needs one.
+   * @return a future of the variants in order, or empty if the feature has none.
+   */
+  default CompletableFuture<Optional<List<Variant>>> lookupVariantsAsync(String featureId, Executor executor) {
+    return CompletableFuture.supplyAsync(() -> lookupVariants(featureId), executor);
+  }
+
+  /**
+   * Sets the feature's variants, replacing any it had.
+   *
+   * @param featureId the feature id
+   * @param variants  the variants, in order
+   * @return true if they were stored, false if the backend needs the feature to exist first.
+   */
+  boolean setVariants(String featureId, List<Variant> variants);
+
+  /**
+   * Delete the feature's variants.
+   *
+   * @param featureId the feature id
+   */
+  void deleteVariants(String featureId);
+
+  /**
+   * No variants for any feature.
+   *
+   * @return the variant lookup manager.
+   */
+  static VariantLookupManager none() {
+    return new VariantLookupManager() {
+      @Override
+      public Optional<List<Variant>> lookupVariants(final String featureId) {
+        return Optional.empty();
+      }
+
+      @Override
+      public CompletableFuture<Optional<List<Variant>>> lookupVariantsAsync(final String featureId, final Executor executor) {
+        return CompletableFuture.completedFuture(Optional.empty());
+      }
+
+      @Override
+      public boolean setVariants(final String featureId, final List<Variant> variants) {
+        throw new UnsupportedOperationException("No variant lookup manager configured");
+      }
+
+      @Override
+      public void deleteVariants(final String featureId) {
+        // nothing stored.
+      }
+    };
+  }
+
+  /**
+   * The variants as stored: {@code name=weight} pairs separated by commas, in order.
+   *
+   * @param variants the variants.
+   * @return the string.
+   * @throws IllegalArgumentException if a name is empty or has a comma or equals sign, a weight is
+   *                                  negative, or the weights add up to more than 1.0.
+   */
+  static String encode(final List<Variant> variants) {
+    final StringBuilder builder = new StringBuilder();
+    double total = 0.0;
+    for (Variant variant : variants) {
+      if (variant.name().isEmpty() || variant.name().indexOf(',') >= 0 || variant.name().indexOf('=') >= 0) {
+        throw new IllegalArgumentException("Variant name must be non-empty, without ',' or '=': " + variant.name());
+      }
+      if (!(variant.weight() >= 0.0)) { // includes NaN
+        throw new IllegalArgumentException("Variant weight must not be negative: " + variant);
+      }
+      total += variant.weight();
+      if (builder.length() > 0) {
+        builder.append(',');
+      }
+      builder.append(variant.name()).append('=').append(variant.weight());
+    }
+    if (total > 1.0 + 1e-9) {
+      throw new IllegalArgumentException("Variant weights add up to more than 1.0: " + total);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * The variants from their stored form.
+   *
+   * @param encoded from {@link #encode(List)}.
+   * @return the variants, in order.
+   * @throws IllegalArgumentException if the string is not in the encoded form.
+   */
+  static List<Variant> decode(final String encoded) {
+    final List<Variant> variants = new ArrayList<>();
+    if (encoded.isEmpty()) {
+      return variants;
+    }
+    for (String pair : encoded.split(",", -1)) {
+      final int equals = pair.indexOf('=');
+      if (equals <= 0) {
+        throw new IllegalArgumentException("Not a variant: " + pair);
+      }
+      variants.add(ImmutableVariant.builder()
+          .name(pair.substring(0, equals))
+          .weight(Double.parseDouble(pair.substring(equals + 1)))
+          .build());
+    }
+    return variants;
+  }
+
+}
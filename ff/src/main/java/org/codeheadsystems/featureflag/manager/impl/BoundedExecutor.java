@@ -0,0 +1,116 @@
+package org.codeheadsystems.featureflag.manager.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An executor that runs at most maxInFlight tasks at once on its delegate. Each task is handed to
+ * the delegate straight away and waits there for a permit, so with a virtual thread per task the
+ * wait costs no platform thread. Queue depth and in flight counts are kept for monitoring.
+ */
+public class BoundedExecutor implements Executor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BoundedExecutor.class);
+
+  private final Executor delegate;
+  private final int maxInFlight;
+  private final Semaphore permits;
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  /**
+   * Instantiates a new Bounded executor.
+   *
+   * @param delegate    runs the tasks.
+   * @param maxInFlight the most tasks to run at once.
+   */
+  public BoundedExecutor(final Executor delegate, final int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+    }
+    this.delegate = delegate;
+    this.maxInFlight = maxInFlight;
+    this.permits = new Semaphore(maxInFlight);
+    LOGGER.info("BoundedExecutor({},{})", delegate, maxInFlight);
+  }
+
+  /**
+   * A bounded executor that starts a new virtual thread per task.
+   *
+   * @param maxInFlight the most tasks to run at once.
+   * @return the executor.
+   */
+  public static BoundedExecutor virtualThreads(final int maxInFlight) {
+    return new BoundedExecutor(
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("feature-flag-loader-", 0).factory()),
+        maxInFlight);
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    queueDepth.incrementAndGet();
+    try {
+      delegate.execute(() -> run(command));
+    } catch (RejectedExecutionException e) {
+      queueDepth.decrementAndGet();
+      throw e;
+    }
+  }
+
+  private void run(final Runnable command) {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      queueDepth.decrementAndGet();
+      Thread.currentThread().interrupt();
+      LOGGER.warn("Interrupted waiting to run {}", command);
+      return;
+    }
+    queueDepth.decrementAndGet();
+    inFlight.incrementAndGet();
+    try {
+      command.run();
+    } finally {
+      inFlight.decrementAndGet();
+      permits.release();
+    }
+  }
+
+  /**
+   * Tasks submitted and waiting for a permit.
+   *
+   * @return the queue depth.
+   */
+  public int queueDepth() {
+    return queueDepth.get();
+  }
+
+  /**
+   * Tasks running right now.
+   *
+   * @return the in flight count.
+   */
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * The most tasks that run at once.
+   *
+   * @return the max in flight.
+   */
+  public int maxInFlight() {
+    return maxInFlight;
+  }
+
+  @Override
+  public String toString() {
+    return "BoundedExecutor{maxInFlight=" + maxInFlight + ", inFlight=" + inFlight.get() + ", queueDepth=" + queueDepth.get() + "}";
+  }
+
+}
@@ -0,0 +1,74 @@
+package org.codeheadsystems.featureflag.manager.impl;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import org.codeheadsystems.featureflag.factory.Enablement;
+import org.codeheadsystems.featureflag.model.FeatureManagerStats;
+
+/**
+ * Where the feature manager keeps its enablements. Failures to load surface as an
+ * ExecutionException or an UncheckedExecutionException, the same as a guava LoadingCache.
+ */
+interface EnablementCache {
+
+  /**
+   * Get the enablement, loading it if needed.
+   *
+   * @param featureId the feature id.
+   * @return the enablement.
+   * @throws ExecutionException if the load failed with a checked exception.
+   */
+  Enablement get(String featureId) throws ExecutionException;
+
+  /**
+   * Drop the feature so the next get loads it again.
+   *
+   * @param featureId the feature id.
+   */
+  void invalidate(String featureId);
+
+  /**
+   * Reload the feature in the background if it is cached. Uncached features are left alone.
+   *
+   * @param featureId the feature id.
+   */
+  void refresh(String featureId);
+
+  /**
+   * Store already loaded enablements, replacing what is there.
+   *
+   * @param enablements keyed by feature id.
+   */
+  void putAll(Map<String, Enablement> enablements);
+
+  /**
+   * The cached enablement, without loading it. Does not count as a read in the stats.
+   *
+   * @param featureId the feature id.
+   * @return the enablement, or null if not cached.
+   */
+  Enablement peek(String featureId);
+
+  /**
+   * Is the feature cached. Does not count as a read in the stats.
+   *
+   * @param featureId the feature id.
+   * @return true if cached.
+   */
+  boolean contains(String featureId);
+
+  /**
+   * The cache statistics so far.
+   *
+   * @return the stats.
+   */
+  FeatureManagerStats stats();
+
+  /**
+   * Release any threads the cache started. The cache can still be read afterwards.
+   */
+  default void close() {
+    // nothing started by default.
+  }
+
+}
@@ -0,0 +1,50 @@
+package org.codeheadsystems.featureflag.manager.impl;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lets one error through per interval and counts the rest, so an outage logs a line a minute
+ * instead of a stack trace per call.
+ */
+final class ErrorLogLimiter {
+
+  private final long intervalMillis;
+  private final AtomicLong nextLogMillis = new AtomicLong();
+  private final LongAdder suppressed = new LongAdder();
+
+  /**
+   * Instantiates a new Error log limiter.
+   *
+   * @param interval the least time between logged errors.
+   */
+  ErrorLogLimiter(final Duration interval) {
+    this.intervalMillis = interval.toMillis();
+  }
+
+  /**
+   * Should this error be logged.
+   *
+   * @param nowMillis the time.
+   * @return true if so, false if it was counted as suppressed.
+   */
+  boolean tryAcquire(final long nowMillis) {
+    final long next = nextLogMillis.get();
+    if (nowMillis >= next && nextLogMillis.compareAndSet(next, nowMillis + intervalMillis)) {
+      return true;
+    }
+    suppressed.increment();
+    return false;
+  }
+
+  /**
+   * How many errors were suppressed since the last call.
+   *
+   * @return the count.
+   */
+  long drainSuppressed() {
+    return suppressed.sumThenReset();
+  }
+
+}
@@ -0,0 +1,74 @@
+package org.codeheadsystems.featureflag.manager.impl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.codeheadsystems.featureflag.factory.Discriminator;
+import org.codeheadsystems.featureflag.factory.Enablement;
+
+/**
+ * An enablement that should be reloaded sooner than the cache would on its own: a not found
+ * feature, or the value kept after a failed load. The first read after it expires asks the cache
+ * to refresh it; reads keep getting this one until the refresh lands.
+ */
+final class ExpiringEnablement implements Enablement {
+
+  private final Enablement delegate;
+  private final long expiresAtMillis;
+  private final AtomicBoolean refreshRequested = new AtomicBoolean();
+
+  /**
+   * Instantiates a new Expiring enablement.
+   *
+   * @param delegate        answers enabled().
+   * @param expiresAtMillis when to refresh it.
+   */
+  ExpiringEnablement(final Enablement delegate, final long expiresAtMillis) {
+    this.delegate = delegate;
+    this.expiresAtMillis = expiresAtMillis;
+  }
+
+  /**
+   * The enablement without the expiry.
+   *
+   * @param enablement maybe expiring.
+   * @return the enablement it wraps, or itself.
+   */
+  static Enablement unwrap(final Enablement enablement) {
+    return enablement instanceof ExpiringEnablement expiring ? expiring.delegate : enablement;
+  }
+
+  /**
+   * True once, for the first caller after expiry.
+   *
+   * @param nowMillis the time.
+   * @return true if the caller should refresh.
+   */
+  boolean shouldRefresh(final long nowMillis) {
+    return nowMillis >= expiresAtMillis && refreshRequested.compareAndSet(false, true);
+  }
+
+  @Override
+  public boolean enabled(final String discriminator) {
+    return delegate.enabled(discriminator);
+  }
+
+  @Override
+  public boolean enabled(final String discriminator, final int hash) {
+    return delegate.enabled(discriminator, hash);
+  }
+
+  @Override
+  public boolean enabled(final Discriminator discriminator, final int hash) {
+    return delegate.enabled(discriminator, hash);
+  }
+
+  @Override
+  public String variant(final String discriminator, final int hash, final String defaultVariant) {
+    return delegate.variant(discriminator, hash, defaultVariant);
+  }
+
+  @Override
+  public String variant(final Discriminator discriminator, final int hash, final String defaultVariant) {
+    return delegate.variant(discriminator, hash, defaultVariant);
+  }
+
+}
@@ -1,13 +1,39 @@
 package org.codeheadsystems.featureflag.manager.impl;
 
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import org.codeheadsystems.featureflag.factory.Discriminator;
 import org.codeheadsystems.featureflag.factory.Enablement;
 import org.codeheadsystems.featureflag.factory.EnablementFactory;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
 import org.codeheadsystems.featureflag.manager.FeatureLookupManager;
 import org.codeheadsystems.featureflag.manager.FeatureManager;
+import org.codeheadsystems.featureflag.manager.IdListLookupManager;
+import org.codeheadsystems.featureflag.manager.TargetingSource;
+import org.codeheadsystems.featureflag.manager.VariantLookupManager;
+import org.codeheadsystems.featureflag.model.FeatureManagerConfiguration;
+import org.codeheadsystems.featureflag.model.FeatureManagerStats;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.FeatureTargeting;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureManagerStats;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
+import org.codeheadsystems.featureflag.model.Variant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,10 +43,26 @@ import org.slf4j.LoggerFactory;
 public class FeatureManagerImpl implements FeatureManager {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(FeatureManagerImpl.class);
+  private static final int MIN_PRUNE_SIZE = 1024;
 
   private final EnablementFactory enablementFactory;
   private final FeatureLookupManager featureLookupManager;
-  private final LoadingCache<String, Enablement> featureEnablementCache;
+  private final TargetingSource targetingSource;
+  private final IdListLookupManager idListLookupManager;
+  private final boolean readsIdLists;
+  private final boolean trustsIdListMarker;
+  private final VariantLookupManager variantLookupManager;
+  private final boolean readsVariants;
+  private final boolean trustsRowVariants;
+  private final Executor cacheLoaderExecutor;
+  private final EnablementCache featureEnablementCache;
+  private final Clock clock = Clock.systemUTC();
+  private final ConcurrentMap<String, Long> lastRefreshedMillis = new ConcurrentHashMap<>();
+  private volatile int pruneSize = MIN_PRUNE_SIZE;
+  private final boolean staleWhileError;
+  private final long failureTtlMillis;
+  private final long negativeTtlMillis;
+  private final ErrorLogLimiter errorLogLimiter;
 
   /**
    * Instantiates a new Feature manager.
@@ -28,20 +70,296 @@ public class FeatureManagerImpl implements FeatureManager {
    * @param builder The builder user to create this.
    */
   public FeatureManagerImpl(final Builder builder) {
+    this(builder, builder.getFeatureLookupManager());
+  }
+
+  /**
+   * Instantiates a new Feature manager.
+   *
+   * @param builder              The builder user to create this.
+   * @param featureLookupManager The lookup manager to use, after the builder's decorators are applied.
+   */
+  public FeatureManagerImpl(final Builder builder, final FeatureLookupManager featureLookupManager) {
     this.enablementFactory = builder.getEnablementFactory();
-    this.featureLookupManager = builder.getFeatureLookupManager();
-    this.featureEnablementCache = builder.getCacheBuilder()
-        .build(CacheLoader.asyncReloading(
-            CacheLoader.from(this::lookup),
-            builder.getConfiguration().cacheLoaderExecutor()));
+    this.featureLookupManager = featureLookupManager;
+    this.targetingSource = builder.getTargetingSource();
+    final Optional<IdListLookupManager> idLists = builder.getIdListLookupManager();
+    this.readsIdLists = idLists.isPresent();
+    this.trustsIdListMarker = readsIdLists && idLists.get() == builder.getFeatureLookupManager();
+    this.idListLookupManager = trustsIdListMarker
+        ? featureLookupManager.idListLookupManager().orElse(idLists.get())
+        : idLists.orElseGet(IdListLookupManager::none);
+    final Optional<VariantLookupManager> variants = builder.getVariantLookupManager();
+    this.readsVariants = variants.isPresent();
+    this.trustsRowVariants = readsVariants && variants.get() == builder.getFeatureLookupManager();
+    this.variantLookupManager = trustsRowVariants
+        ? featureLookupManager.variantLookupManager().orElse(variants.get())
+        : variants.orElseGet(VariantLookupManager::none);
+    this.cacheLoaderExecutor = cacheLoaderExecutor(builder.getConfiguration());
+    this.staleWhileError = builder.getConfiguration().staleWhileError();
+    this.failureTtlMillis = builder.getConfiguration().failureTtl().toMillis();
+    this.negativeTtlMillis = builder.getConfiguration().negativeTtl().toMillis();
+    this.errorLogLimiter = new ErrorLogLimiter(builder.getConfiguration().errorLogInterval());
+    this.featureEnablementCache = builder.getSnapshotRefreshInterval()
+        .<EnablementCache>map(refreshInterval -> new SnapshotEnablementCache(
+            this::lookup,
+            this::bulkLookup,
+            this::lookupAsync,
+            refreshInterval))
+        .orElseGet(() -> new LoadingEnablementCache(
+            builder.getCacheBuilder(),
+            this::lookup,
+            this::lookupAsync));
     LOGGER.info("FeatureManager({},{},{})", builder.getConfiguration(), featureLookupManager, enablementFactory);
+    prewarm(builder);
+  }
+
+  /**
+   * The configured executor, or a bounded virtual thread executor if useVirtualThreads is set and
+   * the executor was left at its default.
+   */
+  private static Executor cacheLoaderExecutor(final FeatureManagerConfiguration configuration) {
+    final Executor executor = configuration.cacheLoaderExecutor();
+    return configuration.useVirtualThreads() && executor == ForkJoinPool.commonPool()
+        ? BoundedExecutor.virtualThreads(configuration.maxInFlightRefreshes())
+        : executor;
+  }
+
+  /**
+   * Load the features the builder asked for into the cache, waiting up to the prewarm timeout. If
+   * the load takes longer it finishes in the background; if it fails, features load on first use.
+   */
+  private void prewarm(final Builder builder) {
+    final Supplier<Map<String, Enablement>> source;
+    if (builder.isPrewarmAll()) {
+      source = () -> {
+        final Map<String, Double> percentages = featureLookupManager.lookupAll();
+        return readsIdLists || readsVariants
+            ? bulkLookup(percentages.keySet())
+            : toEnablements(percentages.keySet(), percentageRecords(percentages));
+      };
+    } else if (!builder.getPrewarmFeatureIds().isEmpty()) {
+      source = () -> bulkLookup(builder.getPrewarmFeatureIds());
+    } else {
+      return;
+    }
+    final CompletableFuture<Integer> prewarmed = CompletableFuture.supplyAsync(source, cacheLoaderExecutor)
+        .thenApply(enablements -> {
+          featureEnablementCache.putAll(enablements);
+          final long kept = featureEnablementCache.stats().size();
+          if (kept < enablements.size()) {
+            LOGGER.warn("prewarm() loaded {} features but the cache kept {}; raise its maximumSize", enablements.size(), kept);
+          }
+          return enablements.size();
+        });
+    try {
+      LOGGER.info("prewarm() -> {} features", prewarmed.get(builder.getPrewarmTimeout().toNanos(), TimeUnit.NANOSECONDS));
+    } catch (TimeoutException e) {
+      LOGGER.warn("prewarm() not done after {}, continuing in the background", builder.getPrewarmTimeout());
+    } catch (ExecutionException e) {
+      LOGGER.warn("prewarm() failed, features will load on first use", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.warn("prewarm() interrupted, continuing in the background");
+    }
   }
 
+  /**
+   * Load the feature. With an id list or variant lookup manager the feature's row is read instead
+   * of its percentage, then its id list if it may have one and its variants if the row did not
+   * bring them; a failure of any is handled the same way.
+   */
   private Enablement lookup(String featureId) {
     LOGGER.info("lookup({})", featureId);
-    return featureLookupManager.lookupPercentage(featureId)
-        .map(enablementFactory::generate)
-        .orElseGet(enablementFactory::disabledFeature);
+    final Optional<Double> percentage;
+    final Optional<HashedIdSet> idList;
+    final Optional<List<Variant>> variants;
+    try {
+      if (readsIdLists || readsVariants) {
+        final Optional<FeatureRecord> record = featureLookupManager.lookupFeature(featureId);
+        percentage = record.map(FeatureRecord::percentage);
+        idList = mayHaveIdList(record) ? idListLookupManager.lookupIdList(featureId) : Optional.empty();
+        variants = rowHasVariants(record)
+            ? record.flatMap(FeatureRecord::variants)
+            : variantLookupManager.lookupVariants(featureId);
+      } else {
+        percentage = featureLookupManager.lookupPercentage(featureId);
+        idList = Optional.empty();
+        variants = Optional.empty();
+      }
+    } catch (RuntimeException e) {
+      if (staleWhileError) {
+        return failedLookup(featureId, e);
+      }
+      throw e;
+    }
+    final long now = clock.millis();
+    pruneRefreshed(featureId);
+    return toEnablement(featureId, percentage, idList, variants, now);
+  }
+
+  /**
+   * Load the feature without blocking, as lookup() does. The id list and variants are read after
+   * the row, together, on the loader executor, so no thread waits on any of them.
+   */
+  private CompletableFuture<Enablement> lookupAsync(String featureId) {
+    LOGGER.info("lookupAsync({})", featureId);
+    final CompletableFuture<Enablement> enablement = readsIdLists || readsVariants
+        ? featureLookupManager.lookupFeatureAsync(featureId, cacheLoaderExecutor)
+            .thenComposeAsync(record -> lookupIdListAsync(featureId, record)
+                .thenCombine(lookupVariantsAsync(featureId, record), (idList, variants) ->
+                    loaded(featureId, record.map(FeatureRecord::percentage), idList, variants)),
+                cacheLoaderExecutor)
+        : featureLookupManager.lookupPercentageAsync(featureId, cacheLoaderExecutor)
+            .thenApply(percentage -> loaded(featureId, percentage, Optional.empty(), Optional.empty()));
+    return staleWhileError
+        ? enablement.exceptionally(throwable -> failedLookup(featureId, throwable))
+        : enablement;
+  }
+
+  private CompletableFuture<Optional<HashedIdSet>> lookupIdListAsync(String featureId, Optional<FeatureRecord> record) {
+    return mayHaveIdList(record)
+        ? idListLookupManager.lookupIdListAsync(featureId, cacheLoaderExecutor)
+        : CompletableFuture.completedFuture(Optional.empty());
+  }
+
+  private CompletableFuture<Optional<List<Variant>>> lookupVariantsAsync(String featureId, Optional<FeatureRecord> record) {
+    return rowHasVariants(record)
+        ? CompletableFuture.completedFuture(record.flatMap(FeatureRecord::variants))
+        : variantLookupManager.lookupVariantsAsync(featureId, cacheLoaderExecutor);
+  }
+
+  /**
+   * Whether the feature's id list needs reading. The row's marker is only trusted when the row
+   * was read by the lookup manager that keeps the lists.
+   */
+  private boolean mayHaveIdList(Optional<FeatureRecord> record) {
+    return readsIdLists
+        && record.isPresent()
+        && (record.get().hasIdList() || !(trustsIdListMarker && record.get().complete()));
+  }
+
+  /**
+   * Whether the row's variants are the feature's, so they need no read of their own: they are
+   * only trusted when the row was read by the lookup manager that keeps them. A feature not found
+   * has none.
+   */
+  private boolean rowHasVariants(Optional<FeatureRecord> record) {
+    return !readsVariants
+        || record.isEmpty()
+        || (trustsRowVariants && record.get().complete());
+  }
+
+  private Enablement loaded(String featureId,
+                            Optional<Double> percentage,
+                            Optional<HashedIdSet> idList,
+                            Optional<List<Variant>> variants) {
+    pruneRefreshed(featureId);
+    return toEnablement(featureId, percentage, idList, variants, clock.millis());
+  }
+
+  /**
+   * The enablement for a lookup result, compiled with the feature's targeting, id list and
+   * variants if it has any. In resilience mode a feature not found expires after the negative ttl.
+   */
+  private Enablement toEnablement(String featureId,
+                                  Optional<Double> percentage,
+                                  Optional<HashedIdSet> idList,
+                                  Optional<List<Variant>> variants,
+                                  long nowMillis) {
+    lastRefreshedMillis.put(featureId, nowMillis);
+    if (percentage.isPresent()) {
+      final Optional<FeatureTargeting> targeting = targetingSource.targeting(featureId);
+      final Enablement enablement = targeting.isPresent()
+          ? enablementFactory.compile(featureId, percentage.get(), targeting.get())
+          : enablementFactory.generate(featureId, percentage.get());
+      final Enablement listed = idList
+          .map(ids -> enablementFactory.idList(ids, enablement))
+          .orElse(enablement);
+      return variants
+          .map(list -> enablementFactory.variants(featureId, listed, list))
+          .orElse(listed);
+    }
+    return staleWhileError
+        ? new ExpiringEnablement(enablementFactory.disabledFeature(), nowMillis + negativeTtlMillis)
+        : enablementFactory.disabledFeature();
+  }
+
+  /**
+   * Drop the load times of features the cache no longer holds, such as ones it evicted, once there
+   * are twice as many as after the last prune. Only single loads prune, leaving the feature being
+   * loaded: a bulk load's features are not in the cache until the whole load is stored.
+   */
+  private void pruneRefreshed(String loadingFeatureId) {
+    if (lastRefreshedMillis.size() < pruneSize) {
+      return;
+    }
+    lastRefreshedMillis.keySet().removeIf(featureId ->
+        !featureId.equals(loadingFeatureId) && !featureEnablementCache.contains(featureId));
+    pruneSize = Math.max(MIN_PRUNE_SIZE, 2 * lastRefreshedMillis.size());
+  }
+
+  /**
+   * The number of features with a recorded load time, for tests.
+   *
+   * @return the count.
+   */
+  int lastRefreshedCount() {
+    return lastRefreshedMillis.size();
+  }
+
+  /**
+   * Resilience mode: keep the last known value, or disable the feature if there is none, and
+   * retry after the failure ttl.
+   */
+  private Enablement failedLookup(String featureId, Throwable throwable) {
+    final long now = clock.millis();
+    final Enablement previous = featureEnablementCache.peek(featureId);
+    if (errorLogLimiter.tryAcquire(now)) {
+      LOGGER.error("Unable to load {}, {} ({} similar errors suppressed)",
+          featureId, previous == null ? "disabling it" : "keeping the last value", errorLogLimiter.drainSuppressed(), throwable);
+    }
+    return new ExpiringEnablement(
+        previous == null ? enablementFactory.disabledFeature() : ExpiringEnablement.unwrap(previous),
+        now + failureTtlMillis);
+  }
+
+  /**
+   * Load the features in bulk. With an id list or variant lookup manager their rows are read in
+   * bulk instead of their percentages, as lookup() does for one feature.
+   */
+  private Map<String, Enablement> bulkLookup(Collection<String> featureIds) {
+    LOGGER.info("bulkLookup({})", featureIds.size());
+    return toEnablements(featureIds, readsIdLists || readsVariants
+        ? featureLookupManager.lookupFeatures(featureIds)
+        : percentageRecords(featureLookupManager.lookupPercentages(featureIds)));
+  }
+
+  private static Map<String, FeatureRecord> percentageRecords(Map<String, Double> percentages) {
+    final Map<String, FeatureRecord> records = new HashMap<>();
+    percentages.forEach((featureId, percentage) ->
+        records.put(featureId, ImmutableFeatureRecord.builder().percentage(percentage).build()));
+    return records;
+  }
+
+  /**
+   * The enablements for a bulk load's rows. Only the features whose row may mark an id list have
+   * it read, and only those whose row did not bring their variants have them read.
+   */
+  private Map<String, Enablement> toEnablements(Collection<String> featureIds, Map<String, FeatureRecord> records) {
+    final Map<String, Enablement> result = new HashMap<>();
+    final long now = clock.millis();
+    for (String featureId : featureIds) {
+      final Optional<FeatureRecord> record = Optional.ofNullable(records.get(featureId));
+      final Optional<HashedIdSet> idList = mayHaveIdList(record)
+          ? idListLookupManager.lookupIdList(featureId)
+          : Optional.empty();
+      final Optional<List<Variant>> variants = rowHasVariants(record)
+          ? record.flatMap(FeatureRecord::variants)
+          : variantLookupManager.lookupVariants(featureId);
+      result.put(featureId, toEnablement(featureId, record.map(FeatureRecord::percentage), idList, variants, now));
+    }
+    return result;
   }
 
   /**
@@ -53,11 +371,108 @@ public class FeatureManagerImpl implements FeatureManager {
    */
   @Override
   public boolean isEnabled(String featureId, String discriminator) {
+    final Enablement enablement = enablement(featureId, discriminator);
+    return enablement != null && enablement.enabled(discriminator);
+  }
+
+  /**
+   * Is enabled boolean, using the hash the discriminator carries.
+   *
+   * @param featureId     the feature id
+   * @param discriminator the discriminator
+   * @return the boolean
+   */
+  @Override
+  public boolean isEnabled(String featureId, Discriminator discriminator) {
+    final Enablement enablement = enablement(featureId, discriminator.value());
+    return enablement != null && enablement.enabled(discriminator, enablementFactory.hash(discriminator));
+  }
+
+  /**
+   * Check many features for one discriminator, hashing the discriminator once.
+   *
+   * @param discriminator the discriminator
+   * @param featureIds    the feature ids
+   * @return the enabled features, by position
+   */
+  @Override
+  public BitSet evaluateAll(String discriminator, List<String> featureIds) {
+    final BitSet result = new BitSet(featureIds.size());
+    final int hash = enablementFactory.hash(discriminator);
+    for (int i = 0; i < featureIds.size(); i++) {
+      final Enablement enablement = enablement(featureIds.get(i), discriminator);
+      if (enablement != null && enablement.enabled(discriminator, hash)) {
+        result.set(i);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Check many features for one discriminator, using the hash the discriminator carries.
+   *
+   * @param discriminator the discriminator
+   * @param featureIds    the feature ids
+   * @return the enabled features, by position
+   */
+  @Override
+  public BitSet evaluateAll(Discriminator discriminator, List<String> featureIds) {
+    final BitSet result = new BitSet(featureIds.size());
+    final int hash = enablementFactory.hash(discriminator);
+    for (int i = 0; i < featureIds.size(); i++) {
+      final Enablement enablement = enablement(featureIds.get(i), discriminator.value());
+      if (enablement != null && enablement.enabled(discriminator, hash)) {
+        result.set(i);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The variant of the feature for the discriminator.
+   *
+   * @param featureId      the feature id
+   * @param discriminator  the discriminator
+   * @param defaultVariant the default variant
+   * @return the variant name
+   */
+  @Override
+  public String variant(String featureId, String discriminator, String defaultVariant) {
+    final Enablement enablement = enablement(featureId, discriminator);
+    return enablement == null
+        ? defaultVariant
+        : enablement.variant(discriminator, enablementFactory.hash(discriminator), defaultVariant);
+  }
+
+  /**
+   * The variant of the feature for the discriminator, using the hash the discriminator carries and
+   * the feature's targeting rules over its attributes.
+   *
+   * @param featureId      the feature id
+   * @param discriminator  the discriminator
+   * @param defaultVariant the default variant
+   * @return the variant name
+   */
+  @Override
+  public String variant(String featureId, Discriminator discriminator, String defaultVariant) {
+    final Enablement enablement = enablement(featureId, discriminator.value());
+    return enablement == null
+        ? defaultVariant
+        : enablement.variant(discriminator, enablementFactory.hash(discriminator), defaultVariant);
+  }
+
+  private Enablement enablement(String featureId, String discriminator) {
     try {
-      return featureEnablementCache.get(featureId).enabled(discriminator);
+      final Enablement enablement = featureEnablementCache.get(featureId);
+      if (enablement instanceof ExpiringEnablement expiring && expiring.shouldRefresh(clock.millis())) {
+        featureEnablementCache.refresh(featureId);
+      }
+      return enablement;
     } catch (ExecutionException | UncheckedExecutionException e) {
-      LOGGER.error("Error getting feature enablement for: {}:{}", featureId, discriminator, e);
-      return false;
+      if (!staleWhileError || errorLogLimiter.tryAcquire(clock.millis())) {
+        LOGGER.error("Error getting feature enablement for: {}:{}", featureId, discriminator, e);
+      }
+      return null;
     }
   }
 
@@ -68,8 +483,50 @@ public class FeatureManagerImpl implements FeatureManager {
    */
   @Override
   public void invalidate(String featureId) {
+    featureLookupManager.invalidate(featureId);
     featureEnablementCache.invalidate(featureId);
+    lastRefreshedMillis.remove(featureId);
   }
 
+  /**
+   * Reload the feature id in the background if it is cached. The lookup manager is told the
+   * feature changed first, so the reload does not get a value it kept from before the change.
+   *
+   * @param featureId the feature id
+   */
+  @Override
+  public void refresh(String featureId) {
+    featureLookupManager.invalidate(featureId);
+    featureEnablementCache.refresh(featureId);
+  }
+
+  /**
+   * Stop the cache's background refresh, if it has one.
+   */
+  @Override
+  public void close() {
+    featureEnablementCache.close();
+  }
+
+  /**
+   * The cache statistics so far, with when each cached feature was last loaded.
+   *
+   * @return the stats
+   */
+  @Override
+  public FeatureManagerStats stats() {
+    final ImmutableFeatureManagerStats.Builder builder = ImmutableFeatureManagerStats.builder()
+        .from(featureEnablementCache.stats())
+        .asOf(clock.instant());
+    lastRefreshedMillis.forEach((featureId, millis) -> {
+      if (featureEnablementCache.contains(featureId)) {
+        builder.putLastRefreshed(featureId, Instant.ofEpochMilli(millis));
+      }
+    });
+    if (cacheLoaderExecutor instanceof BoundedExecutor bounded) {
+      builder.loaderQueueDepth(bounded.queueDepth()).loaderInFlight(bounded.inFlight());
+    }
+    return builder.build();
+  }
 
 }
@@ -0,0 +1,103 @@
+package org.codeheadsystems.featureflag.manager.impl;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import org.codeheadsystems.featureflag.factory.Enablement;
+import org.codeheadsystems.featureflag.model.FeatureManagerStats;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureManagerStats;
+
+/**
+ * The default cache, a guava LoadingCache built from the builder's CacheBuilder. Misses load on the
+ * calling thread; reloads use the async loader, so a slow backend does not hold a thread per
+ * refresh while the old value is served. Stats recording is turned on in the cache builder.
+ */
+class LoadingEnablementCache implements EnablementCache {
+
+  private final LoadingCache<String, Enablement> cache;
+
+  /**
+   * Instantiates a new Loading enablement cache.
+   *
+   * @param cacheBuilder the cache builder.
+   * @param loader       the loader.
+   * @param asyncLoader  the loader for reloads.
+   */
+  LoadingEnablementCache(final CacheBuilder<String, Enablement> cacheBuilder,
+                         final Function<String, Enablement> loader,
+                         final Function<String, CompletableFuture<Enablement>> asyncLoader) {
+    this.cache = cacheBuilder.recordStats().build(new CacheLoader<>() {
+      @Override
+      public Enablement load(final String featureId) {
+        return loader.apply(featureId);
+      }
+
+      @Override
+      public ListenableFuture<Enablement> reload(final String featureId, final Enablement oldValue) {
+        final SettableFuture<Enablement> future = SettableFuture.create();
+        asyncLoader.apply(featureId).whenComplete((enablement, throwable) -> {
+          if (throwable == null) {
+            future.set(enablement);
+          } else {
+            future.setException(throwable);
+          }
+        });
+        return future;
+      }
+    });
+  }
+
+  @Override
+  public Enablement get(final String featureId) throws ExecutionException {
+    return cache.get(featureId);
+  }
+
+  @Override
+  public void invalidate(final String featureId) {
+    cache.invalidate(featureId);
+  }
+
+  @Override
+  public void refresh(final String featureId) {
+    if (contains(featureId)) {
+      cache.refresh(featureId);
+    }
+  }
+
+  @Override
+  public void putAll(final Map<String, Enablement> enablements) {
+    cache.putAll(enablements);
+  }
+
+  @Override
+  public Enablement peek(final String featureId) {
+    return cache.asMap().get(featureId);
+  }
+
+  @Override
+  public boolean contains(final String featureId) {
+    return cache.asMap().containsKey(featureId);
+  }
+
+  @Override
+  public FeatureManagerStats stats() {
+    final CacheStats stats = cache.stats();
+    return ImmutableFeatureManagerStats.builder()
+        .hitCount(stats.hitCount())
+        .missCount(stats.missCount())
+        .loadSuccessCount(stats.loadSuccessCount())
+        .loadFailureCount(stats.loadExceptionCount())
+        .totalLoadTimeNanos(stats.totalLoadTime())
+        .evictionCount(stats.evictionCount())
+        .size(cache.size())
+        .build();
+  }
+
+}
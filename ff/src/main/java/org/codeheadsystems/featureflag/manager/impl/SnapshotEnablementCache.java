@@ -0,0 +1,255 @@
+package org.codeheadsystems.featureflag.manager.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.codeheadsystems.featureflag.factory.Enablement;
+import org.codeheadsystems.featureflag.model.FeatureManagerStats;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureManagerStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache that publishes an immutable map of every loaded feature through one volatile field.
+ * Reads are a volatile read and a map get, with no locks or access bookkeeping. Misses load on the
+ * calling thread and publish a copy of the map with the new entry; a background thread reloads
+ * every feature with one bulk lookup on a fixed interval and publishes the result in one swap.
+ * Nothing is evicted, so this suits a fixed, modest set of features read all the time.
+ *
+ * <p>The refresh thread only holds the cache weakly, and stops once the cache is closed or no
+ * longer reachable, so a feature manager that is dropped without being closed does not keep its
+ * thread, or itself, alive.
+ */
+class SnapshotEnablementCache implements EnablementCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotEnablementCache.class);
+
+  private final Function<String, Enablement> loader;
+  private final Function<Collection<String>, Map<String, Enablement>> bulkLoader;
+  private final Function<String, CompletableFuture<Enablement>> asyncLoader;
+  private final ScheduledExecutorService scheduler;
+  private final Object writeLock = new Object();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder loadSuccesses = new LongAdder();
+  private final LongAdder loadFailures = new LongAdder();
+  private final LongAdder loadTimeNanos = new LongAdder();
+  private volatile Map<String, Enablement> snapshot = ImmutableMap.of();
+
+  /**
+   * Instantiates a new Snapshot enablement cache, and starts its refresh thread.
+   *
+   * @param loader          the loader.
+   * @param bulkLoader      loads many features at once, used by the refresh.
+   * @param asyncLoader     the loader for single feature refreshes.
+   * @param refreshInterval how often every feature is reloaded.
+   */
+  SnapshotEnablementCache(final Function<String, Enablement> loader,
+                          final Function<Collection<String>, Map<String, Enablement>> bulkLoader,
+                          final Function<String, CompletableFuture<Enablement>> asyncLoader,
+                          final Duration refreshInterval) {
+    this.loader = loader;
+    this.bulkLoader = bulkLoader;
+    this.asyncLoader = asyncLoader;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "feature-flag-snapshot-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final long intervalNanos = refreshInterval.toNanos();
+    scheduler.scheduleWithFixedDelay(refreshTask(new WeakReference<>(this), scheduler),
+        intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    LOGGER.info("SnapshotEnablementCache({})", refreshInterval);
+  }
+
+  /**
+   * The refresh task. Static so it does not capture the cache: once the cache is collected the
+   * task shuts its scheduler down.
+   *
+   * @param reference the cache, held weakly.
+   * @param scheduler the scheduler running the task.
+   * @return the task.
+   */
+  static Runnable refreshTask(final WeakReference<SnapshotEnablementCache> reference,
+                                      final ScheduledExecutorService scheduler) {
+    return () -> {
+      final SnapshotEnablementCache cache = reference.get();
+      if (cache == null) {
+        LOGGER.info("SnapshotEnablementCache no longer used, stopping its refresh thread");
+        scheduler.shutdown();
+      } else {
+        cache.refresh();
+      }
+    };
+  }
+
+  /**
+   * Stop the refresh thread. The snapshot is still served, but no longer refreshed on the interval.
+   */
+  @Override
+  public void close() {
+    LOGGER.info("close()");
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * Is the refresh thread stopped.
+   *
+   * @return the boolean.
+   */
+  boolean isClosed() {
+    return scheduler.isShutdown();
+  }
+
+  @Override
+  public Enablement get(final String featureId) {
+    final Enablement enablement = snapshot.get(featureId);
+    if (enablement != null) {
+      hits.increment();
+      return enablement;
+    }
+    misses.increment();
+    return load(featureId);
+  }
+
+  @Override
+  public void invalidate(final String featureId) {
+    synchronized (writeLock) {
+      if (snapshot.containsKey(featureId)) {
+        final Map<String, Enablement> copy = new HashMap<>(snapshot);
+        copy.remove(featureId);
+        snapshot = ImmutableMap.copyOf(copy);
+      }
+    }
+  }
+
+  @Override
+  public void refresh(final String featureId) {
+    if (!snapshot.containsKey(featureId)) {
+      return;
+    }
+    final long start = System.nanoTime();
+    asyncLoader.apply(featureId).whenComplete((reloaded, throwable) -> {
+      recordLoad(start, throwable == null, 1);
+      if (throwable != null) {
+        LOGGER.warn("Unable to refresh {}, keeping the current value", featureId, throwable);
+        return;
+      }
+      synchronized (writeLock) {
+        if (snapshot.containsKey(featureId)) {
+          final Map<String, Enablement> copy = new HashMap<>(snapshot);
+          copy.put(featureId, reloaded);
+          snapshot = ImmutableMap.copyOf(copy);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void putAll(final Map<String, Enablement> enablements) {
+    synchronized (writeLock) {
+      final Map<String, Enablement> copy = new HashMap<>(snapshot);
+      copy.putAll(enablements);
+      snapshot = ImmutableMap.copyOf(copy);
+    }
+  }
+
+  private Enablement load(final String featureId) {
+    final Enablement loaded;
+    final long start = System.nanoTime();
+    try {
+      loaded = loader.apply(featureId);
+    } catch (RuntimeException e) {
+      recordLoad(start, false, 1);
+      throw new UncheckedExecutionException(e);
+    }
+    recordLoad(start, true, 1);
+    synchronized (writeLock) {
+      final Enablement existing = snapshot.get(featureId);
+      if (existing != null) {
+        return existing; // someone else loaded it while we were.
+      }
+      snapshot = ImmutableMap.<String, Enablement>builderWithExpectedSize(snapshot.size() + 1)
+          .putAll(snapshot)
+          .put(featureId, loaded)
+          .build();
+    }
+    return loaded;
+  }
+
+  /**
+   * Reload everything in the snapshot and publish the results together. If the reload fails the
+   * current values are kept, and a feature invalidated while we were loading stays gone. A feature
+   * published while we were loading, by a single refresh, a putAll() or a load after an
+   * invalidate, keeps that newer value rather than the one we read before it.
+   */
+  void refresh() {
+    final Map<String, Enablement> seen = snapshot;
+    final Set<String> featureIds = seen.keySet();
+    if (featureIds.isEmpty()) {
+      return;
+    }
+    final Map<String, Enablement> reloaded;
+    final long start = System.nanoTime();
+    try {
+      reloaded = bulkLoader.apply(featureIds);
+      recordLoad(start, true, featureIds.size());
+    } catch (RuntimeException e) {
+      recordLoad(start, false, featureIds.size());
+      LOGGER.warn("Unable to refresh {} features, keeping the current values", featureIds.size(), e);
+      return;
+    }
+    synchronized (writeLock) {
+      final Map<String, Enablement> copy = new HashMap<>(snapshot);
+      copy.replaceAll((featureId, current) -> current == seen.get(featureId)
+          ? reloaded.getOrDefault(featureId, current)
+          : current);
+      snapshot = ImmutableMap.copyOf(copy);
+    }
+  }
+
+  private void recordLoad(final long start, final boolean success, final int features) {
+    loadTimeNanos.add(System.nanoTime() - start);
+    (success ? loadSuccesses : loadFailures).add(features);
+  }
+
+  @Override
+  public Enablement peek(final String featureId) {
+    return snapshot.get(featureId);
+  }
+
+  @Override
+  public boolean contains(final String featureId) {
+    return snapshot.containsKey(featureId);
+  }
+
+  /**
+   * The stats. Nothing is evicted from a snapshot, so the eviction count is always zero.
+   *
+   * @return the stats.
+   */
+  @Override
+  public FeatureManagerStats stats() {
+    return ImmutableFeatureManagerStats.builder()
+        .hitCount(hits.sum())
+        .missCount(misses.sum())
+        .loadSuccessCount(loadSuccesses.sum())
+        .loadFailureCount(loadFailures.sum())
+        .totalLoadTimeNanos(loadTimeNanos.sum())
+        .evictionCount(0L)
+        .size(snapshot.size())
+        .build();
+  }
+
+}
@@ -0,0 +1,53 @@
+package org.codeheadsystems.featureflag.model;
+
+import java.time.Duration;
+import org.immutables.value.Value;
+
+/**
+ * The interface Circuit breaker configuration.
+ */
+@Value.Immutable
+public interface CircuitBreakerConfiguration {
+
+  /**
+   * Consecutive failed or timed out lookups that open the circuit. Defaults to 5.
+   *
+   * @return the failure threshold.
+   */
+  @Value.Default
+  default int failureThreshold() {
+    return 5;
+  }
+
+  /**
+   * How long the circuit stays open before one probe lookup is let through. Defaults to 10 seconds.
+   *
+   * @return the open duration.
+   */
+  @Value.Default
+  default Duration openDuration() {
+    return Duration.ofSeconds(10);
+  }
+
+  /**
+   * The shortest timeout the adaptive timeout will use. Defaults to 10 milliseconds.
+   *
+   * @return the min timeout.
+   */
+  @Value.Default
+  default Duration minTimeout() {
+    return Duration.ofMillis(10);
+  }
+
+  /**
+   * The longest timeout for a single lookup, and the timeout until latencies have been seen. Bulk
+   * lookups always use this. Defaults to 1 second.
+   *
+   * @return the max timeout.
+   */
+  @Value.Default
+  default Duration maxTimeout() {
+    return Duration.ofSeconds(1);
+  }
+
+}
@@ -1,5 +1,6 @@
 package org.codeheadsystems.featureflag.model;
 
+import java.time.Duration;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ForkJoinPool;
 import org.immutables.value.Value;
@@ -11,12 +12,85 @@ import org.immutables.value.Value;
 public interface FeatureManagerConfiguration {
 
   /**
-   * Cache loader executor. Defaults to the common fork join pool.
+   * Default for maxInFlightRefreshes.
+   */
+  int DEFAULT_MAX_IN_FLIGHT_REFRESHES = 16;
+
+  /**
+   * Run cache loads on a virtual thread per task, instead of the common fork join pool, so
+   * blocking backend calls cannot starve the application's parallel streams. Defaults to false.
+   *
+   * @return true to use virtual threads.
+   */
+  @Value.Default
+  default boolean useVirtualThreads() {
+    return false;
+  }
+
+  /**
+   * The most cache loads running against the backend at once when using virtual threads. Loads
+   * past this wait for a permit without holding a platform thread.
+   *
+   * @return the max in flight refreshes.
+   */
+  @Value.Default
+  default int maxInFlightRefreshes() {
+    return DEFAULT_MAX_IN_FLIGHT_REFRESHES;
+  }
+
+  /**
+   * Cache loader executor. Defaults to the common fork join pool. If useVirtualThreads is set and
+   * this is left at its default, the feature manager uses its own bounded executor over virtual
+   * threads instead; set one here to share a bound between managers.
    *
    * @return the executor
    */
+  @Value.Default
   default Executor cacheLoaderExecutor() {
     return ForkJoinPool.commonPool();
   }
 
+  /**
+   * Resilience mode. When set, a failed load never fails isEnabled: the last known value is kept
+   * if there is one, otherwise the feature is disabled, and either way the load is retried after
+   * failureTtl. Features not found are retried after negativeTtl. Load errors are logged at most
+   * once per errorLogInterval. Defaults to false.
+   *
+   * @return true for stale while error.
+   */
+  @Value.Default
+  default boolean staleWhileError() {
+    return false;
+  }
+
+  /**
+   * How long a failed load is cached before it is retried, in resilience mode.
+   *
+   * @return the ttl.
+   */
+  @Value.Default
+  default Duration failureTtl() {
+    return Duration.ofSeconds(5);
+  }
+
+  /**
+   * How long a feature not found is cached before it is looked up again, in resilience mode.
+   *
+   * @return the ttl.
+   */
+  @Value.Default
+  default Duration negativeTtl() {
+    return Duration.ofSeconds(30);
+  }
+
+  /**
+   * The least time between logged load errors, in resilience mode.
+   *
+   * @return the interval.
+   */
+  @Value.Default
+  default Duration errorLogInterval() {
+    return Duration.ofMinutes(1);
+  }
+
 }
@@ -0,0 +1,129 @@
+package org.codeheadsystems.featureflag.model;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * A point in time copy of the feature manager's cache statistics. Counts are cumulative since
+ * the feature manager was built. Nothing is computed until stats() is called; loads only note
+ * when each feature was last loaded.
+ */
+@Value.Immutable
+public interface FeatureManagerStats {
+
+  /**
+   * Reads answered from the cache.
+   *
+   * @return the hit count.
+   */
+  long hitCount();
+
+  /**
+   * Reads that had to load.
+   *
+   * @return the miss count.
+   */
+  long missCount();
+
+  /**
+   * Loads and reloads that succeeded.
+   *
+   * @return the load success count.
+   */
+  long loadSuccessCount();
+
+  /**
+   * Loads and reloads that failed.
+   *
+   * @return the load failure count.
+   */
+  long loadFailureCount();
+
+  /**
+   * Time spent loading, in nanoseconds.
+   *
+   * @return the total load time.
+   */
+  long totalLoadTimeNanos();
+
+  /**
+   * Entries evicted by size or expiry.
+   *
+   * @return the eviction count.
+   */
+  long evictionCount();
+
+  /**
+   * Features cached right now.
+   *
+   * @return the size.
+   */
+  long size();
+
+  /**
+   * When these stats were taken.
+   *
+   * @return the instant.
+   */
+  @Value.Default
+  default Instant asOf() {
+    return Instant.now();
+  }
+
+  /**
+   * When each cached feature was last loaded or reloaded successfully.
+   *
+   * @return the instants, keyed by feature id.
+   */
+  Map<String, Instant> lastRefreshed();
+
+  /**
+   * Cache loads waiting for a permit on the bounded cache loader executor.
+   *
+   * @return the queue depth, empty if the cache loader executor is not bounded.
+   */
+  Optional<Integer> loaderQueueDepth();
+
+  /**
+   * Cache loads running on the bounded cache loader executor.
+   *
+   * @return the in flight count, empty if the cache loader executor is not bounded.
+   */
+  Optional<Integer> loaderInFlight();
+
+  /**
+   * How old the cached value of a feature was when these stats were taken. A feature whose age
+   * keeps growing past the refresh interval is stuck on a stale value.
+   *
+   * @param featureId the feature id.
+   * @return the age, empty if the feature is not cached.
+   */
+  default Optional<Duration> age(final String featureId) {
+    return Optional.ofNullable(lastRefreshed().get(featureId))
+        .map(lastRefreshed -> Duration.between(lastRefreshed, asOf()));
+  }
+
+  /**
+   * Average time per load, in nanoseconds. Zero if nothing has loaded.
+   *
+   * @return the average load time.
+   */
+  default double averageLoadTimeNanos() {
+    final long loads = loadSuccessCount() + loadFailureCount();
+    return loads == 0 ? 0.0 : (double) totalLoadTimeNanos() / loads;
+  }
+
+  /**
+   * Hits over reads, 1.0 when there have been no reads.
+   *
+   * @return the hit rate.
+   */
+  default double hitRate() {
+    final long requests = hitCount() + missCount();
+    return requests == 0 ? 1.0 : (double) hitCount() / requests;
+  }
+
+}
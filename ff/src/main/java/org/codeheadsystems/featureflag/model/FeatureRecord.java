@@ -0,0 +1,53 @@
+package org.codeheadsystems.featureflag.model;
+
+import java.util.List;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * A feature as its backend row holds it: the percentage, whether the feature has an id list, and
+ * its variants. Backends that keep id lists mark the row when one is set, so the feature manager
+ * only reads the list for features that have one, and backends that keep variants return them
+ * with the percentage, so they need no read of their own.
+ */
+@Value.Immutable
+public interface FeatureRecord {
+
+  /**
+   * The feature percentage dialed up.
+   *
+   * @return the percentage.
+   */
+  double percentage();
+
+  /**
+   * Whether the rest of the record was read from the row with the percentage. False when only the
+   * percentage is known, such as from a decorator that kept it; the feature manager then asks the
+   * id list and variant lookup managers instead of trusting {@link #hasIdList()} and
+   * {@link #variants()}.
+   *
+   * @return true if the row was read.
+   */
+  @Value.Default
+  default boolean complete() {
+    return false;
+  }
+
+  /**
+   * Whether the row marks that the feature has an id list.
+   *
+   * @return true if it has one.
+   */
+  @Value.Default
+  default boolean hasIdList() {
+    return false;
+  }
+
+  /**
+   * The variants on the row, in order.
+   *
+   * @return the variants, or empty if the feature has none.
+   */
+  Optional<List<Variant>> variants();
+
+}
@@ -0,0 +1,37 @@
+package org.codeheadsystems.featureflag.model;
+
+import java.util.List;
+import java.util.Set;
+import org.immutables.value.Value;
+
+/**
+ * Targeting for a feature, on top of its percentage. A discriminator on the deny list is always
+ * disabled, then one on the allow list is always enabled. Otherwise the first rule whose attribute
+ * matches decides, and the feature's percentage decides when none match. Compiled into an
+ * enablement when the feature loads.
+ */
+@Value.Immutable
+public interface FeatureTargeting {
+
+  /**
+   * Discriminators the feature is always enabled for.
+   *
+   * @return the allow list.
+   */
+  Set<String> allow();
+
+  /**
+   * Discriminators the feature is always disabled for. Wins over the allow list.
+   *
+   * @return the deny list.
+   */
+  Set<String> deny();
+
+  /**
+   * Rules on discriminator attributes, checked in order.
+   *
+   * @return the rules.
+   */
+  List<TargetingRule> rules();
+
+}
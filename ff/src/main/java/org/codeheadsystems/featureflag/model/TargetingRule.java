@@ -0,0 +1,34 @@
+package org.codeheadsystems.featureflag.model;
+
+import java.util.Set;
+import org.immutables.value.Value;
+
+/**
+ * A targeting rule: discriminators whose attribute has one of the values get the rule's
+ * percentage instead of the feature's.
+ */
+@Value.Immutable
+public interface TargetingRule {
+
+  /**
+   * The attribute name, looked up in the discriminator's attributes.
+   *
+   * @return the attribute.
+   */
+  String attribute();
+
+  /**
+   * The attribute values the rule matches.
+   *
+   * @return the values.
+   */
+  Set<String> values();
+
+  /**
+   * The percentage enabled for matching discriminators, between 0.0 and 1.0.
+   *
+   * @return the percentage.
+   */
+  double percentage();
+
+}
@@ -0,0 +1,27 @@
+package org.codeheadsystems.featureflag.model;
+
+import org.immutables.value.Value;
+
+/**
+ * One variant of a multivariate feature and the share of discriminators that get it. A feature's
+ * variants are kept in order; each takes the next weight's worth of buckets.
+ */
+@Value.Immutable
+public interface Variant {
+
+  /**
+   * The variant name returned to callers. No commas or equals signs.
+   *
+   * @return the name.
+   */
+  String name();
+
+  /**
+   * The share of discriminators that get the variant, between 0.0 and 1.0. The weights of a
+   * feature's variants add up to at most 1.0; the rest get the caller's default variant.
+   *
+   * @return the weight.
+   */
+  double weight();
+
+}
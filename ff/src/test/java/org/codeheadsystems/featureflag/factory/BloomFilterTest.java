@@ -0,0 +1,44 @@
+package org.codeheadsystems.featureflag.factory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class BloomFilterTest {
+
+  private static final int IDS = 50_000;
+
+  private static long[] hashes(final String prefix) {
+    final long[] hashes = new long[IDS];
+    for (int i = 0; i < IDS; i++) {
+      hashes[i] = HashedIdSet.hash(prefix + i);
+    }
+    return hashes;
+  }
+
+  @Test
+  void mightContain_noFalseNegatives() {
+    final long[] hashes = hashes("user-");
+    final BloomFilter filter = BloomFilter.of(hashes);
+
+    assertThat(Arrays.stream(hashes).allMatch(filter::mightContain)).isTrue();
+    assertThat(filter.sizeInBytes()).isLessThanOrEqualTo(IDS * BloomFilter.BITS_PER_ID / 8 + 64);
+  }
+
+  @Test
+  void mightContain_fewFalsePositives() {
+    final BloomFilter filter = BloomFilter.of(hashes("user-"));
+
+    final long falsePositives = Arrays.stream(hashes("other-")).filter(filter::mightContain).count();
+    assertThat(falsePositives).isLessThan(IDS / 100);
+  }
+
+  @Test
+  void mightContain_empty() {
+    final BloomFilter filter = BloomFilter.of(new long[0]);
+
+    assertThat(filter.mightContain(HashedIdSet.hash("user-1"))).isFalse();
+  }
+
+}
@@ -2,6 +2,7 @@ package org.codeheadsystems.featureflag.factory;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
 
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
@@ -31,13 +32,27 @@ class EnablementFactoryTest {
         // normal cases
         Arguments.of(0.4, 0, true),
         Arguments.of(0.4, 20, true),
-        Arguments.of(0.4, 40, true),
+        Arguments.of(0.4, 39, true),
+        Arguments.of(0.4, 40, false),
         Arguments.of(0.4, 50, false),
         Arguments.of(0.4, 99, false),
         Arguments.of(0.4, 100, true),
+        Arguments.of(0.4, 4240, false),
+
+        // negative hashes are unsigned, not always enabled
+        Arguments.of(0.4, -1, false),
+        Arguments.of(0.4, -100, false),
+        Arguments.of(0.4, -967296, true),
+        Arguments.of(0.4, Integer.MIN_VALUE, false),
+
+        // sub percent granularity, 0.125%
+        Arguments.of(0.00125, 0, true),
+        Arguments.of(0.00125, 1, false),
+        Arguments.of(0.00125, 100000, true),
+        Arguments.of(0.00125, 200000, false),
 
         // disabled cases
-        Arguments.of(0.0, 0, false), // only true for generated
+        Arguments.of(0.0, 0, false),
         Arguments.of(0.0, 20, false),
         Arguments.of(0.0, 40, false),
         Arguments.of(0.0, 50, false),
@@ -54,6 +69,8 @@ class EnablementFactoryTest {
         Arguments.of(1.0, 50, true),
         Arguments.of(1.0, 99, true),
         Arguments.of(1.0, 100, true),
+        Arguments.of(1.0, -1, true),
+        Arguments.of(1.0, Integer.MIN_VALUE, true),
         Arguments.of(2.0, 0, true),
         Arguments.of(2.0, 20, true),
         Arguments.of(2.0, 99, true)
@@ -85,10 +102,71 @@ class EnablementFactoryTest {
   void percentageFeature(final double featurePercentage, final int hashCodeInt, final boolean expected) {
     lenient().when(hashFunction.hashString(TEST, StandardCharsets.UTF_8)).thenReturn(hashCode);
     lenient().when(hashCode.asInt()).thenReturn(hashCodeInt);
-    final boolean updatedExpected = (featurePercentage == 0.0 && hashCodeInt % 100 == 0 || expected); // 0.0 will come back as true
     assertThat(enablementFactory.percentageFeature(featurePercentage).enabled(TEST))
         .as("featurePercentage: %s, hashCodeInt: %s", featurePercentage, hashCodeInt)
-        .isEqualTo(updatedExpected);
+        .isEqualTo(expected);
+  }
+
+  @ParameterizedTest
+  @MethodSource("provideGenerate")
+  void percentageFeature_withHash(final double featurePercentage, final int hashCodeInt, final boolean expected) {
+    assertThat(enablementFactory.percentageFeature(featurePercentage).enabled(TEST, hashCodeInt))
+        .as("featurePercentage: %s, hashCodeInt: %s", featurePercentage, hashCodeInt)
+        .isEqualTo(expected);
+  }
+
+  @Test
+  void hash_matchesEnablement() {
+    final EnablementFactory factory = new EnablementFactory();
+    final Enablement enablement = factory.percentageFeature(0.5);
+    for (int i = 0; i < 1000; i++) {
+      final String discriminator = "customer-" + i;
+      assertThat(enablement.enabled(discriminator, factory.hash(discriminator)))
+          .isEqualTo(enablement.enabled(discriminator));
+    }
+  }
+
+  @Test
+  void hash_discriminator() {
+    final EnablementFactory factory = new EnablementFactory();
+    final Discriminator discriminator = Discriminator.of("customer-1");
+
+    assertThat(factory.hash(discriminator)).isEqualTo(factory.hash("customer-1"));
+  }
+
+  @Test
+  void hash_discriminatorOtherHashFunction() {
+    when(hashFunction.hashString(TEST, StandardCharsets.UTF_8)).thenReturn(hashCode);
+    when(hashCode.asInt()).thenReturn(42);
+
+    assertThat(enablementFactory.hash(Discriminator.of(TEST))).isEqualTo(42);
+  }
+
+  @Test
+  void threshold() {
+    assertThat(EnablementFactory.threshold(Double.NaN)).isZero();
+    assertThat(EnablementFactory.threshold(-0.1)).isZero();
+    assertThat(EnablementFactory.threshold(0.0)).isZero();
+    assertThat(EnablementFactory.threshold(0.00125)).isEqualTo(1250);
+    assertThat(EnablementFactory.threshold(0.4)).isEqualTo(400_000);
+    assertThat(EnablementFactory.threshold(1.0)).isEqualTo(EnablementFactory.BUCKETS);
+    assertThat(EnablementFactory.threshold(2.0)).isEqualTo(EnablementFactory.BUCKETS);
+  }
+
+  @Test
+  void bucket_inRange() {
+    for (int hash : new int[]{0, 1, -1, 99, 100, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+      assertThat(EnablementFactory.bucket(hash)).as("hash: %s", hash)
+          .isBetween(0, EnablementFactory.BUCKETS - 1);
+    }
+  }
+
+  @Test
+  void bucket_keepsLegacyPercent() {
+    // a non-negative hash stays within the percent that hash % 100 put it in
+    for (int hash = 0; hash < 100_000; hash += 7) {
+      assertThat(EnablementFactory.bucket(hash) / (EnablementFactory.BUCKETS / 100)).isEqualTo(hash % 100);
+    }
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package org.codeheadsystems.featureflag.factory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class HashedIdSetTest {
+
+  private final EnablementFactory factory = new EnablementFactory();
+
+  @Test
+  void contains() {
+    final HashedIdSet ids = HashedIdSet.of(List.of("a", "b", "b", "c"));
+
+    assertThat(ids.size()).isEqualTo(3);
+    assertThat(ids.contains("a")).isTrue();
+    assertThat(ids.contains("c")).isTrue();
+    assertThat(ids.contains("d")).isFalse();
+  }
+
+  @Test
+  void empty() {
+    assertThat(HashedIdSet.of(List.of())).isSameAs(HashedIdSet.empty());
+    assertThat(HashedIdSet.empty().contains("a")).isFalse();
+    assertThat(HashedIdSet.empty().toChunks(10)).isEmpty();
+  }
+
+  @Test
+  void toChunks_roundTrip() {
+    final List<String> list = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      list.add("user-" + i);
+    }
+    final List<byte[]> chunks = HashedIdSet.of(list).toChunks(3_000);
+    assertThat(chunks).hasSize(4);
+    assertThat(chunks.get(0)).hasSize(3_000 * HashedIdSet.BYTES_PER_ID);
+
+    final HashedIdSet.Builder builder = HashedIdSet.builder(0);
+    for (int i = chunks.size() - 1; i >= 0; i--) { // order does not matter.
+      builder.addChunk(chunks.get(i));
+    }
+    final HashedIdSet ids = builder.build();
+
+    assertThat(ids.size()).isEqualTo(10_000);
+    assertThat(list).allMatch(ids::contains);
+    assertThat(ids.contains("user-10000")).isFalse();
+    assertThat(ids.sizeInBytes()).isLessThan(10_000L * 11); // hashes, directory and filter.
+  }
+
+  @Test
+  void addChunk_badLength() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> HashedIdSet.builder(0).addChunk(new byte[7]));
+  }
+
+  @Test
+  void idList() {
+    final Enablement enablement = factory.idList(HashedIdSet.of(List.of("allowed")), factory.disabledFeature());
+
+    assertThat(enablement.enabled("allowed")).isTrue();
+    assertThat(enablement.enabled("allowed", factory.hash("allowed"))).isTrue();
+    assertThat(enablement.enabled(Discriminator.of("allowed"), 0)).isTrue();
+    assertThat(enablement.enabled("other")).isFalse();
+  }
+
+  @Test
+  void idList_emptyIsTheFallback() {
+    final Enablement otherwise = factory.enabledFeature();
+
+    assertThat(factory.idList(HashedIdSet.empty(), otherwise)).isSameAs(otherwise);
+  }
+
+}
@@ -0,0 +1,51 @@
+package org.codeheadsystems.featureflag.factory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class Murmur3Test {
+
+  private static int guava(final String value) {
+    return Hashing.murmur3_32_fixed().hashString(value, StandardCharsets.UTF_8).asInt();
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {
+      "", "a", "ab", "abc", "abcd", "abcde", "customer-12345",
+      "\u00e9t\u00e9", "\u4e2d\u6587\u5b57", "mixed \u00df and ascii",
+      "\ud83d\ude00", "a\ud83d\ude00b", "lone \ud83d high", "lone \ude00 low", "\udbff\udfff"
+  })
+  void hashUtf8_matchesGuava(final String value) {
+    assertThat(Murmur3.hashUtf8(value)).as(value).isEqualTo(guava(value));
+  }
+
+  @Test
+  void hashUtf8_matchesGuava_uuids() {
+    for (int i = 0; i < 10_000; i++) {
+      final String value = UUID.randomUUID().toString();
+      assertThat(Murmur3.hashUtf8(value)).as(value).isEqualTo(guava(value));
+    }
+  }
+
+  @Test
+  void hashUtf8_matchesGuava_randomChars() {
+    final Random random = new Random(42);
+    for (int i = 0; i < 10_000; i++) {
+      final StringBuilder builder = new StringBuilder();
+      final int length = random.nextInt(16);
+      for (int j = 0; j < length; j++) {
+        builder.append((char) random.nextInt(Character.MAX_VALUE + 1));
+      }
+      final String value = builder.toString();
+      assertThat(Murmur3.hashUtf8(value)).as(value).isEqualTo(guava(value));
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+package org.codeheadsystems.featureflag.factory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class SaltedEnablementFactoryTest {
+
+  private static final int DISCRIMINATORS = 100_000;
+  private static final String LEGACY = "legacy";
+
+  private final SaltedEnablementFactory factory = new SaltedEnablementFactory(Set.of(LEGACY));
+
+  @Test
+  void generate_percentage() {
+    final Enablement enablement = factory.generate("featureA", 0.1);
+
+    int enabled = 0;
+    for (int i = 0; i < DISCRIMINATORS; i++) {
+      if (enablement.enabled(discriminator(i))) {
+        enabled++;
+      }
+    }
+    assertThat((double) enabled / DISCRIMINATORS).isCloseTo(0.1, within(0.005));
+  }
+
+  @Test
+  void generate_featuresIndependent() {
+    final Enablement first = factory.generate("featureA", 0.1);
+    final Enablement second = factory.generate("featureB", 0.1);
+
+    int both = 0;
+    for (int i = 0; i < DISCRIMINATORS; i++) {
+      if (first.enabled(discriminator(i)) && second.enabled(discriminator(i))) {
+        both++;
+      }
+    }
+    // independent 10% rollouts overlap on about 1%, not the whole 10%.
+    assertThat((double) both / DISCRIMINATORS).isCloseTo(0.01, within(0.003));
+  }
+
+  @Test
+  void generate_legacyKeepsBuckets() {
+    final Enablement legacy = factory.generate(LEGACY, 0.4);
+    final Enablement unsalted = new EnablementFactory().generate(0.4);
+
+    for (int i = 0; i < 1000; i++) {
+      assertThat(legacy.enabled(discriminator(i))).isEqualTo(unsalted.enabled(discriminator(i)));
+    }
+  }
+
+  @Test
+  void generate_stable() {
+    final Enablement enablement = factory.generate("featureA", 0.5);
+    final Enablement again = new SaltedEnablementFactory().generate("featureA", 0.5);
+
+    for (int i = 0; i < 1000; i++) {
+      assertThat(again.enabled(discriminator(i))).isEqualTo(enablement.enabled(discriminator(i)));
+    }
+  }
+
+  @Test
+  void enabled_withHash() {
+    final Enablement enablement = factory.generate("featureA", 0.5);
+
+    for (int i = 0; i < 1000; i++) {
+      final String discriminator = discriminator(i);
+      assertThat(enablement.enabled(discriminator, factory.hash(discriminator)))
+          .isEqualTo(enablement.enabled(discriminator));
+    }
+  }
+
+  @Test
+  void generate_fullAndNone() {
+    assertThat(factory.generate("featureA", 1.0).enabled(discriminator(1))).isTrue();
+    assertThat(factory.generate("featureA", 0.0).enabled(discriminator(1))).isFalse();
+  }
+
+  private static String discriminator(final int i) {
+    return "customer-" + i;
+  }
+
+}
@@ -0,0 +1,101 @@
+package org.codeheadsystems.featureflag.factory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.codeheadsystems.featureflag.model.FeatureTargeting;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureTargeting;
+import org.codeheadsystems.featureflag.model.ImmutableTargetingRule;
+import org.junit.jupiter.api.Test;
+
+class TargetedEnablementTest {
+
+  private static final String FEATURE_ID = "featureId";
+
+  private final EnablementFactory factory = new EnablementFactory();
+
+  @Test
+  void compile_allowAndDeny() {
+    final Enablement enablement = factory.compile(FEATURE_ID, 0.0, ImmutableFeatureTargeting.builder()
+        .addAllow("allowed", "both")
+        .addDeny("denied", "both")
+        .build());
+
+    assertThat(enablement.enabled("allowed")).isTrue();
+    assertThat(enablement.enabled("denied")).isFalse();
+    assertThat(enablement.enabled("both")).isFalse();
+    assertThat(enablement.enabled("other")).isFalse();
+  }
+
+  @Test
+  void compile_denyBeatsFullRollout() {
+    final Enablement enablement = factory.compile(FEATURE_ID, 1.0, ImmutableFeatureTargeting.builder()
+        .addDeny("denied")
+        .build());
+
+    assertThat(enablement.enabled("denied")).isFalse();
+    assertThat(enablement.enabled("other")).isTrue();
+  }
+
+  @Test
+  void compile_rules() {
+    final FeatureTargeting targeting = ImmutableFeatureTargeting.builder()
+        .addAllow("allowed")
+        .addRules(ImmutableTargetingRule.builder().attribute("plan").addValues("enterprise").percentage(1.0).build())
+        .addRules(ImmutableTargetingRule.builder().attribute("region").addValues("eu").percentage(0.0).build())
+        .build();
+    final Enablement enablement = factory.compile(FEATURE_ID, 1.0, targeting);
+
+    assertThat(enabled(enablement, Discriminator.of("a", Map.of("plan", "enterprise", "region", "eu")))).isTrue();
+    assertThat(enabled(enablement, Discriminator.of("a", Map.of("region", "eu")))).isFalse();
+    assertThat(enabled(enablement, Discriminator.of("allowed", Map.of("region", "eu")))).isTrue();
+    assertThat(enabled(enablement, Discriminator.of("a", Map.of("region", "us")))).isTrue();
+    assertThat(enabled(enablement, Discriminator.of("a"))).isTrue();
+  }
+
+  @Test
+  void compile_rulesNeedAttributes() {
+    final Enablement enablement = factory.compile(FEATURE_ID, 0.0, ImmutableFeatureTargeting.builder()
+        .addRules(ImmutableTargetingRule.builder().attribute("plan").addValues("enterprise").percentage(1.0).build())
+        .build());
+
+    // a plain string has no attributes, so only the lists and the percentage apply.
+    assertThat(enablement.enabled("a")).isFalse();
+    assertThat(enabled(enablement, Discriminator.of("a", Map.of("plan", "enterprise")))).isTrue();
+  }
+
+  @Test
+  void compile_percentageMatchesGenerate() {
+    final Enablement enablement = factory.compile(FEATURE_ID, 0.4, ImmutableFeatureTargeting.builder().build());
+    final Enablement generated = factory.generate(FEATURE_ID, 0.4);
+
+    for (int i = 0; i < 1000; i++) {
+      final String discriminator = "customer-" + i;
+      assertThat(enablement.enabled(discriminator)).isEqualTo(generated.enabled(discriminator));
+    }
+  }
+
+  @Test
+  void discriminatorSet() {
+    final List<String> discriminators = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      discriminators.add("customer-" + i);
+    }
+    discriminators.add("customer-1");
+    final DiscriminatorSet set = new DiscriminatorSet(discriminators, factory::hash);
+
+    assertThat(set.size()).isEqualTo(1000);
+    for (int i = 0; i < 2000; i++) {
+      final String discriminator = "customer-" + i;
+      assertThat(set.contains(discriminator, factory.hash(discriminator))).isEqualTo(i < 1000);
+    }
+    assertThat(new DiscriminatorSet(List.of(), factory::hash).contains("customer-1", 1)).isFalse();
+  }
+
+  private boolean enabled(final Enablement enablement, final Discriminator discriminator) {
+    return enablement.enabled(discriminator, factory.hash(discriminator));
+  }
+
+}
@@ -0,0 +1,146 @@
+package org.codeheadsystems.featureflag.factory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureTargeting;
+import org.codeheadsystems.featureflag.model.ImmutableTargetingRule;
+import org.codeheadsystems.featureflag.model.ImmutableVariant;
+import org.codeheadsystems.featureflag.model.Variant;
+import org.junit.jupiter.api.Test;
+
+class VariantEnablementTest {
+
+  private static final String FEATURE_ID = "featureId";
+  private static final String DEFAULT = "default";
+  private static final int DISCRIMINATORS = 100_000;
+
+  private final EnablementFactory factory = new EnablementFactory();
+
+  private static Variant variant(final String name, final double weight) {
+    return ImmutableVariant.builder().name(name).weight(weight).build();
+  }
+
+  private Map<String, Integer> counts(final Enablement enablement) {
+    final Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < DISCRIMINATORS; i++) {
+      final String discriminator = "customer-" + i;
+      counts.merge(enablement.variant(discriminator, factory.hash(discriminator), DEFAULT), 1, Integer::sum);
+    }
+    return counts;
+  }
+
+  @Test
+  void variant_followsWeights() {
+    final Map<String, Integer> counts = counts(factory.variants(FEATURE_ID, factory.enabledFeature(), List.of(
+        variant("a", 0.5), variant("b", 0.3), variant("c", 0.2))));
+
+    assertThat(counts.keySet()).containsExactlyInAnyOrder("a", "b", "c");
+    assertThat(counts.get("a") / (double) DISCRIMINATORS).isCloseTo(0.5, within(0.01));
+    assertThat(counts.get("b") / (double) DISCRIMINATORS).isCloseTo(0.3, within(0.01));
+    assertThat(counts.get("c") / (double) DISCRIMINATORS).isCloseTo(0.2, within(0.01));
+  }
+
+  @Test
+  void variant_remainderGetsDefault() {
+    final Map<String, Integer> counts = counts(factory.variants(FEATURE_ID, factory.enabledFeature(), List.of(
+        variant("a", 0.1), variant("zero", 0.0), variant("b", 0.1))));
+
+    assertThat(counts).doesNotContainKey("zero");
+    assertThat(counts.get(DEFAULT) / (double) DISCRIMINATORS).isCloseTo(0.8, within(0.01));
+  }
+
+  @Test
+  void variant_zeroPercentIsDefault() {
+    final Map<String, Integer> counts = counts(factory.variants(FEATURE_ID, factory.generate(FEATURE_ID, 0.0), List.of(
+        variant("a", 0.5), variant("b", 0.5))));
+
+    assertThat(counts).containsOnlyKeys(DEFAULT);
+  }
+
+  @Test
+  void variant_disabledIsDefault() {
+    final Enablement enablement = factory.variants(FEATURE_ID, factory.disabledFeature(), List.of(variant("a", 1.0)));
+
+    assertThat(enablement.variant("customer", factory.hash("customer"), DEFAULT)).isEqualTo(DEFAULT);
+  }
+
+  @Test
+  void variant_targetedByRule() {
+    final Enablement enablement = factory.variants(FEATURE_ID, factory.compile(FEATURE_ID, 0.0,
+        ImmutableFeatureTargeting.builder()
+            .addRules(ImmutableTargetingRule.builder().attribute("plan").addValues("enterprise").percentage(1.0).build())
+            .build()), List.of(variant("a", 1.0)));
+    final Discriminator enterprise = Discriminator.of("customer", Map.of("plan", "enterprise"));
+    final Discriminator free = Discriminator.of("customer", Map.of("plan", "free"));
+
+    assertThat(enablement.variant(enterprise, factory.hash(enterprise), DEFAULT)).isEqualTo("a");
+    assertThat(enablement.variant(free, factory.hash(free), DEFAULT)).isEqualTo(DEFAULT);
+    assertThat(enablement.variant("customer", factory.hash("customer"), DEFAULT)).isEqualTo(DEFAULT);
+  }
+
+  @Test
+  void variant_independentOfPercentage() {
+    final Enablement enablement = factory.variants(FEATURE_ID, factory.generate(FEATURE_ID, 0.5), List.of(
+        variant("a", 0.5), variant("b", 0.5)));
+    int enabledAndA = 0;
+    for (int i = 0; i < DISCRIMINATORS; i++) {
+      final String discriminator = "customer-" + i;
+      final int hash = factory.hash(discriminator);
+      final String variant = enablement.variant(discriminator, hash, DEFAULT);
+      if (!enablement.enabled(discriminator, hash)) {
+        assertThat(variant).isEqualTo(DEFAULT);
+      } else if (variant.equals("a")) {
+        enabledAndA++;
+      }
+    }
+    assertThat(enabledAndA / (double) DISCRIMINATORS).isCloseTo(0.25, within(0.01));
+  }
+
+  @Test
+  void variant_differsPerFeature() {
+    final List<Variant> variants = List.of(variant("a", 0.5), variant("b", 0.5));
+    final Enablement one = factory.variants("one", factory.enabledFeature(), variants);
+    final Enablement two = factory.variants("two", factory.enabledFeature(), variants);
+    int same = 0;
+    for (int i = 0; i < DISCRIMINATORS; i++) {
+      final String discriminator = "customer-" + i;
+      final int hash = factory.hash(discriminator);
+      if (one.variant(discriminator, hash, DEFAULT).equals(two.variant(discriminator, hash, DEFAULT))) {
+        same++;
+      }
+    }
+    assertThat(same / (double) DISCRIMINATORS).isCloseTo(0.5, within(0.01));
+  }
+
+  @Test
+  void enabled_forwarded() {
+    final Enablement enablement = factory.variants(FEATURE_ID, factory.disabledFeature(), List.of(variant("a", 1.0)));
+
+    assertThat(enablement.enabled("customer")).isFalse();
+    assertThat(enablement.enabled(Discriminator.of("customer"), 0)).isFalse();
+  }
+
+  @Test
+  void variant_noVariantsIsDefault() {
+    assertThat(factory.enabledFeature().variant("customer", 0, DEFAULT)).isEqualTo(DEFAULT);
+  }
+
+  @Test
+  void variants_tooHeavy() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> factory.variants(FEATURE_ID, factory.enabledFeature(), List.of(
+            variant("a", 0.6), variant("b", 0.6))));
+  }
+
+  @Test
+  void variants_negativeWeight() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> factory.variants(FEATURE_ID, factory.enabledFeature(), List.of(variant("a", -0.1))));
+  }
+
+}
@@ -0,0 +1,231 @@
+package org.codeheadsystems.featureflag.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
+import org.codeheadsystems.featureflag.model.CircuitBreakerConfiguration;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableCircuitBreakerConfiguration;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class CircuitBreakerDecoratorTest {
+
+  private static final String FEATURE_ID = "featureId";
+  private static final Executor EXECUTOR = Runnable::run;
+
+  @Mock private FeatureLookupManager delegate;
+  @Mock private IdListLookupManager idLists;
+  @Mock private VariantLookupManager variants;
+
+  @Test
+  void lookupPercentage_success() {
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any()))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(0.5)));
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(manager.state()).isEqualTo(CircuitBreakerDecorator.State.CLOSED);
+  }
+
+  @Test
+  void lookupPercentage_failureUsesLastKnown() {
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any()))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(0.5)))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("down")));
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(manager.state()).isEqualTo(CircuitBreakerDecorator.State.CLOSED);
+  }
+
+  @Test
+  void lookupPercentage_failureWithoutLastKnown() {
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any()))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("down")));
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> manager.lookupPercentage(FEATURE_ID));
+  }
+
+  @Test
+  void lookupFeature_failureUsesLastKnownRecord() {
+    final FeatureRecord record = ImmutableFeatureRecord.builder().percentage(0.5).complete(true).hasIdList(true).build();
+    when(delegate.lookupFeatureAsync(eq(FEATURE_ID), any()))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(record)))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("down")));
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+
+    assertThat(manager.lookupFeature(FEATURE_ID)).contains(record);
+    assertThat(manager.lookupFeature(FEATURE_ID)).contains(record);
+  }
+
+  @Test
+  void lookupFeatures_openUsesLastKnownRecords() {
+    final FeatureRecord record = ImmutableFeatureRecord.builder().percentage(0.5).complete(true).hasIdList(true).build();
+    when(delegate.lookupFeatures(List.of(FEATURE_ID)))
+        .thenReturn(Map.of(FEATURE_ID, record))
+        .thenThrow(new IllegalStateException("down"));
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+
+    assertThat(manager.lookupFeatures(List.of(FEATURE_ID))).containsEntry(FEATURE_ID, record);
+    assertThat(manager.lookupFeatures(List.of(FEATURE_ID))).containsEntry(FEATURE_ID, record);
+  }
+
+  @Test
+  void idListLookupManager_readsThroughCircuit() {
+    final HashedIdSet ids = HashedIdSet.of(List.of("one"));
+    when(delegate.idListLookupManager()).thenReturn(Optional.of(idLists));
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any()))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("down")));
+    when(idLists.lookupIdListAsync(eq(FEATURE_ID), any()))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(ids)));
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+    final IdListLookupManager guarded = manager.idListLookupManager().orElseThrow();
+
+    assertThat(guarded.lookupIdList(FEATURE_ID)).contains(ids);
+    assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> manager.lookupPercentage(FEATURE_ID));
+    assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> manager.lookupPercentage(FEATURE_ID));
+    assertThat(manager.state()).isEqualTo(CircuitBreakerDecorator.State.OPEN);
+
+    assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> guarded.lookupIdList(FEATURE_ID));
+    verify(idLists, times(1)).lookupIdListAsync(eq(FEATURE_ID), any());
+  }
+
+  @Test
+  void variantLookupManager_timesOut() {
+    when(delegate.variantLookupManager()).thenReturn(Optional.of(variants));
+    when(variants.lookupVariantsAsync(eq(FEATURE_ID), any())).thenReturn(new CompletableFuture<>());
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> manager.variantLookupManager().orElseThrow().lookupVariants(FEATURE_ID))
+        .withCauseInstanceOf(TimeoutException.class);
+  }
+
+  @Test
+  void idListLookupManager_emptyWithoutIdLists() {
+    assertThat(decorate(Duration.ofMinutes(1)).idListLookupManager()).isEmpty();
+  }
+
+  @Test
+  void lookupPercentage_opensAfterThreshold() {
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any()))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(0.5)))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("down")));
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+
+    manager.lookupPercentage(FEATURE_ID);
+    manager.lookupPercentage(FEATURE_ID);
+    manager.lookupPercentage(FEATURE_ID);
+    assertThat(manager.state()).isEqualTo(CircuitBreakerDecorator.State.OPEN);
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    verify(delegate, times(3)).lookupPercentageAsync(eq(FEATURE_ID), any());
+  }
+
+  @Test
+  void lookupPercentage_halfOpenProbeCloses() {
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any()))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(0.5)))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("down")))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("down")))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(1.0)));
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ZERO);
+
+    manager.lookupPercentage(FEATURE_ID);
+    manager.lookupPercentage(FEATURE_ID);
+    manager.lookupPercentage(FEATURE_ID);
+    assertThat(manager.state()).isEqualTo(CircuitBreakerDecorator.State.OPEN);
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(1.0);
+    assertThat(manager.state()).isEqualTo(CircuitBreakerDecorator.State.CLOSED);
+  }
+
+  @Test
+  void timeout_adaptsWithinBounds() {
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any()))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(0.5)));
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+    assertThat(manager.timeout()).isEqualTo(Duration.ofSeconds(1));
+
+    for (int i = 0; i < 50; i++) {
+      manager.lookupPercentage(FEATURE_ID);
+    }
+    assertThat(manager.timeout())
+        .isLessThan(Duration.ofSeconds(1))
+        .isGreaterThanOrEqualTo(Duration.ofMillis(10));
+  }
+
+  @Test
+  void lookupPercentage_lateSuccessDoesNotClose() {
+    final CompletableFuture<Optional<Double>> slow = new CompletableFuture<>();
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any()))
+        .thenReturn(slow)
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("down")));
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+
+    final CompletableFuture<Optional<Double>> started = manager.lookupPercentageAsync(FEATURE_ID, EXECUTOR);
+    manager.lookupPercentageAsync(FEATURE_ID, EXECUTOR);
+    manager.lookupPercentageAsync(FEATURE_ID, EXECUTOR);
+    assertThat(manager.state()).isEqualTo(CircuitBreakerDecorator.State.OPEN);
+
+    slow.complete(Optional.of(0.5));
+    assertThat(started.join()).contains(0.5);
+    assertThat(manager.state()).isEqualTo(CircuitBreakerDecorator.State.OPEN);
+  }
+
+  @Test
+  void timeout_backsOffOnTimeout() {
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any()))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(0.5)));
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+    for (int i = 0; i < 50; i++) {
+      manager.lookupPercentage(FEATURE_ID);
+    }
+    final Duration adapted = manager.timeout();
+
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any())).thenReturn(new CompletableFuture<>());
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5); // timed out, last known.
+    assertThat(manager.timeout()).isEqualTo(adapted.multipliedBy(2));
+  }
+
+  @Test
+  void setPercentage_passesThrough() {
+    when(delegate.setPercentage(FEATURE_ID, 0.5)).thenReturn(true);
+    final CircuitBreakerDecorator.CircuitBreakerLookupManager manager = decorate(Duration.ofMinutes(1));
+
+    assertThat(manager.setPercentage(FEATURE_ID, 0.5)).isTrue();
+    verify(delegate, never()).lookupPercentageAsync(any(), any());
+  }
+
+  private CircuitBreakerDecorator.CircuitBreakerLookupManager decorate(final Duration openDuration) {
+    final CircuitBreakerConfiguration configuration = ImmutableCircuitBreakerConfiguration.builder()
+        .failureThreshold(2)
+        .openDuration(openDuration)
+        .build();
+    return (CircuitBreakerDecorator.CircuitBreakerLookupManager)
+        new CircuitBreakerDecorator(configuration, EXECUTOR).featureLookupManagerDecorator().decorate(delegate);
+  }
+
+}
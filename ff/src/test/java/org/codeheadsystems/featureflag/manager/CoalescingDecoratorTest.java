@@ -0,0 +1,263 @@
+package org.codeheadsystems.featureflag.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class CoalescingDecoratorTest {
+
+  private static final String FEATURE_ID = "featureId";
+
+  @Mock private FeatureLookupManager delegate;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  };
+
+  @Test
+  void decorate_sameDelegateSharesManager() {
+    final CoalescingDecorator decorator = new CoalescingDecorator();
+
+    assertThat(decorator.featureLookupManagerDecorator().decorate(delegate))
+        .isSameAs(decorator.featureLookupManagerDecorator().decorate(delegate));
+  }
+
+  @Test
+  void lookupPercentage_concurrentCallsShareOneLookup() {
+    final CoalescingDecorator decorator = new CoalescingDecorator();
+    final CoalescingDecorator.CoalescingLookupManager manager = decorate(decorator);
+    final AtomicReference<CompletableFuture<Optional<Double>>> joined = new AtomicReference<>();
+    when(delegate.lookupPercentage(FEATURE_ID)).thenAnswer(invocation -> {
+      // a second caller arrives while the first lookup is still in flight.
+      joined.set(manager.lookupPercentageAsync(FEATURE_ID, Runnable::run));
+      assertThat(joined.get()).isNotDone();
+      return Optional.of(0.5);
+    });
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(joined.get().join()).contains(0.5);
+    verify(delegate, times(1)).lookupPercentage(FEATURE_ID);
+    verify(delegate, never()).lookupPercentageAsync(any(), any());
+    assertThat(manager.inFlight()).isZero();
+  }
+
+  @Test
+  void lookupPercentage_failureNotKept() {
+    when(delegate.lookupPercentage(FEATURE_ID))
+        .thenThrow(new IllegalStateException("down"))
+        .thenReturn(Optional.of(0.5));
+    final CoalescingDecorator.CoalescingLookupManager manager =
+        decorate(new CoalescingDecorator(Duration.ofSeconds(1), ticker));
+
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> manager.lookupPercentage(FEATURE_ID));
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(manager.inFlight()).isZero();
+  }
+
+  @Test
+  void lookupPercentage_resultKeptForTtl() {
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    final CoalescingDecorator.CoalescingLookupManager manager =
+        decorate(new CoalescingDecorator(Duration.ofSeconds(1), ticker));
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    nanos.addAndGet(Duration.ofMillis(999).toNanos());
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    verify(delegate, times(1)).lookupPercentage(FEATURE_ID);
+
+    nanos.addAndGet(Duration.ofMillis(1).toNanos());
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    verify(delegate, times(2)).lookupPercentage(FEATURE_ID);
+  }
+
+  @Test
+  void setPercentage_dropsKeptResult() {
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    when(delegate.setPercentage(FEATURE_ID, 1.0)).thenReturn(true);
+    final CoalescingDecorator.CoalescingLookupManager manager =
+        decorate(new CoalescingDecorator(Duration.ofSeconds(1), ticker));
+
+    manager.lookupPercentage(FEATURE_ID);
+    assertThat(manager.setPercentage(FEATURE_ID, 1.0)).isTrue();
+    manager.lookupPercentage(FEATURE_ID);
+    verify(delegate, times(2)).lookupPercentage(FEATURE_ID);
+  }
+
+  @Test
+  void invalidate_dropsKeptResult() {
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5), Optional.of(1.0));
+    final CoalescingDecorator.CoalescingLookupManager manager =
+        decorate(new CoalescingDecorator(Duration.ofSeconds(1), ticker));
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    nanos.incrementAndGet();
+    manager.invalidate(FEATURE_ID);
+    nanos.incrementAndGet();
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(1.0);
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(1.0);
+    verify(delegate, times(2)).lookupPercentage(FEATURE_ID);
+    verify(delegate).invalidate(FEATURE_ID);
+  }
+
+  @Test
+  void lookupPercentage_startedBeforeWriteNotKept() {
+    final CoalescingDecorator.CoalescingLookupManager manager =
+        decorate(new CoalescingDecorator(Duration.ofSeconds(1), ticker));
+    when(delegate.lookupPercentage(FEATURE_ID))
+        .thenAnswer(invocation -> {
+          // the write lands while this lookup is reading the old value.
+          nanos.incrementAndGet();
+          manager.setPercentage(FEATURE_ID, 1.0);
+          nanos.incrementAndGet();
+          return Optional.of(0.5);
+        })
+        .thenReturn(Optional.of(1.0));
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(1.0);
+    verify(delegate, times(2)).lookupPercentage(FEATURE_ID);
+  }
+
+  @Test
+  void lookupPercentageAsync_sharesInFlightLookup() {
+    final CompletableFuture<Optional<Double>> lookup = new CompletableFuture<>();
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any())).thenReturn(lookup);
+    final CoalescingDecorator.CoalescingLookupManager manager = decorate(new CoalescingDecorator());
+
+    final CompletableFuture<Optional<Double>> first = manager.lookupPercentageAsync(FEATURE_ID, Runnable::run);
+    final CompletableFuture<Optional<Double>> second = manager.lookupPercentageAsync(FEATURE_ID, Runnable::run);
+    assertThat(manager.inFlight()).isEqualTo(1);
+    first.cancel(false);
+    lookup.complete(Optional.of(0.5));
+
+    assertThat(second.join()).contains(0.5);
+    assertThat(manager.inFlight()).isZero();
+    verify(delegate, times(1)).lookupPercentageAsync(eq(FEATURE_ID), any());
+  }
+
+  @Test
+  void lookupFeatureAsync_sharesInFlightLookup() {
+    final FeatureRecord record = ImmutableFeatureRecord.builder().percentage(0.5).complete(true).hasIdList(true).build();
+    final CompletableFuture<Optional<FeatureRecord>> lookup = new CompletableFuture<>();
+    when(delegate.lookupFeatureAsync(eq(FEATURE_ID), any())).thenReturn(lookup);
+    final CoalescingDecorator.CoalescingLookupManager manager = decorate(new CoalescingDecorator());
+
+    final CompletableFuture<Optional<FeatureRecord>> first = manager.lookupFeatureAsync(FEATURE_ID, Runnable::run);
+    final CompletableFuture<Optional<FeatureRecord>> second = manager.lookupFeatureAsync(FEATURE_ID, Runnable::run);
+    assertThat(manager.inFlight()).isEqualTo(1);
+    lookup.complete(Optional.of(record));
+
+    assertThat(first.join()).contains(record);
+    assertThat(second.join()).contains(record);
+    assertThat(manager.inFlight()).isZero();
+    verify(delegate, times(1)).lookupFeatureAsync(eq(FEATURE_ID), any());
+  }
+
+  @Test
+  void invalidate_dropsKeptRecord() {
+    final FeatureRecord before = ImmutableFeatureRecord.builder().percentage(0.5).complete(true).build();
+    final FeatureRecord after = ImmutableFeatureRecord.builder().percentage(0.5).complete(true).hasIdList(true).build();
+    when(delegate.lookupFeature(FEATURE_ID)).thenReturn(Optional.of(before), Optional.of(after));
+    final CoalescingDecorator.CoalescingLookupManager manager =
+        decorate(new CoalescingDecorator(Duration.ofSeconds(1), ticker));
+
+    assertThat(manager.lookupFeature(FEATURE_ID)).contains(before);
+    assertThat(manager.lookupFeature(FEATURE_ID)).contains(before);
+    nanos.incrementAndGet();
+    manager.invalidate(FEATURE_ID);
+    nanos.incrementAndGet();
+    assertThat(manager.lookupFeature(FEATURE_ID)).contains(after);
+    verify(delegate, times(2)).lookupFeature(FEATURE_ID);
+    verify(delegate, never()).lookupPercentage(any());
+  }
+
+  @Test
+  void idListLookupManager_forwardsDelegates() {
+    final IdListLookupManager idLists = IdListLookupManager.none();
+    when(delegate.idListLookupManager()).thenReturn(Optional.of(idLists));
+
+    assertThat(decorate(new CoalescingDecorator()).idListLookupManager()).containsSame(idLists);
+  }
+
+  @Test
+  void invalidate_fromSeveralManagersSharesOneRead() {
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5), Optional.of(1.0));
+    final CoalescingDecorator.CoalescingLookupManager manager =
+        decorate(new CoalescingDecorator(Duration.ofSeconds(1), ticker));
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    nanos.incrementAndGet();
+    manager.invalidate(FEATURE_ID); // the first feature manager hears of the change.
+    nanos.incrementAndGet();
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(1.0);
+    nanos.incrementAndGet();
+    manager.invalidate(FEATURE_ID); // the second hears of the same change.
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(1.0);
+    verify(delegate, times(2)).lookupPercentage(FEATURE_ID);
+    verify(delegate, times(2)).invalidate(FEATURE_ID);
+  }
+
+  @Test
+  void invalidate_duringLookupStartedAfterChangeJoinsIt() {
+    final CompletableFuture<Optional<Double>> lookup = new CompletableFuture<>();
+    when(delegate.lookupPercentageAsync(eq(FEATURE_ID), any())).thenReturn(lookup);
+    final CoalescingDecorator.CoalescingLookupManager manager =
+        decorate(new CoalescingDecorator(Duration.ZERO, ticker));
+
+    manager.invalidate(FEATURE_ID);
+    nanos.incrementAndGet();
+    final CompletableFuture<Optional<Double>> first = manager.lookupPercentageAsync(FEATURE_ID, Runnable::run);
+    nanos.incrementAndGet();
+    manager.invalidate(FEATURE_ID);
+    final CompletableFuture<Optional<Double>> second = manager.lookupPercentageAsync(FEATURE_ID, Runnable::run);
+    lookup.complete(Optional.of(1.0));
+
+    assertThat(first.join()).contains(1.0);
+    assertThat(second.join()).contains(1.0);
+    verify(delegate, times(1)).lookupPercentageAsync(eq(FEATURE_ID), any());
+  }
+
+  @Test
+  void invalidate_afterTtlIsNewChange() {
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5), Optional.of(1.0));
+    final CoalescingDecorator.CoalescingLookupManager manager =
+        decorate(new CoalescingDecorator(Duration.ofSeconds(1), ticker));
+
+    manager.invalidate(FEATURE_ID);
+    nanos.addAndGet(Duration.ofMillis(500).toNanos());
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5); // kept until 1.5s.
+    nanos.addAndGet(Duration.ofMillis(600).toNanos());
+    manager.invalidate(FEATURE_ID); // 1.1s after the last change: a new one.
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(1.0);
+    verify(delegate, times(2)).lookupPercentage(FEATURE_ID);
+  }
+
+  private CoalescingDecorator.CoalescingLookupManager decorate(final CoalescingDecorator decorator) {
+    return (CoalescingDecorator.CoalescingLookupManager) decorator.featureLookupManagerDecorator().decorate(delegate);
+  }
+
+}
@@ -1,13 +1,38 @@
 package org.codeheadsystems.featureflag.manager;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import org.codeheadsystems.featureflag.factory.Discriminator;
+import org.codeheadsystems.featureflag.factory.Enablement;
 import org.codeheadsystems.featureflag.factory.EnablementFactory;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
+import org.codeheadsystems.featureflag.model.FeatureManagerStats;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.FeatureTargeting;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureManagerConfiguration;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureTargeting;
+import org.codeheadsystems.featureflag.model.ImmutableVariant;
+import org.codeheadsystems.featureflag.model.Variant;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -22,6 +47,8 @@ class EnablementManagerTest {
 
   @Mock private FeatureLookupManager featureLookupManager;
   @Mock private EnablementFactory enablementFactory;
+  @Mock private IdListLookupManager idListLookupManager;
+  @Mock private VariantLookupManager variantLookupManager;
 
   private FeatureManager featureManager;
 
@@ -36,11 +63,204 @@ class EnablementManagerTest {
   @Test
   void isEnabled() {
     when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
-    when(enablementFactory.generate(0.5)).thenReturn(discriminator -> true);
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
 
     assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
   }
 
+  @Test
+  void isEnabled_snapshotCache() {
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(featureLookupManager)
+        .withEnablementFactory(enablementFactory)
+        .withSnapshotCache(Duration.ofHours(1))
+        .build();
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+    verify(featureLookupManager, times(1)).lookupPercentage(FEATURE_ID);
+  }
+
+  @Test
+  void stats() {
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
+
+    featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR);
+    featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR);
+
+    final FeatureManagerStats stats = featureManager.stats();
+    assertThat(stats.hitCount()).isEqualTo(1L);
+    assertThat(stats.missCount()).isEqualTo(1L);
+    assertThat(stats.loadSuccessCount()).isEqualTo(1L);
+    assertThat(stats.size()).isEqualTo(1L);
+    assertThat(stats.hitRate()).isEqualTo(0.5);
+    assertThat(stats.averageLoadTimeNanos()).isPositive();
+    assertThat(stats.lastRefreshed()).containsKey(FEATURE_ID);
+    assertThat(stats.age(FEATURE_ID)).hasValueSatisfying(age -> assertThat(age.isNegative()).isFalse());
+  }
+
+  @Test
+  void stats_virtualThreadsReportsLoaderExecutor() {
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(featureLookupManager)
+        .withEnablementFactory(enablementFactory)
+        .withConfiguration(ImmutableFeatureManagerConfiguration.builder().useVirtualThreads(true).build())
+        .build();
+
+    final FeatureManagerStats stats = featureManager.stats();
+    assertThat(stats.loaderQueueDepth()).contains(0);
+    assertThat(stats.loaderInFlight()).contains(0);
+  }
+
+  @Test
+  void stats_commonPoolReportsNoLoaderExecutor() {
+    final FeatureManagerStats stats = featureManager.stats();
+    assertThat(stats.loaderQueueDepth()).isEmpty();
+    assertThat(stats.loaderInFlight()).isEmpty();
+  }
+
+  @Test
+  void stats_invalidated() {
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
+
+    featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR);
+    featureManager.invalidate(FEATURE_ID);
+
+    final FeatureManagerStats stats = featureManager.stats();
+    assertThat(stats.lastRefreshed()).isEmpty();
+    assertThat(stats.age(FEATURE_ID)).isEmpty();
+  }
+
+  @Test
+  void refresh_usesAsyncLookup() {
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    when(featureLookupManager.lookupPercentageAsync(eq(FEATURE_ID), any(Executor.class)))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(1.0)));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> false);
+    when(enablementFactory.generate(FEATURE_ID, 1.0)).thenReturn(discriminator -> true);
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isFalse();
+    featureManager.refresh(FEATURE_ID);
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+    verify(featureLookupManager, times(1)).lookupPercentage(FEATURE_ID);
+    verify(featureLookupManager).invalidate(FEATURE_ID);
+  }
+
+  @Test
+  void prewarm() {
+    when(featureLookupManager.lookupPercentages(anyCollection())).thenReturn(Map.of(FEATURE_ID, 0.5));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(featureLookupManager)
+        .withEnablementFactory(enablementFactory)
+        .withPrewarm(List.of(FEATURE_ID), Duration.ofSeconds(5))
+        .build();
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+    verify(featureLookupManager, never()).lookupPercentage(FEATURE_ID);
+  }
+
+  @Test
+  void prewarmAll() {
+    when(featureLookupManager.lookupAll()).thenReturn(Map.of(FEATURE_ID, 0.5));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(featureLookupManager)
+        .withEnablementFactory(enablementFactory)
+        .withSnapshotCache(Duration.ofHours(1))
+        .withPrewarmAll(Duration.ofSeconds(5))
+        .build();
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+    verify(featureLookupManager, never()).lookupPercentage(FEATURE_ID);
+  }
+
+  @Test
+  void prewarmAll_moreThanDefaultCacheSize() {
+    final Map<String, Double> percentages = new HashMap<>();
+    for (int i = 0; i < 300; i++) {
+      percentages.put(FEATURE_ID + i, 0.5);
+    }
+    when(featureLookupManager.lookupAll()).thenReturn(percentages);
+    when(enablementFactory.generate(anyString(), eq(0.5))).thenReturn(discriminator -> true);
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(featureLookupManager)
+        .withEnablementFactory(enablementFactory)
+        .withPrewarmAll(Duration.ofSeconds(5))
+        .build();
+
+    assertThat(featureManager.stats().size()).isEqualTo(300);
+    assertThat(featureManager.isEnabled(FEATURE_ID + 0, DISCRIMINATOR)).isTrue();
+    verify(featureLookupManager, never()).lookupPercentage(anyString());
+  }
+
+  @Test
+  void prewarmAll_failure() {
+    when(featureLookupManager.lookupAll()).thenThrow(new UnsupportedOperationException("nope"));
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(featureLookupManager)
+        .withEnablementFactory(enablementFactory)
+        .withPrewarmAll(Duration.ofSeconds(5))
+        .build();
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+  }
+
+  @Test
+  void staleWhileError_failureCached() {
+    featureManager = staleWhileErrorManager(Duration.ofMinutes(1));
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenThrow(new RuntimeException("error"));
+    when(enablementFactory.disabledFeature()).thenReturn(discriminator -> false);
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isFalse();
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isFalse();
+    verify(featureLookupManager, times(1)).lookupPercentage(FEATURE_ID);
+  }
+
+  @Test
+  void staleWhileError_retriedAfterTtl() {
+    featureManager = staleWhileErrorManager(Duration.ZERO);
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenThrow(new RuntimeException("error"));
+    when(featureLookupManager.lookupPercentageAsync(eq(FEATURE_ID), any(Executor.class)))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(0.5)));
+    when(enablementFactory.disabledFeature()).thenReturn(discriminator -> false);
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isFalse(); // refreshes, serves the marker.
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+  }
+
+  @Test
+  void staleWhileError_keepsLastValue() {
+    featureManager = staleWhileErrorManager(Duration.ofMinutes(1));
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    when(featureLookupManager.lookupPercentageAsync(eq(FEATURE_ID), any(Executor.class)))
+        .thenReturn(CompletableFuture.failedFuture(new RuntimeException("error")));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+    featureManager.refresh(FEATURE_ID);
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+  }
+
+  private FeatureManager staleWhileErrorManager(final Duration ttl) {
+    return new FeatureManager.Builder()
+        .withFeatureLookupManager(featureLookupManager)
+        .withEnablementFactory(enablementFactory)
+        .withConfiguration(ImmutableFeatureManagerConfiguration.builder()
+            .staleWhileError(true)
+            .failureTtl(ttl)
+            .negativeTtl(ttl)
+            .build())
+        .build();
+  }
+
   @Test
   void isEnabled_noFeature() {
     when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.empty());
@@ -56,10 +276,245 @@ class EnablementManagerTest {
     assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isFalse();
   }
 
+  @Test
+  void evaluateAll() {
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    when(featureLookupManager.lookupPercentage("missing")).thenReturn(Optional.empty());
+    when(featureLookupManager.lookupPercentage("broken")).thenThrow(new RuntimeException("error"));
+    when(enablementFactory.hash(DISCRIMINATOR)).thenReturn(42);
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(new Enablement() {
+      @Override
+      public boolean enabled(final String discriminator) {
+        throw new AssertionError("should use the hash");
+      }
+
+      @Override
+      public boolean enabled(final String discriminator, final int hash) {
+        return hash == 42;
+      }
+    });
+    when(enablementFactory.disabledFeature()).thenReturn(discriminator -> false);
+
+    final BitSet enabled = featureManager.evaluateAll(DISCRIMINATOR, List.of("missing", FEATURE_ID, "broken"));
+    assertThat(enabled.stream()).containsExactly(1);
+    verify(enablementFactory, times(1)).hash(DISCRIMINATOR);
+  }
+
+  @Test
+  void isEnabled_discriminator() {
+    final Discriminator discriminator = Discriminator.of(DISCRIMINATOR);
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    when(enablementFactory.hash(discriminator)).thenReturn(42);
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(new Enablement() {
+      @Override
+      public boolean enabled(final String discriminator) {
+        throw new AssertionError("should use the hash");
+      }
+
+      @Override
+      public boolean enabled(final String discriminator, final int hash) {
+        return DISCRIMINATOR.equals(discriminator) && hash == 42;
+      }
+    });
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, discriminator)).isTrue();
+    assertThat(featureManager.evaluateAll(discriminator, List.of(FEATURE_ID)).get(0)).isTrue();
+  }
+
+  @Test
+  void isEnabled_targeting() {
+    final FeatureTargeting targeting = ImmutableFeatureTargeting.builder().addAllow(DISCRIMINATOR).build();
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(featureLookupManager)
+        .withEnablementFactory(enablementFactory)
+        .withTargetingSource(TargetingSource.of(Map.of(FEATURE_ID, targeting)))
+        .build();
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    when(enablementFactory.compile(FEATURE_ID, 0.5, targeting)).thenReturn(discriminator -> true);
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+    verify(enablementFactory, never()).generate(FEATURE_ID, 0.5);
+  }
+
+  @Test
+  void isEnabled_idList() {
+    final HashedIdSet ids = HashedIdSet.of(List.of(DISCRIMINATOR));
+    final Enablement percentage = discriminator -> false;
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(featureLookupManager)
+        .withEnablementFactory(enablementFactory)
+        .withIdListLookupManager(idListLookupManager)
+        .build();
+    when(featureLookupManager.lookupFeature(FEATURE_ID)).thenReturn(Optional.of(record(0.5, false, false)));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(percentage);
+    when(idListLookupManager.lookupIdList(FEATURE_ID)).thenReturn(Optional.of(ids));
+    when(enablementFactory.idList(ids, percentage)).thenReturn(discriminator -> true);
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+  }
+
+  @Test
+  void isEnabled_idListNotReadUnlessMarked() {
+    final FeatureLookupManager backend = mock(FeatureLookupManager.class, withSettings().extraInterfaces(IdListLookupManager.class));
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(backend)
+        .withEnablementFactory(enablementFactory)
+        .withIdListLookupManager((IdListLookupManager) backend)
+        .build();
+    when(backend.lookupFeature(FEATURE_ID)).thenReturn(Optional.of(record(0.5, true, false)));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+    verify((IdListLookupManager) backend, never()).lookupIdList(FEATURE_ID);
+  }
+
+  @Test
+  void isEnabled_idListReadThroughDecorators() {
+    final HashedIdSet ids = HashedIdSet.of(List.of(DISCRIMINATOR));
+    final Enablement percentage = discriminator -> false;
+    final FeatureLookupManager backend = mock(FeatureLookupManager.class, withSettings().extraInterfaces(IdListLookupManager.class));
+    final FeatureLookupManager decorated = mock(FeatureLookupManager.class);
+    when(decorated.idListLookupManager()).thenReturn(Optional.of(idListLookupManager));
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(backend)
+        .withFeatureLookupManagerDecorator(delegate -> decorated)
+        .withEnablementFactory(enablementFactory)
+        .withIdListLookupManager((IdListLookupManager) backend)
+        .build();
+    when(decorated.lookupFeature(FEATURE_ID)).thenReturn(Optional.of(record(0.5, true, true)));
+    when(idListLookupManager.lookupIdList(FEATURE_ID)).thenReturn(Optional.of(ids));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(percentage);
+    when(enablementFactory.idList(ids, percentage)).thenReturn(discriminator -> true);
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+    verify((IdListLookupManager) backend, never()).lookupIdList(FEATURE_ID);
+  }
+
+  @Test
+  void refresh_idListFailureKeepsLastValue() {
+    final HashedIdSet ids = HashedIdSet.of(List.of(DISCRIMINATOR));
+    final Enablement percentage = discriminator -> false;
+    final FeatureLookupManager backend = mock(FeatureLookupManager.class, withSettings().extraInterfaces(IdListLookupManager.class));
+    final IdListLookupManager backendIdLists = (IdListLookupManager) backend;
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(backend)
+        .withEnablementFactory(enablementFactory)
+        .withIdListLookupManager(backendIdLists)
+        .withConfiguration(ImmutableFeatureManagerConfiguration.builder()
+            .staleWhileError(true)
+            .cacheLoaderExecutor(Runnable::run)
+            .build())
+        .build();
+    when(backend.lookupFeature(FEATURE_ID)).thenReturn(Optional.of(record(0.5, true, true)));
+    when(backend.lookupFeatureAsync(eq(FEATURE_ID), any(Executor.class)))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(record(0.5, true, true))));
+    when(backendIdLists.lookupIdList(FEATURE_ID)).thenReturn(Optional.of(ids));
+    when(backendIdLists.lookupIdListAsync(eq(FEATURE_ID), any(Executor.class)))
+        .thenReturn(CompletableFuture.failedFuture(new RuntimeException("error")));
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(percentage);
+    when(enablementFactory.idList(ids, percentage)).thenReturn(discriminator -> true);
+
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+    featureManager.refresh(FEATURE_ID);
+    assertThat(featureManager.isEnabled(FEATURE_ID, DISCRIMINATOR)).isTrue();
+    verify(backendIdLists).lookupIdListAsync(eq(FEATURE_ID), any(Executor.class));
+  }
+
+  private static FeatureRecord record(final double percentage, final boolean complete, final boolean hasIdList) {
+    return ImmutableFeatureRecord.builder()
+        .percentage(percentage)
+        .complete(complete)
+        .hasIdList(hasIdList)
+        .build();
+  }
+
+  @Test
+  void variant() {
+    final List<Variant> variants = List.of(ImmutableVariant.builder().name("treatment").weight(1.0).build());
+    final Enablement percentage = discriminator -> true;
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(featureLookupManager)
+        .withEnablementFactory(enablementFactory)
+        .withVariantLookupManager(variantLookupManager)
+        .build();
+    when(featureLookupManager.lookupFeature(FEATURE_ID)).thenReturn(Optional.of(record(1.0, false, false)));
+    when(enablementFactory.generate(FEATURE_ID, 1.0)).thenReturn(percentage);
+    when(variantLookupManager.lookupVariants(FEATURE_ID)).thenReturn(Optional.of(variants));
+    when(enablementFactory.variants(FEATURE_ID, percentage, variants))
+        .thenReturn(new EnablementFactory().variants(FEATURE_ID, percentage, variants));
+
+    assertThat(featureManager.variant(FEATURE_ID, DISCRIMINATOR, "control")).isEqualTo("treatment");
+    assertThat(featureManager.variant(FEATURE_ID, Discriminator.of(DISCRIMINATOR), "control")).isEqualTo("treatment");
+  }
+
+  @Test
+  void variant_readWithRow() {
+    final List<Variant> variants = List.of(ImmutableVariant.builder().name("treatment").weight(1.0).build());
+    final Enablement percentage = discriminator -> true;
+    final FeatureLookupManager backend = mock(FeatureLookupManager.class, withSettings().extraInterfaces(VariantLookupManager.class));
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(backend)
+        .withEnablementFactory(enablementFactory)
+        .withVariantLookupManager((VariantLookupManager) backend)
+        .build();
+    when(backend.lookupFeature(FEATURE_ID)).thenReturn(Optional.of(ImmutableFeatureRecord.builder()
+        .from(record(1.0, true, false))
+        .variants(variants)
+        .build()));
+    when(enablementFactory.generate(FEATURE_ID, 1.0)).thenReturn(percentage);
+    when(enablementFactory.variants(FEATURE_ID, percentage, variants))
+        .thenReturn(new EnablementFactory().variants(FEATURE_ID, percentage, variants));
+
+    assertThat(featureManager.variant(FEATURE_ID, DISCRIMINATOR, "control")).isEqualTo("treatment");
+    verify((VariantLookupManager) backend, never()).lookupVariants(FEATURE_ID);
+  }
+
+  @Test
+  void prewarm_readsRowsAndOnlyMarkedIdLists() {
+    final String markedId = FEATURE_ID + "Marked";
+    final HashedIdSet ids = HashedIdSet.of(List.of(DISCRIMINATOR));
+    final List<Variant> variants = List.of(ImmutableVariant.builder().name("treatment").weight(1.0).build());
+    final Enablement percentage = discriminator -> true;
+    final Enablement markedPercentage = discriminator -> false;
+    final FeatureLookupManager backend = mock(FeatureLookupManager.class,
+        withSettings().extraInterfaces(IdListLookupManager.class, VariantLookupManager.class));
+    when(backend.lookupFeatures(anyCollection())).thenReturn(Map.of(
+        FEATURE_ID, ImmutableFeatureRecord.builder().from(record(1.0, true, false)).variants(variants).build(),
+        markedId, record(0.0, true, true)));
+    when(((IdListLookupManager) backend).lookupIdList(markedId)).thenReturn(Optional.of(ids));
+    when(enablementFactory.generate(FEATURE_ID, 1.0)).thenReturn(percentage);
+    when(enablementFactory.generate(markedId, 0.0)).thenReturn(markedPercentage);
+    when(enablementFactory.idList(ids, markedPercentage)).thenReturn(discriminator -> true);
+    when(enablementFactory.variants(FEATURE_ID, percentage, variants))
+        .thenReturn(new EnablementFactory().variants(FEATURE_ID, percentage, variants));
+    featureManager = new FeatureManager.Builder()
+        .withFeatureLookupManager(backend)
+        .withEnablementFactory(enablementFactory)
+        .withIdListLookupManager((IdListLookupManager) backend)
+        .withVariantLookupManager((VariantLookupManager) backend)
+        .withPrewarm(List.of(FEATURE_ID, markedId), Duration.ofSeconds(5))
+        .build();
+
+    assertThat(featureManager.isEnabled(markedId, DISCRIMINATOR)).isTrue();
+    assertThat(featureManager.variant(FEATURE_ID, DISCRIMINATOR, "control")).isEqualTo("treatment");
+    verify((IdListLookupManager) backend, never()).lookupIdList(FEATURE_ID);
+    verify((VariantLookupManager) backend, never()).lookupVariants(anyString());
+    verify(backend, never()).lookupPercentages(anyCollection());
+    verify(backend, never()).lookupFeature(anyString());
+  }
+
+  @Test
+  void variant_notFound() {
+    when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.empty());
+    when(enablementFactory.disabledFeature()).thenReturn(discriminator -> false);
+
+    assertThat(featureManager.variant(FEATURE_ID, DISCRIMINATOR, "control")).isEqualTo("control");
+  }
+
   @Test
   void ifEnabledElse_enabled() {
     when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
-    when(enablementFactory.generate(0.5)).thenReturn(discriminator -> true);
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
 
     assertThat(featureManager.ifEnabledElse(FEATURE_ID, DISCRIMINATOR, () -> "enabled", () -> "disabled"))
         .isEqualTo("enabled");
@@ -78,7 +533,7 @@ class EnablementManagerTest {
   void invalidate() {
     when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.empty()).thenReturn(Optional.of(0.5));
     when(enablementFactory.disabledFeature()).thenReturn(discriminator -> false);
-    when(enablementFactory.generate(0.5)).thenReturn(discriminator -> true);
+    when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
 
     assertThat(featureManager.ifEnabledElse(FEATURE_ID, DISCRIMINATOR, () -> "enabled", () -> "disabled"))
         .isEqualTo("disabled");
@@ -92,7 +547,7 @@ class EnablementManagerTest {
   void invalidate_notCalled() {
     lenient().when(featureLookupManager.lookupPercentage(FEATURE_ID)).thenReturn(Optional.empty()).thenReturn(Optional.of(0.5));
     lenient().when(enablementFactory.disabledFeature()).thenReturn(discriminator -> false);
-    lenient().when(enablementFactory.generate(0.5)).thenReturn(discriminator -> true);
+    lenient().when(enablementFactory.generate(FEATURE_ID, 0.5)).thenReturn(discriminator -> true);
 
     assertThat(featureManager.ifEnabledElse(FEATURE_ID, DISCRIMINATOR, () -> "enabled", () -> "disabled"))
         .isEqualTo("disabled");
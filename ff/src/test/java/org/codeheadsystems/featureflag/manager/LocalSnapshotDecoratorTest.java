@@ -0,0 +1,193 @@
+package org.codeheadsystems.featureflag.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class LocalSnapshotDecoratorTest {
+
+  private static final String FEATURE_ID = "featureId";
+  private static final String OTHER_FEATURE_ID = "otherFeatureId";
+
+  @TempDir private Path directory;
+  @Mock private FeatureLookupManager delegate;
+
+  private Path file;
+
+  @BeforeEach
+  void setUp() {
+    file = directory.resolve("snapshot").resolve("features.bin");
+  }
+
+  @Test
+  void file_roundTrip() throws IOException {
+    LocalSnapshotFile.write(file, Map.of(FEATURE_ID, 0.5, OTHER_FEATURE_ID, 1.0));
+    assertThat(LocalSnapshotFile.read(file)).containsOnly(
+        Map.entry(FEATURE_ID, 0.5),
+        Map.entry(OTHER_FEATURE_ID, 1.0));
+  }
+
+  @Test
+  void file_corrupt() throws IOException {
+    LocalSnapshotFile.write(file, Map.of(FEATURE_ID, 0.5));
+    final byte[] bytes = Files.readAllBytes(file);
+    bytes[bytes.length - 9] ^= 1;
+    Files.write(file, bytes);
+    assertThatExceptionOfType(IOException.class)
+        .isThrownBy(() -> LocalSnapshotFile.read(file));
+  }
+
+  @Test
+  void lookupPercentage_noSnapshot() throws IOException {
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    final FeatureLookupManager manager = decorate(Runnable::run);
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(LocalSnapshotFile.read(file)).containsOnly(Map.entry(FEATURE_ID, 0.5));
+  }
+
+  @Test
+  void lookupPercentage_servedFromSnapshotAtStartup() throws IOException {
+    LocalSnapshotFile.write(file, Map.of(FEATURE_ID, 0.5));
+    final FeatureLookupManager manager = decorate(runnable -> {
+      // the backend never answers.
+    });
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(manager.lookupAll()).containsOnly(Map.entry(FEATURE_ID, 0.5));
+    verifyNoInteractions(delegate);
+  }
+
+  @Test
+  void start_updatesSnapshot() throws IOException {
+    LocalSnapshotFile.write(file, Map.of(FEATURE_ID, 0.5, OTHER_FEATURE_ID, 1.0));
+    when(delegate.lookupPercentages(Set.of(FEATURE_ID, OTHER_FEATURE_ID))).thenReturn(Map.of(FEATURE_ID, 0.25));
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.25));
+    final FeatureLookupManager manager = decorate(Runnable::run);
+
+    assertThat(((LocalSnapshotDecorator.SnapshotLookupManager) manager).isLive()).isTrue();
+    assertThat(LocalSnapshotFile.read(file)).containsOnly(Map.entry(FEATURE_ID, 0.25));
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.25);
+  }
+
+  @Test
+  void start_retriesUntilBackendRecovers() throws IOException, InterruptedException {
+    LocalSnapshotFile.write(file, Map.of(FEATURE_ID, 0.5));
+    when(delegate.lookupPercentages(Set.of(FEATURE_ID)))
+        .thenThrow(new IllegalStateException("down"))
+        .thenReturn(Map.of(FEATURE_ID, 0.25));
+    final LocalSnapshotDecorator.SnapshotLookupManager manager = (LocalSnapshotDecorator.SnapshotLookupManager)
+        new LocalSnapshotDecorator(file, Runnable::run, Duration.ofMillis(1)).featureLookupManagerDecorator().decorate(delegate);
+
+    for (int i = 0; i < 500 && !manager.isLive(); i++) {
+      Thread.sleep(10);
+    }
+    assertThat(manager.isLive()).isTrue();
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.75));
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.75);
+    assertThat(LocalSnapshotFile.read(file)).containsOnly(Map.entry(FEATURE_ID, 0.75));
+  }
+
+  @Test
+  void lookupPercentage_backendFailure() throws IOException {
+    when(delegate.lookupPercentage(FEATURE_ID))
+        .thenReturn(Optional.of(0.5))
+        .thenThrow(new IllegalStateException("down"));
+    final FeatureLookupManager manager = decorate(Runnable::run);
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+  }
+
+  @Test
+  void lookupPercentage_backendFailure_notInSnapshot() {
+    when(delegate.lookupPercentage(FEATURE_ID)).thenThrow(new IllegalStateException("down"));
+    final FeatureLookupManager manager = decorate(Runnable::run);
+
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> manager.lookupPercentage(FEATURE_ID));
+  }
+
+  @Test
+  void lookupPercentages_backendFailure() throws IOException {
+    LocalSnapshotFile.write(file, Map.of(FEATURE_ID, 0.5));
+    when(delegate.lookupPercentages(Set.of(FEATURE_ID))).thenReturn(Map.of(FEATURE_ID, 0.5));
+    when(delegate.lookupPercentages(List.of(FEATURE_ID))).thenThrow(new IllegalStateException("down"));
+    final FeatureLookupManager manager = decorate(Runnable::run);
+
+    assertThat(manager.lookupPercentages(List.of(FEATURE_ID))).containsOnly(Map.entry(FEATURE_ID, 0.5));
+  }
+
+  @Test
+  void lookupFeature_backendFailure() throws IOException {
+    final FeatureRecord record = ImmutableFeatureRecord.builder().percentage(0.5).complete(true).hasIdList(true).build();
+    when(delegate.lookupFeature(FEATURE_ID))
+        .thenReturn(Optional.of(record))
+        .thenThrow(new IllegalStateException("down"));
+    final FeatureLookupManager manager = decorate(Runnable::run);
+
+    assertThat(manager.lookupFeature(FEATURE_ID)).contains(record);
+    assertThat(LocalSnapshotFile.read(file)).containsOnly(Map.entry(FEATURE_ID, 0.5));
+    assertThat(manager.lookupFeature(FEATURE_ID)).hasValueSatisfying(fallback -> {
+      assertThat(fallback.percentage()).isEqualTo(0.5);
+      assertThat(fallback.complete()).isFalse();
+    });
+  }
+
+  @Test
+  void lookupFeatures_updatesSnapshot() throws IOException {
+    final FeatureRecord record = ImmutableFeatureRecord.builder().percentage(0.25).complete(true).build();
+    when(delegate.lookupFeatures(List.of(FEATURE_ID, OTHER_FEATURE_ID))).thenReturn(Map.of(FEATURE_ID, record));
+    final FeatureLookupManager manager = decorate(Runnable::run);
+
+    assertThat(manager.lookupFeatures(List.of(FEATURE_ID, OTHER_FEATURE_ID))).containsOnly(Map.entry(FEATURE_ID, record));
+    assertThat(LocalSnapshotFile.read(file)).containsOnly(Map.entry(FEATURE_ID, 0.25));
+  }
+
+  @Test
+  void deletePercentage() throws IOException {
+    LocalSnapshotFile.write(file, Map.of(FEATURE_ID, 0.5));
+    when(delegate.lookupPercentages(Set.of(FEATURE_ID))).thenReturn(Map.of(FEATURE_ID, 0.5));
+    final FeatureLookupManager manager = decorate(Runnable::run);
+
+    manager.deletePercentage(FEATURE_ID);
+    verify(delegate).deletePercentage(FEATURE_ID);
+    assertThat(LocalSnapshotFile.read(file)).isEmpty();
+  }
+
+  @Test
+  void decorate_corruptSnapshotIgnored() throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte[]{1, 2, 3});
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.empty());
+    final FeatureLookupManager manager = decorate(Runnable::run);
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).isEmpty();
+  }
+
+  private FeatureLookupManager decorate(final Executor executor) {
+    return new LocalSnapshotDecorator(file, executor).featureLookupManagerDecorator().decorate(delegate);
+  }
+
+}
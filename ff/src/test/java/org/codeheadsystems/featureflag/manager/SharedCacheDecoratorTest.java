@@ -0,0 +1,234 @@
+package org.codeheadsystems.featureflag.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SharedCacheDecoratorTest {
+
+  private static final String FEATURE_ID = "featureId";
+  private static final Duration TTL = Duration.ofSeconds(10);
+
+  @TempDir private Path directory;
+  @Mock private FeatureLookupManager delegate;
+  @Mock private Clock clock;
+
+  @Test
+  void file_roundTrip() throws IOException {
+    final SharedFeatureFile file = SharedFeatureFile.open(directory.resolve("shared.bin"), 16);
+    file.write(FEATURE_ID, Optional.of(0.5), 100L);
+    file.write("absent", Optional.empty(), 200L);
+
+    assertThat(file.read(FEATURE_ID)).isEqualTo(new SharedFeatureFile.Entry(Optional.of(0.5), 100L));
+    assertThat(file.read("absent")).isEqualTo(new SharedFeatureFile.Entry(Optional.empty(), 200L));
+    assertThat(file.read("unknown")).isNull();
+  }
+
+  @Test
+  void file_olderWriteSkipped() throws IOException {
+    final SharedFeatureFile file = SharedFeatureFile.open(directory.resolve("shared.bin"), 16);
+    file.write(FEATURE_ID, Optional.of(1.0), 200L);
+    file.write(FEATURE_ID, Optional.of(0.5), 100L);
+
+    assertThat(file.read(FEATURE_ID)).isEqualTo(new SharedFeatureFile.Entry(Optional.of(1.0), 200L));
+  }
+
+  @Test
+  void file_reopenKeepsSlotCount() throws IOException {
+    final Path path = directory.resolve("shared.bin");
+    SharedFeatureFile.open(path, 16).write(FEATURE_ID, Optional.of(0.5), 100L);
+
+    final SharedFeatureFile reopened = SharedFeatureFile.open(path, 1024);
+    assertThat(reopened.slots()).isEqualTo(16);
+    assertThat(reopened.read(FEATURE_ID)).isEqualTo(new SharedFeatureFile.Entry(Optional.of(0.5), 100L));
+  }
+
+  @Test
+  void file_fullProbeOverwrites() throws IOException {
+    final SharedFeatureFile file = SharedFeatureFile.open(directory.resolve("shared.bin"), 8);
+    for (int i = 0; i < 20; i++) {
+      file.write("feature" + i, Optional.of((double) i / 100), i);
+    }
+    assertThat(file.read("feature19")).isEqualTo(new SharedFeatureFile.Entry(Optional.of(0.19), 19L));
+  }
+
+  @Test
+  void file_notSharedFile() throws IOException {
+    final Path path = directory.resolve("shared.bin");
+    Files.write(path, new byte[128]);
+
+    final FeatureLookupManager manager = new SharedCacheDecorator(path, TTL)
+        .featureLookupManagerDecorator().decorate(delegate);
+    assertThat(manager).isSameAs(delegate);
+  }
+
+  @Test
+  void lookupPercentage_sharedAcrossManagers() {
+    when(clock.millis()).thenReturn(1000L);
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5));
+    final FeatureLookupManager first = decorate();
+    final FeatureLookupManager second = decorate();
+
+    assertThat(first.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(second.lookupPercentage(FEATURE_ID)).contains(0.5);
+    verify(delegate, times(1)).lookupPercentage(FEATURE_ID);
+  }
+
+  @Test
+  void lookupPercentage_expired() {
+    when(clock.millis()).thenReturn(1000L, 1000L + TTL.toMillis());
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5), Optional.of(1.0));
+    final FeatureLookupManager manager = decorate();
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(1.0);
+  }
+
+  @Test
+  void invalidate_skipsValueReadBeforeChange() {
+    final AtomicLong now = new AtomicLong(1000L);
+    when(clock.millis()).thenAnswer(invocation -> now.get());
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.of(0.5), Optional.of(1.0));
+    final FeatureLookupManager manager = decorate();
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(0.5);
+    now.set(1500L);
+    manager.invalidate(FEATURE_ID);
+    now.set(2000L);
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(1.0);
+    now.set(3000L);
+    assertThat(manager.lookupPercentage(FEATURE_ID)).contains(1.0);
+    verify(delegate, times(2)).lookupPercentage(FEATURE_ID);
+    verify(delegate).invalidate(FEATURE_ID);
+  }
+
+  @Test
+  void lookupPercentage_slowLookupDoesNotReplaceNewerWrite() {
+    final AtomicLong now = new AtomicLong(1000L);
+    when(clock.millis()).thenAnswer(invocation -> now.get());
+    when(delegate.setPercentage(FEATURE_ID, 1.0)).thenReturn(true);
+    final FeatureLookupManager reader = decorate();
+    final FeatureLookupManager writer = decorate();
+    when(delegate.lookupPercentage(FEATURE_ID)).thenAnswer(invocation -> {
+      // another JVM writes while this lookup is reading the old value.
+      now.set(1500L);
+      writer.setPercentage(FEATURE_ID, 1.0);
+      now.set(2000L);
+      return Optional.of(0.5);
+    });
+
+    assertThat(reader.lookupPercentage(FEATURE_ID)).contains(0.5);
+    assertThat(decorate().lookupPercentage(FEATURE_ID)).contains(1.0);
+    verify(delegate, times(1)).lookupPercentage(FEATURE_ID);
+  }
+
+  @Test
+  void setPercentage_concurrentWritersOnSamePath() {
+    when(clock.millis()).thenReturn(1000L);
+    when(delegate.setPercentage(anyString(), anyDouble())).thenReturn(true);
+    final FeatureLookupManager first = decorate();
+    final FeatureLookupManager second = decorate();
+
+    final CompletableFuture<?>[] writers = new CompletableFuture<?>[4];
+    for (int i = 0; i < writers.length; i++) {
+      final FeatureLookupManager manager = i % 2 == 0 ? first : second;
+      final String featureId = FEATURE_ID + i;
+      writers[i] = CompletableFuture.runAsync(() -> {
+        for (int j = 0; j < 500; j++) {
+          manager.setPercentage(featureId, j / 1000.0);
+        }
+      });
+    }
+    CompletableFuture.allOf(writers).join();
+
+    for (int i = 0; i < writers.length; i++) {
+      assertThat(decorate().lookupPercentage(FEATURE_ID + i)).contains(0.499);
+    }
+    verify(delegate, never()).lookupPercentage(anyString());
+  }
+
+  @Test
+  void lookupPercentage_notFoundShared() {
+    when(clock.millis()).thenReturn(1000L);
+    when(delegate.lookupPercentage(FEATURE_ID)).thenReturn(Optional.empty());
+    final FeatureLookupManager manager = decorate();
+
+    assertThat(manager.lookupPercentage(FEATURE_ID)).isEmpty();
+    assertThat(manager.lookupPercentage(FEATURE_ID)).isEmpty();
+    verify(delegate, times(1)).lookupPercentage(FEATURE_ID);
+  }
+
+  @Test
+  void lookupAll_populatesFile() {
+    when(clock.millis()).thenReturn(1000L);
+    when(delegate.lookupAll()).thenReturn(Map.of(FEATURE_ID, 0.5));
+    final FeatureLookupManager manager = decorate();
+
+    assertThat(manager.lookupAll()).containsOnly(Map.entry(FEATURE_ID, 0.5));
+    assertThat(decorate().lookupPercentage(FEATURE_ID)).contains(0.5);
+  }
+
+  @Test
+  void lookupFeature_readsBackendAndPopulatesFile() {
+    final FeatureRecord record = ImmutableFeatureRecord.builder().percentage(0.5).complete(true).hasIdList(true).build();
+    when(clock.millis()).thenReturn(1000L);
+    when(delegate.lookupFeature(FEATURE_ID)).thenReturn(Optional.of(record));
+    final FeatureLookupManager manager = decorate();
+
+    assertThat(manager.lookupFeature(FEATURE_ID)).contains(record);
+    assertThat(manager.lookupFeature(FEATURE_ID)).contains(record);
+    assertThat(decorate().lookupPercentage(FEATURE_ID)).contains(0.5);
+    verify(delegate, times(2)).lookupFeature(FEATURE_ID);
+    verify(delegate, never()).lookupPercentage(anyString());
+  }
+
+  @Test
+  void setPercentage_updatesFile() {
+    when(clock.millis()).thenReturn(1000L);
+    when(delegate.setPercentage(FEATURE_ID, 0.5)).thenReturn(true);
+    final FeatureLookupManager manager = decorate();
+
+    assertThat(manager.setPercentage(FEATURE_ID, 0.5)).isTrue();
+    assertThat(decorate().lookupPercentage(FEATURE_ID)).contains(0.5);
+  }
+
+  @Test
+  void deletePercentage_updatesFile() {
+    when(clock.millis()).thenReturn(1000L);
+    when(delegate.setPercentage(FEATURE_ID, 0.5)).thenReturn(true);
+    final FeatureLookupManager manager = decorate();
+
+    manager.setPercentage(FEATURE_ID, 0.5);
+    manager.deletePercentage(FEATURE_ID);
+    assertThat(decorate().lookupPercentage(FEATURE_ID)).isEmpty();
+    verify(delegate).deletePercentage(FEATURE_ID);
+  }
+
+  private FeatureLookupManager decorate() {
+    return new SharedCacheDecorator(directory.resolve("shared.bin"), TTL, 64, clock)
+        .featureLookupManagerDecorator().decorate(delegate);
+  }
+
+}
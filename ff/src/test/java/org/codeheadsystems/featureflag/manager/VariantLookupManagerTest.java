@@ -0,0 +1,55 @@
+package org.codeheadsystems.featureflag.manager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.List;
+import org.codeheadsystems.featureflag.model.ImmutableVariant;
+import org.codeheadsystems.featureflag.model.Variant;
+import org.junit.jupiter.api.Test;
+
+class VariantLookupManagerTest {
+
+  private static Variant variant(final String name, final double weight) {
+    return ImmutableVariant.builder().name(name).weight(weight).build();
+  }
+
+  @Test
+  void encode_roundTrip() {
+    final List<Variant> variants = List.of(variant("control", 0.5), variant("treatment", 0.25));
+
+    final String encoded = VariantLookupManager.encode(variants);
+
+    assertThat(encoded).isEqualTo("control=0.5,treatment=0.25");
+    assertThat(VariantLookupManager.decode(encoded)).isEqualTo(variants);
+  }
+
+  @Test
+  void encode_empty() {
+    assertThat(VariantLookupManager.encode(List.of())).isEmpty();
+    assertThat(VariantLookupManager.decode("")).isEmpty();
+  }
+
+  @Test
+  void encode_badName() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> VariantLookupManager.encode(List.of(variant("a,b", 0.5))));
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> VariantLookupManager.encode(List.of(variant("a=b", 0.5))));
+  }
+
+  @Test
+  void encode_tooHeavy() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> VariantLookupManager.encode(List.of(variant("a", 0.75), variant("b", 0.5))));
+  }
+
+  @Test
+  void decode_notVariants() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> VariantLookupManager.decode("a=0.5,b"));
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> VariantLookupManager.decode("a=half"));
+  }
+
+}
@@ -0,0 +1,68 @@
+package org.codeheadsystems.featureflag.manager.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class BoundedExecutorTest {
+
+  @Test
+  void execute_boundsInFlight() throws InterruptedException {
+    final BoundedExecutor executor = BoundedExecutor.virtualThreads(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(2);
+    final AtomicInteger ran = new AtomicInteger();
+
+    executor.execute(() -> {
+      started.countDown();
+      await(release);
+      ran.incrementAndGet();
+      done.countDown();
+    });
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    executor.execute(() -> {
+      ran.incrementAndGet();
+      done.countDown();
+    });
+
+    assertThat(executor.inFlight()).isEqualTo(1);
+    assertThat(executor.queueDepth()).isEqualTo(1);
+    assertThat(ran).hasValue(0);
+
+    release.countDown();
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(ran).hasValue(2);
+  }
+
+  @Test
+  void execute_rejected() {
+    final BoundedExecutor executor = new BoundedExecutor(command -> {
+      throw new RejectedExecutionException();
+    }, 1);
+    assertThatExceptionOfType(RejectedExecutionException.class)
+        .isThrownBy(() -> executor.execute(() -> {
+        }));
+    assertThat(executor.queueDepth()).isZero();
+  }
+
+  @Test
+  void constructor_invalid() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> new BoundedExecutor(Runnable::run, 0));
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,38 @@
+package org.codeheadsystems.featureflag.manager.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import com.google.common.cache.CacheBuilder;
+import java.util.Optional;
+import org.codeheadsystems.featureflag.factory.Enablement;
+import org.codeheadsystems.featureflag.manager.FeatureLookupManager;
+import org.codeheadsystems.featureflag.manager.FeatureManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class FeatureManagerImplTest {
+
+  @Mock private FeatureLookupManager featureLookupManager;
+
+  @Test
+  void lastRefreshed_prunedAfterEviction() {
+    when(featureLookupManager.lookupPercentage(anyString())).thenReturn(Optional.of(0.5));
+    final FeatureManagerImpl featureManager = (FeatureManagerImpl) new FeatureManager.Builder()
+        .withFeatureLookupManager(featureLookupManager)
+        .withCacheBuilder(CacheBuilder.newBuilder().maximumSize(10).<String, Enablement>removalListener(notification -> { }))
+        .build();
+
+    for (int i = 0; i < 5_000; i++) {
+      featureManager.isEnabled("feature" + i, "discriminator");
+    }
+
+    assertThat(featureManager.lastRefreshedCount()).isLessThanOrEqualTo(1024);
+    assertThat(featureManager.stats().lastRefreshed()).hasSizeLessThanOrEqualTo(10);
+  }
+
+}
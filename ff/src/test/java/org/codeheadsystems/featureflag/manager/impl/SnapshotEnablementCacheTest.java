@@ -0,0 +1,171 @@
+package org.codeheadsystems.featureflag.manager.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+import org.codeheadsystems.featureflag.factory.Enablement;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SnapshotEnablementCacheTest {
+
+  private static final String FEATURE_ID = "featureId";
+  private static final Enablement ENABLED = discriminator -> true;
+  private static final Enablement DISABLED = discriminator -> false;
+
+  @Mock private Function<String, Enablement> loader;
+  @Mock private Function<Collection<String>, Map<String, Enablement>> bulkLoader;
+  @Mock private Function<String, CompletableFuture<Enablement>> asyncLoader;
+
+  private SnapshotEnablementCache cache;
+
+  @BeforeEach
+  void setUp() {
+    // refresh() is called directly, so keep the background thread out of the way.
+    cache = new SnapshotEnablementCache(loader, bulkLoader, asyncLoader, Duration.ofHours(1));
+  }
+
+  @Test
+  void get_loadsOnce() {
+    when(loader.apply(FEATURE_ID)).thenReturn(ENABLED);
+
+    assertThat(cache.get(FEATURE_ID)).isSameAs(ENABLED);
+    assertThat(cache.get(FEATURE_ID)).isSameAs(ENABLED);
+    verify(loader, times(1)).apply(FEATURE_ID);
+  }
+
+  @Test
+  void get_failureNotCached() {
+    when(loader.apply(FEATURE_ID)).thenThrow(new IllegalStateException("boom")).thenReturn(ENABLED);
+
+    assertThatExceptionOfType(UncheckedExecutionException.class).isThrownBy(() -> cache.get(FEATURE_ID));
+    assertThat(cache.get(FEATURE_ID)).isSameAs(ENABLED);
+  }
+
+  @Test
+  void invalidate() {
+    when(loader.apply(FEATURE_ID)).thenReturn(DISABLED).thenReturn(ENABLED);
+
+    assertThat(cache.get(FEATURE_ID)).isSameAs(DISABLED);
+    cache.invalidate(FEATURE_ID);
+    assertThat(cache.get(FEATURE_ID)).isSameAs(ENABLED);
+  }
+
+  @Test
+  void refresh() {
+    when(loader.apply(FEATURE_ID)).thenReturn(DISABLED);
+    when(bulkLoader.apply(Set.of(FEATURE_ID))).thenReturn(Map.of(FEATURE_ID, ENABLED));
+
+    assertThat(cache.get(FEATURE_ID)).isSameAs(DISABLED);
+    cache.refresh();
+    assertThat(cache.get(FEATURE_ID)).isSameAs(ENABLED);
+    verify(loader, times(1)).apply(FEATURE_ID);
+  }
+
+  @Test
+  void refresh_keepsValuePublishedDuringReload() {
+    final Enablement pushed = discriminator -> true;
+    when(loader.apply(FEATURE_ID)).thenReturn(DISABLED);
+    when(bulkLoader.apply(Set.of(FEATURE_ID))).thenAnswer(invocation -> {
+      cache.putAll(Map.of(FEATURE_ID, pushed)); // a push lands while the bulk read is in flight.
+      return Map.of(FEATURE_ID, ENABLED);
+    });
+
+    assertThat(cache.get(FEATURE_ID)).isSameAs(DISABLED);
+    cache.refresh();
+    assertThat(cache.get(FEATURE_ID)).isSameAs(pushed);
+  }
+
+  @Test
+  void refresh_single() {
+    when(loader.apply(FEATURE_ID)).thenReturn(DISABLED);
+    when(asyncLoader.apply(FEATURE_ID)).thenReturn(CompletableFuture.completedFuture(ENABLED));
+
+    assertThat(cache.get(FEATURE_ID)).isSameAs(DISABLED);
+    cache.refresh(FEATURE_ID);
+    assertThat(cache.get(FEATURE_ID)).isSameAs(ENABLED);
+  }
+
+  @Test
+  void refresh_single_failureKeepsCurrent() {
+    when(loader.apply(FEATURE_ID)).thenReturn(DISABLED);
+    when(asyncLoader.apply(FEATURE_ID)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("boom")));
+
+    assertThat(cache.get(FEATURE_ID)).isSameAs(DISABLED);
+    cache.refresh(FEATURE_ID);
+    assertThat(cache.get(FEATURE_ID)).isSameAs(DISABLED);
+  }
+
+  @Test
+  void refresh_single_notCached() {
+    cache.refresh(FEATURE_ID);
+    verifyNoInteractions(loader, asyncLoader);
+  }
+
+  @Test
+  void refresh_empty() {
+    cache.refresh();
+    verifyNoInteractions(bulkLoader);
+  }
+
+  @Test
+  void refresh_failureKeepsCurrent() {
+    when(loader.apply(FEATURE_ID)).thenReturn(DISABLED);
+    when(bulkLoader.apply(Set.of(FEATURE_ID))).thenThrow(new IllegalStateException("boom"));
+
+    assertThat(cache.get(FEATURE_ID)).isSameAs(DISABLED);
+    cache.refresh();
+    assertThat(cache.get(FEATURE_ID)).isSameAs(DISABLED);
+  }
+
+  @Test
+  void close_stopsRefreshThread() {
+    cache.close();
+
+    assertThat(cache.isClosed()).isTrue();
+    cache.refresh(); // still usable.
+  }
+
+  @Test
+  void refreshTask_unreachableStopsScheduler() {
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    SnapshotEnablementCache.refreshTask(new WeakReference<>(null), scheduler).run();
+    assertThat(scheduler.isShutdown()).isTrue();
+  }
+
+  @Test
+  void refreshTask_reachableRefreshes() {
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    when(loader.apply(FEATURE_ID)).thenReturn(DISABLED);
+    when(bulkLoader.apply(Set.of(FEATURE_ID))).thenReturn(Map.of(FEATURE_ID, ENABLED));
+    cache.get(FEATURE_ID);
+
+    try {
+      SnapshotEnablementCache.refreshTask(new WeakReference<>(cache), scheduler).run();
+      assertThat(scheduler.isShutdown()).isFalse();
+      assertThat(cache.get(FEATURE_ID)).isSameAs(ENABLED);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+}
@@ -11,4 +11,4 @@ plugins {
 }
 
 rootProject.name = "feature-flag"
-include("ff", "ff-metrics", "test", "etcd", "ddb", "ddb-test", "sql", "integ")
+include("ff", "ff-metrics", "ff-micrometer", "ff-benchmarks", "test", "etcd", "ddb", "ddb-test", "sql", "integ")
@@ -1,24 +1,103 @@
 package org.codeheadsystems.featureflag.manager.impl;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Stream;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
 import org.codeheadsystems.featureflag.manager.FeatureLookupManager;
+import org.codeheadsystems.featureflag.manager.IdListLookupManager;
+import org.codeheadsystems.featureflag.manager.VariantLookupManager;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableFeatureRecord;
+import org.codeheadsystems.featureflag.model.Variant;
 import org.jdbi.v3.cache.caffeine.CaffeineCachePlugin;
 import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
 import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.jdbi.v3.sqlobject.config.KeyColumn;
+import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
+import org.jdbi.v3.sqlobject.config.ValueColumn;
 import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.statement.BatchChunkSize;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+import org.jdbi.v3.sqlobject.statement.UseRowMapper;
+import org.jdbi.v3.sqlobject.transaction.Transaction;
 
 /**
- * The type Sql feature lookup manager, as a dao.
+ * The type Sql feature lookup manager, as a dao. Id lists are kept one row per id in
+ * FEATURE_FLAG_ID and hashed as they are read. Variants are kept in the VARIANTS column of the
+ * feature's row, so the feature needs a percentage before it can have variants. lookupFeature()
+ * reads the variants and checks for an id list in the same query as the percentage, and
+ * lookupFeatures() does the same for many features in one query.
  */
-public interface SqlFeatureLookupManager extends FeatureLookupManager {
+public interface SqlFeatureLookupManager extends FeatureLookupManager, IdListLookupManager, VariantLookupManager {
 
   @Override
   @SqlQuery("select PERCENTAGE from FEATURE_FLAG where FEATURE_ID = :featureId")
   Optional<Double> lookupPercentage(@Bind("featureId") final String featureId);
 
+  @Override
+  @SqlQuery("select PERCENTAGE, VARIANTS, case when exists (select 1 from FEATURE_FLAG_ID i where i.FEATURE_ID = f.FEATURE_ID)"
+      + " then 1 else 0 end as HAS_ID_LIST from FEATURE_FLAG f where f.FEATURE_ID = :featureId")
+  @UseRowMapper(FeatureRecordMapper.class)
+  Optional<FeatureRecord> lookupFeature(@Bind("featureId") final String featureId);
+
+  @Override
+  @SqlQuery("select FEATURE_ID, PERCENTAGE from FEATURE_FLAG")
+  @KeyColumn("FEATURE_ID")
+  @ValueColumn("PERCENTAGE")
+  Map<String, Double> lookupAll();
+
+  /**
+   * Internal select of the percentages for a non-empty set of features.
+   *
+   * @param featureIds the feature ids
+   * @return the percentages found
+   */
+  @SqlQuery("select FEATURE_ID, PERCENTAGE from FEATURE_FLAG where FEATURE_ID in (<featureIds>)")
+  @KeyColumn("FEATURE_ID")
+  @ValueColumn("PERCENTAGE")
+  Map<String, Double> selectPercentages(@BindList("featureIds") final Collection<String> featureIds);
+
+  @Override
+  default Map<String, Double> lookupPercentages(final Collection<String> featureIds) {
+    if (featureIds.isEmpty()) {
+      return Map.of();
+    }
+    return selectPercentages(featureIds);
+  }
+
+  /**
+   * Internal select of the rows for a non-empty set of features, as lookupFeature() reads one.
+   *
+   * @param featureIds the feature ids
+   * @return the records found
+   */
+  @SqlQuery("select FEATURE_ID, PERCENTAGE, VARIANTS, case when exists (select 1 from FEATURE_FLAG_ID i"
+      + " where i.FEATURE_ID = f.FEATURE_ID) then 1 else 0 end as HAS_ID_LIST from FEATURE_FLAG f"
+      + " where f.FEATURE_ID in (<featureIds>)")
+  @KeyColumn("FEATURE_ID")
+  @RegisterRowMapper(FeatureRecordMapper.class)
+  Map<String, FeatureRecord> selectFeatures(@BindList("featureIds") final Collection<String> featureIds);
+
+  @Override
+  default Map<String, FeatureRecord> lookupFeatures(final Collection<String> featureIds) {
+    if (featureIds.isEmpty()) {
+      return Map.of();
+    }
+    return selectFeatures(featureIds);
+  }
+
   /**
    * Internal insert of the feature flag with the percentage.
    *
@@ -47,9 +126,110 @@ public interface SqlFeatureLookupManager extends FeatureLookupManager {
     return true;
   }
 
-  @Override
+  /**
+   * Internal delete of the feature's row, with its variants.
+   *
+   * @param featureId the feature id
+   */
   @SqlUpdate("delete from FEATURE_FLAG where FEATURE_ID = :featureId")
-  void deletePercentage(@Bind("featureId") final String featureId);
+  void deleteFeature(@Bind("featureId") final String featureId);
+
+  @Override
+  @Transaction
+  default void deletePercentage(final String featureId) {
+    deleteIdList(featureId);
+    deleteFeature(featureId);
+  }
+
+  /**
+   * Internal select of the feature's id list, streamed so the ids are never all held at once.
+   *
+   * @param featureId the feature id
+   * @return the ids, to be closed.
+   */
+  @SqlQuery("select ID from FEATURE_FLAG_ID where FEATURE_ID = :featureId")
+  Stream<String> selectIds(@Bind("featureId") final String featureId);
+
+  @Override
+  default Optional<HashedIdSet> lookupIdList(final String featureId) {
+    final HashedIdSet.Builder builder = HashedIdSet.builder(0);
+    try (Stream<String> ids = selectIds(featureId)) {
+      ids.forEach(builder::add);
+    }
+    final HashedIdSet idList = builder.build();
+    return idList.size() == 0 ? Optional.empty() : Optional.of(idList);
+  }
+
+  /**
+   * Internal insert of ids into the feature's id list.
+   *
+   * @param featureId the feature id
+   * @param ids       the ids, without duplicates
+   */
+  @SqlBatch("insert into FEATURE_FLAG_ID (FEATURE_ID, ID) values (:featureId, :id)")
+  @BatchChunkSize(1000)
+  void insertIds(@Bind("featureId") final String featureId, @Bind("id") final Iterable<String> ids);
+
+  @Override
+  @Transaction
+  default void setIdList(final String featureId, final Collection<String> ids) {
+    deleteIdList(featureId);
+    insertIds(featureId, new LinkedHashSet<>(ids));
+  }
+
+  @Override
+  @SqlUpdate("delete from FEATURE_FLAG_ID where FEATURE_ID = :featureId")
+  void deleteIdList(@Bind("featureId") final String featureId);
+
+  /**
+   * Internal select of the feature's encoded variants.
+   *
+   * @param featureId the feature id
+   * @return the variants, if the feature has any
+   */
+  @SqlQuery("select VARIANTS from FEATURE_FLAG where FEATURE_ID = :featureId and VARIANTS is not null")
+  Optional<String> selectVariants(@Bind("featureId") final String featureId);
+
+  @Override
+  default Optional<List<Variant>> lookupVariants(final String featureId) {
+    return selectVariants(featureId).map(VariantLookupManager::decode);
+  }
+
+  /**
+   * Internal update of the feature's encoded variants.
+   *
+   * @param featureId the feature id
+   * @param variants  the encoded variants
+   * @return the int
+   */
+  @SqlUpdate("update FEATURE_FLAG set VARIANTS = :variants where FEATURE_ID = :featureId")
+  int updateVariants(@Bind("featureId") final String featureId, @Bind("variants") final String variants);
+
+  @Override
+  default boolean setVariants(final String featureId, final List<Variant> variants) {
+    return updateVariants(featureId, VariantLookupManager.encode(variants)) == 1;
+  }
+
+  @Override
+  @SqlUpdate("update FEATURE_FLAG set VARIANTS = null where FEATURE_ID = :featureId")
+  void deleteVariants(@Bind("featureId") final String featureId);
+
+  /**
+   * Maps a feature's row, with its variants and id list check, to a record.
+   */
+  class FeatureRecordMapper implements RowMapper<FeatureRecord> {
+
+    @Override
+    public FeatureRecord map(final ResultSet rs, final StatementContext ctx) throws SQLException {
+      return ImmutableFeatureRecord.builder()
+          .percentage(rs.getDouble("PERCENTAGE"))
+          .complete(true)
+          .hasIdList(rs.getInt("HAS_ID_LIST") == 1)
+          .variants(Optional.ofNullable(rs.getString("VARIANTS")).map(VariantLookupManager::decode))
+          .build();
+    }
+
+  }
 
   /**
    * The type Builder.
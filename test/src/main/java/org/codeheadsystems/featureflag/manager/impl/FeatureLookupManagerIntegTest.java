@@ -1,10 +1,20 @@
 package org.codeheadsystems.featureflag.manager.impl;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import org.codeheadsystems.featureflag.factory.HashedIdSet;
 import org.codeheadsystems.featureflag.manager.FeatureLookupManager;
+import org.codeheadsystems.featureflag.manager.IdListLookupManager;
+import org.codeheadsystems.featureflag.manager.VariantLookupManager;
+import org.codeheadsystems.featureflag.model.FeatureRecord;
+import org.codeheadsystems.featureflag.model.ImmutableVariant;
+import org.codeheadsystems.featureflag.model.Variant;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -58,6 +68,94 @@ public abstract class FeatureLookupManagerIntegTest {
         .isEmpty();
   }
 
+  /**
+   * Lookup percentage async, found and not found.
+   */
+  @Test
+  void lookupPercentageAsync() {
+    final FeatureLookupManager manager = manager();
+    manager.setPercentage(featureId, 0.5);
+    assertThat(manager.lookupPercentageAsync(featureId, ForkJoinPool.commonPool()).join())
+        .contains(0.5);
+    assertThat(manager.lookupPercentageAsync(featureId + "-missing", ForkJoinPool.commonPool()).join())
+        .isEmpty();
+  }
+
+
+  /**
+   * Lookup percentages, some found and some not.
+   */
+  @Test
+  void lookupPercentages() {
+    final FeatureLookupManager manager = manager();
+    final String otherFeatureId = featureId + "-other";
+    final String missingFeatureId = featureId + "-missing";
+    manager.setPercentage(featureId, 0.5);
+    manager.setPercentage(otherFeatureId, 0.25);
+    final Map<String, Double> result = manager.lookupPercentages(List.of(featureId, otherFeatureId, missingFeatureId));
+    assertThat(result).containsOnly(
+        Map.entry(featureId, 0.5),
+        Map.entry(otherFeatureId, 0.25));
+  }
+
+  /**
+   * Lookup percentages with nothing to look up.
+   */
+  @Test
+  void lookupPercentages_empty() {
+    assertThat(manager().lookupPercentages(List.of())).isEmpty();
+  }
+
+  /**
+   * Lookup features reads the rows of the features found, with their id list markers and variants
+   * for managers that keep them.
+   */
+  @Test
+  void lookupFeatures() {
+    final FeatureLookupManager manager = manager();
+    final String otherFeatureId = featureId + "-other";
+    final String missingFeatureId = featureId + "-missing";
+    final List<Variant> variants = List.of(ImmutableVariant.builder().name("control").weight(1.0).build());
+    manager.setPercentage(featureId, 0.5);
+    manager.setPercentage(otherFeatureId, 0.25);
+    if (manager instanceof IdListLookupManager idListManager) {
+      idListManager.setIdList(featureId, List.of("one"));
+    }
+    if (manager instanceof VariantLookupManager variantManager) {
+      variantManager.setVariants(otherFeatureId, variants);
+    }
+
+    final Map<String, FeatureRecord> result = manager.lookupFeatures(
+        List.of(featureId, otherFeatureId, otherFeatureId, missingFeatureId));
+    assertThat(result).containsOnlyKeys(featureId, otherFeatureId);
+    assertThat(result.get(featureId).percentage()).isEqualTo(0.5);
+    assertThat(result.get(otherFeatureId).percentage()).isEqualTo(0.25);
+    if (manager instanceof IdListLookupManager) {
+      assertThat(result.get(featureId).complete()).isTrue();
+      assertThat(result.get(featureId).hasIdList()).isTrue();
+      assertThat(result.get(otherFeatureId).hasIdList()).isFalse();
+    }
+    if (manager instanceof VariantLookupManager) {
+      assertThat(result.get(featureId).variants()).isEmpty();
+      assertThat(result.get(otherFeatureId).variants()).contains(variants);
+    }
+    assertThat(manager.lookupFeatures(List.of())).isEmpty();
+  }
+
+  /**
+   * Lookup all includes what we set.
+   */
+  @Test
+  void lookupAll() {
+    final FeatureLookupManager manager = manager();
+    final String otherFeatureId = featureId + "-other";
+    manager.setPercentage(featureId, 0.5);
+    manager.setPercentage(otherFeatureId, 0.25);
+    assertThat(manager.lookupAll())
+        .containsEntry(featureId, 0.5)
+        .containsEntry(otherFeatureId, 0.25)
+        .doesNotContainKey(featureId + "-missing");
+  }
 
   /**
    * Delete percentage.
@@ -74,4 +172,134 @@ public abstract class FeatureLookupManagerIntegTest {
     assertThat(manager.lookupPercentage(featureId)).isEmpty();
   }
 
+  /**
+   * Id lists can be set, replaced with a shorter list, and deleted, for managers that keep them.
+   */
+  @Test
+  void idList() {
+    final FeatureLookupManager manager = manager();
+    assumeTrue(manager instanceof IdListLookupManager, "no id lists");
+    final IdListLookupManager idListManager = (IdListLookupManager) manager;
+    assertThat(idListManager.lookupIdList(featureId)).isEmpty();
+
+    idListManager.setIdList(featureId, List.of("one", "two", "three"));
+    final HashedIdSet ids = idListManager.lookupIdList(featureId).orElseThrow();
+    assertThat(ids.size()).isEqualTo(3);
+    assertThat(ids.contains("two")).isTrue();
+    assertThat(ids.contains("four")).isFalse();
+    assertThat(manager.lookupAll()).doesNotContainKey(featureId);
+
+    idListManager.setIdList(featureId, List.of("four"));
+    final HashedIdSet replaced = idListManager.lookupIdList(featureId).orElseThrow();
+    assertThat(replaced.size()).isEqualTo(1);
+    assertThat(replaced.contains("four")).isTrue();
+    assertThat(replaced.contains("two")).isFalse();
+
+    idListManager.deleteIdList(featureId);
+    assertThat(idListManager.lookupIdList(featureId)).isEmpty();
+  }
+
+  /**
+   * A feature's row reports whether it has an id list, for managers that keep them.
+   */
+  @Test
+  void idList_markedOnFeature() {
+    final FeatureLookupManager manager = manager();
+    assumeTrue(manager instanceof IdListLookupManager, "no id lists");
+    final IdListLookupManager idListManager = (IdListLookupManager) manager;
+    manager.setPercentage(featureId, 0.5);
+    assertThat(manager.lookupFeature(featureId))
+        .hasValueSatisfying(record -> assertThat(record.hasIdList()).isFalse());
+
+    idListManager.setIdList(featureId, List.of("one"));
+    assertThat(manager.lookupFeature(featureId)).hasValueSatisfying(record -> {
+      assertThat(record.percentage()).isEqualTo(0.5);
+      assertThat(record.complete()).isTrue();
+      assertThat(record.hasIdList()).isTrue();
+    });
+    assertThat(manager.lookupFeatureAsync(featureId, ForkJoinPool.commonPool()).join())
+        .hasValueSatisfying(record -> assertThat(record.hasIdList()).isTrue());
+
+    idListManager.deleteIdList(featureId);
+    assertThat(manager.lookupFeature(featureId))
+        .hasValueSatisfying(record -> assertThat(record.hasIdList()).isFalse());
+  }
+
+  /**
+   * A feature's id list is its own, apart from the list of a feature whose id starts with its id
+   * and a slash, for managers that keep them.
+   */
+  @Test
+  void idList_apartFromNestedFeature() {
+    final FeatureLookupManager manager = manager();
+    assumeTrue(manager instanceof IdListLookupManager, "no id lists");
+    final IdListLookupManager idListManager = (IdListLookupManager) manager;
+    final String nestedId = featureId + "/nested";
+    manager.setPercentage(featureId, 0.5);
+    idListManager.setIdList(nestedId, List.of("one"));
+    assertThat(idListManager.lookupIdList(featureId)).isEmpty();
+    assertThat(manager.lookupFeature(featureId))
+        .hasValueSatisfying(record -> assertThat(record.hasIdList()).isFalse());
+
+    idListManager.setIdList(featureId, List.of("two"));
+    idListManager.deleteIdList(featureId);
+    assertThat(idListManager.lookupIdList(nestedId))
+        .hasValueSatisfying(ids -> assertThat(ids.contains("one")).isTrue());
+    idListManager.deleteIdList(nestedId);
+  }
+
+  /**
+   * Deleting a feature deletes its id list and variants too, for managers that keep them.
+   */
+  @Test
+  void deletePercentage_deletesIdListAndVariants() {
+    final FeatureLookupManager manager = manager();
+    manager.setPercentage(featureId, 0.5);
+    if (manager instanceof IdListLookupManager idListManager) {
+      idListManager.setIdList(featureId, List.of("one"));
+    }
+    if (manager instanceof VariantLookupManager variantManager) {
+      variantManager.setVariants(featureId, List.of(ImmutableVariant.builder().name("control").weight(1.0).build()));
+    }
+
+    manager.deletePercentage(featureId);
+    assertThat(manager.lookupPercentage(featureId)).isEmpty();
+    if (manager instanceof IdListLookupManager idListManager) {
+      assertThat(idListManager.lookupIdList(featureId)).isEmpty();
+    }
+    if (manager instanceof VariantLookupManager variantManager) {
+      assertThat(variantManager.lookupVariants(featureId)).isEmpty();
+    }
+  }
+
+  /**
+   * Variants can be set, kept when the percentage changes, and deleted, for managers that keep them.
+   */
+  @Test
+  void variants() {
+    final FeatureLookupManager manager = manager();
+    assumeTrue(manager instanceof VariantLookupManager, "no variants");
+    final VariantLookupManager variantManager = (VariantLookupManager) manager;
+    final List<Variant> variants = List.of(
+        ImmutableVariant.builder().name("control").weight(0.5).build(),
+        ImmutableVariant.builder().name("treatment").weight(0.25).build());
+    manager.setPercentage(featureId, 1.0);
+    assertThat(variantManager.lookupVariants(featureId)).isEmpty();
+
+    assertThat(variantManager.setVariants(featureId, variants)).isTrue();
+    manager.setPercentage(featureId, 0.5);
+    assertThat(variantManager.lookupVariants(featureId)).contains(variants);
+    assertThat(manager.lookupPercentage(featureId)).contains(0.5);
+    assertThat(manager.lookupFeature(featureId))
+        .hasValueSatisfying(record -> assertThat(record.variants()).contains(variants));
+    assertThat(manager.lookupFeatureAsync(featureId, ForkJoinPool.commonPool()).join())
+        .hasValueSatisfying(record -> assertThat(record.variants()).contains(variants));
+
+    variantManager.deleteVariants(featureId);
+    assertThat(variantManager.lookupVariants(featureId)).isEmpty();
+    assertThat(manager.lookupFeature(featureId))
+        .hasValueSatisfying(record -> assertThat(record.variants()).isEmpty());
+    assertThat(manager.lookupPercentage(featureId)).contains(0.5);
+  }
+
 }